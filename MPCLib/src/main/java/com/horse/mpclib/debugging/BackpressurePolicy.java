@@ -0,0 +1,25 @@
+package com.horse.mpclib.debugging;
+
+/**
+ * What a {@code TelemetryQueue} does with a new message when it is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Discards the oldest queued message to make room, so the newest data always gets through and
+     * producers never wait.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Same as {@code DROP_OLDEST} when full, but a message offered with a key also supersedes every
+     * queued message with the same key, which the sender then skips. Use this for data where only the
+     * latest value matters, such as the robot pose, while keeping one-off messages unkeyed.
+     */
+    COALESCE_BY_KEY,
+
+    /**
+     * Waits for the sender to free a slot. Nothing is lost, but a slow link stalls the producer, so
+     * this should not be used from the control loop.
+     */
+    BLOCK
+}
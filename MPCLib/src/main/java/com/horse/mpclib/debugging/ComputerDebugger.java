@@ -2,24 +2,39 @@ package com.horse.mpclib.debugging;
 
 import com.horse.mpclib.examples.CascadeLinearlyExtendingRobot;
 import com.horse.mpclib.examples.RobotMPC;
+import com.horse.mpclib.lib.geometry.Circle2d;
 import com.horse.mpclib.lib.geometry.Line2d;
+import com.horse.mpclib.lib.geometry.Pose2d;
 import com.horse.mpclib.lib.geometry.Translation2d;
 import com.horse.mpclib.lib.util.TimeUnits;
 import com.horse.mpclib.lib.util.TimeUtil;
 import com.horse.mpclib.examples.Robot;
 
-import java.text.DecimalFormat;
+import org.ejml.simple.SimpleMatrix;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds telemetry messages and hands them to the {@code UdpServer}. Every thread that sends records
+ * builds its messages in a buffer of its own, so the control loop and other producers can send
+ * concurrently without mixing their records into each other's messages.
+ */
 public class ComputerDebugger {
+    private static final ThreadLocal<ByteBuffer> messageBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(UdpServer.getMaxMessageSize());
+        }
+    };
+
+    private static final AtomicInteger droppedRecordCount = new AtomicInteger();
+
     private static UdpServer udpServer;
-    private static StringBuilder messageBuilder;
-    private static DecimalFormat formatter;
     private static Robot robot;
 
     public static void init(final Robot robot) {
         setRobot(robot);
-        setMessageBuilder(new StringBuilder());
-        setFormatter(new DecimalFormat("#.00"));
         setUdpServer(new UdpServer(15026));
         new Thread(getUdpServer()).start();
     }
@@ -56,72 +71,139 @@ public class ComputerDebugger {
         }
     }
 
+    /**
+     * Appends the record for {@code messageOption} to the message being built. Records that no longer
+     * fit in the message are dropped and counted.
+     */
     public static void send(final MessageOption messageOption) {
         if(messageOption == null) {
             return;
         }
 
-        getMessageBuilder().append(messageOption.getTag());
-
         if(messageOption.ordinal() == MessageOption.ROBOT_LOCATION.ordinal()) {
-            getMessageBuilder().append(getRobot().getFieldPosition());
+            if(beginRecord(messageOption, 12)) {
+                putPose(getRobot().getFieldPosition());
+            }
         } else if(messageOption.ordinal() == MessageOption.KEY_POINT.ordinal()) {
             final Translation2d keyPoint = (Translation2d)(messageOption.getSendValue());
-            getMessageBuilder().append(keyPoint);
+            if(beginRecord(messageOption, 12)) {
+                getMessageBuffer().putFloat((float)(keyPoint.x())).putFloat((float)(keyPoint.y()))
+                        .putFloat(keyPoint instanceof Circle2d ? (float)(((Circle2d)(keyPoint)).getRadius()) : 0f);
+            }
         } else if(messageOption.ordinal() == MessageOption.LOG_POINT.ordinal()) {
             final Translation2d logPoint = (Translation2d)(messageOption.getSendValue());
-            getMessageBuilder().append(logPoint);
+            if(beginRecord(messageOption, 8)) {
+                getMessageBuffer().putFloat((float)(logPoint.x())).putFloat((float)(logPoint.y()));
+            }
         } else if(messageOption.ordinal() == MessageOption.LINE.ordinal()) {
             final Line2d line = (Line2d)(messageOption.getSendValue());
-            getMessageBuilder().append(line);
-        } else if(messageOption.ordinal() == MessageOption.CLEAR_LOG_POINTS.ordinal()) {
-            //
+            if(beginRecord(messageOption, 16)) {
+                getMessageBuffer().putFloat((float)(line.getStartPoint().x())).putFloat((float)(line.getStartPoint().y()))
+                        .putFloat((float)(line.getEndPoint().x())).putFloat((float)(line.getEndPoint().y()));
+            }
         } else if(messageOption.ordinal() == MessageOption.POSITION.ordinal()) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append(getRobot().getFieldPosition());
-        } else if(messageOption.ordinal() == MessageOption.VELOCITY.ordinal()) {
-            //getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append(Speedometer.getCurrentAngularVelocity());
-        } else if(messageOption.ordinal() == MessageOption.ACCELERATION.ordinal()) {
-            //getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append(Speedometer.getCurrentAcceleration());
-        } else if(messageOption.ordinal() == MessageOption.JERK.ordinal()) {
-            //getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append(Speedometer.getCurrentJerk());
-        } else if(messageOption.ordinal() == MessageOption.CLEAR_MOTION_PROFILE.ordinal()) {
-            //
-        } else if(messageOption.ordinal() == MessageOption.LINEAR_POSITION.ordinal()) {
-            final double position = (Double)(messageOption.getSendValue());
-            getMessageBuilder().append(position);
-        } else if(messageOption.ordinal() == MessageOption.STAGE_LENGTH.ordinal()) {
-            final double length = (Double)(messageOption.getSendValue());
-            getMessageBuilder().append(length);
+            if(beginRecord(messageOption, 16)) {
+                getMessageBuffer().putFloat((float)(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)));
+                putPose(getRobot().getFieldPosition());
+            }
+        } else if(messageOption.ordinal() == MessageOption.LINEAR_POSITION.ordinal() ||
+                messageOption.ordinal() == MessageOption.STAGE_LENGTH.ordinal()) {
+            final double value = (Double)(messageOption.getSendValue());
+            if(beginRecord(messageOption, 4)) {
+                getMessageBuffer().putFloat((float)(value));
+            }
         } else if(messageOption.ordinal() == MessageOption.STAGE_COUNT.ordinal()) {
             final int stageCount = (Integer)(messageOption.getSendValue());
-            getMessageBuilder().append(stageCount);
-        } else if(messageOption.ordinal() == MessageOption.CASCADE.ordinal()) {
-
-        } else if(messageOption.ordinal() == MessageOption.CONTINUOUS.ordinal()) {
-
-        } else if(messageOption.equals(MessageOption.LIFT_POSITION)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append((double)(messageOption.getSendValue()));
-        } else if(messageOption.equals(MessageOption.LIFT_VELOCITY)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append((double)(messageOption.getSendValue()));
-        } else if(messageOption.equals(MessageOption.LIFT_ACCELERATION)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append((double)(messageOption.getSendValue()));
-        } else if(messageOption.equals(MessageOption.LIFT_JERK)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append((double)(messageOption.getSendValue()));
-        } else if(messageOption.equals(MessageOption.LIFT_INPUT)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS)).append(",").append((double)(messageOption.getSendValue()));
+            if(beginRecord(messageOption, 4)) {
+                getMessageBuffer().putInt(stageCount);
+            }
+        } else if(messageOption.equals(MessageOption.LIFT_POSITION) || messageOption.equals(MessageOption.LIFT_VELOCITY) ||
+                messageOption.equals(MessageOption.LIFT_ACCELERATION) || messageOption.equals(MessageOption.LIFT_JERK) ||
+                messageOption.equals(MessageOption.LIFT_INPUT)) {
+            final double value = (Double)(messageOption.getSendValue());
+            if(beginRecord(messageOption, 8)) {
+                getMessageBuffer().putFloat((float)(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS))).putFloat((float)(value));
+            }
         } else if(messageOption.equals(MessageOption.TIME)) {
-            getMessageBuilder().append(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS));
-        } else {
+            if(beginRecord(messageOption, 8)) {
+                getMessageBuffer().putDouble(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS));
+            }
+        } else if(messageOption.equals(MessageOption.PREDICTED_TRAJECTORY)) {
+            sendTrajectory(messageOption, (SimpleMatrix[])(messageOption.getSendValue()));
+        } else if(messageOption.equals(MessageOption.SOLVER_STATISTICS)) {
+            final SolverStatistics statistics = (SolverStatistics)(messageOption.getSendValue());
+            if(beginRecord(messageOption, 12)) {
+                getMessageBuffer().putInt(statistics.getIterations()).putFloat((float)(statistics.getSolveTime()))
+                        .putFloat((float)(statistics.getPolicyLag()));
+            }
+        } else if(messageOption.equals(MessageOption.STOP)) {
             getUdpServer().close();
+        } else {
+            //Clears, modes and the unused velocity, acceleration and jerk records have no payload
+            beginRecord(messageOption, 0);
         }
+    }
 
-        getMessageBuilder().append(MessageOption.getEndMessageTag());
+    /**
+     * Sends the x, y and heading of every state, in inches and radians, split over as many records as
+     * needed for each to fit in a datagram.
+     */
+    private static void sendTrajectory(final MessageOption messageOption, final SimpleMatrix[] states) {
+        if(states == null) {
+            return;
+        }
+
+        final int statesPerRecord = (UdpServer.getMaxRecordPayloadSize() - 2) / 12;
+        for(int firstIndex = 0; firstIndex < states.length; firstIndex += statesPerRecord) {
+            final int stateCount = Math.min(statesPerRecord, states.length - firstIndex);
+            if(!beginRecord(messageOption, 2 + 12 * stateCount)) {
+                return;
+            }
+
+            getMessageBuffer().putShort((short)(firstIndex));
+            for(int i = firstIndex; i < firstIndex + stateCount; i++) {
+                getMessageBuffer().putFloat((float)(states[i].get(0) / 0.0254d)).putFloat((float)(states[i].get(2) / 0.0254d))
+                        .putFloat((float)(states[i].get(4)));
+            }
+        }
+    }
+
+    private static void putPose(final Pose2d pose) {
+        getMessageBuffer().putFloat((float)(pose.getTranslation().x())).putFloat((float)(pose.getTranslation().y()))
+                .putFloat((float)(pose.getRotation().getRadians()));
+    }
+
+    /**
+     * Writes the id and payload size of a record if the record fits in the message.
+     *
+     * @return Whether the payload should be written.
+     */
+    private static boolean beginRecord(final MessageOption messageOption, final int payloadSize) {
+        if(getMessageBuffer().remaining() < UdpServer.getRecordHeaderSize() + payloadSize) {
+            droppedRecordCount.incrementAndGet();
+            return false;
+        }
+
+        getMessageBuffer().put(messageOption.getId()).putShort((short)(payloadSize));
+        return true;
     }
 
+    /**
+     * Hands the records sent by this thread since its last call to the {@code UdpServer}, which sends
+     * them as one frame, and starts a new message.
+     */
     public static void sendMessage() {
-        getMessageBuilder().append("CLEAR,%");
-        getUdpServer().addMessage(getMessageBuilder().toString());
-        setMessageBuilder(new StringBuilder());
+        sendMessage(TelemetryQueue.NO_KEY);
+    }
+
+    /**
+     * Same as {@code sendMessage()}, but a message that has not been sent yet when another with the
+     * same {@code key} is sent is skipped, with the default {@code COALESCE_BY_KEY} policy.
+     */
+    public static void sendMessage(final int key) {
+        getMessageBuffer().flip();
+        getUdpServer().addMessage(getMessageBuffer(), key);
+        getMessageBuffer().clear();
     }
 
     public static UdpServer getUdpServer() {
@@ -132,20 +214,18 @@ public class ComputerDebugger {
         ComputerDebugger.udpServer = udpServer;
     }
 
-    public static StringBuilder getMessageBuilder() {
-        return messageBuilder;
-    }
-
-    public static void setMessageBuilder(StringBuilder messageBuilder) {
-        ComputerDebugger.messageBuilder = messageBuilder;
-    }
-
-    public static DecimalFormat getFormatter() {
-        return formatter;
+    /**
+     * @return The buffer the calling thread builds its messages in.
+     */
+    public static ByteBuffer getMessageBuffer() {
+        return messageBuffer.get();
     }
 
-    public static void setFormatter(DecimalFormat formatter) {
-        ComputerDebugger.formatter = formatter;
+    /**
+     * @return The number of records that were dropped because the message they were sent in was full.
+     */
+    public static int getDroppedRecordCount() {
+        return droppedRecordCount.get();
     }
 
     public static Robot getRobot() {
@@ -3,51 +3,62 @@ package com.horse.mpclib.debugging;
 import com.horse.mpclib.lib.geometry.Line2d;
 import com.horse.mpclib.lib.geometry.Translation2d;
 
-public enum MessageOption {
-    ROBOT_LOCATION(null, "ROBOT,"),
-    KEY_POINT(Translation2d.class, "P,"),
-    LOG_POINT(Translation2d.class, "LP,"),
-    LINE(Line2d.class, "LINE,"),
-    CLEAR_LOG_POINTS(null, "LogClear,"),
-    POSITION(null, "Position,"),
-    VELOCITY(null, "Velocity,"),
-    ACCELERATION(null, "Acceleration,"),
-    JERK(null, "Jerk,"),
-    CLEAR_MOTION_PROFILE(null, "ProfileClear,"),
-    LINEAR_POSITION(Double.class, "LinearPosition,"),
-    STAGE_LENGTH(Double.class, "StageLength,"),
-    STAGE_COUNT(Integer.class, "StageCount,"),
-    CONTINUOUS(null, "Continuous"),
-    CASCADE(null, "Cascade"),
-    LIFT_POSITION(Double.class, "LiftPosition,"),
-    LIFT_VELOCITY(Double.class, "LiftVelocity,"),
-    LIFT_ACCELERATION(Double.class, "LiftAcceleration,"),
-    LIFT_JERK(Double.class, "LiftJerk,"),
-    LIFT_INPUT(Double.class, "LiftInput,"),
-    TIME(null, "Time,"),
-    STOP(null, null);
+import org.ejml.simple.SimpleMatrix;
 
-    private static final String END_MESSAGE_TAG = "%";
+/**
+ * The records that {@code ComputerDebugger} can send. Every option is encoded as a record of its
+ * {@code id}, the length of its payload and the payload, whose layout is given for each option below
+ * in big-endian order, with f32 a float and f64 a double. Ids are part of the telemetry protocol and
+ * must never be reused for a different payload; changing a payload requires a new protocol version
+ * in {@code UdpServer}.
+ */
+public enum MessageOption {
+    ROBOT_LOCATION(null, 1),          //x f32, y f32, heading f32 in radians
+    KEY_POINT(Translation2d.class, 2), //x f32, y f32, radius f32, which is 0 unless a Circle2d is sent
+    LOG_POINT(Translation2d.class, 3), //x f32, y f32
+    LINE(Line2d.class, 4),            //start x f32, start y f32, end x f32, end y f32
+    CLEAR_LOG_POINTS(null, 5),
+    POSITION(null, 6),                //time f32, x f32, y f32, heading f32
+    VELOCITY(null, 7),
+    ACCELERATION(null, 8),
+    JERK(null, 9),
+    CLEAR_MOTION_PROFILE(null, 10),
+    LINEAR_POSITION(Double.class, 11), //value f32
+    STAGE_LENGTH(Double.class, 12),    //value f32
+    STAGE_COUNT(Integer.class, 13),    //value i32
+    CONTINUOUS(null, 14),
+    CASCADE(null, 15),
+    LIFT_POSITION(Double.class, 16),     //time f32, value f32
+    LIFT_VELOCITY(Double.class, 17),     //time f32, value f32
+    LIFT_ACCELERATION(Double.class, 18), //time f32, value f32
+    LIFT_JERK(Double.class, 19),         //time f32, value f32
+    LIFT_INPUT(Double.class, 20),        //time f32, value f32
+    TIME(null, 21),                      //time f64
+    //first index u16, then x f32, y f32, heading f32 per state, with long trajectories split over records
+    PREDICTED_TRAJECTORY(SimpleMatrix[].class, 22),
+    SOLVER_STATISTICS(SolverStatistics.class, 23), //iterations i32, solve time f32, policy lag f32
+    STOP(null, 0);
 
     private final Class<?> sendClass;
-    private final String tag;
-    private Object sendValue;
+    private final byte id;
+    private final ThreadLocal<Object> sendValue;
 
-    MessageOption(final Class<?> sendClass, final String tag) {
+    MessageOption(final Class<?> sendClass, final int id) {
         this.sendClass = sendClass;
-        this.tag = tag;
-    }
-
-    public static String getEndMessageTag() {
-        return END_MESSAGE_TAG;
+        this.id = (byte)(id);
+        this.sendValue = new ThreadLocal<>();
     }
 
     public Class<?> getSendClass() {
         return sendClass;
     }
 
+    /**
+     * @return The value last set by the calling thread, so that threads sending the same option
+     *         concurrently do not send each other's values.
+     */
     public Object getSendValue() {
-        return sendValue;
+        return sendValue.get();
     }
 
     public MessageOption setSendValue(final Object sendValue) throws IllegalMessageTypeException {
@@ -65,7 +76,7 @@ public enum MessageOption {
                             " requires a send value of type " + getSendClass().getSimpleName());
         }
 
-        this.sendValue = sendValue;
+        this.sendValue.set(sendValue);
         return this;
     }
 
@@ -79,7 +90,7 @@ public enum MessageOption {
                                                 ordinal() == CLEAR_MOTION_PROFILE.ordinal() ? "Clear Motion Profile" : "Stop";
     }
 
-    public String getTag() {
-        return tag;
+    public byte getId() {
+        return id;
     }
 }
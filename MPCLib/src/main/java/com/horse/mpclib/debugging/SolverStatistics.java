@@ -0,0 +1,33 @@
+package com.horse.mpclib.debugging;
+
+/**
+ * Summary of a single solve of the controller, sent with {@code MessageOption.SOLVER_STATISTICS}.
+ */
+public class SolverStatistics {
+    private final int iterations;
+    private final double solveTime; //s
+    private final double policyLag; //s
+
+    /**
+     * @param iterations The number of iterations made by the solver.
+     * @param solveTime  The time the solve took, in seconds.
+     * @param policyLag  The age of the policy being followed, in seconds.
+     */
+    public SolverStatistics(int iterations, double solveTime, double policyLag) {
+        this.iterations = iterations;
+        this.solveTime = solveTime;
+        this.policyLag = policyLag;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getSolveTime() {
+        return solveTime;
+    }
+
+    public double getPolicyLag() {
+        return policyLag;
+    }
+}
@@ -0,0 +1,297 @@
+package com.horse.mpclib.debugging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue of telemetry messages between any number of producers, such as the
+ * control loop, and the single thread that sends them. Messages are copied into preallocated direct
+ * buffer slots, so neither side allocates.
+ *
+ * The queue is a ring of slots, each with a sequence number that tells whether it is free for the
+ * producer at a position or holds a message for the consumer at a position, after D. Vyukov's bounded
+ * MPMC queue. Positions are claimed with a compare-and-set, so a producer only ever waits for another
+ * thread that is copying a message into or out of a slot. Dropping the oldest message claims it the
+ * same way the consumer would, and is only done while the slot needed is still held by a message that
+ * has not been taken.
+ *
+ * What happens when the queue is full is set by the {@code BackpressurePolicy}, and every message
+ * that is lost is counted, so that gaps in the telemetry can be told apart from gaps in the data.
+ */
+public class TelemetryQueue {
+    /**
+     * The key of messages that are never coalesced.
+     */
+    public static final int NO_KEY = -1;
+
+    private static final long BLOCK_WAIT_TIME = 100_000L; //ns
+
+    private final int capacity;
+    private final int mask;
+    private final int slotSize;
+    private final BackpressurePolicy policy;
+
+    private final ByteBuffer[] slots;
+    private final int[] keys;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray latestPositions;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    private final AtomicLong droppedCount;
+    private final AtomicLong coalescedCount;
+    private final AtomicLong blockedCount;
+
+    /**
+     * @param capacity The number of messages that can be queued, rounded up to a power of two.
+     * @param slotSize The size in bytes of the largest message that can be queued.
+     * @param keyCount The number of keys, from 0 to {@code keyCount - 1}, that messages can be
+     *                 coalesced by.
+     */
+    public TelemetryQueue(int capacity, int slotSize, int keyCount, BackpressurePolicy policy) {
+        if(capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+
+        int roundedCapacity = 1;
+        while(roundedCapacity < capacity) {
+            roundedCapacity <<= 1;
+        }
+
+        this.capacity = roundedCapacity;
+        this.mask = this.capacity - 1;
+        this.slotSize = slotSize;
+        this.policy = policy;
+
+        ByteBuffer storage = ByteBuffer.allocateDirect(this.capacity * slotSize);
+        slots = new ByteBuffer[this.capacity];
+        keys = new int[this.capacity];
+        sequences = new AtomicLongArray(this.capacity);
+        for(int i = 0; i < this.capacity; i++) {
+            storage.limit((i + 1) * slotSize).position(i * slotSize);
+            slots[i] = storage.slice();
+            sequences.set(i, i);
+        }
+
+        latestPositions = new AtomicLongArray(Math.max(keyCount, 0));
+        for(int i = 0; i < latestPositions.length(); i++) {
+            latestPositions.set(i, -1L);
+        }
+
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        droppedCount = new AtomicLong();
+        coalescedCount = new AtomicLong();
+        blockedCount = new AtomicLong();
+    }
+
+    public boolean offer(ByteBuffer message) {
+        return offer(message, NO_KEY);
+    }
+
+    /**
+     * Copies the bytes between the position and limit of {@code message} into the queue, leaving the
+     * position of {@code message} unchanged.
+     *
+     * @param key The key to coalesce the message by with the {@code COALESCE_BY_KEY} policy, or
+     *            {@code NO_KEY}.
+     * @return Whether the message was queued, which is only false if it is larger than a slot or the
+     *         thread was interrupted while blocked.
+     */
+    public boolean offer(ByteBuffer message, int key) {
+        if(message.remaining() > slotSize) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        if(key >= latestPositions.length()) {
+            throw new IllegalArgumentException("Key " + key + " is not below the key count of " + latestPositions.length());
+        }
+
+        boolean blocked = false;
+        while(true) {
+            long position = tail.get();
+            int index = (int)(position & mask);
+            long difference = sequences.get(index) - position;
+            if(difference == 0L) {
+                if(tail.compareAndSet(position, position + 1L)) {
+                    ByteBuffer slot = slots[index];
+                    int messagePosition = message.position();
+                    slot.clear();
+                    slot.put(message);
+                    slot.flip();
+                    message.position(messagePosition);
+                    keys[index] = key;
+                    if(key >= 0 && policy == BackpressurePolicy.COALESCE_BY_KEY) {
+                        //Before publishing, so the consumer can never skip the newest message of a key
+                        supersede(key, position);
+                    }
+
+                    sequences.set(index, position + 1L);
+                    return true;
+                }
+            } else if(difference < 0L) {
+                //Full
+                if(policy == BackpressurePolicy.BLOCK) {
+                    if(!blocked) {
+                        blocked = true;
+                        blockedCount.incrementAndGet();
+                    }
+
+                    LockSupport.parkNanos(this, BLOCK_WAIT_TIME);
+                    if(Thread.currentThread().isInterrupted()) {
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                } else if(head.get() > position - capacity) {
+                    //The message in the slot has been taken and is still being copied out, which frees
+                    //the slot without losing anything, so retry rather than evict the next message
+                    Thread.yield();
+                } else if(!dropOldest()) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the message at the head of the queue, which only counts as lost if a newer message
+     * with the same key has not been queued.
+     *
+     * @return Whether a message was discarded.
+     */
+    private boolean dropOldest() {
+        long position = head.get();
+        if(sequences.get((int)(position & mask)) != position + 1L) {
+            return false;
+        }
+
+        boolean superseded = isSuperseded(position);
+        if(!claim(position, null)) {
+            return false;
+        }
+
+        if(superseded) {
+            coalescedCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether the published message at {@code position} has been superseded by a newer one
+     *         with the same key.
+     */
+    private boolean isSuperseded(long position) {
+        int key = keys[(int)(position & mask)];
+        return key >= 0 && policy == BackpressurePolicy.COALESCE_BY_KEY && latestPositions.get(key) != position;
+    }
+
+    private void supersede(int key, long position) {
+        long latest;
+        do {
+            latest = latestPositions.get(key);
+        } while(latest < position && !latestPositions.compareAndSet(key, latest, position));
+    }
+
+    /**
+     * Moves the oldest message that has not been superseded into {@code destination}, which is
+     * cleared first and flipped after, skipping superseded messages. Must only be called by the
+     * thread that sends the messages.
+     *
+     * @return Whether there was a message.
+     */
+    public boolean poll(ByteBuffer destination) {
+        while(true) {
+            long position = head.get();
+            int index = (int)(position & mask);
+            long difference = sequences.get(index) - (position + 1L);
+            if(difference < 0L) {
+                return false;
+            } else if(difference == 0L) {
+                boolean superseded = isSuperseded(position);
+                if(claim(position, superseded ? null : destination)) {
+                    if(!superseded) {
+                        return true;
+                    }
+
+                    coalescedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the message at {@code position} if it is still the head of the queue, copying it into
+     * {@code destination} unless it is null.
+     *
+     * @return Whether the message was taken.
+     */
+    private boolean claim(long position, ByteBuffer destination) {
+        int index = (int)(position & mask);
+        if(sequences.get(index) != position + 1L || !head.compareAndSet(position, position + 1L)) {
+            return false;
+        }
+
+        if(destination != null) {
+            ByteBuffer slot = slots[index];
+            destination.clear();
+            destination.put(slot);
+            destination.flip();
+            slot.rewind();
+        }
+
+        sequences.set(index, position + capacity);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return The number of messages queued or being copied in.
+     */
+    public int size() {
+        return (int)(Math.max(0L, tail.get() - head.get()));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The number of messages lost because the queue was full, they were larger than a slot or
+     *         the producer was interrupted while blocked.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of messages skipped or discarded because a newer message with the same key
+     *         was queued, which lose no data.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return The number of offers that had to wait for a free slot.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+}
@@ -1,118 +1,218 @@
 package com.horse.mpclib.debugging;
 
-import com.horse.mpclib.lib.util.TimeProfiler;
-import com.horse.mpclib.lib.util.TimeUnits;
-import com.horse.mpclib.lib.util.Util;
-
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.concurrent.Semaphore;
-
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the messages built by {@code ComputerDebugger} to the visualizer over UDP. A message is a
+ * sequence of records, each a one byte {@code MessageOption} id, a two byte payload size and the
+ * payload, and is sent as a frame of one or more datagrams that are split between records, so that
+ * every datagram can be decoded on its own. Every datagram starts with a header of
+ *
+ * magic u16 ('M', 'P'), protocol version u8, flags u8, frame number u32, datagram index u16 and
+ * record count u16,
+ *
+ * in big-endian order, where bit 0 of the flags marks the last datagram of a frame.
+ *
+ * Messages are handed to the sending thread through a {@code TelemetryQueue}, so the control loop
+ * never waits on the network, and the sending thread parks while the queue is empty. All datagrams
+ * go through a single connected {@code DatagramChannel}, and messages are copied into preallocated
+ * direct buffers, so sending does not allocate.
+ */
 public class UdpServer implements Runnable {
-    private static final int MAX_SEND_SIZE_PER_UPDATE = 600;
+    private static final int MAX_SEND_SIZE_PER_UPDATE = 1400;
+    private static final int MAX_MESSAGE_SIZE = 1 << 15;
 
-    private final int clientPort;
-    private Semaphore sendLock;
-    private boolean closed;
+    private static final short PROTOCOL_MAGIC = 0x4D50;
+    private static final byte PROTOCOL_VERSION = 1;
+    private static final byte LAST_DATAGRAM_FLAG = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 3;
 
-    private TimeProfiler timeProfiler;
-    private long lastSendTime;
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+    private static final int KEY_COUNT = 64;
+    private static final long MAX_PARK_TIME = 100_000_000L; //ns
 
-    private volatile String lastMessage;
-    private volatile String currentMessage;
+    private final int clientPort;
+    private final TelemetryQueue queue;
+    private volatile boolean closed;
+    private volatile boolean senderParked;
+    private volatile Thread senderThread;
+
+    private DatagramChannel channel;
+    private final ByteBuffer datagram;
+    private final ByteBuffer sendingMessage;
+    private int frameNumber;
 
     public UdpServer(final int clientPort) {
+        this(clientPort, DEFAULT_QUEUE_CAPACITY, BackpressurePolicy.COALESCE_BY_KEY);
+    }
+
+    /**
+     * @param queueCapacity The number of messages that can wait to be sent.
+     * @param policy        What to do with new messages while {@code queueCapacity} messages are
+     *                      waiting.
+     */
+    public UdpServer(final int clientPort, final int queueCapacity, final BackpressurePolicy policy) {
         this.clientPort = clientPort;
-        setSendLock(new Semaphore(1));
+        this.queue = new TelemetryQueue(queueCapacity, MAX_MESSAGE_SIZE, KEY_COUNT, policy);
         setClosed(false);
-        setTimeProfiler(new TimeProfiler(true));
-        setLastMessage("");
-        setCurrentMessage("");
+
+        datagram = ByteBuffer.allocateDirect(getMaxSendSizePerUpdate());
+        sendingMessage = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+        try {
+            channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress(InetAddress.getLocalHost(), getClientPort()));
+        } catch(IOException e) {
+            e.printStackTrace();
+            setClosed(true);
+        }
     }
 
     public static int getMaxSendSizePerUpdate() {
         return MAX_SEND_SIZE_PER_UPDATE;
     }
 
+    /**
+     * @return The size in bytes of the largest message that can be queued.
+     */
+    public static int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    public static int getRecordHeaderSize() {
+        return RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * @return The largest record payload that fits in a single datagram.
+     */
+    public static int getMaxRecordPayloadSize() {
+        return MAX_SEND_SIZE_PER_UPDATE - HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Sends messages as they are queued, parking while there are none.
+     */
     @Override
     public void run() {
+        senderThread = Thread.currentThread();
         while(!isClosed()) {
-            try {
-                if(getTimeProfiler().getDeltaTime(TimeUnits.MILLISECONDS) < 50) {
-                    continue;
-                }
+            if(queue.poll(sendingMessage)) {
+                splitMessageAndSend(sendingMessage);
+                continue;
+            }
 
-                getTimeProfiler().update(true);
-                getSendLock().acquire();
+            //Producers unpark the sender if they see this flag, so check again after setting it
+            senderParked = true;
+            if(queue.isEmpty() && !isClosed()) {
+                LockSupport.parkNanos(this, MAX_PARK_TIME);
+            }
 
-                if(getCurrentMessage().length() > 0) {
-                    splitMessageAndSend(getCurrentMessage());
-                    setCurrentMessage("");
-                } else if(getLastMessage().length() > 0) {
-                    splitMessageAndSend(getLastMessage());
-                    setLastMessage("");
-                }
+            senderParked = false;
+        }
 
-                getSendLock().release();
-            } catch (final InterruptedException e) {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch(IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    private void splitMessageAndSend(final String message) {
-        int startIndex = 0;
-        int endIndex;
+    /**
+     * Sends {@code message} as one frame, packing as many whole records into every datagram as fit.
+     */
+    private void splitMessageAndSend(final ByteBuffer message) {
+        int datagramIndex = 0;
         do {
-            endIndex = Util.limit(startIndex + getMaxSendSizePerUpdate(), 0, message.length() - 1);
-            while(message.charAt(endIndex) != '%') {
-                endIndex--;
+            datagram.clear();
+            datagram.position(HEADER_SIZE);
+            int recordCount = 0;
+            while(message.hasRemaining()) {
+                int recordSize = RECORD_HEADER_SIZE + (message.getShort(message.position() + 1) & 0xFFFF);
+                if(recordSize > getMaxSendSizePerUpdate() - HEADER_SIZE) {
+                    //Could never be sent, so skip it rather than stall the frame
+                    message.position(Math.min(message.position() + recordSize, message.limit()));
+                    continue;
+                } else if(recordSize > datagram.remaining()) {
+                    break;
+                }
+
+                int limit = message.limit();
+                message.limit(message.position() + recordSize);
+                datagram.put(message);
+                message.limit(limit);
+                recordCount++;
             }
 
-            sendUdpMessageRaw(message.substring(startIndex, endIndex + 1));
-            startIndex = endIndex + 1;
-        } while(endIndex != message.length() - 1);
+            datagram.putShort(0, PROTOCOL_MAGIC);
+            datagram.put(2, PROTOCOL_VERSION);
+            datagram.put(3, message.hasRemaining() ? 0 : LAST_DATAGRAM_FLAG);
+            datagram.putInt(4, frameNumber);
+            datagram.putShort(8, (short)(datagramIndex++));
+            datagram.putShort(10, (short)(recordCount));
+            datagram.flip();
+            sendUdpMessageRaw(datagram);
+        } while(message.hasRemaining());
+
+        frameNumber++;
     }
 
-    private void sendUdpMessageRaw(final String message) {
-        try(final DatagramSocket serverSocket = new DatagramSocket()) {
-            final DatagramPacket datagramPacket =
-                    new DatagramPacket(message.getBytes(), message.length(), InetAddress.getLocalHost(), getClientPort());
-            serverSocket.send(datagramPacket);
+    private void sendUdpMessageRaw(final ByteBuffer datagram) {
+        try {
+            channel.write(datagram);
+        } catch (PortUnreachableException e) {
+            //Nothing is listening yet, which is expected while the visualizer is closed
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public void addMessage(final String message) {
-        if(!getSendLock().tryAcquire()) {
-            setLastMessage(message);
-        } else {
-            setCurrentMessage(message);
-            getSendLock().release();
-        }
+    public boolean addMessage(final ByteBuffer message) {
+        return addMessage(message, TelemetryQueue.NO_KEY);
     }
 
-    public int getClientPort() {
-        return clientPort;
+    /**
+     * Queues the records between the position and limit of {@code message} to be sent as one frame,
+     * without waiting unless the queue policy is {@code BLOCK}.
+     *
+     * @param key A key from 0 to {@code getKeyCount() - 1} for messages that only the latest of needs
+     *            to be sent, or {@code TelemetryQueue.NO_KEY}.
+     * @return Whether the message was queued.
+     */
+    public boolean addMessage(final ByteBuffer message, final int key) {
+        boolean queued = getQueue().offer(message, key);
+        if(senderParked) {
+            LockSupport.unpark(senderThread);
+        }
+
+        return queued;
     }
 
-    public Semaphore getSendLock() {
-        return sendLock;
+    public static int getKeyCount() {
+        return KEY_COUNT;
     }
 
-    public void setSendLock(Semaphore sendLock) {
-        this.sendLock = sendLock;
+    public TelemetryQueue getQueue() {
+        return queue;
     }
 
-    public long getLastSendTime() {
-        return lastSendTime;
+    /**
+     * @return The number of messages that were lost before they could be sent.
+     */
+    public long getDroppedMessageCount() {
+        return getQueue().getDroppedCount();
     }
 
-    public void setLastSendTime(long lastSendTime) {
-        this.lastSendTime = lastSendTime;
+    public int getClientPort() {
+        return clientPort;
     }
 
     public boolean isClosed() {
@@ -125,29 +225,9 @@ public class UdpServer implements Runnable {
 
     public void close() {
         setClosed(true);
-    }
-
-    public TimeProfiler getTimeProfiler() {
-        return timeProfiler;
-    }
-
-    public void setTimeProfiler(TimeProfiler timeProfiler) {
-        this.timeProfiler = timeProfiler;
-    }
-
-    public String getLastMessage() {
-        return lastMessage;
-    }
-
-    public void setLastMessage(String lastMessage) {
-        this.lastMessage = lastMessage;
-    }
-
-    public String getCurrentMessage() {
-        return currentMessage;
-    }
-
-    public void setCurrentMessage(String currentMessage) {
-        this.currentMessage = currentMessage;
+        Thread sender = senderThread;
+        if(sender != null) {
+            LockSupport.unpark(sender);
+        }
     }
 }
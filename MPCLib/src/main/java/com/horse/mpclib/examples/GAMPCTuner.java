@@ -14,6 +14,10 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Deprecated
@@ -32,11 +36,31 @@ public class GAMPCTuner {
     private static final double crossoverProbability = 0.9d;
     private static final double mutationProbability = 0.1d;
 
+    private static final double normalizedDistanceCost = 0.01d;
+    private static final double normalizedTimeCost = 50d;
+    private static final double normalizedRemainingSetpointsCost = 50d;
+    private static final double normalizedHittingObstacleCost = 50;
+    private static final double normalizedAngularOffsetCost = 100d;
+
     private static double[][] populationValues;
 
     private int currentGeneration;
 
     private boolean importedData;
+    private boolean lastRunFailed;
+    private boolean lastRunAborted;
+
+    /**
+     * Costs of completed runs keyed on the exact terms that were simulated, so that elite chromosomes
+     * copied unchanged into the next generation are not simulated again.
+     */
+    private final Map<List<Double>, Double> fitnessCache = new HashMap<>();
+
+    /**
+     * A run is stopped once a lower bound on its cost exceeds this value, since its exact cost would
+     * no longer change which chromosomes survive.
+     */
+    private double abortCost = Double.POSITIVE_INFINITY;
 
     public static void main(String... args) {
         GAMPCTuner tuner = new GAMPCTuner();
@@ -105,15 +129,51 @@ public class GAMPCTuner {
     }
 
     public void runIteration(int index) {
-        //MecanumRunnableMPC.setStateCost(SimpleMatrix.diag(Arrays.copyOfRange(getPopulationValues()[index], 0, getPopulationValues()[index].length - 1 - 4 /*- 4*/)));
-        //MecanumRunnableMPC.setMaxIterations((int)((20d / getMaxTuneValue()) * getPopulationValues()[index][6]) + 1);
-        //MecanumRunnableMPC.setInputCost(SimpleMatrix.diag(Arrays.copyOfRange(getPopulationValues()[index], 6, getPopulationValues()[index].length - 1)).scale(1d / getMaxTuneValue()));
+        double[] chromosome = getPopulationValues()[index];
+        double cost = simulateCost(Arrays.copyOfRange(chromosome, 0, chromosome.length - 1));
+        if(isLastRunFailed()) {
+            for(int i = 0; i < chromosome.length - 1; i++) {
+                chromosome[i] = getRandomTuneValue();
+            }
+        }
+
+        //Update cost value which is set equal to the time elapsed for the iteration
+        chromosome[chromosome.length - 1] = cost;
+        System.out.print("Iteration: " + index + "\t");
+        System.out.println(Arrays.toString(chromosome) + (isLastRunAborted() ? "\t Aborted early" : ""));
+    }
+
+    /**
+     * Runs the simulated robot with the given tuning terms and returns the resulting cost, without
+     * touching the population. This is the objective used both by the genetic algorithm and by the
+     * {@code BlackBoxOptimizer} implementations. Since the robot and obstacles are static, runs cannot
+     * be evaluated in parallel.
+     *
+     * Completed runs are cached on {@code parameters}, and a run is aborted as soon as a lower bound
+     * on its cost exceeds {@code getAbortCost()}, in which case that bound is returned.
+     *
+     * @param parameters The {@code getTermsToTune()} terms being tuned.
+     * @return           The composite cost of the run.
+     */
+    public double simulateCost(double[] parameters) {
+        List<Double> cacheKey = Arrays.stream(parameters).boxed().collect(Collectors.toList());
+        Double cachedCost = fitnessCache.get(cacheKey);
+        setLastRunFailed(false);
+        setLastRunAborted(false);
+        if(cachedCost != null) {
+            System.out.println("Reusing cached cost");
+            return cachedCost;
+        }
+
+        //MecanumRunnableMPC.setStateCost(SimpleMatrix.diag(Arrays.copyOfRange(parameters, 0, parameters.length - 4 /*- 4*/)));
+        //MecanumRunnableMPC.setMaxIterations((int)((20d / getMaxTuneValue()) * parameters[6]) + 1);
+        //MecanumRunnableMPC.setInputCost(SimpleMatrix.diag(Arrays.copyOfRange(parameters, 6, parameters.length)).scale(1d / getMaxTuneValue()));
 
         RobotGAMPC robot = new RobotGAMPC();
         ComputerDebugger.setRobot(robot);
         robot.init_debug();
         for(int i = 0; i < Robot.getObstacles().size(); i++) {
-            Robot.getObstacles().get(i).setCostFactor((300d / 200d) * getPopulationValues()[index][7 + i]);
+            Robot.getObstacles().get(i).setCostFactor((300d / 200d) * parameters[7 + i]);
         }
 
         ComputerDebugger.send(MessageOption.CLEAR_LOG_POINTS);
@@ -144,6 +204,12 @@ public class GAMPCTuner {
                 }
 
                 robot.loop_debug();
+                double costLowerBound = getCostLowerBound(robot);
+                if(costLowerBound > getAbortCost()) {
+                    setLastRunAborted(true);
+                    System.out.println("Aborted after " + TimeUtil.getCurrentRuntime(TimeUnits.SECONDS) + " seconds with cost above " + costLowerBound);
+                    return costLowerBound;
+                }
 
                 ComputerDebugger.send(MessageOption.ROBOT_LOCATION);
                 ComputerDebugger.send(MessageOption.LOG_POINT.setSendValue(robot.getFieldPosition().getTranslation()));
@@ -164,36 +230,40 @@ public class GAMPCTuner {
 
         if(failed || (failedLess && robot.getSetpointCount() - 1 <= remainingSetpoints)) {
             timesHittingObstacles = 13 * 3 + 1;
-            for(int i = 0; i < getPopulationValues()[index].length - 1; i++) {
-                getPopulationValues()[index][i] = getRandomTuneValue();
-            }
         } else if(elapsedTime != getTimeout().getTimeValue(TimeUnits.SECONDS)) {
             distanceAwayFromGoal = 0d; //The robot has reached the final position
         } else {
             timesHittingObstacles = 13 * 3;
         }
 
-        double normalizedDistanceCost = 0.01d;
-        double normalizedTimeCost = 50d;
-        double normalizedRemainingSetpointsCost = 50d;
-        double normalizedHittingObstacleCost = 50;
-        double normalizedClosestDistanceToObstacleCost = 200d;
-        double normalizedAngularOffsetCost = 100d;
-
         if(Double.isNaN(distanceAwayFromGoal)) {
             distanceAwayFromGoal = normalizedDistanceCost * 144d;
         }
 
-        //Update cost value which is set equal to the time elapsed for the iteration
-        getPopulationValues()[index][getPopulationValues()[index].length - 1] =
-                normalizedDistanceCost * ((double)(remainingSetpoints) / robot.getSetpointCount()) * (distanceAwayFromGoal / 144d) +
-                        normalizedTimeCost * Math.pow(elapsedTime / getTimeout().getTimeValue(TimeUnits.SECONDS), 1d) +
-                        normalizedRemainingSetpointsCost * Math.pow((double)(remainingSetpoints) / robot.getSetpointCount(), 2d) +
-                        normalizedHittingObstacleCost * (144d / (closestDistanceToObstacle + (144d / 4d))) * Math.pow(timesHittingObstacles / (13 * 3d), 1d) +
-                        normalizedAngularOffsetCost * (angularOffset / 5d);
-        System.out.print("Iteration: " + index + "\t");
-        System.out.print(Arrays.toString(getPopulationValues()[index]));
-        System.out.println("\t Took " + elapsedTime + " seconds to finish and hit obstacles " + timesHittingObstacles + " times");
+        setLastRunFailed(failed || (failedLess && robot.getSetpointCount() - 1 <= remainingSetpoints));
+        System.out.println("Took " + elapsedTime + " seconds to finish and hit obstacles " + timesHittingObstacles + " times");
+        double cost = normalizedDistanceCost * ((double)(remainingSetpoints) / robot.getSetpointCount()) * (distanceAwayFromGoal / 144d) +
+                normalizedTimeCost * Math.pow(elapsedTime / getTimeout().getTimeValue(TimeUnits.SECONDS), 1d) +
+                normalizedRemainingSetpointsCost * Math.pow((double)(remainingSetpoints) / robot.getSetpointCount(), 2d) +
+                normalizedHittingObstacleCost * (144d / (closestDistanceToObstacle + (144d / 4d))) * Math.pow(timesHittingObstacles / (13 * 3d), 1d) +
+                normalizedAngularOffsetCost * (angularOffset / 5d);
+        if(!isLastRunFailed()) {
+            fitnessCache.put(cacheKey, cost);
+        }
+
+        return cost;
+    }
+
+    /**
+     * Lower bound on the final cost of an unfinished run. The elapsed time, the number of obstacle
+     * hits and the proximity to the closest obstacle can only grow for the remainder of the run, and
+     * every other term of the cost is non-negative, so the true cost is never below this value.
+     */
+    private static double getCostLowerBound(RobotGAMPC robot) {
+        double elapsedTime = Math.min(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS), getTimeout().getTimeValue(TimeUnits.SECONDS));
+        int timesHittingObstacles = Math.min(13 * 3, robot.getTimesHittingObstacle());
+        return normalizedTimeCost * (elapsedTime / getTimeout().getTimeValue(TimeUnits.SECONDS)) +
+                normalizedHittingObstacleCost * (144d / (robot.getClosestDistanceToObstacle() + (144d / 4d))) * (timesHittingObstacles / (13 * 3d));
     }
 
     public void simulateGeneration() {
@@ -208,6 +278,7 @@ public class GAMPCTuner {
         } else {
             int k = getElitismCount();
             Arrays.sort(getPopulationValues(), (o1, o2) -> (int)(o1[getTermsToTune()] - o2[getTermsToTune()]));
+            setAbortCost(getPopulationValues()[getPopulationSize() - 1][getTermsToTune()]);
 
             double[][] nextPopulationValues = new double[getPopulationSize()][getTermsToTune() + 1];
             for(int i = 0; i < getElitismCount(); i++) {
@@ -257,8 +328,8 @@ public class GAMPCTuner {
     public void crossover(double[][] nextPopulationValues, int nextPopulationIndex, int index1, int index2) {
         int crossoverIndex = getRandomGeneIndex();
         double crossoverValue = Math.random();
-        nextPopulationValues[nextPopulationIndex] = getPopulationValues()[index1];
-        nextPopulationValues[nextPopulationIndex + 1] = getPopulationValues()[index2];
+        nextPopulationValues[nextPopulationIndex] = getPopulationValues()[index1].clone();
+        nextPopulationValues[nextPopulationIndex + 1] = getPopulationValues()[index2].clone();
         nextPopulationValues[nextPopulationIndex][crossoverIndex] = crossoverValue * getPopulationValues()[index1][crossoverIndex] + (1d - crossoverValue) * getPopulationValues()[index2][crossoverIndex];
         nextPopulationValues[nextPopulationIndex + 1][crossoverIndex] = (1d - crossoverValue) * getPopulationValues()[index1][crossoverIndex] + crossoverValue * getPopulationValues()[index2][crossoverIndex];
     }
@@ -266,7 +337,7 @@ public class GAMPCTuner {
     public void mutation(double[][] nextPopulationValues, int nextPopulationIndex, int index) {
         int mutatedTuneIndex = getRandomGeneIndex(); //Not terms-to-tune plus one since cost should not be mutated
         double mutatedValue = getRandomTuneValue();
-        nextPopulationValues[nextPopulationIndex] = getPopulationValues()[index];
+        nextPopulationValues[nextPopulationIndex] = getPopulationValues()[index].clone();
         nextPopulationValues[nextPopulationIndex][mutatedTuneIndex] = mutatedValue;
     }
 
@@ -358,4 +429,35 @@ public class GAMPCTuner {
     public void setImportedData(boolean importedData) {
         this.importedData = importedData;
     }
+
+    /**
+     * @return Whether the last call to {@code simulateCost(double[])} ended with the robot stuck.
+     */
+    public boolean isLastRunFailed() {
+        return lastRunFailed;
+    }
+
+    public void setLastRunFailed(boolean lastRunFailed) {
+        this.lastRunFailed = lastRunFailed;
+    }
+
+    /**
+     * @return Whether the last call to {@code simulateCost(double[])} was stopped early for exceeding
+     *         {@code getAbortCost()}.
+     */
+    public boolean isLastRunAborted() {
+        return lastRunAborted;
+    }
+
+    public void setLastRunAborted(boolean lastRunAborted) {
+        this.lastRunAborted = lastRunAborted;
+    }
+
+    public double getAbortCost() {
+        return abortCost;
+    }
+
+    public void setAbortCost(double abortCost) {
+        this.abortCost = abortCost;
+    }
 }
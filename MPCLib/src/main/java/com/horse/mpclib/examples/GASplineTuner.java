@@ -127,20 +127,7 @@ public class GASplineTuner {
             System.out.println(finalSpline);
         }
 
-        int steps = 500;
-        Translation2d[] values = new Translation2d[2 * steps];
-        for(int i = 0; i < steps; i++) {
-            values[i] = initialSpline.evaluate((double)(i) / steps);
-            values[i + steps] = finalSpline.evaluate((double)(i) / steps);
-        }
-
-        for(int i = 0; i < values.length - 1; i++) {
-            try {
-                ComputerDebugger.send(MessageOption.LINE.setSendValue(new Line2d(values[i], values[i + 1])));
-            } catch (IllegalMessageTypeException e) {
-                e.printStackTrace();
-            }
-        }
+        sendSplines(initialSpline, finalSpline);
 
         Translation2d obstacle = new Translation2d(144d / 2d, 144d / 2d);
         Obstacle obstacleObject = new Obstacle(obstacle, 9d, 1d);
@@ -172,6 +159,32 @@ public class GASplineTuner {
         System.out.println("\t" + getPopulationValues()[index][getPopulationValues()[index].length - 1]);
     }
 
+    private static void sendSplines(Spline... splines) {
+        int steps = 500;
+        double[] parameters = new double[steps];
+        for(int i = 0; i < steps; i++) {
+            parameters[i] = (double)(i) / steps;
+        }
+
+        double[] x = new double[splines.length * steps];
+        double[] y = new double[splines.length * steps];
+        double[] splineX = new double[steps];
+        double[] splineY = new double[steps];
+        for(int i = 0; i < splines.length; i++) {
+            splines[i].evaluate(parameters, splineX, splineY);
+            System.arraycopy(splineX, 0, x, i * steps, steps);
+            System.arraycopy(splineY, 0, y, i * steps, steps);
+        }
+
+        for(int i = 0; i < x.length - 1; i++) {
+            try {
+                ComputerDebugger.send(MessageOption.LINE.setSendValue(new Line2d(x[i], y[i], x[i + 1], y[i + 1])));
+            } catch (IllegalMessageTypeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public void simulateGeneration() {
         System.out.println("-------------------------------- Generation " + getCurrentGeneration() + " --------------------------------");
         if(getCurrentGeneration() == 1 && !isImportedData()) {
@@ -240,20 +253,7 @@ public class GASplineTuner {
                 new Pose2d(144d - 9d, 144d - 9d, new Rotation2d(0d, false)),
                 Arrays.copyOfRange(getPopulationValues()[index], 4 + 1 + (getTermsToTune() - 8 - 2) / 2, getPopulationValues()[index].length - 1 - 2));
 
-        int steps = 500;
-        Translation2d[] values = new Translation2d[2 * steps];
-        for(int i = 0; i < steps; i++) {
-            values[i] = initialSpline.evaluate((double)(i) / steps);
-            values[i + steps] = finalSpline.evaluate((double)(i) / steps);
-        }
-
-        for(int i = 0; i < values.length - 1; i++) {
-            try {
-                ComputerDebugger.send(MessageOption.LINE.setSendValue(new Line2d(values[i], values[i + 1])));
-            } catch (IllegalMessageTypeException e) {
-                e.printStackTrace();
-            }
-        }
+        sendSplines(initialSpline, finalSpline);
 
         ComputerDebugger.sendMessage();
 
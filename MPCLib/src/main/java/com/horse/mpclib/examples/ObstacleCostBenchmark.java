@@ -0,0 +1,169 @@
+package com.horse.mpclib.examples;
+
+import com.horse.mpclib.lib.control.Obstacle;
+import com.horse.mpclib.lib.geometry.Translation2d;
+
+import org.ejml.simple.SimpleEVD;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the closed form projection of the obstacle Hessian in {@code Obstacle} against the
+ * general eigendecomposition it replaced, summing the cost of 50 obstacles at every step of a 1000
+ * step horizon, which is what one MPC iteration on a crowded field does.
+ *
+ * The project builds as an Android library, so there is no JMH harness to run this in. Instead,
+ * both versions are first run untimed until the JIT has compiled them, each timed round runs them in
+ * alternating order, and every result is folded into {@code sink} so that the work cannot be
+ * eliminated. The median over the rounds is reported.
+ */
+public class ObstacleCostBenchmark {
+    private static final int OBSTACLE_COUNT = 50;
+    private static final int HORIZON_STEPS = 1000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 25;
+
+    private static volatile double sink;
+
+    public static void main(String... args) {
+        Random random = new Random(0L);
+        List<Obstacle> obstacles = new ArrayList<>();
+        for(int i = 0; i < OBSTACLE_COUNT; i++) {
+            obstacles.add(new Obstacle(144d * random.nextDouble(), 144d * random.nextDouble(), 2d + 8d * random.nextDouble(), 200d));
+        }
+
+        SimpleMatrix[] states = new SimpleMatrix[HORIZON_STEPS];
+        for(int i = 0; i < states.length; i++) {
+            states[i] = new SimpleMatrix(6, 1, true, new double[] {
+                    144d * 0.0254d * random.nextDouble(), 0d, 144d * 0.0254d * random.nextDouble(), 0d, 0d, 0d
+            });
+        }
+
+        double maxError = 0d;
+        SimpleMatrix accumulator = new SimpleMatrix(6, 6);
+        for(SimpleMatrix state : states) {
+            for(Obstacle obstacle : obstacles) {
+                SimpleMatrix expected = getQuadraticCostByEigendecomposition(obstacle, state);
+                accumulator.zero();
+                obstacle.addQuadraticCost(state, accumulator);
+                maxError = Math.max(maxError, expected.minus(accumulator).elementMaxAbs() / Math.max(1d, expected.elementMaxAbs()));
+            }
+        }
+
+        System.out.println("Max relative difference: " + maxError);
+
+        for(int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += runEigendecomposition(obstacles, states);
+            sink += runClosedForm(obstacles, states, accumulator);
+        }
+
+        long[] eigendecompositionTimes = new long[MEASURED_ROUNDS];
+        long[] closedFormTimes = new long[MEASURED_ROUNDS];
+        for(int round = 0; round < MEASURED_ROUNDS; round++) {
+            if(round % 2 == 0) {
+                eigendecompositionTimes[round] = timeEigendecomposition(obstacles, states);
+                closedFormTimes[round] = timeClosedForm(obstacles, states, accumulator);
+            } else {
+                closedFormTimes[round] = timeClosedForm(obstacles, states, accumulator);
+                eigendecompositionTimes[round] = timeEigendecomposition(obstacles, states);
+            }
+        }
+
+        double eigendecompositionTime = median(eigendecompositionTimes) / (double)(OBSTACLE_COUNT * HORIZON_STEPS);
+        double closedFormTime = median(closedFormTimes) / (double)(OBSTACLE_COUNT * HORIZON_STEPS);
+        System.out.println("Eigendecomposition: " + eigendecompositionTime + " ns, closed form: " + closedFormTime +
+                " ns per obstacle per step, speedup: " + eigendecompositionTime / closedFormTime);
+    }
+
+    private static long timeEigendecomposition(List<Obstacle> obstacles, SimpleMatrix[] states) {
+        long startTime = System.nanoTime();
+        sink += runEigendecomposition(obstacles, states);
+        return System.nanoTime() - startTime;
+    }
+
+    private static long timeClosedForm(List<Obstacle> obstacles, SimpleMatrix[] states, SimpleMatrix accumulator) {
+        long startTime = System.nanoTime();
+        sink += runClosedForm(obstacles, states, accumulator);
+        return System.nanoTime() - startTime;
+    }
+
+    private static double runEigendecomposition(List<Obstacle> obstacles, SimpleMatrix[] states) {
+        SimpleMatrix sum = new SimpleMatrix(6, 6);
+        for(SimpleMatrix state : states) {
+            for(Obstacle obstacle : obstacles) {
+                sum = sum.plus(getQuadraticCostByEigendecomposition(obstacle, state));
+            }
+        }
+
+        return sum.get(0, 0) + sum.get(0, 2) + sum.get(2, 2);
+    }
+
+    private static double runClosedForm(List<Obstacle> obstacles, SimpleMatrix[] states, SimpleMatrix accumulator) {
+        accumulator.zero();
+        for(SimpleMatrix state : states) {
+            for(Obstacle obstacle : obstacles) {
+                obstacle.addQuadraticCost(state, accumulator);
+            }
+        }
+
+        return accumulator.get(0, 0) + accumulator.get(0, 2) + accumulator.get(2, 2);
+    }
+
+    private static double median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * The projection that {@code Obstacle.addQuadraticCost(SimpleMatrix, SimpleMatrix)} used to make,
+     * with a general eigendecomposition of the Hessian, kept as the reference for the closed form.
+     */
+    private static SimpleMatrix getQuadraticCostByEigendecomposition(Obstacle obstacle, SimpleMatrix expectedState) {
+        SimpleMatrix stateDisplacement = expectedState.minus(obstacle.stateRepresentation());
+        Translation2d displacement = new Translation2d(stateDisplacement.get(0), stateDisplacement.get(2));
+        double lengthScale = obstacle.getLengthScale();
+
+        SimpleMatrix Q = new SimpleMatrix(2, 2, true, new double[] {
+                -2d * lengthScale * lengthScale + 4d * displacement.x() * displacement.x(), 4d * displacement.x() * displacement.y(),
+                4d * displacement.x() * displacement.y(), -2d * lengthScale * lengthScale + 4d * displacement.y() * displacement.y()
+        }).scale(Math.exp(-displacement.norm2() / Math.pow(lengthScale, 2)) / Math.pow(lengthScale, 4));
+
+        SimpleEVD<SimpleMatrix> eigenDecomposition = Q.eig();
+        if(eigenDecomposition.getNumberOfEigenvalues() == 2) {
+            try {
+                SimpleMatrix P = new SimpleMatrix(2, 2, true, new double[] {
+                        eigenDecomposition.getEigenVector(0).get(0), eigenDecomposition.getEigenVector(1).get(0),
+                        eigenDecomposition.getEigenVector(0).get(1), eigenDecomposition.getEigenVector(1).get(1)
+                });
+
+                double eigenvalue1 = eigenDecomposition.getEigenvalue(0).getReal();
+                double eigenvalue2 = eigenDecomposition.getEigenvalue(1).getReal();
+                eigenvalue1 = eigenvalue1 < 0d ? 0d : eigenvalue1;
+                eigenvalue2 = eigenvalue2 < 0d ? 0d : eigenvalue2;
+
+                SimpleMatrix D = new SimpleMatrix(2, 2, true, new double[] {
+                        eigenvalue1, 0,
+                        0, eigenvalue2
+                });
+
+                Q = P.mult(D).mult(P.transpose());
+            } catch(NullPointerException e) {
+                return new SimpleMatrix(6, 6);
+            }
+        }
+
+        return new SimpleMatrix(6, 6, true, new double[] {
+                Q.get(0, 0), 0, Q.get(0, 1), 0, 0, 0,
+                0, 0, 0, 0, 0, 0,
+                Q.get(1, 0), 0, Q.get(1, 1), 0, 0, 0,
+                0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0
+        }).scale(obstacle.getCostFactor());
+    }
+}
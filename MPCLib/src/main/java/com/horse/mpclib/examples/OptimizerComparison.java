@@ -0,0 +1,58 @@
+package com.horse.mpclib.examples;
+
+import com.horse.mpclib.debugging.ComputerDebugger;
+import com.horse.mpclib.lib.optimization.BatchEvaluator;
+import com.horse.mpclib.lib.optimization.BayesianOptimizer;
+import com.horse.mpclib.lib.optimization.BlackBoxOptimizer;
+import com.horse.mpclib.lib.optimization.CMAESOptimizer;
+import com.horse.mpclib.lib.optimization.GeneticOptimizer;
+import com.horse.mpclib.lib.optimization.ObjectiveFunction;
+import com.horse.mpclib.lib.optimization.OptimizationResult;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the genetic algorithm from {@code GAMPCTuner} with CMA-ES and Bayesian optimization on
+ * the same MPC tuning objective, reporting how many simulated runs each needed to reach
+ * {@code TARGET_COST}. Simulated runs share the static robot state and are therefore evaluated one
+ * at a time.
+ */
+@SuppressWarnings("deprecation")
+public class OptimizerComparison {
+    private static final int MAX_EVALUATIONS = 3 * GAMPCTuner.getPopulationSize();
+    private static final double TARGET_COST = 60d;
+
+    public static void main(String... args) {
+        GAMPCTuner tuner = new GAMPCTuner();
+        ComputerDebugger.init(new RobotGAMPC());
+        ObjectiveFunction objective = tuner::simulateCost;
+
+        int terms = GAMPCTuner.getTermsToTune();
+        double min = GAMPCTuner.getMinTuneValue();
+        double max = GAMPCTuner.getMaxTuneValue();
+
+        Map<String, BlackBoxOptimizer> optimizers = new LinkedHashMap<>();
+        optimizers.put("Genetic algorithm", new GeneticOptimizer(terms, min, max, GAMPCTuner.getPopulationSize()));
+        optimizers.put("CMA-ES", new CMAESOptimizer(terms, min, max, 10));
+        optimizers.put("Bayesian optimization", new BayesianOptimizer(terms, min, max, 1));
+
+        Map<String, OptimizationResult> results = new LinkedHashMap<>();
+        try(BatchEvaluator evaluator = new BatchEvaluator(1)) {
+            for(Map.Entry<String, BlackBoxOptimizer> optimizer : optimizers.entrySet()) {
+                System.out.println("-------------------------------- " + optimizer.getKey() + " --------------------------------");
+                results.put(optimizer.getKey(), evaluator.optimize(optimizer.getValue(), objective, MAX_EVALUATIONS, TARGET_COST));
+            }
+        }
+
+        System.out.println("-------------------------------- Results --------------------------------");
+        System.out.println("Target cost: " + TARGET_COST + "\tEvaluation budget: " + MAX_EVALUATIONS);
+        for(Map.Entry<String, OptimizationResult> result : results.entrySet()) {
+            OptimizationResult value = result.getValue();
+            System.out.print(result.getKey() + ":\tbest cost " + value.getBestCost() + "\t");
+            System.out.print(value.reachedTarget() ? "reached target after " + value.getEvaluationsToTarget() + " evaluations" : "did not reach target");
+            System.out.println("\t" + Arrays.toString(value.getBestParameters()));
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.horse.mpclib.lib.geometry.Line2d;
 import com.horse.mpclib.lib.geometry.Pose2d;
 import com.horse.mpclib.lib.geometry.Rotation2d;
 import com.horse.mpclib.lib.geometry.Translation2d;
+import com.horse.mpclib.lib.motion.Path;
+import com.horse.mpclib.lib.motion.PathProjection;
 import com.horse.mpclib.lib.motion.Spline;
 
 import java.util.function.DoubleUnaryOperator;
@@ -17,6 +19,12 @@ public class RobotGVF extends Robot {
             9d, 9d, 144d - 18d, 0d, 0d, 2d * (144d - 18d)
     }, false);
 
+    private static final int DRAWING_STEPS = 500;
+
+    private final Path path = new Path(spline);
+    private PathProjection projection = new PathProjection();
+    private Translation2d[] splinePoints;
+
     private static final double kF = 1d / 30d;
     private static final double kN = 0.1d;
     private static final double kOmega = 1d / Math.toRadians(360d);
@@ -27,18 +35,22 @@ public class RobotGVF extends Robot {
     @Override
     public void init_debug() {
         super.init_debug();
+        splinePoints = new Translation2d[DRAWING_STEPS + 1];
+        for(int i = 0; i <= DRAWING_STEPS; i++) {
+            splinePoints[i] = path.getPointAtDistance(path.getLength() * i / DRAWING_STEPS);
+        }
+
+        projection = new PathProjection();
     }
 
     @Override
     public void loop_debug() {
         super.loop_debug();
-        double[] parameterAndDisplacement = spline.getParameterAndMinDistanceFromPoint(getFieldPosition().getTranslation());
-        Translation2d tangent = spline.getDerivative(parameterAndDisplacement[0]);
-        tangent = tangent.scale(1d / tangent.norm());
-        Translation2d normal = tangent.rotateBy(new Rotation2d(Math.PI / 2d, false));
-        Translation2d displacementVector = spline.evaluate(parameterAndDisplacement[0]).translateBy(getFieldPosition().getTranslation().inverse());
-        double orientation = Math.signum(Translation2d.cross(displacementVector, tangent));
-        double error = orientation * displacementVector.norm();
+        //Warm start from the last cycle's projection since the robot barely moves between cycles
+        path.track(getFieldPosition().getTranslation(), projection);
+        Translation2d tangent = projection.getTangent();
+        Translation2d normal = projection.getNormal();
+        double error = projection.getSignedDistance();
         System.out.println(error);
         Translation2d vectorFieldResult = tangent.translateBy(normal.inverse().scale(kN * errorMap.applyAsDouble(error)));
         vectorFieldResult = vectorFieldResult.scale(1d / vectorFieldResult.norm());
@@ -48,7 +60,7 @@ public class RobotGVF extends Robot {
         double headingError = desiredHeading - getFieldPosition().getRotation().getRadians();
         double angularOutput = kOmega * headingError;
 
-        double distanceToPoint = spline.evaluate(1d).distance(getFieldPosition().getTranslation());
+        double distanceToPoint = path.getEnd().distance(getFieldPosition().getTranslation());
         double forwardOutput = kF * distanceToPoint;
 
         Translation2d translationalPower = /*new Translation2d(forwardOutput, 0d)*/vectorFieldResult.scale(forwardOutput).rotateBy(getFieldPosition().getRotation());
@@ -62,7 +74,7 @@ public class RobotGVF extends Robot {
         }
 
         try {
-            displacementVector = vectorFieldResult;
+            Translation2d displacementVector = vectorFieldResult;
             if(displacementVector.norm() != 0) {
                 ComputerDebugger.send(MessageOption.LINE.setSendValue(
                         new Line2d(getFieldPosition().getTranslation(), getFieldPosition().getTranslation().translateBy(
@@ -74,15 +86,9 @@ public class RobotGVF extends Robot {
             e.printStackTrace();
         }
 
-        int steps = 500;
-        Translation2d[] values = new Translation2d[2 * steps];
-        for(int i = 0; i < steps; i++) {
-            values[i] = spline.evaluate((double)(i) / steps);
-        }
-
-        for(int i = 0; i < values.length - 1; i++) {
+        for(int i = 0; i < splinePoints.length - 1; i++) {
             try {
-                ComputerDebugger.send(MessageOption.LINE.setSendValue(new Line2d(values[i], values[i + 1])));
+                ComputerDebugger.send(MessageOption.LINE.setSendValue(new Line2d(splinePoints[i], splinePoints[i + 1])));
             } catch (IllegalMessageTypeException e) {
                 e.printStackTrace();
             }
@@ -3,8 +3,10 @@ package com.horse.mpclib.examples;
 import com.horse.mpclib.debugging.ComputerDebugger;
 import com.horse.mpclib.debugging.IllegalMessageTypeException;
 import com.horse.mpclib.debugging.MessageOption;
+import com.horse.mpclib.debugging.SolverStatistics;
 import com.horse.mpclib.lib.control.MPCSolver;
 import com.horse.mpclib.lib.control.Obstacle;
+import com.horse.mpclib.lib.control.ObstacleCostAggregator;
 import com.horse.mpclib.lib.control.RunnableMPC;
 import com.horse.mpclib.lib.geometry.Circle2d;
 import com.horse.mpclib.lib.geometry.Line2d;
@@ -19,6 +21,7 @@ import com.horse.mpclib.lib.util.Util;
 import org.ejml.simple.SimpleMatrix;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class RobotMPC extends Robot {
@@ -61,15 +64,16 @@ public class RobotMPC extends Robot {
         getObstacles().add(new Obstacle(144d - 92d - 4d, 65d, 3d, 200d));
         getObstacles().add(new Obstacle(144d - 92d - 4d, 80d, 3d, 200d));
         getObstacles().add(new Obstacle(144d - (144d - 9d), 90d, 10.5d, 200d));
+        List<ObstacleCostAggregator> costables = Collections.singletonList(new ObstacleCostAggregator(getObstacles()));
         setMpcSolver(new MPCSolver(1000, 0.002d, SimpleMatrix.diag(100d, 10, 100d, 10, 100d, 10),
-                SimpleMatrix.diag(1000d, 50d, 200d, 25d, 10d, 1d), SimpleMatrix.diag(1d, 1d, 1d, 1d), getDriveModel(), getObstacles()));
+                SimpleMatrix.diag(1000d, 50d, 200d, 25d, 10d, 1d), SimpleMatrix.diag(1d, 1d, 1d, 1d), getDriveModel(), costables));
         try {
             getMpcSolver().initializeAndIterate(5, getInitialState(), getDesiredStates().get(0));
         } catch(InvalidDynamicModelException e) {
             e.printStackTrace();
         }
 
-        setRunnableMPC(new RunnableMPC(5, getMpcSolver(), RobotMPC::getState, getDesiredStates().get(0), getObstacles()));
+        setRunnableMPC(new RunnableMPC(5, getMpcSolver(), RobotMPC::getState, getDesiredStates().get(0), costables));
         new Thread(getRunnableMPC()).start();
     }
 
@@ -108,7 +112,16 @@ public class RobotMPC extends Robot {
             setInput(new SimpleMatrix(4, 1));
         }
 
+        //The change in input is penalized from the input actually commanded
+        getMpcSolver().getLqrSolver().setPreviousInput(getInput());
+        getRunnableMPC().setPreviousInput(getInput());
+
         try {
+            ComputerDebugger.send(MessageOption.PREDICTED_TRAJECTORY.setSendValue(getMpcSolver().getSimulatedStates()));
+            ComputerDebugger.send(MessageOption.SOLVER_STATISTICS.setSendValue(new SolverStatistics(
+                    getRunnableMPC().getIterations(), getRunnableMPC().getSolveTime(), getRunnableMPC().controllerElapsedTime()
+            )));
+
             for(int i = 0; i < getMpcSolver().getSimulatedStates().length - 1; i++) {
                 if(!Double.isNaN(getMpcSolver().getSimulatedStates()[i].get(0)) &&
                         !Double.isNaN(getMpcSolver().getSimulatedStates()[i].get(2)) &&
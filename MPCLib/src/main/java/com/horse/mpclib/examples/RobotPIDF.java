@@ -5,6 +5,7 @@ import com.horse.mpclib.lib.control.ControlConstants;
 import com.horse.mpclib.lib.geometry.Pose2d;
 import com.horse.mpclib.lib.geometry.Rotation2d;
 import com.horse.mpclib.lib.geometry.Translation2d;
+import com.horse.mpclib.lib.motion.SynchronizedMotionProfile;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -12,6 +13,14 @@ import java.util.List;
 public class RobotPIDF extends Robot {
     private static final double MAX_POWER_ACCELERATION = 2d; //motor power / s
 
+    private static final double MAX_SPEED = 50d; //in / s
+    private static final double MAX_ACCELERATION = 60d; //in / s^2
+    private static final double MAX_JERK = 600d; //in / s^3
+    private static final double MAX_ANGULAR_SPEED = Math.toRadians(270d); //rad / s
+    private static final double MAX_ANGULAR_ACCELERATION = Math.toRadians(540d); //rad / s^2
+    private static final double MAX_ANGULAR_JERK = Math.toRadians(5400d); //rad / s^3
+    private static final double BLEND_DISTANCE = 12d; //in
+
     private static final ControlConstants PIDF_X = new ControlConstants(1.1d / 4d, 0d, 0.07d, 0d);
     private static final ControlConstants PIDF_Y = new ControlConstants(1.1d / 4d, 0d, 0.07d, 0d);
     private static final ControlConstants PIDF_T = new ControlConstants(1d / Math.toRadians(15d), 0d, 0.1d, 0.05d);
@@ -31,6 +40,11 @@ public class RobotPIDF extends Robot {
     private static double lastPowerBackLeft;
     private static double lastPowerBackRight;
 
+    private static SynchronizedMotionProfile motionProfile;
+    private static Pose2d profileTarget;
+    private static double profileTime;
+    private static final double[] setpoint = new double[6];
+
     static {
         positions.add(new Pose2d(38d, 34d, new Rotation2d(Math.toRadians(-90d), false)));
         positions.add(new Pose2d(38d, 144d - 11d, new Rotation2d(Math.toRadians(-90d), false)));
@@ -61,12 +75,17 @@ public class RobotPIDF extends Robot {
         setLastPowerFrontRight(0d);
         setLastPowerBackLeft(0d);
         setLastPowerBackRight(0d);
+        setMotionProfile(null);
+        setProfileTarget(null);
     }
 
     @Override
     public void loop_debug() {
         super.loop_debug();
-        if(getFieldPosition().getTranslation().epsilonEquals(positions.get(0).getTranslation(), 2.5d) && positions.size() > 1) {
+        //Intermediate waypoints are handed off before the setpoint brakes for them, so only the last one is stopped at
+        if(positions.size() > 1 && (getFieldPosition().getTranslation().epsilonEquals(positions.get(0).getTranslation(), 2.5d) ||
+                (getProfileTarget() == positions.get(0) && Math.hypot(setpoint[0] - positions.get(0).getTranslation().x(),
+                        setpoint[2] - positions.get(0).getTranslation().y()) < getBlendDistance()))) {
             positions.remove(0);
         } else if(getFieldPosition().getTranslation().epsilonEquals(positions.get(0).getTranslation(), 1d) && positions.size() == 1) {
             stopTimer();
@@ -77,9 +96,25 @@ public class RobotPIDF extends Robot {
 
         double dt = getDt();
         if(dt != 0 && !getPositions().isEmpty()) {
-            double errorX = getPositions().get(0).getTranslation().x() - getFieldPosition().getTranslation().x();
-            double errorY = getPositions().get(0).getTranslation().y() - getFieldPosition().getTranslation().y();
-            double errorT = getPositions().get(0).getRotation().getRadians() - getFieldPosition().getRotation().getRadians();
+            //Follow a synchronized profile to each waypoint so that x, y and heading arrive together
+            if(getProfileTarget() != getPositions().get(0)) {
+                setProfileTarget(getPositions().get(0));
+                if(getMotionProfile() == null) {
+                    setMotionProfile(SynchronizedMotionProfile.fromPoses(getFieldPosition(), getProfileTarget(), MAX_SPEED, MAX_ACCELERATION,
+                            MAX_JERK, MAX_ANGULAR_SPEED, MAX_ANGULAR_ACCELERATION, MAX_ANGULAR_JERK));
+                    setProfileTime(0d);
+                } else {
+                    //Continue from the current setpoint, so the robot carries its speed through the handoff
+                    getMotionProfile().replan(getProfileTime(), getProfileTarget());
+                }
+            }
+
+            setProfileTime(getProfileTime() + dt);
+            getMotionProfile().sample(getProfileTime(), setpoint);
+
+            double errorX = setpoint[0] - getFieldPosition().getTranslation().x();
+            double errorY = setpoint[2] - getFieldPosition().getTranslation().y();
+            double errorT = getFieldPosition().getRotation().distance(new Rotation2d(setpoint[4], false));
 
             setRunningSumX(getRunningSumX() + errorX * dt);
             setRunningSumY(getRunningSumY() + errorY * dt);
@@ -232,6 +267,10 @@ public class RobotPIDF extends Robot {
         RobotPIDF.positions = positions;
     }
 
+    public static double getBlendDistance() {
+        return BLEND_DISTANCE;
+    }
+
     public static double getMaxPowerAcceleration() {
         return MAX_POWER_ACCELERATION;
     }
@@ -267,4 +306,28 @@ public class RobotPIDF extends Robot {
     public static void setLastPowerBackRight(double lastPowerBackRight) {
         RobotPIDF.lastPowerBackRight = lastPowerBackRight;
     }
+
+    public static SynchronizedMotionProfile getMotionProfile() {
+        return motionProfile;
+    }
+
+    public static void setMotionProfile(SynchronizedMotionProfile motionProfile) {
+        RobotPIDF.motionProfile = motionProfile;
+    }
+
+    public static Pose2d getProfileTarget() {
+        return profileTarget;
+    }
+
+    public static void setProfileTarget(Pose2d profileTarget) {
+        RobotPIDF.profileTarget = profileTarget;
+    }
+
+    public static double getProfileTime() {
+        return profileTime;
+    }
+
+    public static void setProfileTime(double profileTime) {
+        RobotPIDF.profileTime = profileTime;
+    }
 }
@@ -0,0 +1,45 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * A {@code Costable} that adds its cost terms into buffers owned by the caller instead of returning
+ * new matrices, so that summing many costs over the horizon does not allocate. Implementations
+ * declare the state entries they touch and leave every other entry of the buffers unchanged.
+ *
+ * Legacy {@code Costable}s are used through a {@code CostableAdapter}. The default
+ * {@code Costable} methods allocate a buffer and accumulate into it, for callers of the old
+ * interface.
+ */
+public interface AccumulatingCostable extends Costable {
+    /**
+     * @return The indices of the state entries the cost depends on, or null if it may depend on any of
+     *         them. Only the rows and columns with these indices are changed by
+     *         {@code addQuadraticCost} and {@code addLinearCost}. The array must not be modified.
+     */
+    int[] getStateIndices();
+
+    /**
+     * Adds the quadratic cost at {@code state} to {@code quadraticCost}, an n x n matrix.
+     */
+    void addQuadraticCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix quadraticCost);
+
+    /**
+     * Adds the linear cost at {@code state} to {@code linearCost}, an n x 1 vector.
+     */
+    void addLinearCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix linearCost);
+
+    @Override
+    default SimpleMatrix getQuadraticCost(SimpleMatrix state, int timeStep, double dt) {
+        SimpleMatrix quadraticCost = new SimpleMatrix(state.numRows(), state.numRows());
+        addQuadraticCost(state, timeStep, dt, quadraticCost);
+        return quadraticCost;
+    }
+
+    @Override
+    default SimpleMatrix getLinearCost(SimpleMatrix state, int timeStep, double dt) {
+        SimpleMatrix linearCost = new SimpleMatrix(state.numRows(), 1);
+        addLinearCost(state, timeStep, dt, linearCost);
+        return linearCost;
+    }
+}
@@ -0,0 +1,107 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets a legacy {@code Costable}, which returns a new matrix or null from every call, be used as an
+ * {@code AccumulatingCostable}. The returned matrices are added into the buffers entry by entry, so
+ * only the allocation made by the legacy implementation itself remains.
+ */
+public class CostableAdapter implements AccumulatingCostable {
+    private final Costable costable;
+    private final int[] stateIndices;
+
+    /**
+     * @param stateIndices The state entries {@code costable} touches, or null if it may touch any of
+     *                     them.
+     */
+    public CostableAdapter(Costable costable, int[] stateIndices) {
+        this.costable = costable;
+        this.stateIndices = stateIndices;
+    }
+
+    public CostableAdapter(Costable costable) {
+        this(costable, null);
+    }
+
+    /**
+     * @return {@code costable} itself if it already accumulates, otherwise an adapter for it.
+     */
+    public static AccumulatingCostable adapt(Costable costable) {
+        return costable instanceof AccumulatingCostable ? (AccumulatingCostable) costable : new CostableAdapter(costable);
+    }
+
+    public static List<AccumulatingCostable> adapt(List<? extends Costable> costables) {
+        List<AccumulatingCostable> adapted = new ArrayList<>(costables.size());
+        for(Costable costable : costables) {
+            adapted.add(adapt(costable));
+        }
+
+        return adapted;
+    }
+
+    /**
+     * @return The declared state indices, or null if every entry may be touched.
+     */
+    @Override
+    public int[] getStateIndices() {
+        return stateIndices;
+    }
+
+    @Override
+    public void addQuadraticCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix quadraticCost) {
+        SimpleMatrix cost = costable.getQuadraticCost(state, timeStep, dt);
+        if(cost == null) {
+            return;
+        }
+
+        if(stateIndices == null) {
+            for(int i = 0; i < cost.numRows(); i++) {
+                for(int j = 0; j < cost.numCols(); j++) {
+                    quadraticCost.set(i, j, quadraticCost.get(i, j) + cost.get(i, j));
+                }
+            }
+        } else {
+            for(int i : stateIndices) {
+                for(int j : stateIndices) {
+                    quadraticCost.set(i, j, quadraticCost.get(i, j) + cost.get(i, j));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addLinearCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix linearCost) {
+        SimpleMatrix cost = costable.getLinearCost(state, timeStep, dt);
+        if(cost == null) {
+            return;
+        }
+
+        if(stateIndices == null) {
+            for(int i = 0; i < cost.numRows(); i++) {
+                linearCost.set(i, linearCost.get(i) + cost.get(i));
+            }
+        } else {
+            for(int i : stateIndices) {
+                linearCost.set(i, linearCost.get(i) + cost.get(i));
+            }
+        }
+    }
+
+    @Override
+    public SimpleMatrix getQuadraticCost(SimpleMatrix state, int timeStep, double dt) {
+        return costable.getQuadraticCost(state, timeStep, dt);
+    }
+
+    @Override
+    public SimpleMatrix getLinearCost(SimpleMatrix state, int timeStep, double dt) {
+        return costable.getLinearCost(state, timeStep, dt);
+    }
+
+    public Costable getCostable() {
+        return costable;
+    }
+}
@@ -0,0 +1,104 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * Surface velocities of unpowered odometry (dead) wheels, in meters per second, for the
+ * {@code MecanumDriveModel} state {x, v_x, y, v_y, psi, omega}. Encoder counts are turned into
+ * velocities by the caller, for example by dividing the distance each wheel rolled since the last
+ * loop by the loop time.
+ *
+ * Each wheel is described by its position (x, y) in the robot frame, with x forward and y to the
+ * left, and the angle of its rolling direction from the forward axis. A wheel then measures
+ *
+ * v = cos(theta) (v_forward - omega y) + sin(theta) (v_left + omega x)
+ *
+ * where v_forward and v_left are the field velocity rotated into the robot frame.
+ */
+public class DeadWheelMeasurementModel implements MeasurementModel {
+    private final double[] wheelX;
+    private final double[] wheelY;
+    private final double[] wheelCos;
+    private final double[] wheelSin;
+    private final DMatrixRMaj noiseCovariance;
+
+    /**
+     * @param wheelX                    Forward position of each wheel, in meters.
+     * @param wheelY                    Leftward position of each wheel, in meters.
+     * @param wheelAngles               Rolling direction of each wheel from the forward axis, in radians.
+     * @param velocityStandardDeviation Standard deviation of each wheel velocity, in meters per second.
+     */
+    public DeadWheelMeasurementModel(double[] wheelX, double[] wheelY, double[] wheelAngles, double velocityStandardDeviation) {
+        if(wheelY.length != wheelX.length || wheelAngles.length != wheelX.length) {
+            throw new IllegalArgumentException("Expected a position and angle for every wheel");
+        }
+
+        this.wheelX = wheelX.clone();
+        this.wheelY = wheelY.clone();
+        wheelCos = new double[wheelX.length];
+        wheelSin = new double[wheelX.length];
+        for(int i = 0; i < wheelX.length; i++) {
+            wheelCos[i] = Math.cos(wheelAngles[i]);
+            wheelSin[i] = Math.sin(wheelAngles[i]);
+        }
+
+        noiseCovariance = CommonOps_DDRM.identity(wheelX.length);
+        CommonOps_DDRM.scale(velocityStandardDeviation * velocityStandardDeviation, noiseCovariance);
+    }
+
+    /**
+     * The common layout of two forward-facing wheels on either side of the robot center and one
+     * sideways wheel in front of or behind it.
+     *
+     * @param trackWidth          Distance between the two forward-facing wheels, in meters.
+     * @param perpendicularOffset Forward position of the sideways wheel, in meters.
+     */
+    public static DeadWheelMeasurementModel threeWheel(double trackWidth, double perpendicularOffset, double velocityStandardDeviation) {
+        return new DeadWheelMeasurementModel(
+                new double[] {0d, 0d, perpendicularOffset},
+                new double[] {trackWidth / 2d, -trackWidth / 2d, 0d},
+                new double[] {0d, 0d, Math.PI / 2d},
+                velocityStandardDeviation
+        );
+    }
+
+    @Override
+    public int getMeasurementDimension() {
+        return wheelX.length;
+    }
+
+    @Override
+    public void predictMeasurement(DMatrixRMaj state, DMatrixRMaj measurement) {
+        double cosPsi = Math.cos(state.get(4));
+        double sinPsi = Math.sin(state.get(4));
+        double forwardVelocity = cosPsi * state.get(1) + sinPsi * state.get(3);
+        double leftVelocity = -sinPsi * state.get(1) + cosPsi * state.get(3);
+        double angularVelocity = state.get(5);
+        for(int i = 0; i < wheelX.length; i++) {
+            measurement.set(i, wheelCos[i] * (forwardVelocity - angularVelocity * wheelY[i]) +
+                    wheelSin[i] * (leftVelocity + angularVelocity * wheelX[i]));
+        }
+    }
+
+    @Override
+    public void getJacobian(DMatrixRMaj state, DMatrixRMaj jacobian) {
+        double cosPsi = Math.cos(state.get(4));
+        double sinPsi = Math.sin(state.get(4));
+        double forwardVelocity = cosPsi * state.get(1) + sinPsi * state.get(3);
+        double leftVelocity = -sinPsi * state.get(1) + cosPsi * state.get(3);
+        jacobian.zero();
+        for(int i = 0; i < wheelX.length; i++) {
+            jacobian.set(i, 1, wheelCos[i] * cosPsi - wheelSin[i] * sinPsi);
+            jacobian.set(i, 3, wheelCos[i] * sinPsi + wheelSin[i] * cosPsi);
+            //d(v_forward)/d(psi) = v_left and d(v_left)/d(psi) = -v_forward
+            jacobian.set(i, 4, wheelCos[i] * leftVelocity - wheelSin[i] * forwardVelocity);
+            jacobian.set(i, 5, -wheelCos[i] * wheelY[i] + wheelSin[i] * wheelX[i]);
+        }
+    }
+
+    @Override
+    public DMatrixRMaj getNoiseCovariance() {
+        return noiseCovariance;
+    }
+}
@@ -0,0 +1,150 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.physics.NonlinearDynamicModel;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Kalman filter that linearizes the dynamics and the measurements about the current estimate. The
+ * state Jacobian of the dynamics is found by finite differences of {@code simulate}, so any
+ * {@code NonlinearDynamicModel} can be used, while the measurement Jacobians come from the
+ * {@code MeasurementModel}s.
+ *
+ * The covariance is corrected in the Joseph form, (I - KH) P (I - KH)^T + K R K^T, which keeps it
+ * symmetric and positive definite under rounding. All intermediate matrices are allocated once and
+ * reused, and the solver for the innovation covariance is cached per measurement dimension.
+ */
+public class ExtendedKalmanFilter extends StateEstimator {
+    private static final double JACOBIAN_STEP = 1E-6d;
+
+    private final DMatrixRMaj nextState;
+    private final DMatrixRMaj perturbedState;
+    private final DMatrixRMaj perturbedNextState;
+    private final DMatrixRMaj stateJacobian;
+    private final DMatrixRMaj identity;
+    private final DMatrixRMaj covarianceBuffer;
+
+    private final DMatrixRMaj predictedMeasurement;
+    private final DMatrixRMaj residual;
+    private final DMatrixRMaj measurementJacobian;
+    private final DMatrixRMaj measurementCovariance;
+    private final DMatrixRMaj innovationCovariance;
+    private final DMatrixRMaj gainTranspose;
+    private final DMatrixRMaj gain;
+    private final DMatrixRMaj gainNoise;
+    private final DMatrixRMaj correction;
+
+    public ExtendedKalmanFilter(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                SimpleMatrix initialCovariance, int inputDimension) {
+        this(model, processNoise, initialState, initialCovariance, inputDimension, DEFAULT_HISTORY_CAPACITY);
+    }
+
+    public ExtendedKalmanFilter(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                SimpleMatrix initialCovariance, int inputDimension, int historyCapacity) {
+        super(model, processNoise, initialState, initialCovariance, inputDimension, historyCapacity);
+        int n = getStateDimension();
+        nextState = new DMatrixRMaj(n, 1);
+        perturbedState = new DMatrixRMaj(n, 1);
+        perturbedNextState = new DMatrixRMaj(n, 1);
+        stateJacobian = new DMatrixRMaj(n, n);
+        identity = CommonOps_DDRM.identity(n);
+        covarianceBuffer = new DMatrixRMaj(n, n);
+
+        predictedMeasurement = new DMatrixRMaj(n, 1);
+        residual = new DMatrixRMaj(n, 1);
+        measurementJacobian = new DMatrixRMaj(n, n);
+        measurementCovariance = new DMatrixRMaj(n, n);
+        innovationCovariance = new DMatrixRMaj(n, n);
+        gainTranspose = new DMatrixRMaj(n, n);
+        gain = new DMatrixRMaj(n, n);
+        gainNoise = new DMatrixRMaj(n, n);
+        correction = new DMatrixRMaj(n, n);
+    }
+
+    /**
+     * Predicts the state with the model and the covariance with F P F^T + Q dt, where F is the finite
+     * difference Jacobian of the model about the current estimate.
+     */
+    @Override
+    protected void propagate(DMatrixRMaj state, DMatrixRMaj covariance, DMatrixRMaj input, double dt) {
+        linearize(state, input, dt, nextState, stateJacobian);
+        state.set(nextState);
+        normalizeAngles(state);
+
+        //P = F P F^T + Q dt
+        CommonOps_DDRM.mult(stateJacobian, covariance, covarianceBuffer);
+        CommonOps_DDRM.multTransB(covarianceBuffer, stateJacobian, covariance);
+        CommonOps_DDRM.addEquals(covariance, dt, getProcessNoise());
+    }
+
+    /**
+     * Writes the model prediction from {@code state} into {@code nextState} and its finite difference
+     * Jacobian with respect to {@code state} into {@code jacobian}.
+     */
+    protected void linearize(DMatrixRMaj state, DMatrixRMaj input, double dt, DMatrixRMaj nextState, DMatrixRMaj jacobian) {
+        int n = getStateDimension();
+        simulate(state, input, dt, nextState);
+        for(int i = 0; i < n; i++) {
+            perturbedState.set(state);
+            perturbedState.add(i, 0, JACOBIAN_STEP);
+            simulate(perturbedState, input, dt, perturbedNextState);
+            for(int j = 0; j < n; j++) {
+                jacobian.set(j, i, getStateDifference(perturbedNextState, nextState, j) / JACOBIAN_STEP);
+            }
+        }
+    }
+
+    @Override
+    protected void correct(DMatrixRMaj state, DMatrixRMaj covariance, MeasurementModel model, DMatrixRMaj measurement) {
+        int n = getStateDimension();
+        int m = model.getMeasurementDimension();
+        predictedMeasurement.reshape(m, 1);
+        residual.reshape(m, 1);
+        measurementJacobian.reshape(m, n);
+        measurementCovariance.reshape(m, n);
+        innovationCovariance.reshape(m, m);
+        gainTranspose.reshape(m, n);
+        gain.reshape(n, m);
+        gainNoise.reshape(n, m);
+
+        model.predictMeasurement(state, predictedMeasurement);
+        model.getResidual(measurement, predictedMeasurement, residual);
+        model.getJacobian(state, measurementJacobian);
+
+        //S = H P H^T + R
+        CommonOps_DDRM.mult(measurementJacobian, covariance, measurementCovariance);
+        CommonOps_DDRM.multTransB(measurementCovariance, measurementJacobian, innovationCovariance);
+        CommonOps_DDRM.addEquals(innovationCovariance, model.getNoiseCovariance());
+
+        //K^T = S^-1 H P, since S and P are symmetric
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(m);
+        if(!solver.setA(innovationCovariance)) {
+            return;
+        }
+
+        solver.solve(measurementCovariance, gainTranspose);
+        CommonOps_DDRM.transpose(gainTranspose, gain);
+
+        //x = x + K y
+        CommonOps_DDRM.multAdd(gain, residual, state);
+        normalizeAngles(state);
+
+        //P = (I - K H) P (I - K H)^T + K R K^T
+        CommonOps_DDRM.mult(gain, measurementJacobian, correction);
+        CommonOps_DDRM.subtract(identity, correction, correction);
+        CommonOps_DDRM.mult(correction, covariance, covarianceBuffer);
+        CommonOps_DDRM.multTransB(covarianceBuffer, correction, covariance);
+        CommonOps_DDRM.mult(gain, model.getNoiseCovariance(), gainNoise);
+        CommonOps_DDRM.multAddTransB(gainNoise, gain, covariance);
+    }
+
+    /**
+     * @return The state Jacobian of the dynamics from the last prediction.
+     */
+    public SimpleMatrix getStateJacobian() {
+        return SimpleMatrix.wrap(stateJacobian.copy());
+    }
+}
@@ -0,0 +1,48 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * Heading and angular velocity {psi, omega} from an IMU, in radians and radians per second, for the
+ * {@code MecanumDriveModel} state {x, v_x, y, v_y, psi, omega}.
+ */
+public class IMUMeasurementModel implements MeasurementModel {
+    private final DMatrixRMaj noiseCovariance;
+
+    public IMUMeasurementModel(double headingStandardDeviation, double angularVelocityStandardDeviation) {
+        noiseCovariance = CommonOps_DDRM.diag(headingStandardDeviation * headingStandardDeviation,
+                angularVelocityStandardDeviation * angularVelocityStandardDeviation);
+    }
+
+    @Override
+    public int getMeasurementDimension() {
+        return 2;
+    }
+
+    @Override
+    public void predictMeasurement(DMatrixRMaj state, DMatrixRMaj measurement) {
+        measurement.set(0, state.get(4));
+        measurement.set(1, state.get(5));
+    }
+
+    @Override
+    public void getJacobian(DMatrixRMaj state, DMatrixRMaj jacobian) {
+        jacobian.zero();
+        jacobian.set(0, 4, 1d);
+        jacobian.set(1, 5, 1d);
+    }
+
+    @Override
+    public DMatrixRMaj getNoiseCovariance() {
+        return noiseCovariance;
+    }
+
+    @Override
+    public void getResidual(DMatrixRMaj measurement, DMatrixRMaj predicted, DMatrixRMaj residual) {
+        residual.set(0, Util.normalizeAngle(measurement.get(0) - predicted.get(0)));
+        residual.set(1, measurement.get(1) - predicted.get(1));
+    }
+}
@@ -36,7 +36,7 @@ public class KalmanFilter {
                                      SimpleMatrix input, double dt) throws InvalidDynamicModelException {
         SimpleMatrix effectiveA = getLqrSolver().getA(lastPredictedState, dt).minus(getK(timeStep).mult(getC()));
         SimpleMatrix effectiveB = getLqrSolver().getB(lastPredictedState, dt);
-        return effectiveA.mult(lastPredictedState).plus(effectiveB).mult(input).plus(getK(timeStep).mult(getC().mult(measuredState)));
+        return effectiveA.mult(lastPredictedState).plus(effectiveB.mult(input)).plus(getK(timeStep).mult(getC().mult(measuredState)));
     }
 
     public SimpleMatrix getK(int timeStep) {
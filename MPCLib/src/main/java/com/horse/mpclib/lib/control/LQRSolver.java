@@ -128,6 +128,26 @@ public class LQRSolver {
      */
     private int inputDimension;
 
+    /**
+     * This matrix penalizes the change in input between consecutive time steps, or is null if the
+     * input rate is not penalized. When set, the previous input is appended to the state, the input
+     * becomes the change in input, and {@code inputCost} penalizes the previous input through the
+     * augmented state cost. This smooths the commands sent to the actuators, in the same way as
+     * limiting the power acceleration by hand, while keeping the controller optimal.
+     *
+     * The augmented Riccati recursion is evaluated block by block, exploiting the identity and zero
+     * blocks of the augmented dynamics, so the only matrix that is inverted is still the
+     * {@code inputDimension} square one.
+     */
+    private SimpleMatrix inputRateCost;
+
+    /**
+     * The input currently applied to the system, which the first change in input is applied to when
+     * the input rate is penalized, or null for zero. {@code getOptimalInput} never changes it, so the
+     * caller that commands the system sets it after every input it applies.
+     */
+    private SimpleMatrix previousInput;
+
     public LQRSolver(int horizonStep, double dt, SimpleMatrix terminationCost, SimpleMatrix intermediaryStateCost,
                      SimpleMatrix inputCost, DynamicModel model) {
         setHorizonStep(horizonStep);
@@ -143,12 +163,16 @@ public class LQRSolver {
     public LQRSolver(LQRSolver lqrSolver) {
         this(lqrSolver.getHorizonStep(), lqrSolver.getDt(), lqrSolver.getTerminationCost(), lqrSolver.getIntermediaryStateCost(),
                 lqrSolver.getInputCost(), lqrSolver.getModel());
+        setInputRateCost(lqrSolver.getInputRateCost());
+        if(lqrSolver.getPreviousInput() != null) {
+            setPreviousInput(lqrSolver.getPreviousInput().copy());
+        }
     }
 
     public void runLQR(SimpleMatrix currentState) throws InvalidDynamicModelException {
         setP(new SimpleMatrix[getHorizonStep()]);
         setK(new SimpleMatrix[getHorizonStep() - 1]);
-        getP()[getP().length - 1] = getStateCost(getHorizonStep());
+        getP()[getP().length - 1] = isInputRateAugmented() ? getAugmentedStateCost(getHorizonStep()) : getStateCost(getHorizonStep());
 
         SimpleMatrix A = getA(currentState);
         SimpleMatrix B = getB(currentState);
@@ -159,6 +183,9 @@ public class LQRSolver {
     public void solveRiccatiEquation(int timeStep, SimpleMatrix A, SimpleMatrix B) {
         if(timeStep < 1) {
             return;
+        } else if(isInputRateAugmented()) {
+            solveAugmentedRiccatiEquation(timeStep, A, B);
+            return;
         }
 
         SimpleMatrix Q = getStateCost(timeStep);
@@ -181,6 +208,29 @@ public class LQRSolver {
     }
 
     public SimpleMatrix getOptimalInput(int timeStep, SimpleMatrix state, SimpleMatrix desiredState) throws InvalidDynamicModelException {
+        return getOptimalInput(timeStep, state, desiredState, new SimpleMatrix(getInputDimension(), 1));
+    }
+
+    /**
+     * @param feedforwardInput Input that holds the system on the reference, added to the feedback
+     *                         before the input is limited.
+     */
+    public SimpleMatrix getOptimalInput(int timeStep, SimpleMatrix state, SimpleMatrix desiredState, SimpleMatrix feedforwardInput) throws InvalidDynamicModelException {
+        return getOptimalInput(timeStep, state, desiredState, feedforwardInput, getPreviousInput());
+    }
+
+    /**
+     * @param previousInput The input applied at the previous time step, which the optimal change in
+     *                      input is applied to when the input rate is penalized, or null for zero.
+     *                      It is ignored otherwise.
+     */
+    public SimpleMatrix getOptimalInput(int timeStep, SimpleMatrix state, SimpleMatrix desiredState, SimpleMatrix feedforwardInput,
+                                        SimpleMatrix previousInput) throws InvalidDynamicModelException {
+        if(isInputRateAugmented()) {
+            return getOptimalInputChange(timeStep, state, desiredState, feedforwardInput,
+                    previousInput == null ? new SimpleMatrix(getInputDimension(), 1) : previousInput);
+        }
+
         if(timeStep < getK().length) {
             SimpleMatrix A = getA(state);
             SimpleMatrix B = getB(state);
@@ -188,15 +238,107 @@ public class LQRSolver {
             try {
                 SimpleMatrix inverse = getInputCost().plus(B.transpose().mult(getP()[timeStep].mult(B))).invert();
                 K = inverse.mult(B.transpose()).mult(getP()[timeStep]).mult(A).negative();
+            } catch(Exception e) {
+                K = getK()[timeStep];
+            }
+
+            return limitInput(K.mult(state.minus(desiredState)).plus(feedforwardInput));
+        }
+
+        return limitInput(feedforwardInput);
+    }
+
+    /**
+     * Riccati recursion for the state augmented with the previous input, z = [x; u_prev], with the
+     * change in input as the control:
+     *
+     * z' = [A B; 0 I] z + [B; I] du
+     *
+     * With P = [P11 P12; P21 P22], G1 = P11 B + P12 and G2 = P21 B + P22, the blocks of the
+     * recursion are B_z^T P B_z = B^T G1 + G2 and H = B_z^T P A_z = [G1^T A, B^T G1 + G2], and H is
+     * also the bottom block row of A_z^T P A_z. None of the products involve the full augmented
+     * matrices.
+     */
+    private void solveAugmentedRiccatiEquation(int timeStep, SimpleMatrix A, SimpleMatrix B) {
+        for(; timeStep > 0; timeStep--) {
+            try {
+                SimpleMatrix H = new SimpleMatrix(getInputDimension(), getStateDimension() + getInputDimension());
+                SimpleMatrix K = getAugmentedGain(getP()[timeStep], A, B, H);
+                getK()[timeStep - 1] = K;
+
+                int n = getStateDimension();
+                SimpleMatrix P11 = getP()[timeStep].extractMatrix(0, n, 0, n);
+                SimpleMatrix G1 = P11.mult(B).plus(getP()[timeStep].extractMatrix(0, n, n, SimpleMatrix.END));
+                SimpleMatrix transitionCost = new SimpleMatrix(n + getInputDimension(), n + getInputDimension());
+                SimpleMatrix topRight = A.transpose().mult(G1);
+                transitionCost.insertIntoThis(0, 0, A.transpose().mult(P11).mult(A));
+                transitionCost.insertIntoThis(0, n, topRight);
+                transitionCost.insertIntoThis(n, 0, topRight.transpose());
+                transitionCost.insertIntoThis(n, n, H.extractMatrix(0, SimpleMatrix.END, n, SimpleMatrix.END));
+
+                //P = Q_z + A_z^T P A_z - H^T (R_du + B_z^T P B_z)^-1 H, where K = -(R_du + B_z^T P B_z)^-1 H
+                getP()[timeStep - 1] = symmetrize(getAugmentedStateCost(timeStep).plus(transitionCost).plus(H.transpose().mult(K)));
+            } catch(Exception e) {
+                System.out.println("Failed to backwards-solve riccati equation. Setting the rest of the controllers to zero.");
+                while(--timeStep > 0) {
+                    getP()[timeStep] = new SimpleMatrix(getStateDimension() + getInputDimension(), getStateDimension() + getInputDimension());
+                    getK()[timeStep] = new SimpleMatrix(getInputDimension(), getStateDimension() + getInputDimension());
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * The input rate cost is usually much smaller than B_z^T P B_z, so the subtraction in the
+     * augmented recursion cancels most of the input block, and the asymmetric rounding error left
+     * over grows from step to step until P diverges. Averaging P with its transpose removes it.
+     */
+    public static SimpleMatrix symmetrize(SimpleMatrix P) {
+        return P.plus(P.transpose()).scale(1 / 2d);
+    }
 
+    /**
+     * @param H Filled with B_z^T P A_z, for reuse by the Riccati recursion.
+     * @return  The gain K that maps the augmented state [x; u_prev] to the change in input.
+     */
+    private SimpleMatrix getAugmentedGain(SimpleMatrix P, SimpleMatrix A, SimpleMatrix B, SimpleMatrix H) {
+        int n = getStateDimension();
+        SimpleMatrix P11 = P.extractMatrix(0, n, 0, n);
+        SimpleMatrix P12 = P.extractMatrix(0, n, n, SimpleMatrix.END);
+        SimpleMatrix P22 = P.extractMatrix(n, SimpleMatrix.END, n, SimpleMatrix.END);
+        SimpleMatrix G1 = P11.mult(B).plus(P12);
+        SimpleMatrix G2 = P12.transpose().mult(B).plus(P22);
+        SimpleMatrix inputBlock = B.transpose().mult(G1).plus(G2);
+        H.insertIntoThis(0, 0, G1.transpose().mult(A));
+        H.insertIntoThis(0, n, inputBlock);
+        return getInputRateCost().plus(inputBlock).invert().mult(H).negative();
+    }
+
+    /**
+     * Input-rate penalized counterpart of {@code getOptimalInput}, which applies the optimal change
+     * in input to {@code previousInput}.
+     */
+    private SimpleMatrix getOptimalInputChange(int timeStep, SimpleMatrix state, SimpleMatrix desiredState, SimpleMatrix feedforwardInput,
+                                               SimpleMatrix previousInput) throws InvalidDynamicModelException {
+        if(timeStep < getK().length) {
+            SimpleMatrix A = getA(state);
+            SimpleMatrix B = getB(state);
+            SimpleMatrix K;
+            try {
+                K = getAugmentedGain(getP()[timeStep], A, B, new SimpleMatrix(getInputDimension(), getStateDimension() + getInputDimension()));
             } catch(Exception e) {
                 K = getK()[timeStep];
             }
 
-            return limitInput(K.mult(state.minus(desiredState)));
+            SimpleMatrix augmentedError = new SimpleMatrix(getStateDimension() + getInputDimension(), 1);
+            augmentedError.insertIntoThis(0, 0, state.minus(desiredState));
+            augmentedError.insertIntoThis(getStateDimension(), 0, previousInput.minus(feedforwardInput));
+            return limitInput(previousInput.plus(K.mult(augmentedError)));
         }
 
-        return new SimpleMatrix(getInputDimension(), 1);
+        return limitInput(feedforwardInput);
     }
 
     public SimpleMatrix limitInput(SimpleMatrix control) {
@@ -208,6 +350,47 @@ public class LQRSolver {
         return timeStep >= getHorizonStep() - 1 ? getTerminationCost() : getIntermediaryStateCost();
     }
 
+    /**
+     * @return The cost of the state augmented with the previous input, blkdiag(Q, R).
+     */
+    public SimpleMatrix getAugmentedStateCost(int timeStep) {
+        SimpleMatrix cost = new SimpleMatrix(getStateDimension() + getInputDimension(), getStateDimension() + getInputDimension());
+        cost.insertIntoThis(0, 0, getStateCost(timeStep));
+        cost.insertIntoThis(getStateDimension(), getStateDimension(), getInputCost());
+        return cost;
+    }
+
+    /**
+     * @return A_z = [A B; 0 I], the transition of the state augmented with the previous input.
+     */
+    public SimpleMatrix getAugmentedA(SimpleMatrix A, SimpleMatrix B) {
+        SimpleMatrix augmentedA = new SimpleMatrix(getStateDimension() + getInputDimension(), getStateDimension() + getInputDimension());
+        augmentedA.insertIntoThis(0, 0, A);
+        augmentedA.insertIntoThis(0, getStateDimension(), B);
+        for(int i = getStateDimension(); i < augmentedA.numRows(); i++) {
+            augmentedA.set(i, i, 1d);
+        }
+
+        return augmentedA;
+    }
+
+    /**
+     * @return B_z = [B; I], the effect of the change in input on the augmented state.
+     */
+    public SimpleMatrix getAugmentedB(SimpleMatrix B) {
+        SimpleMatrix augmentedB = new SimpleMatrix(getStateDimension() + getInputDimension(), getInputDimension());
+        augmentedB.insertIntoThis(0, 0, B);
+        for(int i = 0; i < getInputDimension(); i++) {
+            augmentedB.set(getStateDimension() + i, i, 1d);
+        }
+
+        return augmentedB;
+    }
+
+    public boolean isInputRateAugmented() {
+        return getInputRateCost() != null;
+    }
+
     public SimpleMatrix getA(SimpleMatrix currentState) throws InvalidDynamicModelException {
         return getA(currentState, getDt());
     }
@@ -327,4 +510,28 @@ public class LQRSolver {
     public void setInputDimension(int inputDimension) {
         this.inputDimension = inputDimension;
     }
+
+    public SimpleMatrix getInputRateCost() {
+        return inputRateCost;
+    }
+
+    /**
+     * @param inputRateCost The penalty on the change in input between time steps, or null to not
+     *                      penalize it. {@code runLQR} must be called again after changing it.
+     */
+    public void setInputRateCost(SimpleMatrix inputRateCost) {
+        this.inputRateCost = inputRateCost;
+    }
+
+    public SimpleMatrix getPreviousInput() {
+        return previousInput;
+    }
+
+    /**
+     * @param previousInput The input currently applied to the system, from which the next input is
+     *                      changed when the input rate is penalized.
+     */
+    public void setPreviousInput(SimpleMatrix previousInput) {
+        this.previousInput = previousInput;
+    }
 }
@@ -26,7 +26,20 @@ public class MPCSolver {
     private SimpleMatrix currentState;
     private SimpleMatrix desiredState;
 
+    //The input applied before the first step of the horizon, u_-1, which the rollout starts from
+    private SimpleMatrix initialInput;
+
+    private ReferenceTrajectory referenceTrajectory;
+    private double referenceTime;
+    private SimpleMatrix referenceState;
+    private SimpleMatrix referenceInput;
+
     private List<? extends Costable> costables;
+    private List<AccumulatingCostable> accumulatingCostables;
+
+    //Reused by every step of the backward pass, so that summing the costs does not allocate
+    private SimpleMatrix quadraticCostBuffer;
+    private SimpleMatrix linearCostBuffer;
 
     private double currentRuntime;
     private boolean isFirstIteration;
@@ -61,7 +74,28 @@ public class MPCSolver {
         this(new LQRSolver(horizonStep, dt, terminationCost, intermediaryStateCost, inputCost, model), costables);
     }
 
+    /**
+     * Regulates to {@code desiredState}, discarding any reference trajectory tracked before.
+     */
     public void initializeAndIterate(int iterations, SimpleMatrix currentState, SimpleMatrix desiredState) throws InvalidDynamicModelException {
+        setReferenceTrajectory(null);
+        initializeAndIterateFrom(iterations, currentState, desiredState);
+    }
+
+    /**
+     * Tracks {@code referenceTrajectory} instead of regulating to a single desired state. Horizon step
+     * {@code i} is matched with the reference at {@code referenceTime + i * dt}, so the solver should
+     * be re-initialized with the time elapsed along the reference whenever the current state is
+     * updated.
+     */
+    public void initializeAndIterate(int iterations, SimpleMatrix currentState, ReferenceTrajectory referenceTrajectory,
+                                     double referenceTime) throws InvalidDynamicModelException {
+        setReferenceTrajectory(referenceTrajectory);
+        setReferenceTime(referenceTime);
+        initializeAndIterateFrom(iterations, currentState, referenceTrajectory.getState(referenceTime));
+    }
+
+    private void initializeAndIterateFrom(int iterations, SimpleMatrix currentState, SimpleMatrix desiredState) throws InvalidDynamicModelException {
         initialIteration(currentState, desiredState);
         iterate(iterations);
     }
@@ -76,6 +110,8 @@ public class MPCSolver {
     public void initialIteration(SimpleMatrix currentState, SimpleMatrix desiredState) throws InvalidDynamicModelException {
         setCurrentState(currentState);
         setDesiredState(desiredState);
+        setInitialInput(getLqrSolver().getPreviousInput() == null ? new SimpleMatrix(getLqrSolver().getInputDimension(), 1) :
+                getLqrSolver().getPreviousInput().copy());
         getLqrSolver().runLQR(getCurrentState());
         setK(getLqrSolver().getK());
         setL(new SimpleMatrix[getLqrSolver().getHorizonStep()]);
@@ -98,14 +134,21 @@ public class MPCSolver {
             for(int i = 1; i <= getLqrSolver().getHorizonStep(); i++) {
                 getA()[i - 1] = getLqrSolver().getA(getSimulatedStates()[i - 1]);
                 getB()[i - 1] = getLqrSolver().getB(getSimulatedStates()[i - 1]);
-                getSimulatedInputs()[i - 1] = getLqrSolver().getOptimalInput(i - 1, getSimulatedStates()[i - 1], desiredState);
+                if(isTracking()) {
+                    getSimulatedInputs()[i - 1] = getLqrSolver().getOptimalInput(i - 1, getSimulatedStates()[i - 1],
+                            getReferenceState(i - 1), getReferenceInput(i - 1), getSimulatedPreviousInput(i - 1));
+                } else {
+                    getSimulatedInputs()[i - 1] = getLqrSolver().getOptimalInput(i - 1, getSimulatedStates()[i - 1], desiredState,
+                            new SimpleMatrix(getLqrSolver().getInputDimension(), 1), getSimulatedPreviousInput(i - 1));
+                }
+
                 getSimulatedStates()[i] = getA()[i - 1].mult(getSimulatedStates()[i - 1]).plus(getB()[i - 1].mult(getSimulatedInputs()[i - 1]));
             }
         } else {
             for(int i = 1; i <= getLqrSolver().getHorizonStep(); i++) {
                 getA()[i - 1] = getLqrSolver().getA(getSimulatedStates()[i - 1]);
                 getB()[i - 1] = getLqrSolver().getB(getSimulatedStates()[i - 1]);
-                getSimulatedInputs()[i - 1] = getOptimalInput(i - 1, getSimulatedStates()[i - 1]);
+                getSimulatedInputs()[i - 1] = getOptimalInput(i - 1, getSimulatedStates()[i - 1], getSimulatedPreviousInput(i - 1));
                 getSimulatedStates()[i] = getA()[i - 1].mult(getSimulatedStates()[i - 1]).plus(getB()[i - 1].mult(getSimulatedInputs()[i - 1]));
             }
         }
@@ -114,9 +157,23 @@ public class MPCSolver {
     public void runMPCIteration() {
         setP(new SimpleMatrix[getLqrSolver().getHorizonStep()]);
         setp(new SimpleMatrix[getLqrSolver().getHorizonStep()]);
-        getP()[getP().length - 1] = getLqrSolver().getTerminationCost();
-        getL()[getL().length - 1] = getLinearStateCost(getLqrSolver().getHorizonStep(), getLqrSolver().getTerminationCost());
+        SimpleMatrix terminalLinearCost = isTracking() ? getTrackingCost(getLqrSolver().getHorizonStep(), getLqrSolver().getTerminationCost()) :
+                getLinearStateCost(getLqrSolver().getHorizonStep(), getLqrSolver().getTerminationCost());
+        if(getLqrSolver().isInputRateAugmented()) {
+            getP()[getP().length - 1] = getLqrSolver().getAugmentedStateCost(getLqrSolver().getHorizonStep());
+            getL()[getL().length - 1] = new SimpleMatrix(getCostDimension(), 1);
+            getL()[getL().length - 1].insertIntoThis(0, 0, terminalLinearCost);
+        } else {
+            getP()[getP().length - 1] = getLqrSolver().getTerminationCost();
+            getL()[getL().length - 1] = terminalLinearCost;
+        }
+
         setCurrentRuntime(TimeUtil.getCurrentRuntime(TimeUnits.SECONDS));
+        if(quadraticCostBuffer == null || quadraticCostBuffer.numRows() != getCostDimension()) {
+            quadraticCostBuffer = new SimpleMatrix(getCostDimension(), getCostDimension());
+            linearCostBuffer = new SimpleMatrix(getCostDimension(), 1);
+        }
+
         solveRiccatiEquation(getLqrSolver().getHorizonStep() - 1);
         setFirstIteration(false);
     }
@@ -128,22 +185,49 @@ public class MPCSolver {
 
         SimpleMatrix A = getA()[timeStep];
         SimpleMatrix B = getB()[timeStep];
-
-        SimpleMatrix Q = getLqrSolver().getStateCost(timeStep).plus(getCostablesQuadraticCost(timeStep));
         SimpleMatrix R = getLqrSolver().getInputCost();
+
+        SimpleMatrix Q = quadraticCostBuffer;
+        if(getLqrSolver().isInputRateAugmented()) {
+            //z = [x; u_prev] with the change in input as the control, Q_z = blkdiag(Q, R) and R_z the input rate cost
+            Q.zero();
+            Q.insertIntoThis(0, 0, getLqrSolver().getStateCost(timeStep));
+            Q.insertIntoThis(getLqrSolver().getStateDimension(), getLqrSolver().getStateDimension(), R);
+            A = getLqrSolver().getAugmentedA(A, B);
+            B = getLqrSolver().getAugmentedB(B);
+            R = getLqrSolver().getInputRateCost();
+        } else {
+            Q.set(getLqrSolver().getStateCost(timeStep));
+        }
+
+        addCostablesQuadraticCost(timeStep, Q);
         try {
             SimpleMatrix inverse = R.plus(B.transpose().mult(getP()[timeStep].mult(B))).invert();
             getP()[timeStep - 1] = Q.plus(A.transpose().mult(getP()[timeStep].mult(A))).minus(A.transpose().mult(getP()[timeStep].mult(B.mult(inverse).mult(B.transpose().mult(getP()[timeStep].mult(A))))));
+            if(getLqrSolver().isInputRateAugmented()) {
+                getP()[timeStep - 1] = LQRSolver.symmetrize(getP()[timeStep - 1]);
+            }
+
             getK()[timeStep - 1] = inverse.mult(B.transpose()).mult(getP()[timeStep]).mult(A).negative();
 
-            SimpleMatrix q = getCostablesLinearCost(timeStep);
+            SimpleMatrix q = linearCostBuffer;
+            q.zero();
+            addCostablesLinearCost(timeStep, q);
+            if(isTracking()) {
+                addTrackingCost(timeStep, getLqrSolver().getStateCost(timeStep), q);
+            }
 
-            SimpleMatrix S = getP()[timeStep].minus(getP()[timeStep].mult(B).mult(inverse.invert()).mult(B.transpose()).mult(getP()[timeStep]));
-            getL()[timeStep - 1] = A.transpose().mult(S).mult(getP()[timeStep].invert()).mult(getL()[timeStep].plus(q));
+            if(getLqrSolver().isInputRateAugmented()) {
+                //B_z has an identity block, so the linear term is carried back by the closed-loop transition (A_z + B_z K_z)^T
+                getL()[timeStep - 1] = A.plus(B.mult(getK()[timeStep - 1])).transpose().mult(getL()[timeStep].plus(q));
+            } else {
+                SimpleMatrix S = getP()[timeStep].minus(getP()[timeStep].mult(B).mult(inverse.invert()).mult(B.transpose()).mult(getP()[timeStep]));
+                getL()[timeStep - 1] = A.transpose().mult(S).mult(getP()[timeStep].invert()).mult(getL()[timeStep].plus(q));
+            }
         } catch(SingularMatrixException e) {
-            getp()[timeStep - 1] = new SimpleMatrix(getLqrSolver().getStateDimension(), getLqrSolver().getStateDimension());
-            getK()[timeStep - 1] = new SimpleMatrix(getLqrSolver().getInputDimension(), getLqrSolver().getStateDimension());
-            getL()[timeStep - 1] = new SimpleMatrix(getLqrSolver().getStateDimension(), 1);
+            getp()[timeStep - 1] = new SimpleMatrix(getCostDimension(), getCostDimension());
+            getK()[timeStep - 1] = new SimpleMatrix(getLqrSolver().getInputDimension(), getCostDimension());
+            getL()[timeStep - 1] = new SimpleMatrix(getCostDimension(), 1);
         }
 
         solveRiccatiEquation(--timeStep);
@@ -153,10 +237,31 @@ public class MPCSolver {
         return getOptimalInput((int)(timeStamp / getLqrSolver().getDt()), state);
     }
 
+    /**
+     * With the input rate penalized, the change in input is applied to the previous input of the
+     * {@code LQRSolver}, which the caller commanding the system keeps up to date.
+     */
     public SimpleMatrix getOptimalInput(int timeStep, SimpleMatrix state) throws InvalidDynamicModelException {
+        return getOptimalInput(timeStep, state, getLqrSolver().getPreviousInput());
+    }
+
+    /**
+     * @param previousInput The input applied at the previous time step, which the optimal change in
+     *                      input is applied to when the input rate is penalized, or null for zero.
+     *                      It is ignored otherwise.
+     */
+    public SimpleMatrix getOptimalInput(int timeStep, SimpleMatrix state, SimpleMatrix previousInput) throws InvalidDynamicModelException {
+        if(previousInput == null) {
+            previousInput = new SimpleMatrix(getLqrSolver().getInputDimension(), 1);
+        }
+
         if(getSimulatedInputs() != null && getP() != null && timeStep < getSimulatedInputs().length - 1) {
             SimpleMatrix A = getLqrSolver().getA(state);
             SimpleMatrix B = getLqrSolver().getB(state);
+            if(getLqrSolver().isInputRateAugmented()) {
+                return getOptimalInputChange(timeStep, state, previousInput, A, B);
+            }
+
             SimpleMatrix K;
             try {
                 SimpleMatrix inverse = getLqrSolver().getInputCost().plus(B.transpose().mult(getP()[timeStep].mult(B))).invert();
@@ -168,44 +273,148 @@ public class MPCSolver {
 
             }
         } else if(timeStep < getLqrSolver().getK().length - 1) {
-            return getLqrSolver().getOptimalInput(timeStep, state, getDesiredState());
+            if(isTracking()) {
+                return getLqrSolver().getOptimalInput(timeStep, state, getReferenceState(timeStep), getReferenceInput(timeStep), previousInput);
+            }
+
+            return getLqrSolver().getOptimalInput(timeStep, state, getDesiredState(), new SimpleMatrix(getLqrSolver().getInputDimension(), 1), previousInput);
         }
 
         return new SimpleMatrix(getLqrSolver().getInputDimension(), 1);
     }
 
+    /**
+     * Input-rate penalized counterpart of {@code getOptimalInput}, with the augmented state
+     * z = [x; u_prev] and the change in input du as the control, so that
+     * du = (u_t - u_t-1) + K_z (z - z_t) - (R_z + B_z^T P B_z)^-1 B_z^T l / 2 about the simulated
+     * trajectory.
+     */
+    private SimpleMatrix getOptimalInputChange(int timeStep, SimpleMatrix state, SimpleMatrix previousInput, SimpleMatrix A, SimpleMatrix B) {
+        SimpleMatrix augmentedA = getLqrSolver().getAugmentedA(A, B);
+        SimpleMatrix augmentedB = getLqrSolver().getAugmentedB(B);
+        SimpleMatrix simulatedPreviousInput = getSimulatedPreviousInput(timeStep);
+        try {
+            SimpleMatrix inverse = getLqrSolver().getInputRateCost().plus(augmentedB.transpose().mult(getP()[timeStep].mult(augmentedB))).invert();
+            SimpleMatrix K = inverse.mult(augmentedB.transpose()).mult(getP()[timeStep]).mult(augmentedA).negative();
+            SimpleMatrix augmentedError = new SimpleMatrix(getCostDimension(), 1);
+            augmentedError.insertIntoThis(0, 0, state.minus(getSimulatedStates()[timeStep]));
+            augmentedError.insertIntoThis(getLqrSolver().getStateDimension(), 0, previousInput.minus(simulatedPreviousInput));
+            SimpleMatrix inputChange = getSimulatedInputs()[timeStep].minus(simulatedPreviousInput).plus(K.mult(augmentedError)).minus(
+                    inverse.mult(augmentedB.transpose()).mult(getL()[timeStep]).scale(1 / 2d));
+            return getLqrSolver().limitInput(previousInput.plus(inputChange));
+        } catch(SingularMatrixException e) {
+            return getLqrSolver().limitInput(previousInput);
+        }
+    }
+
+    /**
+     * @return The simulated input applied before {@code timeStep}, starting from the initial input.
+     */
+    private SimpleMatrix getSimulatedPreviousInput(int timeStep) {
+        return timeStep == 0 ? getInitialInput() : getSimulatedInputs()[timeStep - 1];
+    }
+
+    /**
+     * @return The dimension of the Riccati recursion, which includes the previous input when the input
+     *         rate is penalized.
+     */
+    private int getCostDimension() {
+        return getLqrSolver().getStateDimension() + (getLqrSolver().isInputRateAugmented() ? getLqrSolver().getInputDimension() : 0);
+    }
+
     public SimpleMatrix getCostablesQuadraticCost(int timeStep) {
         SimpleMatrix Q = new SimpleMatrix(getLqrSolver().getStateDimension(), getLqrSolver().getStateDimension());
+        addCostablesQuadraticCost(timeStep, Q);
+        return Q;
+    }
+
+    public SimpleMatrix getCostablesLinearCost(int timeStep) {
+        SimpleMatrix q = new SimpleMatrix(getLqrSolver().getStateDimension(), 1);
+        addCostablesLinearCost(timeStep, q);
+        return q;
+    }
+
+    /**
+     * Adds the quadratic costs of every costable at {@code timeStep} into {@code Q} in place.
+     */
+    public void addCostablesQuadraticCost(int timeStep, SimpleMatrix Q) {
         if(!isFirstIteration()) {
             try {
-                for(Costable costable : getCostables()) {
-                    SimpleMatrix cost = costable.getQuadraticCost(getSimulatedStates()[timeStep], timeStep, getLqrSolver().getDt());
-                    if(cost != null) {
-                        Q = Q.plus(cost);
-                    }
+                for(AccumulatingCostable costable : getAccumulatingCostables()) {
+                    costable.addQuadraticCost(getSimulatedStates()[timeStep], timeStep, getLqrSolver().getDt(), Q);
                 }
             } catch(NoSuchElementException e) {
             }
         }
-
-        return Q;
     }
 
-    public SimpleMatrix getCostablesLinearCost(int timeStep) {
-        SimpleMatrix q = new SimpleMatrix(getLqrSolver().getStateDimension(), 1);
+    /**
+     * Adds the linear costs of every costable at {@code timeStep} into {@code q} in place.
+     */
+    public void addCostablesLinearCost(int timeStep, SimpleMatrix q) {
         if(!isFirstIteration()) {
             try {
-                for(Costable costable : getCostables()) {
-                    SimpleMatrix cost = costable.getLinearCost(getSimulatedStates()[timeStep], timeStep, getLqrSolver().getDt());
-                    if(cost != null) {
-                        q = q.plus(cost);
-                    }
+                for(AccumulatingCostable costable : getAccumulatingCostables()) {
+                    costable.addLinearCost(getSimulatedStates()[timeStep], timeStep, getLqrSolver().getDt(), q);
                 }
             } catch(NoSuchElementException e) {
             }
         }
+    }
 
-        return q;
+    /**
+     * @return The gradient Q (x - r) of the tracking cost (x - r)^T Q (x - r) / 2 at the simulated
+     *         state of {@code timeStep}, where r is the reference at that step.
+     */
+    public SimpleMatrix getTrackingCost(int timeStep, SimpleMatrix cost) {
+        SimpleMatrix trackingCost = new SimpleMatrix(cost.numRows(), 1);
+        addTrackingCost(timeStep, cost, trackingCost);
+        return trackingCost;
+    }
+
+    /**
+     * Adds the gradient of the tracking cost at {@code timeStep} into the first rows of
+     * {@code linearCost} in place.
+     */
+    public void addTrackingCost(int timeStep, SimpleMatrix cost, SimpleMatrix linearCost) {
+        SimpleMatrix state = getSimulatedStates()[timeStep];
+        SimpleMatrix reference = getReferenceState(timeStep);
+        for(int i = 0; i < cost.numRows(); i++) {
+            double gradient = 0d;
+            for(int j = 0; j < cost.numCols(); j++) {
+                gradient += cost.get(i, j) * (state.get(j) - reference.get(j));
+            }
+
+            linearCost.set(i, linearCost.get(i) + gradient);
+        }
+    }
+
+    /**
+     * @return The reference state at horizon step {@code timeStep}. The matrix is reused by the next
+     *         call.
+     */
+    public SimpleMatrix getReferenceState(int timeStep) {
+        if(referenceState == null || referenceState.numRows() != getReferenceTrajectory().getStateDimension()) {
+            referenceState = new SimpleMatrix(getReferenceTrajectory().getStateDimension(), 1);
+        }
+
+        return getReferenceTrajectory().getState(getReferenceTime() + timeStep * getLqrSolver().getDt(), referenceState);
+    }
+
+    /**
+     * @return The feed-forward input at horizon step {@code timeStep}. The matrix is reused by the
+     *         next call.
+     */
+    public SimpleMatrix getReferenceInput(int timeStep) {
+        if(referenceInput == null || referenceInput.numRows() != getReferenceTrajectory().getInputDimension()) {
+            referenceInput = new SimpleMatrix(getReferenceTrajectory().getInputDimension(), 1);
+        }
+
+        return getReferenceTrajectory().getInput(getReferenceTime() + timeStep * getLqrSolver().getDt(), referenceInput);
+    }
+
+    public boolean isTracking() {
+        return getReferenceTrajectory() != null;
     }
 
     public SimpleMatrix getLinearStateCost(SimpleMatrix state, SimpleMatrix cost) {
@@ -304,6 +513,14 @@ public class MPCSolver {
         this.desiredState = desiredState;
     }
 
+    public SimpleMatrix getInitialInput() {
+        return initialInput;
+    }
+
+    public void setInitialInput(SimpleMatrix initialInput) {
+        this.initialInput = initialInput;
+    }
+
     public double getCurrentRuntime() {
         return currentRuntime;
     }
@@ -320,11 +537,48 @@ public class MPCSolver {
         isFirstIteration = firstIteration;
     }
 
+    public ReferenceTrajectory getReferenceTrajectory() {
+        return referenceTrajectory;
+    }
+
+    /**
+     * @param referenceTrajectory The trajectory to track, or null to regulate to the desired state.
+     */
+    public void setReferenceTrajectory(ReferenceTrajectory referenceTrajectory) {
+        this.referenceTrajectory = referenceTrajectory;
+    }
+
+    public double getReferenceTime() {
+        return referenceTime;
+    }
+
+    /**
+     * @param referenceTime The time along the reference trajectory, in seconds, that the first step
+     *                      of the horizon corresponds to.
+     */
+    public void setReferenceTime(double referenceTime) {
+        this.referenceTime = referenceTime;
+    }
+
     public List<? extends Costable> getCostables() {
         return costables;
     }
 
     public void setCostables(List<? extends Costable> costables) {
         this.costables = costables;
+        setAccumulatingCostables(CostableAdapter.adapt(costables));
+    }
+
+    /**
+     * @return The costables as {@code AccumulatingCostable}s, with legacy ones wrapped in a
+     *         {@code CostableAdapter}. Adapted once by {@code setCostables}, so it must be called again
+     *         if the list of costables is changed.
+     */
+    public List<AccumulatingCostable> getAccumulatingCostables() {
+        return accumulatingCostables;
+    }
+
+    public void setAccumulatingCostables(List<AccumulatingCostable> accumulatingCostables) {
+        this.accumulatingCostables = accumulatingCostables;
     }
 }
@@ -0,0 +1,36 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * Describes what a sensor measures as a function of the state, z = h(x) + v, where v is zero-mean
+ * noise with covariance {@code getNoiseCovariance()}. Used by the {@code StateEstimator}s to fuse
+ * sensors into the state estimate.
+ *
+ * Methods write into matrices owned by the caller, so that measurement updates do not allocate.
+ */
+public interface MeasurementModel {
+    int getMeasurementDimension();
+
+    /**
+     * Writes the measurement expected at {@code state}, h(x), into {@code measurement}.
+     */
+    void predictMeasurement(DMatrixRMaj state, DMatrixRMaj measurement);
+
+    /**
+     * Writes the Jacobian of h at {@code state}, a {@code getMeasurementDimension()} by state
+     * dimension matrix, into {@code jacobian}.
+     */
+    void getJacobian(DMatrixRMaj state, DMatrixRMaj jacobian);
+
+    DMatrixRMaj getNoiseCovariance();
+
+    /**
+     * Writes {@code measurement - predicted} into {@code residual}. Models measuring angles override
+     * this to wrap the angle residuals into [-pi, pi).
+     */
+    default void getResidual(DMatrixRMaj measurement, DMatrixRMaj predicted, DMatrixRMaj residual) {
+        CommonOps_DDRM.subtract(measurement, predicted, residual);
+    }
+}
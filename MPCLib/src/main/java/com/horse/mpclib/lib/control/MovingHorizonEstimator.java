@@ -0,0 +1,586 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.physics.NonlinearDynamicModel;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Estimates the states over a window of the last {@code horizonStep} predictions by solving the
+ * least squares problem
+ *
+ * min ||x_0 - x_prior||^2_P0 + sum ||x_k+1 - f(x_k, u_k)||^2_(Q dt_k) + sum rho(z_k - h(x_k))_R
+ *
+ * where the first term is the arrival cost from the estimate at the start of the window and rho is
+ * the Huber loss on the measurement residuals normalized by their noise. Unlike the quadratic loss
+ * of a Kalman filter, the Huber loss grows linearly beyond {@code getHuberThreshold()} standard
+ * deviations, so that a few dead wheel readings taken while the wheels slip bend the estimate by a
+ * bounded amount instead of dragging it along.
+ *
+ * Each Gauss-Newton iteration linearizes the dynamics about the window and solves the resulting
+ * linear-quadratic problem with the same structure as {@code MPCSolver}: a backward Riccati sweep
+ * where the process noise plays the part of the input, followed by a forward rollout from the
+ * optimal initial state. Between solves the filter runs as an {@code ExtendedKalmanFilter}, whose
+ * estimates in the {@code StateHistory} provide the arrival cost and warm start the next window, so
+ * iterations pick up where the previous window left off.
+ *
+ * {@code solve} shortens the window to the number of predictions that the iterations measured so
+ * far say an iteration fits in the time budget for, only starts iterations that are expected to fit,
+ * and abandons one that reaches the budget anyway, keeping the states of the iteration before. The
+ * budget is checked at every step of the window, so it is overrun by at most one step and
+ * {@code solve} can be called every loop. When not even a window of one prediction is expected to
+ * fit, the solve is skipped, counted by {@code getSkippedSolveCount}, and the estimate stays the one
+ * from the Kalman filter. All matrices are allocated once and reused.
+ */
+public class MovingHorizonEstimator extends ExtendedKalmanFilter {
+    private static final double DEFAULT_TIME_BUDGET = 0.002d; //s
+    private static final double DEFAULT_HUBER_THRESHOLD = 3d;
+    private static final int DEFAULT_MAX_ITERATIONS = 5;
+    private static final int MAX_STEP_HALVINGS = 4;
+    private static final double MIN_RELATIVE_IMPROVEMENT = 1E-6d;
+    private static final double ITERATION_TIME_SMOOTHING = 0.2d;
+
+    private final int horizonStep;
+    private double timeBudget = DEFAULT_TIME_BUDGET;
+    private double huberThreshold = DEFAULT_HUBER_THRESHOLD;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    private final DMatrixRMaj[] states;
+    private final DMatrixRMaj[] candidateStates;
+    private final DMatrixRMaj[] inputs;
+    private final double[] dts;
+    private final DMatrixRMaj[] predictedStates;
+    private final DMatrixRMaj[] stateJacobians;
+    private final DMatrixRMaj[] defects;
+    private final DMatrixRMaj[] measurementHessians;
+    private final DMatrixRMaj[] measurementGradients;
+    private final DMatrixRMaj[] gains;
+    private final DMatrixRMaj[] feedforwards;
+    private final DMatrixRMaj[] steps;
+
+    private final DMatrixRMaj priorState;
+    private final DMatrixRMaj priorInformation;
+    private final DMatrixRMaj processInformation;
+    private final DMatrixRMaj identity;
+    private final DMatrixRMaj valueHessian;
+    private final DMatrixRMaj valueGradient;
+    private final DMatrixRMaj inputHessian;
+    private final DMatrixRMaj valueHessianJacobian;
+    private final DMatrixRMaj inputGradient;
+    private final DMatrixRMaj rightHandSide;
+    private final DMatrixRMaj solution;
+    private final DMatrixRMaj squareBuffer;
+    private final DMatrixRMaj vectorBuffer;
+
+    private final DMatrixRMaj predictedMeasurement;
+    private final DMatrixRMaj measurementResidual;
+    private final DMatrixRMaj measurementJacobian;
+    private final DMatrixRMaj weightedJacobian;
+    private final DMatrixRMaj weightedResidual;
+    private final DMatrixRMaj noiseBuffer;
+
+    private int windowStart;
+    private int windowLength;
+    private int lastIterationCount;
+    private double lastCost;
+    //Running average duration of an iteration per step of the window, in nanoseconds, used to predict
+    //whether the next one fits in the budget. It is halved whenever an iteration or solve is skipped,
+    //down to the fastest complete iteration, so that a single slow iteration, such as one interrupted
+    //by garbage collection, cannot stall the estimator.
+    private double iterationTimeEstimate;
+    private double minIterationTime;
+    private long skippedSolveCount;
+
+    /**
+     * @param horizonStep The number of predictions in the window, which must be smaller than the
+     *                    history capacity.
+     */
+    public MovingHorizonEstimator(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                  SimpleMatrix initialCovariance, int inputDimension, int horizonStep) {
+        this(model, processNoise, initialState, initialCovariance, inputDimension, horizonStep,
+                Math.max(DEFAULT_HISTORY_CAPACITY, horizonStep + 1));
+    }
+
+    public MovingHorizonEstimator(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                  SimpleMatrix initialCovariance, int inputDimension, int horizonStep, int historyCapacity) {
+        super(model, processNoise, initialState, initialCovariance, inputDimension, historyCapacity);
+        if(horizonStep < 1 || horizonStep >= historyCapacity) {
+            throw new IllegalArgumentException("Horizon must be between 1 and the history capacity minus one");
+        }
+
+        this.horizonStep = horizonStep;
+        int n = getStateDimension();
+        states = createVectors(horizonStep + 1, n);
+        candidateStates = createVectors(horizonStep + 1, n);
+        inputs = createVectors(horizonStep, inputDimension);
+        dts = new double[horizonStep];
+        predictedStates = createVectors(horizonStep, n);
+        stateJacobians = createMatrices(horizonStep, n);
+        defects = createVectors(horizonStep, n);
+        measurementHessians = createMatrices(horizonStep + 1, n);
+        measurementGradients = createVectors(horizonStep + 1, n);
+        gains = createMatrices(horizonStep, n);
+        feedforwards = createVectors(horizonStep, n);
+        steps = createVectors(horizonStep + 1, n);
+
+        priorState = new DMatrixRMaj(n, 1);
+        priorInformation = new DMatrixRMaj(n, n);
+        processInformation = new DMatrixRMaj(n, n);
+        identity = CommonOps_DDRM.identity(n);
+        valueHessian = new DMatrixRMaj(n, n);
+        valueGradient = new DMatrixRMaj(n, 1);
+        inputHessian = new DMatrixRMaj(n, n);
+        valueHessianJacobian = new DMatrixRMaj(n, n);
+        inputGradient = new DMatrixRMaj(n, 1);
+        rightHandSide = new DMatrixRMaj(n, n + 1);
+        solution = new DMatrixRMaj(n, n + 1);
+        squareBuffer = new DMatrixRMaj(n, n);
+        vectorBuffer = new DMatrixRMaj(n, 1);
+
+        predictedMeasurement = new DMatrixRMaj(n, 1);
+        measurementResidual = new DMatrixRMaj(n, 1);
+        measurementJacobian = new DMatrixRMaj(n, n);
+        weightedJacobian = new DMatrixRMaj(n, n);
+        weightedResidual = new DMatrixRMaj(n, 1);
+        noiseBuffer = new DMatrixRMaj(n, n);
+
+        //The process noise is constant, so its inverse is only needed once
+        noiseBuffer.set(getProcessNoise());
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(n);
+        if(!solver.setA(noiseBuffer)) {
+            throw new IllegalArgumentException("Process noise must be positive definite");
+        }
+
+        solver.solve(identity, processInformation);
+    }
+
+    private static DMatrixRMaj[] createVectors(int count, int dimension) {
+        DMatrixRMaj[] vectors = new DMatrixRMaj[count];
+        for(int i = 0; i < count; i++) {
+            vectors[i] = new DMatrixRMaj(dimension, 1);
+        }
+
+        return vectors;
+    }
+
+    private static DMatrixRMaj[] createMatrices(int count, int dimension) {
+        DMatrixRMaj[] matrices = new DMatrixRMaj[count];
+        for(int i = 0; i < count; i++) {
+            matrices[i] = new DMatrixRMaj(dimension, dimension);
+        }
+
+        return matrices;
+    }
+
+    public int solve() {
+        return solve(getTimeBudget());
+    }
+
+    /**
+     * Runs Gauss-Newton iterations on the window ending at the newest estimate and writes the refined
+     * states back into the history and the current estimate.
+     *
+     * @param timeBudget The time, in seconds, that the iterations have to fit in.
+     * @return           The number of iterations that improved the estimate, which is 0 if the solve
+     *                   was skipped because no window fits in {@code timeBudget}.
+     */
+    public int solve(double timeBudget) {
+        long deadline = System.nanoTime() + (long)(timeBudget * 1E9d);
+        StateHistory history = getHistory();
+        lastIterationCount = 0;
+        windowLength = Math.min(horizonStep, history.size() - 1);
+        if(iterationTimeEstimate > 0d) {
+            //Shorten the window to one that an iteration is expected to fit in
+            windowLength = (int)Math.min(windowLength, (deadline - System.nanoTime()) / iterationTimeEstimate);
+        }
+
+        if(windowLength < 1) {
+            if(history.size() > 1) {
+                skippedSolveCount++;
+                iterationTimeEstimate = Math.max(iterationTimeEstimate / 2d, minIterationTime);
+            }
+
+            return 0;
+        }
+
+        windowStart = history.size() - 1 - windowLength;
+        loadWindow(history);
+
+        double cost = Double.POSITIVE_INFINITY;
+        for(int iteration = 0; iteration < getMaxIterations(); iteration++) {
+            long iterationStart = System.nanoTime();
+            if(iterationStart + iterationTimeEstimate * windowLength > deadline) {
+                iterationTimeEstimate = Math.max(iterationTimeEstimate / 2d, minIterationTime);
+                break;
+            }
+
+            double linearizedCost = linearize(deadline);
+            double newCost = Double.NaN;
+            if(!Double.isNaN(linearizedCost) && solveRiccatiEquation(deadline)) {
+                newCost = lineSearch(linearizedCost, deadline);
+            }
+
+            double iterationTime = (double)(System.nanoTime() - iterationStart) / windowLength;
+            if(Double.isNaN(newCost)) {
+                //An abandoned iteration would have taken at least as long as it ran
+                iterationTimeEstimate = Math.max(iterationTimeEstimate, iterationTime);
+                break;
+            }
+
+            cost = linearizedCost;
+            iterationTimeEstimate += ITERATION_TIME_SMOOTHING * (iterationTime - iterationTimeEstimate);
+            minIterationTime = minIterationTime > 0d ? Math.min(minIterationTime, iterationTime) : iterationTime;
+            if(newCost >= cost) {
+                break;
+            }
+
+            lastIterationCount++;
+            boolean converged = cost - newCost <= MIN_RELATIVE_IMPROVEMENT * cost;
+            cost = newCost;
+            if(converged) {
+                break;
+            }
+        }
+
+        lastCost = cost;
+        if(lastIterationCount > 0) {
+            for(int k = 1; k <= windowLength; k++) {
+                history.getCovariance(windowStart + k, noiseBuffer);
+                history.setEstimate(windowStart + k, states[k], noiseBuffer);
+            }
+
+            getEstimate().set(states[windowLength]);
+        }
+
+        return lastIterationCount;
+    }
+
+    private void loadWindow(StateHistory history) {
+        int n = getStateDimension();
+        history.getState(windowStart, priorState);
+        history.getCovariance(windowStart, noiseBuffer);
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(n);
+        if(!solver.setA(noiseBuffer)) {
+            //A degenerate covariance pins the first state, which a large information approximates
+            CommonOps_DDRM.scale(1E9d, identity, priorInformation);
+        } else {
+            solver.solve(identity, priorInformation);
+        }
+
+        for(int k = 0; k <= windowLength; k++) {
+            history.getState(windowStart + k, states[k]);
+            if(k > 0) {
+                history.getInput(windowStart + k, inputs[k - 1]);
+                dts[k - 1] = history.getDt(windowStart + k);
+            }
+        }
+    }
+
+    /**
+     * Linearizes the dynamics and measurements about {@code states} and fills the quadratic model of
+     * the measurement costs, with the Huber weights of the current residuals.
+     *
+     * @return The cost of {@code states}, or NaN if {@code deadline} passed first.
+     */
+    private double linearize(long deadline) {
+        int n = getStateDimension();
+        double cost = 0d;
+        for(int k = 0; k < windowLength; k++) {
+            if(System.nanoTime() > deadline) {
+                return Double.NaN;
+            }
+
+            linearize(states[k], inputs[k], dts[k], predictedStates[k], stateJacobians[k]);
+            //The defect c_k = f(x_k) - x_k+1 is the constant term of the linearized dynamics
+            for(int i = 0; i < n; i++) {
+                defects[k].set(i, getStateDifference(predictedStates[k], states[k + 1], i));
+            }
+
+            cost += getProcessCost(defects[k], dts[k]);
+        }
+
+        for(int k = 0; k <= windowLength; k++) {
+            measurementHessians[k].zero();
+            measurementGradients[k].zero();
+            if(k == 0) {
+                for(int i = 0; i < n; i++) {
+                    vectorBuffer.set(i, getStateDifference(states[0], priorState, i));
+                }
+
+                //Arrival cost 1/2 e^T P0^-1 e
+                measurementHessians[0].set(priorInformation);
+                CommonOps_DDRM.mult(priorInformation, vectorBuffer, measurementGradients[0]);
+                cost += CommonOps_DDRM.dot(vectorBuffer, measurementGradients[0]) / 2d;
+                //Measurements at the start of the window are already part of the arrival cost
+                continue;
+            }
+
+            StateHistory history = getHistory();
+            for(int j = 0; j < history.getMeasurementCount(windowStart + k); j++) {
+                cost += addMeasurementCost(states[k], history.getMeasurementModel(windowStart + k, j),
+                        history.getMeasurement(windowStart + k, j), measurementHessians[k], measurementGradients[k]);
+            }
+        }
+
+        return cost;
+    }
+
+    private double getProcessCost(DMatrixRMaj defect, double dt) {
+        CommonOps_DDRM.mult(processInformation, defect, vectorBuffer);
+        return CommonOps_DDRM.dot(defect, vectorBuffer) / (2d * dt);
+    }
+
+    /**
+     * Adds the Gauss-Newton Hessian w H^T R^-1 H and gradient -w H^T R^-1 r of the measurement cost
+     * at {@code state}, where w is the Huber weight of the normalized residual r, to
+     * {@code hessian} and {@code gradient}. Either may be null to only evaluate the cost.
+     *
+     * @return The Huber cost of the measurement.
+     */
+    private double addMeasurementCost(DMatrixRMaj state, MeasurementModel model, DMatrixRMaj measurement,
+                                      DMatrixRMaj hessian, DMatrixRMaj gradient) {
+        int n = getStateDimension();
+        int m = model.getMeasurementDimension();
+        predictedMeasurement.reshape(m, 1);
+        measurementResidual.reshape(m, 1);
+        weightedResidual.reshape(m, 1);
+        noiseBuffer.reshape(m, m);
+
+        model.predictMeasurement(state, predictedMeasurement);
+        model.getResidual(measurement, predictedMeasurement, measurementResidual);
+        noiseBuffer.set(model.getNoiseCovariance());
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(m);
+        solver.setA(noiseBuffer);
+        solver.solve(measurementResidual, weightedResidual);
+        double normalizedResidual = Math.sqrt(Math.max(CommonOps_DDRM.dot(measurementResidual, weightedResidual), 0d));
+        double cost;
+        double weight;
+        if(normalizedResidual <= getHuberThreshold()) {
+            cost = normalizedResidual * normalizedResidual / 2d;
+            weight = 1d;
+        } else {
+            cost = getHuberThreshold() * (normalizedResidual - getHuberThreshold() / 2d);
+            weight = getHuberThreshold() / normalizedResidual;
+        }
+
+        if(hessian != null) {
+            measurementJacobian.reshape(m, n);
+            weightedJacobian.reshape(m, n);
+            model.getJacobian(state, measurementJacobian);
+            solver.solve(measurementJacobian, weightedJacobian);
+            CommonOps_DDRM.multAddTransA(weight, measurementJacobian, weightedJacobian, hessian);
+            CommonOps_DDRM.multAddTransA(-weight, measurementJacobian, weightedResidual, gradient);
+        }
+
+        noiseBuffer.reshape(n, n);
+        return cost;
+    }
+
+    /**
+     * Solves the linearized window for the steps of every state. The process noise v_k is the input
+     * of the dynamics dx_k+1 = F_k dx_k + v_k + c_k with input cost (Q dt_k)^-1, and the cost to go
+     * from step k is 1/2 dx^T S_k dx + s_k^T dx. As in {@code MPCSolver}, the backward sweep stores
+     * the feedback gain and feedforward of the optimal input at every step, and the forward rollout
+     * applies them from the optimal first step -S_0^-1 s_0.
+     *
+     * @return Whether the steps were solved before {@code deadline}.
+     */
+    private boolean solveRiccatiEquation(long deadline) {
+        int n = getStateDimension();
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(n);
+        valueHessian.set(measurementHessians[windowLength]);
+        valueGradient.set(measurementGradients[windowLength]);
+        for(int k = windowLength - 1; k >= 0; k--) {
+            if(System.nanoTime() > deadline) {
+                return false;
+            }
+
+            //g = S c + s, the gradient of the cost to go at the uncorrected next state
+            CommonOps_DDRM.mult(valueHessian, defects[k], inputGradient);
+            CommonOps_DDRM.addEquals(inputGradient, valueGradient);
+
+            //Q_vv = (Q dt)^-1 + S and Q_vx = S F
+            CommonOps_DDRM.add(1d / dts[k], processInformation, 1d, valueHessian, inputHessian);
+            CommonOps_DDRM.mult(valueHessian, stateJacobians[k], valueHessianJacobian);
+
+            //[K l] = -Q_vv^-1 [Q_vx g]
+            CommonOps_DDRM.insert(valueHessianJacobian, rightHandSide, 0, 0);
+            CommonOps_DDRM.insert(inputGradient, rightHandSide, 0, n);
+            if(!solver.setA(inputHessian)) {
+                gains[k].zero();
+                feedforwards[k].zero();
+            } else {
+                solver.solve(rightHandSide, solution);
+                CommonOps_DDRM.extract(solution, 0, n, 0, n, gains[k], 0, 0);
+                CommonOps_DDRM.extract(solution, 0, n, n, n + 1, feedforwards[k], 0, 0);
+                CommonOps_DDRM.changeSign(gains[k]);
+                CommonOps_DDRM.changeSign(feedforwards[k]);
+            }
+
+            //S_k = M_k + F^T S F + Q_vx^T K and s_k = m_k + F^T g + Q_vx^T l
+            CommonOps_DDRM.multTransA(stateJacobians[k], valueHessianJacobian, squareBuffer);
+            CommonOps_DDRM.multAddTransA(valueHessianJacobian, gains[k], squareBuffer);
+            CommonOps_DDRM.add(measurementHessians[k], squareBuffer, valueHessian);
+            CommonOps_DDRM.multTransA(stateJacobians[k], inputGradient, vectorBuffer);
+            CommonOps_DDRM.multAddTransA(valueHessianJacobian, feedforwards[k], vectorBuffer);
+            CommonOps_DDRM.add(measurementGradients[k], vectorBuffer, valueGradient);
+            symmetrize(valueHessian);
+        }
+
+        if(!solver.setA(valueHessian)) {
+            steps[0].zero();
+        } else {
+            solver.solve(valueGradient, steps[0]);
+            CommonOps_DDRM.changeSign(steps[0]);
+        }
+
+        for(int k = 0; k < windowLength; k++) {
+            //dx_k+1 = F dx_k + (K dx_k + l) + c
+            CommonOps_DDRM.mult(stateJacobians[k], steps[k], steps[k + 1]);
+            CommonOps_DDRM.multAdd(gains[k], steps[k], steps[k + 1]);
+            CommonOps_DDRM.addEquals(steps[k + 1], feedforwards[k]);
+            CommonOps_DDRM.addEquals(steps[k + 1], defects[k]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Takes the largest step fraction out of 1, 1/2, 1/4, ... that lowers the cost, giving up on the
+     * step once {@code deadline} has passed.
+     *
+     * @return The cost of {@code states} after the step, which is {@code cost} if no step helped, or
+     *         NaN if the deadline passed first, which leaves {@code states} unchanged.
+     */
+    private double lineSearch(double cost, long deadline) {
+        double stepSize = 1d;
+        for(int i = 0; i <= MAX_STEP_HALVINGS; i++) {
+            for(int k = 0; k <= windowLength; k++) {
+                CommonOps_DDRM.add(states[k], stepSize, steps[k], candidateStates[k]);
+                normalizeAngles(candidateStates[k]);
+            }
+
+            double candidateCost = getCost(candidateStates, deadline);
+            if(Double.isNaN(candidateCost)) {
+                return Double.NaN;
+            } else if(candidateCost < cost) {
+                for(int k = 0; k <= windowLength; k++) {
+                    states[k].set(candidateStates[k]);
+                }
+
+                return candidateCost;
+            }
+
+            stepSize /= 2d;
+        }
+
+        return cost;
+    }
+
+    /**
+     * @return The cost of {@code states}, or NaN if {@code deadline} passed first.
+     */
+    private double getCost(DMatrixRMaj[] states, long deadline) {
+        int n = getStateDimension();
+        StateHistory history = getHistory();
+        for(int i = 0; i < n; i++) {
+            vectorBuffer.set(i, getStateDifference(states[0], priorState, i));
+        }
+
+        CommonOps_DDRM.mult(priorInformation, vectorBuffer, valueGradient);
+        double cost = CommonOps_DDRM.dot(vectorBuffer, valueGradient) / 2d;
+        for(int k = 0; k < windowLength; k++) {
+            if(System.nanoTime() > deadline) {
+                return Double.NaN;
+            }
+
+            simulate(states[k], inputs[k], dts[k], predictedStates[k]);
+            for(int i = 0; i < n; i++) {
+                defects[k].set(i, getStateDifference(predictedStates[k], states[k + 1], i));
+            }
+
+            cost += getProcessCost(defects[k], dts[k]);
+            for(int j = 0; j < history.getMeasurementCount(windowStart + k + 1); j++) {
+                cost += addMeasurementCost(states[k + 1], history.getMeasurementModel(windowStart + k + 1, j),
+                        history.getMeasurement(windowStart + k + 1, j), null, null);
+            }
+        }
+
+        return cost;
+    }
+
+    private static void symmetrize(DMatrixRMaj matrix) {
+        for(int i = 0; i < matrix.getNumRows(); i++) {
+            for(int j = i + 1; j < matrix.getNumCols(); j++) {
+                double average = (matrix.get(i, j) + matrix.get(j, i)) / 2d;
+                matrix.set(i, j, average);
+                matrix.set(j, i, average);
+            }
+        }
+    }
+
+    public int getHorizonStep() {
+        return horizonStep;
+    }
+
+    public double getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(double timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public double getHuberThreshold() {
+        return huberThreshold;
+    }
+
+    /**
+     * @param huberThreshold The normalized residual, in standard deviations, beyond which a
+     *                       measurement is treated as an outlier and its influence stops growing.
+     */
+    public void setHuberThreshold(double huberThreshold) {
+        this.huberThreshold = huberThreshold;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return The number of iterations that improved the estimate in the last call to {@code solve}.
+     */
+    public int getLastIterationCount() {
+        return lastIterationCount;
+    }
+
+    /**
+     * @return The cost of the window after the last call to {@code solve}.
+     */
+    public double getLastCost() {
+        return lastCost;
+    }
+
+    /**
+     * @return The number of predictions in the window of the last call to {@code solve}, which is
+     *         below the horizon while the history is shorter or a full window does not fit in the
+     *         time budget.
+     */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /**
+     * @return The number of calls to {@code solve} that ran no iteration because not even a window of
+     *         one prediction was expected to fit in the time budget.
+     */
+    public long getSkippedSolveCount() {
+        return skippedSolveCount;
+    }
+}
@@ -1,11 +1,11 @@
 package com.horse.mpclib.lib.control;
 
-import org.ejml.simple.SimpleEVD;
 import org.ejml.simple.SimpleMatrix;
 import com.horse.mpclib.lib.geometry.Translation2d;
 
-public class Obstacle implements Costable {
+public class Obstacle implements AccumulatingCostable {
     private static final double ROBOT_RADIUS = Math.sqrt(2d) * 9d * 0.0254d; //in
+    private static final int[] STATE_INDICES = new int[] {0, 2};
     private double lengthScale; //m
     private double obstacleRadius; //m
 
@@ -61,61 +61,63 @@ public class Obstacle implements Costable {
      * @return
      */
     public SimpleMatrix getLinearCost(SimpleMatrix expectedState) {
-        SimpleMatrix stateDisplacement = expectedState.minus(stateRepresentation());
-        Translation2d displacement = new Translation2d(stateDisplacement.get(0), stateDisplacement.get(2));
-        return new SimpleMatrix(6, 1, true, new double[] {
-                -2d * displacement.x(), 0, -2d * displacement.y(), 0, 0, 0
-        }).scale(getCostFactor() * Math.exp(-displacement.norm2() / Math.pow(getLengthScale(), 2)));
+        SimpleMatrix cost = new SimpleMatrix(6, 1);
+        addLinearCost(expectedState, cost);
+        return cost;
     }
 
     public SimpleMatrix getQuadraticCost(SimpleMatrix expectedState) {
-        SimpleMatrix stateDisplacement = expectedState.minus(stateRepresentation());
-        Translation2d displacement = new Translation2d(stateDisplacement.get(0), stateDisplacement.get(2));
-
-        SimpleMatrix Q = new SimpleMatrix(2, 2, true, new double[] {
-                -2d * getLengthScale() * getLengthScale() + 4d * displacement.x() * displacement.x(), 4d * displacement.x() * displacement.y(),
-                4d * displacement.x() * displacement.y(), -2d * getLengthScale() * getLengthScale() + 4d * displacement.y() * displacement.y()
-        }).scale(Math.exp(-displacement.norm2() / Math.pow(getLengthScale(), 2)) / Math.pow(getLengthScale(), 4));
-
-        SimpleEVD<SimpleMatrix> eigenDecomposition = Q.eig();
-        if(eigenDecomposition.getNumberOfEigenvalues() == 2) {
-            try {
-                SimpleMatrix P = new SimpleMatrix(2, 2, true, new double[] {
-                        eigenDecomposition.getEigenVector(0).get(0), eigenDecomposition.getEigenVector(1).get(0),
-                        eigenDecomposition.getEigenVector(0).get(1), eigenDecomposition.getEigenVector(1).get(1)
-                });
-
-                double eigenvalue1 = eigenDecomposition.getEigenvalue(0).getReal();
-                double eigenvalue2 = eigenDecomposition.getEigenvalue(1).getReal();
-                eigenvalue1 = eigenvalue1 < 0d ? 0d : eigenvalue1;
-                eigenvalue2 = eigenvalue2 < 0d ? 0d : eigenvalue2;
-
-                SimpleMatrix D = new SimpleMatrix(2, 2, true, new double[] {
-                        eigenvalue1, 0,
-                        0, eigenvalue2
-                });
-
-                Q = P.mult(D).mult(P.transpose());
-            } catch(NullPointerException e) {
-                return new SimpleMatrix(6, 6, true, new double[] {
-                        0, 0, 0, 0, 0, 0,
-                        0, 0, 0, 0, 0, 0,
-                        0, 0, 0, 0, 0, 0,
-                        0, 0, 0, 0, 0, 0,
-                        0, 0, 0, 0, 0, 0,
-                        0, 0, 0, 0, 0, 0
-                });
-            }
+        SimpleMatrix cost = new SimpleMatrix(6, 6);
+        addQuadraticCost(expectedState, cost);
+        return cost;
+    }
+
+    /**
+     * Adds the gradient of the obstacle cost at {@code expectedState} to the x and y entries of
+     * {@code accumulator}, a 6x1 vector, without allocating.
+     */
+    public void addLinearCost(SimpleMatrix expectedState, SimpleMatrix accumulator) {
+        double dx = expectedState.get(0) - getLocation().x() * 0.0254d;
+        double dy = expectedState.get(2) - getLocation().y() * 0.0254d;
+        double scale = -2d * getCostFactor() * Math.exp(-(dx * dx + dy * dy) / (getLengthScale() * getLengthScale()));
+        accumulator.set(0, accumulator.get(0) + scale * dx);
+        accumulator.set(2, accumulator.get(2) + scale * dy);
+    }
+
+    /**
+     * Adds the Hessian of the obstacle cost at {@code expectedState}, projected onto the positive
+     * semidefinite matrices, to the x and y entries of {@code accumulator}, a 6x6 matrix, without
+     * allocating.
+     */
+    public void addQuadraticCost(SimpleMatrix expectedState, SimpleMatrix accumulator) {
+        double dx = expectedState.get(0) - getLocation().x() * 0.0254d;
+        double dy = expectedState.get(2) - getLocation().y() * 0.0254d;
+        double lengthScaleSquared = getLengthScale() * getLengthScale();
+        double scale = getCostFactor() * Math.exp(-(dx * dx + dy * dy) / lengthScaleSquared) / (lengthScaleSquared * lengthScaleSquared);
+
+        double a = scale * (-2d * lengthScaleSquared + 4d * dx * dx);
+        double b = scale * 4d * dx * dy;
+        double c = scale * (-2d * lengthScaleSquared + 4d * dy * dy);
+
+        //Eigenvalues of the symmetric matrix [[a, b], [b, c]]
+        double mean = (a + c) / 2d;
+        double radius = Math.sqrt((a - c) * (a - c) / 4d + b * b);
+        double largerEigenvalue = mean + radius;
+        double smallerEigenvalue = mean - radius;
+        if(largerEigenvalue <= 0d) {
+            return;
+        } else if(smallerEigenvalue < 0d) {
+            //Keep only the positive eigenvalue, lambda v v^T = lambda (Q - mu I) / (lambda - mu)
+            double projection = largerEigenvalue / (largerEigenvalue - smallerEigenvalue);
+            a = projection * (a - smallerEigenvalue);
+            b = projection * b;
+            c = projection * (c - smallerEigenvalue);
         }
 
-        return new SimpleMatrix(6, 6, true, new double[] {
-                Q.get(0, 0), 0, Q.get(0, 1), 0, 0, 0,
-                0, 0, 0, 0, 0, 0,
-                Q.get(1, 0), 0, Q.get(1, 1), 0, 0, 0,
-                0, 0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0, 0,
-                0, 0, 0, 0, 0, 0
-        }).scale(getCostFactor());
+        accumulator.set(0, 0, accumulator.get(0, 0) + a);
+        accumulator.set(0, 2, accumulator.get(0, 2) + b);
+        accumulator.set(2, 0, accumulator.get(2, 0) + b);
+        accumulator.set(2, 2, accumulator.get(2, 2) + c);
     }
 
     public Translation2d getLocation() {
@@ -163,4 +165,19 @@ public class Obstacle implements Costable {
     public SimpleMatrix getLinearCost(SimpleMatrix state, int timeStep, double dt) {
         return getLinearCost(state);
     }
+
+    @Override
+    public int[] getStateIndices() {
+        return STATE_INDICES;
+    }
+
+    @Override
+    public void addQuadraticCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix quadraticCost) {
+        addQuadraticCost(state, quadraticCost);
+    }
+
+    @Override
+    public void addLinearCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix linearCost) {
+        addLinearCost(state, linearCost);
+    }
 }
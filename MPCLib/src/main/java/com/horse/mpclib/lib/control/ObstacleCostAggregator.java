@@ -0,0 +1,245 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sums the costs of many {@code Obstacle}s while only evaluating the ones close enough to the state
+ * to matter. The Gaussian cost of an obstacle falls off as exp(-d^2 / l^2), where l is its length
+ * scale, so beyond {@code CUTOFF_LENGTH_SCALES} length scales the Gaussian factor is below
+ * exp(-16), about 1E-7, and the cost is treated as zero.
+ *
+ * The obstacles are indexed in a uniform grid where every cell lists the obstacles whose cutoff
+ * circle overlaps it, so a query looks at a single cell. The accumulating methods never allocate,
+ * and when no obstacle is in range the {@code Costable} methods return null, which is treated as no
+ * cost. Adding obstacles far from the horizon therefore does not add to the solve time.
+ *
+ * The grid is built from the obstacle locations when the aggregator is created. If obstacles are
+ * added, removed or moved afterwards, {@code rebuild()} must be called.
+ */
+public class ObstacleCostAggregator implements AccumulatingCostable {
+    private static final double CUTOFF_LENGTH_SCALES = 4d;
+    private static final double DEFAULT_CELL_SIZE = 0.3d; //m
+    private static final int[] EMPTY = new int[0];
+    private static final int[] STATE_INDICES = new int[] {0, 2};
+
+    private final List<Obstacle> obstacles;
+    private final double cellSize;
+
+    private double[] obstacleX;
+    private double[] obstacleY;
+    private double[] cutoffsSquared;
+
+    private double gridOriginX;
+    private double gridOriginY;
+    private int gridColumns;
+    private int gridRows;
+    private int[][] gridCells;
+
+    public ObstacleCostAggregator(List<Obstacle> obstacles) {
+        this(obstacles, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize Width of the square cells of the obstacle index, in meters.
+     */
+    public ObstacleCostAggregator(List<Obstacle> obstacles, double cellSize) {
+        if(cellSize <= 0d) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+
+        this.obstacles = obstacles;
+        this.cellSize = cellSize;
+        rebuild();
+    }
+
+    /**
+     * Re-indexes the obstacles after they were added, removed or moved.
+     */
+    public void rebuild() {
+        int count = obstacles.size();
+        obstacleX = new double[count];
+        obstacleY = new double[count];
+        cutoffsSquared = new double[count];
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++) {
+            Obstacle obstacle = obstacles.get(i);
+            double cutoff = getCutoffRadius(obstacle);
+            obstacleX[i] = obstacle.getLocation().x() * 0.0254d;
+            obstacleY[i] = obstacle.getLocation().y() * 0.0254d;
+            cutoffsSquared[i] = cutoff * cutoff;
+            minX = Math.min(minX, obstacleX[i] - cutoff);
+            minY = Math.min(minY, obstacleY[i] - cutoff);
+            maxX = Math.max(maxX, obstacleX[i] + cutoff);
+            maxY = Math.max(maxY, obstacleY[i] + cutoff);
+        }
+
+        if(count == 0) {
+            gridColumns = 0;
+            gridRows = 0;
+            gridCells = new int[0][];
+            return;
+        }
+
+        gridOriginX = minX;
+        gridOriginY = minY;
+        gridColumns = Math.max(1, (int)Math.ceil((maxX - minX) / cellSize));
+        gridRows = Math.max(1, (int)Math.ceil((maxY - minY) / cellSize));
+
+        List<List<Integer>> cells = new ArrayList<>(gridColumns * gridRows);
+        for(int i = 0; i < gridColumns * gridRows; i++) {
+            cells.add(new ArrayList<>());
+        }
+
+        for(int k = 0; k < count; k++) {
+            double cutoff = Math.sqrt(cutoffsSquared[k]);
+            int firstColumn = getColumn(obstacleX[k] - cutoff);
+            int lastColumn = getColumn(obstacleX[k] + cutoff);
+            int firstRow = getRow(obstacleY[k] - cutoff);
+            int lastRow = getRow(obstacleY[k] + cutoff);
+            for(int i = firstColumn; i <= lastColumn; i++) {
+                for(int j = firstRow; j <= lastRow; j++) {
+                    cells.get(j * gridColumns + i).add(k);
+                }
+            }
+        }
+
+        gridCells = new int[cells.size()][];
+        for(int i = 0; i < gridCells.length; i++) {
+            gridCells[i] = cells.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return The distance, in meters, beyond which the cost of {@code obstacle} is treated as zero.
+     */
+    public static double getCutoffRadius(Obstacle obstacle) {
+        return CUTOFF_LENGTH_SCALES * obstacle.getLengthScale();
+    }
+
+    private int getColumn(double x) {
+        return Math.min(gridColumns - 1, Math.max(0, (int)((x - gridOriginX) / cellSize)));
+    }
+
+    private int getRow(double y) {
+        return Math.min(gridRows - 1, Math.max(0, (int)((y - gridOriginY) / cellSize)));
+    }
+
+    /**
+     * @return The indices of the obstacles whose cutoff circle may contain (x, y), in meters, or an
+     *         empty array if (x, y) is outside of the index.
+     */
+    private int[] getCandidates(double x, double y) {
+        if(gridColumns == 0 || x < gridOriginX || y < gridOriginY ||
+                x >= gridOriginX + gridColumns * cellSize || y >= gridOriginY + gridRows * cellSize) {
+            return EMPTY;
+        }
+
+        return gridCells[getRow(y) * gridColumns + getColumn(x)];
+    }
+
+    private boolean isInRange(int obstacle, double x, double y) {
+        double dx = x - obstacleX[obstacle];
+        double dy = y - obstacleY[obstacle];
+        return dx * dx + dy * dy < cutoffsSquared[obstacle];
+    }
+
+    /**
+     * @return The summed quadratic cost of the obstacles in range of {@code state}, or null if there
+     *         are none.
+     */
+    @Override
+    public SimpleMatrix getQuadraticCost(SimpleMatrix state, int timeStep, double dt) {
+        double x = state.get(0);
+        double y = state.get(2);
+        SimpleMatrix cost = null;
+        for(int obstacle : getCandidates(x, y)) {
+            if(isInRange(obstacle, x, y)) {
+                if(cost == null) {
+                    cost = new SimpleMatrix(6, 6);
+                }
+
+                obstacles.get(obstacle).addQuadraticCost(state, cost);
+            }
+        }
+
+        return cost;
+    }
+
+    /**
+     * @return The summed linear cost of the obstacles in range of {@code state}, or null if there are
+     *         none.
+     */
+    @Override
+    public SimpleMatrix getLinearCost(SimpleMatrix state, int timeStep, double dt) {
+        double x = state.get(0);
+        double y = state.get(2);
+        SimpleMatrix cost = null;
+        for(int obstacle : getCandidates(x, y)) {
+            if(isInRange(obstacle, x, y)) {
+                if(cost == null) {
+                    cost = new SimpleMatrix(6, 1);
+                }
+
+                obstacles.get(obstacle).addLinearCost(state, cost);
+            }
+        }
+
+        return cost;
+    }
+
+    @Override
+    public int[] getStateIndices() {
+        return STATE_INDICES;
+    }
+
+    @Override
+    public void addQuadraticCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix quadraticCost) {
+        double x = state.get(0);
+        double y = state.get(2);
+        for(int obstacle : getCandidates(x, y)) {
+            if(isInRange(obstacle, x, y)) {
+                obstacles.get(obstacle).addQuadraticCost(state, quadraticCost);
+            }
+        }
+    }
+
+    @Override
+    public void addLinearCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix linearCost) {
+        double x = state.get(0);
+        double y = state.get(2);
+        for(int obstacle : getCandidates(x, y)) {
+            if(isInRange(obstacle, x, y)) {
+                obstacles.get(obstacle).addLinearCost(state, linearCost);
+            }
+        }
+    }
+
+    /**
+     * @return The number of obstacles whose cost is evaluated at (x, y), in meters.
+     */
+    public int getObstaclesInRange(double x, double y) {
+        int count = 0;
+        for(int obstacle : getCandidates(x, y)) {
+            if(isInRange(obstacle, x, y)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public List<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,117 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * A time-indexed sequence of reference states and feed-forward inputs, sampled every {@code dt}
+ * seconds, for {@code MPCSolver} to track. The samples are stored in contiguous primitive arrays,
+ * one row per sample, so reading the reference at every step of the horizon does not allocate.
+ *
+ * States are interpolated linearly between samples and inputs are held from the previous sample.
+ * Before the first sample and after the last one, the first and last samples are used, so a
+ * trajectory ends by regulating to its final state.
+ */
+public class ReferenceTrajectory {
+    private final int stateDimension;
+    private final int inputDimension;
+    private final int length;
+    private final double dt;
+    private final double[] states;
+    private final double[] inputs;
+
+    /**
+     * Creates a trajectory of {@code length} samples with every state and input set to zero.
+     */
+    public ReferenceTrajectory(int stateDimension, int inputDimension, double dt, int length) {
+        if(length < 1 || dt <= 0d) {
+            throw new IllegalArgumentException("A reference trajectory requires at least one sample and a positive time step");
+        }
+
+        this.stateDimension = stateDimension;
+        this.inputDimension = inputDimension;
+        this.length = length;
+        this.dt = dt;
+        states = new double[stateDimension * length];
+        inputs = new double[inputDimension * length];
+    }
+
+    public void setState(int index, SimpleMatrix state) {
+        for(int i = 0; i < stateDimension; i++) {
+            states[index * stateDimension + i] = state.get(i);
+        }
+    }
+
+    public void setInput(int index, SimpleMatrix input) {
+        for(int i = 0; i < inputDimension; i++) {
+            inputs[index * inputDimension + i] = input.get(i);
+        }
+    }
+
+    /**
+     * Writes the reference state at {@code timeStamp} into {@code state}.
+     *
+     * @return {@code state}, for chaining.
+     */
+    public SimpleMatrix getState(double timeStamp, SimpleMatrix state) {
+        double position = Math.min(Math.max(timeStamp / dt, 0d), length - 1);
+        int index = Math.min((int)position, length - 2);
+        if(index < 0) {
+            for(int i = 0; i < stateDimension; i++) {
+                state.set(i, states[i]);
+            }
+
+            return state;
+        }
+
+        double fraction = position - index;
+        int offset = index * stateDimension;
+        for(int i = 0; i < stateDimension; i++) {
+            double start = states[offset + i];
+            state.set(i, start + fraction * (states[offset + stateDimension + i] - start));
+        }
+
+        return state;
+    }
+
+    public SimpleMatrix getState(double timeStamp) {
+        return getState(timeStamp, new SimpleMatrix(stateDimension, 1));
+    }
+
+    /**
+     * Writes the feed-forward input at {@code timeStamp} into {@code input}.
+     *
+     * @return {@code input}, for chaining.
+     */
+    public SimpleMatrix getInput(double timeStamp, SimpleMatrix input) {
+        int offset = Math.min(Math.max((int)(timeStamp / dt), 0), length - 1) * inputDimension;
+        for(int i = 0; i < inputDimension; i++) {
+            input.set(i, inputs[offset + i]);
+        }
+
+        return input;
+    }
+
+    public SimpleMatrix getInput(double timeStamp) {
+        return getInput(timeStamp, new SimpleMatrix(inputDimension, 1));
+    }
+
+    public double getDuration() {
+        return (length - 1) * dt;
+    }
+
+    public int getStateDimension() {
+        return stateDimension;
+    }
+
+    public int getInputDimension() {
+        return inputDimension;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public double getDt() {
+        return dt;
+    }
+}
@@ -1,5 +1,6 @@
 package com.horse.mpclib.lib.control;
 
+import com.horse.mpclib.lib.physics.DynamicModel;
 import com.horse.mpclib.lib.physics.InvalidDynamicModelException;
 import com.horse.mpclib.lib.util.TimeProfiler;
 import com.horse.mpclib.lib.util.TimeUnits;
@@ -18,13 +19,18 @@ public class RunnableMPC implements Runnable {
     private boolean stop;
 
     private LQRSolver lqrSolver;
+    private volatile DynamicModel model;
     private MPCSolver mpcSolver;
     private double policyLag;
+    private volatile double solveTime; //s
 
     private SimpleMatrix desiredState;
+    private volatile ReferenceTrajectory referenceTrajectory;
+    private TimeProfiler referenceTimeProfiler;
     private List<? extends Costable> costables;
 
     private Supplier<SimpleMatrix> currentState;
+    private volatile SimpleMatrix previousInput;
 
     public RunnableMPC(int iterations, LQRSolver lqrSolver, Supplier<SimpleMatrix> currentState) {
         this(iterations, lqrSolver, currentState, new LinkedList<>());
@@ -65,8 +71,26 @@ public class RunnableMPC implements Runnable {
     }
 
     public MPCSolver mpc(SimpleMatrix desiredState) throws InvalidDynamicModelException {
-        MPCSolver mpc = new MPCSolver(new LQRSolver(getLqrSolver()), getCostables());
-        mpc.initializeAndIterate(getIterations(), getCurrentState().get(), getDesiredState());
+        LQRSolver lqrSolver = new LQRSolver(getLqrSolver());
+        DynamicModel model = getModel();
+        if(model != null) {
+            lqrSolver.setModel(model);
+        }
+
+        SimpleMatrix previousInput = getPreviousInput();
+        if(previousInput != null) {
+            lqrSolver.setPreviousInput(previousInput);
+        }
+
+        MPCSolver mpc = new MPCSolver(lqrSolver, getCostables());
+        ReferenceTrajectory referenceTrajectory = getReferenceTrajectory();
+        if(referenceTrajectory != null) {
+            mpc.initializeAndIterate(getIterations(), getCurrentState().get(), referenceTrajectory,
+                    getReferenceTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false));
+        } else {
+            mpc.initializeAndIterate(getIterations(), getCurrentState().get(), getDesiredState());
+        }
+
         return mpc;
     }
 
@@ -78,6 +102,7 @@ public class RunnableMPC implements Runnable {
                 if(!isReadyToUpdate()) {
                     getPolicyTimeProfiler().start();
                     setMpcSolver(mpc(getDesiredState()));
+                    setSolveTime(getPolicyTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false));
                     getTimeProfiler().update(true);
                     Thread.sleep(1);
                     setReadyToUpdate(true);
@@ -94,6 +119,12 @@ public class RunnableMPC implements Runnable {
         if(isReadyToUpdate() && getMpcSolver() != null) {
             setPolicyLag(getPolicyTimeProfiler().getDeltaTime(TimeUnits.SECONDS, true));
             setReadyToUpdate(false);
+            //The solver was planned from an input that has since been replaced
+            SimpleMatrix previousInput = getPreviousInput();
+            if(previousInput != null) {
+                getMpcSolver().getLqrSolver().setPreviousInput(previousInput);
+            }
+
             return getMpcSolver();
         }
 
@@ -160,6 +191,17 @@ public class RunnableMPC implements Runnable {
         this.policyLag = policyLag;
     }
 
+    /**
+     * @return The time the last replan took, in seconds.
+     */
+    public double getSolveTime() {
+        return solveTime;
+    }
+
+    public void setSolveTime(double solveTime) {
+        this.solveTime = solveTime;
+    }
+
     public SimpleMatrix getDesiredState() {
         return desiredState;
     }
@@ -168,6 +210,27 @@ public class RunnableMPC implements Runnable {
         this.desiredState = desiredState;
     }
 
+    public ReferenceTrajectory getReferenceTrajectory() {
+        return referenceTrajectory;
+    }
+
+    /**
+     * Switches to tracking {@code referenceTrajectory}, starting from its beginning now, instead of
+     * regulating to the desired state. Passing null switches back to the desired state.
+     */
+    public void setReferenceTrajectory(ReferenceTrajectory referenceTrajectory) {
+        setReferenceTimeProfiler(new TimeProfiler(true));
+        this.referenceTrajectory = referenceTrajectory;
+    }
+
+    public TimeProfiler getReferenceTimeProfiler() {
+        return referenceTimeProfiler;
+    }
+
+    public void setReferenceTimeProfiler(TimeProfiler referenceTimeProfiler) {
+        this.referenceTimeProfiler = referenceTimeProfiler;
+    }
+
     public LQRSolver getLqrSolver() {
         return lqrSolver;
     }
@@ -176,6 +239,21 @@ public class RunnableMPC implements Runnable {
         this.lqrSolver = lqrSolver;
     }
 
+    /**
+     * @return The model set with {@code setModel}, or null if the model of the LQR solver is used.
+     */
+    public DynamicModel getModel() {
+        return model;
+    }
+
+    /**
+     * Replaces the model used for planning from the next replan on, for example with one from a
+     * {@code MecanumDriveModelIdentifier}. Can be called from any thread.
+     */
+    public void setModel(DynamicModel model) {
+        this.model = model;
+    }
+
     public Supplier<SimpleMatrix> getCurrentState() {
         return currentState;
     }
@@ -184,6 +262,18 @@ public class RunnableMPC implements Runnable {
         this.currentState = currentState;
     }
 
+    public SimpleMatrix getPreviousInput() {
+        return previousInput;
+    }
+
+    /**
+     * @param previousInput The input last commanded to the system, which the next replan starts from
+     *                      when the input rate is penalized. Can be called from any thread.
+     */
+    public void setPreviousInput(SimpleMatrix previousInput) {
+        this.previousInput = previousInput;
+    }
+
     public List<? extends Costable> getCostables() {
         return costables;
     }
@@ -0,0 +1,310 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.physics.NonlinearDynamicModel;
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Base class of the Kalman filters that estimate the state of a {@code NonlinearDynamicModel} from
+ * the inputs applied to it and from the readings of any number of {@code MeasurementModel}s.
+ *
+ * Every loop, {@code predict} is called with the input that was applied and the time stamp of the
+ * new estimate, and {@code update} is called for every sensor reading. Readings that were taken
+ * before the newest estimate, such as camera frames that took a few loops to process, are passed to
+ * {@code update} with the time they were taken at. The estimate at that time is then corrected and
+ * the estimates after it are predicted and corrected again from the {@code StateHistory}, so the
+ * delayed reading ends up in the current estimate as if it had arrived on time.
+ *
+ * The process noise covariance is given per second and scaled by the time step of each prediction,
+ * so that the filter behaves the same at any loop rate.
+ */
+public abstract class StateEstimator {
+    protected static final int DEFAULT_HISTORY_CAPACITY = 50;
+    private static final int DEFAULT_MAX_REPLAY_STEPS = 25;
+    private static final int DEFAULT_MAX_MEASUREMENTS_PER_ENTRY = 4;
+    private static final int[] NO_ANGLES = new int[0];
+
+    private final NonlinearDynamicModel model;
+    private final DMatrixRMaj processNoise;
+    private final DMatrixRMaj state;
+    private final DMatrixRMaj covariance;
+    private final StateHistory history;
+    private int[] angleIndices = NO_ANGLES;
+    private int maxReplaySteps = DEFAULT_MAX_REPLAY_STEPS;
+    private int rejectedMeasurementCount;
+
+    private final DMatrixRMaj replayInput;
+    private LinearSolverDense<DMatrixRMaj>[] solvers;
+
+    /**
+     * @param processNoise   Covariance of the process noise accumulated over one second.
+     * @param inputDimension The number of inputs of {@code model}.
+     */
+    public StateEstimator(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                          SimpleMatrix initialCovariance, int inputDimension) {
+        this(model, processNoise, initialState, initialCovariance, inputDimension, DEFAULT_HISTORY_CAPACITY);
+    }
+
+    /**
+     * @param historyCapacity The number of past estimates kept for delayed measurements.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StateEstimator(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                          SimpleMatrix initialCovariance, int inputDimension, int historyCapacity) {
+        int stateDimension = initialState.numRows();
+        if(processNoise.numRows() != stateDimension || processNoise.numCols() != stateDimension ||
+                initialCovariance.numRows() != stateDimension || initialCovariance.numCols() != stateDimension) {
+            throw new IllegalArgumentException("Covariances must be " + stateDimension + " by " + stateDimension);
+        }
+
+        this.model = model;
+        this.processNoise = processNoise.getDDRM().copy();
+        state = initialState.getDDRM().copy();
+        covariance = initialCovariance.getDDRM().copy();
+        history = new StateHistory(historyCapacity, stateDimension, inputDimension, DEFAULT_MAX_MEASUREMENTS_PER_ENTRY);
+        replayInput = new DMatrixRMaj(inputDimension, 1);
+        solvers = new LinearSolverDense[stateDimension + 1];
+    }
+
+    /**
+     * Moves {@code state} and {@code covariance} forward by {@code dt} under {@code input}, in place.
+     */
+    protected abstract void propagate(DMatrixRMaj state, DMatrixRMaj covariance, DMatrixRMaj input, double dt);
+
+    /**
+     * Corrects {@code state} and {@code covariance} in place with the measurement {@code measurement}
+     * of {@code model}.
+     */
+    protected abstract void correct(DMatrixRMaj state, DMatrixRMaj covariance, MeasurementModel model, DMatrixRMaj measurement);
+
+    /**
+     * Replaces the estimate and clears the history, for example when the robot is placed at a known
+     * pose.
+     */
+    public void setState(SimpleMatrix state, SimpleMatrix covariance, double timeStamp) {
+        this.state.set(state.getDDRM());
+        this.covariance.set(covariance.getDDRM());
+        history.clear();
+        history.add(timeStamp, this.state, this.covariance, null, 0d);
+    }
+
+    public void predict(SimpleMatrix input, double dt, double timeStamp) {
+        predict(input.getDDRM(), dt, timeStamp);
+    }
+
+    /**
+     * Predicts the estimate {@code dt} seconds forward under {@code input}, the input that was applied
+     * since the last prediction, and records it in the history at {@code timeStamp}.
+     */
+    public void predict(DMatrixRMaj input, double dt, double timeStamp) {
+        if(history.size() == 0) {
+            history.add(timeStamp - dt, state, covariance, null, 0d);
+        }
+
+        propagate(state, covariance, input, dt);
+        history.add(timeStamp, state, covariance, input, dt);
+    }
+
+    public void update(MeasurementModel model, SimpleMatrix measurement) {
+        update(model, measurement.getDDRM());
+    }
+
+    /**
+     * Corrects the current estimate with a measurement taken at the time of the last prediction.
+     */
+    public void update(MeasurementModel model, DMatrixRMaj measurement) {
+        correct(state, covariance, model, measurement);
+        if(history.size() > 0) {
+            history.setEstimate(history.size() - 1, state, covariance);
+            history.addMeasurement(history.size() - 1, model, measurement);
+        }
+    }
+
+    public boolean update(MeasurementModel model, SimpleMatrix measurement, double timeStamp) {
+        return update(model, measurement.getDDRM(), timeStamp);
+    }
+
+    /**
+     * Corrects the estimate with a measurement taken at {@code timeStamp}. If the measurement is older
+     * than the newest estimate, it is applied to the newest estimate at or before {@code timeStamp}
+     * and the estimates after it are replayed.
+     *
+     * The cost of a delayed measurement is one prediction and the logged corrections per estimate
+     * after it, so measurements that would need more than {@code getMaxReplaySteps()} predictions are
+     * rejected to keep the loop time bounded.
+     *
+     * @return Whether the measurement was applied, which is not the case if it is older than every
+     *         estimate in the history or than the replay limit.
+     */
+    public boolean update(MeasurementModel model, DMatrixRMaj measurement, double timeStamp) {
+        int index = history.getIndexAtOrBefore(timeStamp);
+        if(index < 0) {
+            if(history.size() > 0) {
+                rejectedMeasurementCount++;
+                return false;
+            }
+
+            update(model, measurement);
+            return true;
+        }
+
+        if(history.size() - 1 - index > getMaxReplaySteps()) {
+            rejectedMeasurementCount++;
+            return false;
+        }
+
+        if(index == history.size() - 1) {
+            update(model, measurement);
+            return true;
+        }
+
+        history.getState(index, state);
+        history.getCovariance(index, covariance);
+        correct(state, covariance, model, measurement);
+        history.setEstimate(index, state, covariance);
+        history.addMeasurement(index, model, measurement);
+        replay(index + 1);
+        return true;
+    }
+
+    /**
+     * Predicts and corrects the estimates from {@code firstIndex} onwards again, starting from the
+     * current estimate, which must be the one at {@code firstIndex - 1}.
+     */
+    protected void replay(int firstIndex) {
+        for(int i = firstIndex; i < history.size(); i++) {
+            history.getInput(i, replayInput);
+            propagate(state, covariance, replayInput, history.getDt(i));
+            for(int j = 0; j < history.getMeasurementCount(i); j++) {
+                correct(state, covariance, history.getMeasurementModel(i, j), history.getMeasurement(i, j));
+            }
+
+            history.setEstimate(i, state, covariance);
+        }
+    }
+
+    /**
+     * Writes {@code model.simulate(state, input, dt)} into {@code nextState}.
+     */
+    protected void simulate(DMatrixRMaj state, DMatrixRMaj input, double dt, DMatrixRMaj nextState) {
+        getModel().simulate(state, input, dt, nextState);
+    }
+
+    /**
+     * @return A cached Cholesky solver for symmetric positive definite matrices of size
+     *         {@code dimension}, such as innovation covariances.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected LinearSolverDense<DMatrixRMaj> getSolver(int dimension) {
+        if(dimension >= solvers.length) {
+            LinearSolverDense<DMatrixRMaj>[] grown = new LinearSolverDense[dimension + 1];
+            System.arraycopy(solvers, 0, grown, 0, solvers.length);
+            solvers = grown;
+        }
+
+        if(solvers[dimension] == null) {
+            solvers[dimension] = LinearSolverFactory_DDRM.symmPosDef(dimension);
+        }
+
+        return solvers[dimension];
+    }
+
+    /**
+     * Wraps the angle elements of {@code state} into [-pi, pi).
+     */
+    protected void normalizeAngles(DMatrixRMaj state) {
+        for(int index : angleIndices) {
+            state.set(index, Util.normalizeAngle(state.get(index)));
+        }
+    }
+
+    /**
+     * @return {@code a - b} at {@code index}, wrapped into [-pi, pi) if {@code index} is an angle.
+     */
+    protected double getStateDifference(DMatrixRMaj a, DMatrixRMaj b, int index) {
+        double difference = a.get(index) - b.get(index);
+        for(int angleIndex : angleIndices) {
+            if(angleIndex == index) {
+                return Util.normalizeAngle(difference);
+            }
+        }
+
+        return difference;
+    }
+
+    /**
+     * @return A copy of the current state estimate.
+     */
+    public SimpleMatrix getState() {
+        return SimpleMatrix.wrap(state.copy());
+    }
+
+    public void getState(DMatrixRMaj state) {
+        state.set(this.state);
+    }
+
+    /**
+     * @return A copy of the current estimate covariance.
+     */
+    public SimpleMatrix getCovariance() {
+        return SimpleMatrix.wrap(covariance.copy());
+    }
+
+    /**
+     * @return The current state estimate itself, for subclasses that refine it.
+     */
+    protected DMatrixRMaj getEstimate() {
+        return state;
+    }
+
+    public int getStateDimension() {
+        return state.getNumRows();
+    }
+
+    public NonlinearDynamicModel getModel() {
+        return model;
+    }
+
+    public DMatrixRMaj getProcessNoise() {
+        return processNoise;
+    }
+
+    public StateHistory getHistory() {
+        return history;
+    }
+
+    public int getMaxReplaySteps() {
+        return maxReplaySteps;
+    }
+
+    /**
+     * @param maxReplaySteps The largest number of estimates replayed for a delayed measurement.
+     */
+    public void setMaxReplaySteps(int maxReplaySteps) {
+        this.maxReplaySteps = maxReplaySteps;
+    }
+
+    /**
+     * @return The number of delayed measurements that were too old to be applied.
+     */
+    public int getRejectedMeasurementCount() {
+        return rejectedMeasurementCount;
+    }
+
+    public int[] getAngleIndices() {
+        return angleIndices;
+    }
+
+    /**
+     * @param angleIndices The elements of the state that are angles, such as index 4 of the
+     *                     {@code MecanumDriveModel} state, which are kept in [-pi, pi) and whose
+     *                     differences are wrapped.
+     */
+    public void setAngleIndices(int... angleIndices) {
+        this.angleIndices = angleIndices.clone();
+    }
+}
@@ -0,0 +1,227 @@
+package com.horse.mpclib.lib.control;
+
+import org.ejml.data.DMatrixRMaj;
+
+/**
+ * A fixed-capacity ring buffer of past estimates, used by the {@code StateEstimator}s to apply
+ * measurements that arrive after the time they were taken at, such as camera frames that took a few
+ * loops to process. Each entry holds the time stamp, state and covariance of an estimate, the input
+ * and time step that were used to predict it from the previous entry, and the measurements that
+ * were applied to it, so that the estimates after a delayed measurement can be replayed.
+ *
+ * All data is kept in preallocated primitive arrays. Entries are addressed by age, with 0 being the
+ * oldest entry still held and {@code size() - 1} the newest. Once the buffer is full, adding an entry
+ * overwrites the oldest one. Entries must be added in time order, so that lookups by time stamp are
+ * a binary search.
+ */
+public class StateHistory {
+    private final int capacity;
+    private final int stateDimension;
+    private final int inputDimension;
+    private final int maxMeasurementsPerEntry;
+
+    private final double[] timeStamps;
+    private final double[] dts;
+    private final double[] states;
+    private final double[] covariances;
+    private final double[] inputs;
+
+    private final int[] measurementCounts;
+    private final MeasurementModel[][] measurementModels;
+    private final DMatrixRMaj[][] measurements;
+
+    private int start;
+    private int size;
+    private int droppedMeasurementCount;
+
+    /**
+     * @param capacity                The number of estimates to keep. At a loop time of dt, delayed
+     *                                measurements up to {@code capacity * dt} old can be applied.
+     * @param maxMeasurementsPerEntry The number of measurements that are kept for replay per entry.
+     *                                Measurements beyond this are still applied to the estimate, but
+     *                                are lost if an older delayed measurement causes a replay.
+     */
+    public StateHistory(int capacity, int stateDimension, int inputDimension, int maxMeasurementsPerEntry) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("History must hold at least one estimate");
+        }
+
+        this.capacity = capacity;
+        this.stateDimension = stateDimension;
+        this.inputDimension = inputDimension;
+        this.maxMeasurementsPerEntry = maxMeasurementsPerEntry;
+
+        timeStamps = new double[capacity];
+        dts = new double[capacity];
+        states = new double[capacity * stateDimension];
+        covariances = new double[capacity * stateDimension * stateDimension];
+        inputs = new double[capacity * inputDimension];
+
+        measurementCounts = new int[capacity];
+        measurementModels = new MeasurementModel[capacity][maxMeasurementsPerEntry];
+        measurements = new DMatrixRMaj[capacity][maxMeasurementsPerEntry];
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends an estimate, overwriting the oldest one if the history is full.
+     *
+     * @param input The input used to predict {@code state} from the previous estimate, or null if
+     *              there is none.
+     * @param dt    The time step used to predict {@code state} from the previous estimate.
+     */
+    public void add(double timeStamp, DMatrixRMaj state, DMatrixRMaj covariance, DMatrixRMaj input, double dt) {
+        if(size > 0 && timeStamp < getTimeStamp(size - 1)) {
+            throw new IllegalArgumentException("Estimates must be added in time order");
+        }
+
+        int slot;
+        if(size < capacity) {
+            slot = (start + size++) % capacity;
+        } else {
+            slot = start;
+            start = (start + 1) % capacity;
+        }
+
+        timeStamps[slot] = timeStamp;
+        dts[slot] = dt;
+        System.arraycopy(state.data, 0, states, slot * stateDimension, stateDimension);
+        System.arraycopy(covariance.data, 0, covariances, slot * stateDimension * stateDimension, stateDimension * stateDimension);
+        if(input == null) {
+            for(int i = 0; i < inputDimension; i++) {
+                inputs[slot * inputDimension + i] = 0d;
+            }
+        } else {
+            System.arraycopy(input.data, 0, inputs, slot * inputDimension, inputDimension);
+        }
+
+        measurementCounts[slot] = 0;
+    }
+
+    /**
+     * Overwrites the state and covariance of the estimate at {@code index}, keeping its time stamp,
+     * input and measurements.
+     */
+    public void setEstimate(int index, DMatrixRMaj state, DMatrixRMaj covariance) {
+        int slot = getSlot(index);
+        System.arraycopy(state.data, 0, states, slot * stateDimension, stateDimension);
+        System.arraycopy(covariance.data, 0, covariances, slot * stateDimension * stateDimension, stateDimension * stateDimension);
+    }
+
+    /**
+     * Records that the measurement {@code measurement} of {@code model} was applied to the estimate at
+     * {@code index}. The measurement is copied.
+     *
+     * @return Whether there was room to keep the measurement for replay.
+     */
+    public boolean addMeasurement(int index, MeasurementModel model, DMatrixRMaj measurement) {
+        int slot = getSlot(index);
+        int count = measurementCounts[slot];
+        if(count == maxMeasurementsPerEntry) {
+            droppedMeasurementCount++;
+            return false;
+        }
+
+        if(measurements[slot][count] == null) {
+            measurements[slot][count] = new DMatrixRMaj(measurement);
+        } else {
+            measurements[slot][count].set(measurement);
+        }
+
+        measurementModels[slot][count] = model;
+        measurementCounts[slot] = count + 1;
+        return true;
+    }
+
+    /**
+     * Binary searches the time stamps, which {@code add} keeps in order.
+     *
+     * @return The index of the newest estimate whose time stamp is at or before {@code timeStamp}, or
+     *         -1 if every estimate held is newer.
+     */
+    public int getIndexAtOrBefore(double timeStamp) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(timeStamps[(start + middle) % capacity] <= timeStamp) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return high;
+    }
+
+    private int getSlot(int index) {
+        if(index < 0 || index >= size) {
+            throw new IllegalArgumentException("No estimate at index " + index + " in a history of size " + size);
+        }
+
+        return (start + index) % capacity;
+    }
+
+    public double getTimeStamp(int index) {
+        return timeStamps[getSlot(index)];
+    }
+
+    public double getDt(int index) {
+        return dts[getSlot(index)];
+    }
+
+    public void getState(int index, DMatrixRMaj state) {
+        System.arraycopy(states, getSlot(index) * stateDimension, state.data, 0, stateDimension);
+    }
+
+    public void getCovariance(int index, DMatrixRMaj covariance) {
+        int size = stateDimension * stateDimension;
+        System.arraycopy(covariances, getSlot(index) * size, covariance.data, 0, size);
+    }
+
+    public void getInput(int index, DMatrixRMaj input) {
+        System.arraycopy(inputs, getSlot(index) * inputDimension, input.data, 0, inputDimension);
+    }
+
+    public int getMeasurementCount(int index) {
+        return measurementCounts[getSlot(index)];
+    }
+
+    public MeasurementModel getMeasurementModel(int index, int measurement) {
+        return measurementModels[getSlot(index)][measurement];
+    }
+
+    /**
+     * @return The stored measurement, which must not be modified.
+     */
+    public DMatrixRMaj getMeasurement(int index, int measurement) {
+        return measurements[getSlot(index)][measurement];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getStateDimension() {
+        return stateDimension;
+    }
+
+    public int getInputDimension() {
+        return inputDimension;
+    }
+
+    /**
+     * @return The number of measurements that were applied but could not be kept for replay.
+     */
+    public int getDroppedMeasurementCount() {
+        return droppedMeasurementCount;
+    }
+}
@@ -0,0 +1,226 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.physics.NonlinearDynamicModel;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.CholeskyDecomposition_F64;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Kalman filter that propagates a set of 2n + 1 sigma points through the dynamics and measurement
+ * models instead of linearizing them, which captures the effect of the heading on the mecanum
+ * dynamics and on the dead wheel readings to second order. No Jacobians are needed, at the cost of
+ * 2n + 1 model evaluations per prediction compared to n + 1 for the {@code ExtendedKalmanFilter}.
+ *
+ * Sigma points use the scaled unscented transform with alpha = 1, beta = 2 and kappa = 0. Means of
+ * angles are taken relative to the first sigma point and differences are wrapped, so estimates do
+ * not break when the heading crosses pi. All intermediate matrices are allocated once and reused.
+ */
+public class UnscentedKalmanFilter extends StateEstimator {
+    private static final double ALPHA = 1d;
+    private static final double BETA = 2d;
+    private static final double KAPPA = 0d;
+    private static final double CHOLESKY_JITTER = 1E-9d;
+
+    private final double lambda;
+    private final double meanWeight0;
+    private final double covarianceWeight0;
+    private final double weight;
+
+    private final DMatrixRMaj[] sigmaPoints;
+    private final DMatrixRMaj[] propagatedPoints;
+    private final DMatrixRMaj[] measurementPoints;
+    private final DMatrixRMaj scaledCovariance;
+    private final DMatrixRMaj squareRoot;
+    private final DMatrixRMaj mean;
+    private final DMatrixRMaj stateDifference;
+    private final CholeskyDecomposition_F64<DMatrixRMaj> cholesky;
+
+    private final DMatrixRMaj predictedMeasurement;
+    private final DMatrixRMaj measurementDifference;
+    private final DMatrixRMaj residual;
+    private final DMatrixRMaj innovationCovariance;
+    private final DMatrixRMaj crossCovariance;
+    private final DMatrixRMaj crossCovarianceTranspose;
+    private final DMatrixRMaj gainTranspose;
+    private final DMatrixRMaj gain;
+    private final DMatrixRMaj gainInnovation;
+
+    public UnscentedKalmanFilter(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                 SimpleMatrix initialCovariance, int inputDimension) {
+        this(model, processNoise, initialState, initialCovariance, inputDimension, DEFAULT_HISTORY_CAPACITY);
+    }
+
+    public UnscentedKalmanFilter(NonlinearDynamicModel model, SimpleMatrix processNoise, SimpleMatrix initialState,
+                                 SimpleMatrix initialCovariance, int inputDimension, int historyCapacity) {
+        super(model, processNoise, initialState, initialCovariance, inputDimension, historyCapacity);
+        int n = getStateDimension();
+        lambda = ALPHA * ALPHA * (n + KAPPA) - n;
+        meanWeight0 = lambda / (n + lambda);
+        covarianceWeight0 = meanWeight0 + 1d - ALPHA * ALPHA + BETA;
+        weight = 1d / (2d * (n + lambda));
+
+        sigmaPoints = new DMatrixRMaj[2 * n + 1];
+        propagatedPoints = new DMatrixRMaj[2 * n + 1];
+        measurementPoints = new DMatrixRMaj[2 * n + 1];
+        for(int i = 0; i < sigmaPoints.length; i++) {
+            sigmaPoints[i] = new DMatrixRMaj(n, 1);
+            propagatedPoints[i] = new DMatrixRMaj(n, 1);
+            measurementPoints[i] = new DMatrixRMaj(n, 1);
+        }
+
+        scaledCovariance = new DMatrixRMaj(n, n);
+        squareRoot = new DMatrixRMaj(n, n);
+        mean = new DMatrixRMaj(n, 1);
+        stateDifference = new DMatrixRMaj(n, 1);
+        cholesky = DecompositionFactory_DDRM.chol(n, true);
+
+        predictedMeasurement = new DMatrixRMaj(n, 1);
+        measurementDifference = new DMatrixRMaj(n, 1);
+        residual = new DMatrixRMaj(n, 1);
+        innovationCovariance = new DMatrixRMaj(n, n);
+        crossCovariance = new DMatrixRMaj(n, n);
+        crossCovarianceTranspose = new DMatrixRMaj(n, n);
+        gainTranspose = new DMatrixRMaj(n, n);
+        gain = new DMatrixRMaj(n, n);
+        gainInnovation = new DMatrixRMaj(n, n);
+    }
+
+    /**
+     * Fills {@code sigmaPoints} with the state and the state plus and minus the columns of the lower
+     * Cholesky factor of (n + lambda) P.
+     */
+    private void computeSigmaPoints(DMatrixRMaj state, DMatrixRMaj covariance) {
+        int n = getStateDimension();
+        scaledCovariance.set(covariance);
+        CommonOps_DDRM.scale(n + lambda, scaledCovariance);
+        if(!cholesky.decompose(scaledCovariance)) {
+            //Rounding has made P slightly indefinite, so symmetrize it and nudge it back
+            symmetrize(covariance);
+            for(int i = 0; i < n; i++) {
+                covariance.add(i, i, CHOLESKY_JITTER);
+            }
+
+            scaledCovariance.set(covariance);
+            CommonOps_DDRM.scale(n + lambda, scaledCovariance);
+            if(!cholesky.decompose(scaledCovariance)) {
+                throw new IllegalStateException("Estimate covariance is not positive definite");
+            }
+        }
+
+        cholesky.getT(squareRoot);
+        sigmaPoints[0].set(state);
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < n; j++) {
+                sigmaPoints[i + 1].set(j, state.get(j) + squareRoot.get(j, i));
+                sigmaPoints[i + 1 + n].set(j, state.get(j) - squareRoot.get(j, i));
+            }
+        }
+    }
+
+    @Override
+    protected void propagate(DMatrixRMaj state, DMatrixRMaj covariance, DMatrixRMaj input, double dt) {
+        int n = getStateDimension();
+        computeSigmaPoints(state, covariance);
+        for(int i = 0; i < sigmaPoints.length; i++) {
+            simulate(sigmaPoints[i], input, dt, propagatedPoints[i]);
+        }
+
+        //Mean relative to the first point so that angle differences can be wrapped
+        for(int j = 0; j < n; j++) {
+            double offset = 0d;
+            for(int i = 1; i < propagatedPoints.length; i++) {
+                offset += weight * getStateDifference(propagatedPoints[i], propagatedPoints[0], j);
+            }
+
+            mean.set(j, propagatedPoints[0].get(j) + offset);
+        }
+
+        normalizeAngles(mean);
+        state.set(mean);
+
+        CommonOps_DDRM.scale(dt, getProcessNoise(), covariance);
+        for(int i = 0; i < propagatedPoints.length; i++) {
+            for(int j = 0; j < n; j++) {
+                stateDifference.set(j, getStateDifference(propagatedPoints[i], mean, j));
+            }
+
+            CommonOps_DDRM.multAddTransB(i == 0 ? covarianceWeight0 : weight, stateDifference, stateDifference, covariance);
+        }
+    }
+
+    @Override
+    protected void correct(DMatrixRMaj state, DMatrixRMaj covariance, MeasurementModel model, DMatrixRMaj measurement) {
+        int n = getStateDimension();
+        int m = model.getMeasurementDimension();
+        predictedMeasurement.reshape(m, 1);
+        measurementDifference.reshape(m, 1);
+        residual.reshape(m, 1);
+        innovationCovariance.reshape(m, m);
+        crossCovariance.reshape(n, m);
+        crossCovarianceTranspose.reshape(m, n);
+        gainTranspose.reshape(m, n);
+        gain.reshape(n, m);
+        gainInnovation.reshape(n, m);
+
+        computeSigmaPoints(state, covariance);
+        for(int i = 0; i < sigmaPoints.length; i++) {
+            measurementPoints[i].reshape(m, 1);
+            model.predictMeasurement(sigmaPoints[i], measurementPoints[i]);
+        }
+
+        //Mean relative to the first point, using the residual of the model to wrap angles
+        predictedMeasurement.zero();
+        for(int i = 1; i < measurementPoints.length; i++) {
+            model.getResidual(measurementPoints[i], measurementPoints[0], measurementDifference);
+            CommonOps_DDRM.addEquals(predictedMeasurement, weight, measurementDifference);
+        }
+
+        CommonOps_DDRM.addEquals(predictedMeasurement, measurementPoints[0]);
+
+        innovationCovariance.set(model.getNoiseCovariance());
+        crossCovariance.zero();
+        for(int i = 0; i < sigmaPoints.length; i++) {
+            double covarianceWeight = i == 0 ? covarianceWeight0 : weight;
+            model.getResidual(measurementPoints[i], predictedMeasurement, measurementDifference);
+            for(int j = 0; j < n; j++) {
+                stateDifference.set(j, getStateDifference(sigmaPoints[i], state, j));
+            }
+
+            CommonOps_DDRM.multAddTransB(covarianceWeight, measurementDifference, measurementDifference, innovationCovariance);
+            CommonOps_DDRM.multAddTransB(covarianceWeight, stateDifference, measurementDifference, crossCovariance);
+        }
+
+        //K^T = S^-1 P_xz^T, since S is symmetric
+        LinearSolverDense<DMatrixRMaj> solver = getSolver(m);
+        if(!solver.setA(innovationCovariance)) {
+            return;
+        }
+
+        CommonOps_DDRM.transpose(crossCovariance, crossCovarianceTranspose);
+        solver.solve(crossCovarianceTranspose, gainTranspose);
+        CommonOps_DDRM.transpose(gainTranspose, gain);
+
+        //x = x + K y
+        model.getResidual(measurement, predictedMeasurement, residual);
+        CommonOps_DDRM.multAdd(gain, residual, state);
+        normalizeAngles(state);
+
+        //P = P - K S K^T = P - K P_xz^T
+        CommonOps_DDRM.multAdd(-1d, gain, crossCovarianceTranspose, covariance);
+        symmetrize(covariance);
+    }
+
+    private static void symmetrize(DMatrixRMaj matrix) {
+        for(int i = 0; i < matrix.getNumRows(); i++) {
+            for(int j = i + 1; j < matrix.getNumCols(); j++) {
+                double average = (matrix.get(i, j) + matrix.get(j, i)) / 2d;
+                matrix.set(i, j, average);
+                matrix.set(j, i, average);
+            }
+        }
+    }
+}
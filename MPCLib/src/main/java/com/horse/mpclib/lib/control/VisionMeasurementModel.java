@@ -0,0 +1,55 @@
+package com.horse.mpclib.lib.control;
+
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * Field pose {x, y, psi} from a camera or any other absolute localization, in meters and radians,
+ * for the {@code MecanumDriveModel} state {x, v_x, y, v_y, psi, omega}.
+ */
+public class VisionMeasurementModel implements MeasurementModel {
+    private final DMatrixRMaj noiseCovariance;
+
+    /**
+     * @param positionStandardDeviation Standard deviation of the position measurement, in meters.
+     * @param headingStandardDeviation  Standard deviation of the heading measurement, in radians.
+     */
+    public VisionMeasurementModel(double positionStandardDeviation, double headingStandardDeviation) {
+        noiseCovariance = CommonOps_DDRM.diag(positionStandardDeviation * positionStandardDeviation,
+                positionStandardDeviation * positionStandardDeviation, headingStandardDeviation * headingStandardDeviation);
+    }
+
+    @Override
+    public int getMeasurementDimension() {
+        return 3;
+    }
+
+    @Override
+    public void predictMeasurement(DMatrixRMaj state, DMatrixRMaj measurement) {
+        measurement.set(0, state.get(0));
+        measurement.set(1, state.get(2));
+        measurement.set(2, state.get(4));
+    }
+
+    @Override
+    public void getJacobian(DMatrixRMaj state, DMatrixRMaj jacobian) {
+        jacobian.zero();
+        jacobian.set(0, 0, 1d);
+        jacobian.set(1, 2, 1d);
+        jacobian.set(2, 4, 1d);
+    }
+
+    @Override
+    public DMatrixRMaj getNoiseCovariance() {
+        return noiseCovariance;
+    }
+
+    @Override
+    public void getResidual(DMatrixRMaj measurement, DMatrixRMaj predicted, DMatrixRMaj residual) {
+        residual.set(0, measurement.get(0) - predicted.get(0));
+        residual.set(1, measurement.get(1) - predicted.get(1));
+        residual.set(2, Util.normalizeAngle(measurement.get(2) - predicted.get(2)));
+    }
+}
@@ -6,7 +6,7 @@ import com.horse.mpclib.lib.geometry.Translation2d;
 import com.horse.mpclib.lib.util.TimeUnits;
 import com.horse.mpclib.lib.util.TimeUtil;
 
-public class Waypoint implements Costable {
+public class Waypoint implements AccumulatingCostable {
     private SimpleMatrix costWeight;
     private double temporalSpread;
     private double desiredTime;
@@ -85,4 +85,24 @@ public class Waypoint implements Costable {
     public SimpleMatrix getLinearCost(SimpleMatrix state, int timeStep, double dt) {
         return null;
     }
+
+    @Override
+    public int[] getStateIndices() {
+        return null;
+    }
+
+    @Override
+    public void addQuadraticCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix quadraticCost) {
+        double temporalCostFactor = getTemporalCostFactor(timeStep * dt);
+        for(int i = 0; i < getCostWeight().numRows(); i++) {
+            for(int j = 0; j < getCostWeight().numCols(); j++) {
+                quadraticCost.set(i, j, quadraticCost.get(i, j) + temporalCostFactor * getCostWeight().get(i, j));
+            }
+        }
+    }
+
+    @Override
+    public void addLinearCost(SimpleMatrix state, int timeStep, double dt, SimpleMatrix linearCost) {
+
+    }
 }
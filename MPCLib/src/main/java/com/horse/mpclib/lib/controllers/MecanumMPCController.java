@@ -47,6 +47,8 @@ public class MecanumMPCController {
         }
 
         setInput(getMpcSolver().getOptimalInput(getRunnableMPC().controllerElapsedTime(), getState()));
+        getMpcSolver().getLqrSolver().setPreviousInput(getInput());
+        getRunnableMPC().setPreviousInput(getInput());
     }
 
     public MPCSolver getMpcSolver() {
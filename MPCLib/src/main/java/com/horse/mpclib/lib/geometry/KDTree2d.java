@@ -0,0 +1,180 @@
+package com.horse.mpclib.lib.geometry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A two dimensional k-d tree supporting incremental insertion, nearest neighbour and radius queries.
+ * Points are identified by the order in which they were inserted, so callers can keep any data
+ * belonging to a point in arrays or lists indexed the same way.
+ *
+ * Nodes are stored in flat arrays rather than as objects, so inserting does not allocate beyond
+ * occasionally growing the arrays and nearest neighbour queries do not allocate at all. As a result,
+ * a tree must not be queried from several threads at once. The tree is not rebalanced, which is fine
+ * for randomly ordered points such as the samples of a sampling-based planner.
+ */
+public class KDTree2d {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int NONE = -1;
+
+    private double[] xs;
+    private double[] ys;
+    private int[] leftChildren;
+    private int[] rightChildren;
+    private int size;
+
+    //State of the nearest neighbour search in progress
+    private double bestDistanceSquared;
+    private int bestIndex;
+
+    public KDTree2d() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public KDTree2d(int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        xs = new double[initialCapacity];
+        ys = new double[initialCapacity];
+        leftChildren = new int[initialCapacity];
+        rightChildren = new int[initialCapacity];
+    }
+
+    /**
+     * @return The index of the inserted point.
+     */
+    public int insert(double x, double y) {
+        if(size == xs.length) {
+            int capacity = 2 * size;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            leftChildren = Arrays.copyOf(leftChildren, capacity);
+            rightChildren = Arrays.copyOf(rightChildren, capacity);
+        }
+
+        int index = size++;
+        xs[index] = x;
+        ys[index] = y;
+        leftChildren[index] = NONE;
+        rightChildren[index] = NONE;
+        if(index == 0) {
+            return index;
+        }
+
+        int node = 0;
+        boolean splitOnX = true;
+        while(true) {
+            boolean left = splitOnX ? x < xs[node] : y < ys[node];
+            int child = left ? leftChildren[node] : rightChildren[node];
+            if(child == NONE) {
+                if(left) {
+                    leftChildren[node] = index;
+                } else {
+                    rightChildren[node] = index;
+                }
+
+                return index;
+            }
+
+            node = child;
+            splitOnX = !splitOnX;
+        }
+    }
+
+    public int insert(Translation2d point) {
+        return insert(point.x(), point.y());
+    }
+
+    /**
+     * @return The index of the point closest to (x, y), or -1 if the tree is empty.
+     */
+    public int nearest(double x, double y) {
+        if(size == 0) {
+            return NONE;
+        }
+
+        bestDistanceSquared = Double.POSITIVE_INFINITY;
+        bestIndex = NONE;
+        nearest(0, true, x, y);
+        return bestIndex;
+    }
+
+    private void nearest(int node, boolean splitOnX, double x, double y) {
+        while(node != NONE) {
+            double dx = xs[node] - x;
+            double dy = ys[node] - y;
+            double distanceSquared = dx * dx + dy * dy;
+            if(distanceSquared < bestDistanceSquared) {
+                bestDistanceSquared = distanceSquared;
+                bestIndex = node;
+            }
+
+            double offset = splitOnX ? x - xs[node] : y - ys[node];
+            int near = offset < 0d ? leftChildren[node] : rightChildren[node];
+            int far = offset < 0d ? rightChildren[node] : leftChildren[node];
+            if(far != NONE && offset * offset < bestDistanceSquared) {
+                nearest(near, !splitOnX, x, y);
+                if(offset * offset < bestDistanceSquared) {
+                    nearest(far, !splitOnX, x, y);
+                }
+
+                return;
+            }
+
+            node = near;
+            splitOnX = !splitOnX;
+        }
+    }
+
+    /**
+     * Adds the index of every point within {@code radius} of (x, y) to {@code result}.
+     *
+     * @return The number of points found.
+     */
+    public int near(double x, double y, double radius, List<Integer> result) {
+        return size == 0 ? 0 : near(0, true, x, y, radius * radius, result);
+    }
+
+    private int near(int node, boolean splitOnX, double x, double y, double radiusSquared, List<Integer> result) {
+        int count = 0;
+        while(node != NONE) {
+            double dx = xs[node] - x;
+            double dy = ys[node] - y;
+            if(dx * dx + dy * dy <= radiusSquared) {
+                result.add(node);
+                count++;
+            }
+
+            double offset = splitOnX ? x - xs[node] : y - ys[node];
+            int near = offset < 0d ? leftChildren[node] : rightChildren[node];
+            int far = offset < 0d ? rightChildren[node] : leftChildren[node];
+            if(far != NONE && offset * offset <= radiusSquared) {
+                count += near(far, !splitOnX, x, y, radiusSquared, result);
+            }
+
+            node = near;
+            splitOnX = !splitOnX;
+        }
+
+        return count;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getX(int index) {
+        return xs[index];
+    }
+
+    public double getY(int index) {
+        return ys[index];
+    }
+
+    public Translation2d getPoint(int index) {
+        return new Translation2d(xs[index], ys[index]);
+    }
+}
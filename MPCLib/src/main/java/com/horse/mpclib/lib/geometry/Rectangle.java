@@ -24,11 +24,27 @@ public class Rectangle {
     }
 
     public Translation2d getInitialPoint() {
-        return getInitialPoint();
+        return initialPoint;
     }
 
     public Translation2d getFinalPoint() {
-        return getFinalPoint();
+        return finalPoint;
+    }
+
+    public double getMinX() {
+        return Math.min(initialPoint.x(), finalPoint.x());
+    }
+
+    public double getMaxX() {
+        return Math.max(initialPoint.x(), finalPoint.x());
+    }
+
+    public double getMinY() {
+        return Math.min(initialPoint.y(), finalPoint.y());
+    }
+
+    public double getMaxY() {
+        return Math.max(initialPoint.y(), finalPoint.y());
     }
 
     public List<Translation2d> getRectangleBorderDiscrete(boolean update) {
@@ -0,0 +1,554 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.geometry.Translation2d;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, precomputed form of a {@code Spline}. The Taylor coefficients of the spline are
+ * converted once into power-basis coefficients for the position and its first three derivatives,
+ * so that every evaluation is a Horner recurrence without {@code Math.pow} or factorials. The spline
+ * is also sampled once at {@code Spline.getParameterSteps()} intervals, and the running integrals of
+ * speed, curvature and change in curvature are stored, so that the arc length, the mean curvatures
+ * and the parameter at a given distance along the spline are table lookups rather than fresh
+ * integrations.
+ *
+ * The integrals use the same trapezoidal rule and sample spacing as {@code Spline}, so the values
+ * returned here match the ones previously computed on every call.
+ *
+ * The samples are also grouped into a tree of bounding boxes, with {@code LEAF_SAMPLES} consecutive
+ * samples per leaf, so that the closest sample to a point is found by descending into the boxes
+ * nearest the point and skipping every box farther away than the closest sample found so far. A
+ * clearance query then visits a few leaves instead of every sample.
+ *
+ * @see Spline#compile()
+ */
+public class CompiledSpline implements ParametricFunction {
+    private static final int COARSE_PROJECTION_SAMPLES = 100;
+    private static final int MAX_PROJECTION_ITERATIONS = 8;
+    private static final double PROJECTION_TOLERANCE = 1E-9d;
+    private static final int LEAF_SAMPLES = 16;
+
+    private final int polynomialDegree;
+    private final boolean inverted;
+    private final int steps;
+
+    //Power-basis coefficients in (1 - t) if inverted, t otherwise, ordered from the constant term
+    private final double[][] xCoefficients;
+    private final double[][] yCoefficients;
+
+    private final double[] sampleX;
+    private final double[] sampleY;
+    private final double[] cumulativeArcLength;
+    private final double[] cumulativeCurvature;
+    private final double[] cumulativeDCurvature;
+
+    private double minX = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    //Implicit binary tree of sample bounding boxes, with the children of node i at 2i and 2i + 1
+    private final int leafOffset;
+    private final int treeDepth;
+    private final double[] boxMinX;
+    private final double[] boxMaxX;
+    private final double[] boxMinY;
+    private final double[] boxMaxY;
+
+    public CompiledSpline(Spline spline) {
+        this(spline, Spline.getParameterSteps());
+    }
+
+    public CompiledSpline(Spline spline, int steps) {
+        this.polynomialDegree = spline.getPolynomialDegree();
+        this.inverted = spline.isInverted();
+        this.steps = steps;
+
+        xCoefficients = new double[4][];
+        yCoefficients = new double[4][];
+        for(int order = 0; order < 4; order++) {
+            int terms = Math.max(0, getPolynomialDegree() - order + 1);
+            xCoefficients[order] = new double[terms];
+            yCoefficients[order] = new double[terms];
+            double factorial = 1d;
+            for(int k = 0; k < terms; k++) {
+                if(k > 0) {
+                    factorial *= k;
+                }
+
+                xCoefficients[order][k] = spline.getCoefficient(k + order, Spline.Axis.X) / factorial;
+                yCoefficients[order][k] = spline.getCoefficient(k + order, Spline.Axis.Y) / factorial;
+            }
+        }
+
+        sampleX = new double[steps + 1];
+        sampleY = new double[steps + 1];
+        cumulativeArcLength = new double[steps + 1];
+        cumulativeCurvature = new double[steps + 1];
+        cumulativeDCurvature = new double[steps + 1];
+
+        double previousSpeed = 0d;
+        double previousCurvature = 0d;
+        double previousDCurvature = 0d;
+        for(int i = 0; i <= steps; i++) {
+            double parameter = (double)(i) / steps;
+            double u = getBasisParameter(parameter);
+            sampleX[i] = horner(xCoefficients[0], u);
+            sampleY[i] = horner(yCoefficients[0], u);
+            minX = Math.min(minX, sampleX[i]);
+            maxX = Math.max(maxX, sampleX[i]);
+            minY = Math.min(minY, sampleY[i]);
+            maxY = Math.max(maxY, sampleY[i]);
+
+            //Same expressions as getCurvature(double) and getDCurvature(double), sharing the derivatives
+            double dx = derivative(xCoefficients, 1, u);
+            double dy = derivative(yCoefficients, 1, u);
+            double ddx = derivative(xCoefficients, 2, u);
+            double ddy = derivative(yCoefficients, 2, u);
+            double dddx = derivative(xCoefficients, 3, u);
+            double dddy = derivative(yCoefficients, 3, u);
+            double speedSquared = dx * dx + dy * dy;
+            double speed = Math.sqrt(speedSquared);
+            double curvature = Math.abs(dx * ddy - ddx * dy) / (speedSquared * speed);
+            double dCurvature = Math.abs(6d * (dy * ddx - ddy * dx) * (dx * ddx + dy * ddy) +
+                    2d * speedSquared * (dx * dddy - dddx * dy)) / (2d * speedSquared * speedSquared * speed);
+            if(i > 0) {
+                cumulativeArcLength[i] = cumulativeArcLength[i - 1] + (previousSpeed + speed) / (2d * steps);
+                cumulativeCurvature[i] = cumulativeCurvature[i - 1] + (previousCurvature + curvature) / (2d * steps);
+                cumulativeDCurvature[i] = cumulativeDCurvature[i - 1] + (previousDCurvature + dCurvature) / (2d * steps);
+            }
+
+            previousSpeed = speed;
+            previousCurvature = curvature;
+            previousDCurvature = dCurvature;
+        }
+
+        int leafCount = (steps + LEAF_SAMPLES) / LEAF_SAMPLES;
+        int depth = 0;
+        while(1 << depth < leafCount) {
+            depth++;
+        }
+
+        leafOffset = 1 << depth;
+        treeDepth = depth;
+        boxMinX = new double[2 * leafOffset];
+        boxMaxX = new double[2 * leafOffset];
+        boxMinY = new double[2 * leafOffset];
+        boxMaxY = new double[2 * leafOffset];
+        Arrays.fill(boxMinX, Double.POSITIVE_INFINITY);
+        Arrays.fill(boxMaxX, Double.NEGATIVE_INFINITY);
+        Arrays.fill(boxMinY, Double.POSITIVE_INFINITY);
+        Arrays.fill(boxMaxY, Double.NEGATIVE_INFINITY);
+        //Only the samples below t = 1 are searched for the minimum distance, as with Spline
+        for(int i = 0; i < steps; i++) {
+            int node = leafOffset + i / LEAF_SAMPLES;
+            boxMinX[node] = Math.min(boxMinX[node], sampleX[i]);
+            boxMaxX[node] = Math.max(boxMaxX[node], sampleX[i]);
+            boxMinY[node] = Math.min(boxMinY[node], sampleY[i]);
+            boxMaxY[node] = Math.max(boxMaxY[node], sampleY[i]);
+        }
+
+        for(int node = leafOffset - 1; node > 0; node--) {
+            boxMinX[node] = Math.min(boxMinX[2 * node], boxMinX[2 * node + 1]);
+            boxMaxX[node] = Math.max(boxMaxX[2 * node], boxMaxX[2 * node + 1]);
+            boxMinY[node] = Math.min(boxMinY[2 * node], boxMinY[2 * node + 1]);
+            boxMaxY[node] = Math.max(boxMaxY[2 * node], boxMaxY[2 * node + 1]);
+        }
+    }
+
+    private static double horner(double[] coefficients, double u) {
+        double value = 0d;
+        for(int k = coefficients.length - 1; k >= 0; k--) {
+            value = value * u + coefficients[k];
+        }
+
+        return value;
+    }
+
+    private double derivative(double[][] coefficients, int order, double u) {
+        double value = horner(coefficients[order], u);
+        return isInverted() && order % 2 == 1 ? -value : value;
+    }
+
+    private double getBasisParameter(double parameter) {
+        return isInverted() ? 1d - parameter : parameter;
+    }
+
+    @Override
+    public Translation2d evaluate(double parameter) {
+        double u = getBasisParameter(parameter);
+        return new Translation2d(horner(xCoefficients[0], u), horner(yCoefficients[0], u));
+    }
+
+    @Override
+    public Translation2d getDerivative(double parameter) {
+        double u = getBasisParameter(parameter);
+        return new Translation2d(derivative(xCoefficients, 1, u), derivative(yCoefficients, 1, u));
+    }
+
+    @Override
+    public Translation2d getSecondDerivative(double parameter) {
+        double u = getBasisParameter(parameter);
+        return new Translation2d(derivative(xCoefficients, 2, u), derivative(yCoefficients, 2, u));
+    }
+
+    public Translation2d getThirdDerivative(double parameter) {
+        double u = getBasisParameter(parameter);
+        return new Translation2d(derivative(xCoefficients, 3, u), derivative(yCoefficients, 3, u));
+    }
+
+    @Override
+    public double getCurvature(double parameter) {
+        double u = getBasisParameter(parameter);
+        double dx = derivative(xCoefficients, 1, u);
+        double dy = derivative(yCoefficients, 1, u);
+        double ddx = derivative(xCoefficients, 2, u);
+        double ddy = derivative(yCoefficients, 2, u);
+        return Math.abs(dx * ddy - ddx * dy) / Math.pow(Math.hypot(dx, dy), 3d);
+    }
+
+    /**
+     * @return The curvature at {@code parameter}, positive when the spline turns counterclockwise.
+     */
+    public double getSignedCurvature(double parameter) {
+        double u = getBasisParameter(parameter);
+        double dx = derivative(xCoefficients, 1, u);
+        double dy = derivative(yCoefficients, 1, u);
+        double ddx = derivative(xCoefficients, 2, u);
+        double ddy = derivative(yCoefficients, 2, u);
+        return (dx * ddy - ddx * dy) / Math.pow(Math.hypot(dx, dy), 3d);
+    }
+
+    @Override
+    public double getDCurvature(double parameter) {
+        double u = getBasisParameter(parameter);
+        double dx = derivative(xCoefficients, 1, u);
+        double dy = derivative(yCoefficients, 1, u);
+        double ddx = derivative(xCoefficients, 2, u);
+        double ddy = derivative(yCoefficients, 2, u);
+        double dddx = derivative(xCoefficients, 3, u);
+        double dddy = derivative(yCoefficients, 3, u);
+        double speedSquared = dx * dx + dy * dy;
+        return Math.abs(6d * (dy * ddx - ddy * dx) * (dx * ddx + dy * ddy) +
+                2d * speedSquared * (dx * dddy - dddx * dy)) / (2d * Math.pow(speedSquared, 2.5d));
+    }
+
+    /**
+     * Horner's rule applied to a whole batch of parameters at once. The loop over the parameters is
+     * the inner one and has no dependency between iterations, so the JIT can unroll and vectorize it.
+     */
+    private void horner(double[] coefficients, int order, double[] parameters, double[] output) {
+        int count = parameters.length;
+        if(coefficients.length == 0) {
+            Arrays.fill(output, 0, count, 0d);
+            return;
+        }
+
+        Arrays.fill(output, 0, count, coefficients[coefficients.length - 1]);
+        if(isInverted()) {
+            for(int k = coefficients.length - 2; k >= 0; k--) {
+                double coefficient = coefficients[k];
+                for(int i = 0; i < count; i++) {
+                    output[i] = output[i] * (1d - parameters[i]) + coefficient;
+                }
+            }
+
+            if(order % 2 == 1) {
+                for(int i = 0; i < count; i++) {
+                    output[i] = -output[i];
+                }
+            }
+        } else {
+            for(int k = coefficients.length - 2; k >= 0; k--) {
+                double coefficient = coefficients[k];
+                for(int i = 0; i < count; i++) {
+                    output[i] = output[i] * parameters[i] + coefficient;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void evaluate(double[] parameters, double[] x, double[] y) {
+        horner(xCoefficients[0], 0, parameters, x);
+        horner(yCoefficients[0], 0, parameters, y);
+    }
+
+    @Override
+    public void getDerivatives(double[] parameters, double[] dx, double[] dy) {
+        horner(xCoefficients[1], 1, parameters, dx);
+        horner(yCoefficients[1], 1, parameters, dy);
+    }
+
+    @Override
+    public void getSecondDerivatives(double[] parameters, double[] ddx, double[] ddy) {
+        horner(xCoefficients[2], 2, parameters, ddx);
+        horner(yCoefficients[2], 2, parameters, ddy);
+    }
+
+    @Override
+    public void getCurvatures(double[] parameters, double[] curvatures) {
+        for(int i = 0; i < parameters.length; i++) {
+            double u = getBasisParameter(parameters[i]);
+            double dx = horner(xCoefficients[1], u);
+            double dy = horner(yCoefficients[1], u);
+            double ddx = horner(xCoefficients[2], u);
+            double ddy = horner(yCoefficients[2], u);
+            double speed = Math.sqrt(dx * dx + dy * dy);
+            curvatures[i] = Math.abs(dx * ddy - ddx * dy) / (speed * speed * speed);
+        }
+    }
+
+    /**
+     * Evaluates the position, first and second derivatives and curvature at every parameter in a
+     * single pass, for consumers that need all of them, such as spline cost functions.
+     */
+    public void evaluate(double[] parameters, double[] x, double[] y, double[] dx, double[] dy,
+                         double[] ddx, double[] ddy, double[] curvatures) {
+        evaluate(parameters, x, y);
+        getDerivatives(parameters, dx, dy);
+        getSecondDerivatives(parameters, ddx, ddy);
+        for(int i = 0; i < parameters.length; i++) {
+            double speed = Math.sqrt(dx[i] * dx[i] + dy[i] * dy[i]);
+            curvatures[i] = Math.abs(dx[i] * ddy[i] - ddx[i] * dy[i]) / (speed * speed * speed);
+        }
+    }
+
+    @Override
+    public double getMeanCurvature() {
+        return cumulativeCurvature[steps];
+    }
+
+    @Override
+    public double getMeanDCurvature() {
+        return cumulativeDCurvature[steps];
+    }
+
+    public double getArcLength() {
+        return cumulativeArcLength[steps];
+    }
+
+    /**
+     * @param parameter A parameter in [0, 1].
+     * @return          The arc length from the start of the spline up to {@code parameter}.
+     */
+    public double getArcLength(double parameter) {
+        double position = Math.min(Math.max(parameter, 0d), 1d) * steps;
+        int index = Math.min((int)(position), steps - 1);
+        return cumulativeArcLength[index] + (position - index) * (cumulativeArcLength[index + 1] - cumulativeArcLength[index]);
+    }
+
+    /**
+     * Inverts the arc length table with a binary search followed by linear interpolation.
+     *
+     * @param arcLength A distance along the spline, clamped to [0, {@code getArcLength()}].
+     * @return          The parameter at which the spline has travelled {@code arcLength}.
+     */
+    public double getParameterAtArcLength(double arcLength) {
+        if(arcLength <= 0d) {
+            return 0d;
+        } else if(arcLength >= getArcLength()) {
+            return 1d;
+        }
+
+        int low = 0;
+        int high = steps;
+        while(high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if(cumulativeArcLength[middle] <= arcLength) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+
+        double segmentLength = cumulativeArcLength[high] - cumulativeArcLength[low];
+        double fraction = segmentLength > 0d ? (arcLength - cumulativeArcLength[low]) / segmentLength : 0d;
+        return (low + fraction) / steps;
+    }
+
+    /**
+     * Finds the closest point on the spline to {@code point}, seeded from a coarse scan of the
+     * sampled table.
+     *
+     * @see #project(Translation2d, double, SplineProjection)
+     */
+    public SplineProjection project(Translation2d point) {
+        return project(point, new SplineProjection());
+    }
+
+    public SplineProjection project(Translation2d point, SplineProjection result) {
+        return project(point, getCoarseClosestParameter(point.x(), point.y()), result);
+    }
+
+    /**
+     * Finds the closest point on the spline to {@code point} by Newton's method on the derivative of
+     * the squared distance, starting from {@code initialParameter}. Seeding with the parameter from the
+     * previous control cycle converges in one or two steps, since the robot moves little between
+     * cycles. Where the squared distance is not locally convex the Gauss-Newton step is taken instead.
+     *
+     * The search is local, so a seed far from the answer on a spline that nearly doubles back on itself
+     * may converge to the wrong branch; {@code project(Translation2d)} reseeds globally.
+     *
+     * @param initialParameter The parameter to start the search from, such as the previous result.
+     * @param result           The projection to write the result into, and return.
+     */
+    public SplineProjection project(Translation2d point, double initialParameter, SplineProjection result) {
+        double px = point.x();
+        double py = point.y();
+        double parameter = Math.min(Math.max(initialParameter, 0d), 1d);
+        for(int i = 0; i < MAX_PROJECTION_ITERATIONS; i++) {
+            double u = getBasisParameter(parameter);
+            double ex = horner(xCoefficients[0], u) - px;
+            double ey = horner(yCoefficients[0], u) - py;
+            double dx = derivative(xCoefficients, 1, u);
+            double dy = derivative(yCoefficients, 1, u);
+            double ddx = derivative(xCoefficients, 2, u);
+            double ddy = derivative(yCoefficients, 2, u);
+
+            double gradient = ex * dx + ey * dy;
+            double gaussNewtonHessian = dx * dx + dy * dy;
+            double hessian = gaussNewtonHessian + ex * ddx + ey * ddy;
+            if(hessian <= 0d) {
+                hessian = gaussNewtonHessian;
+            }
+
+            if(hessian <= 0d) {
+                break;
+            }
+
+            double nextParameter = Math.min(Math.max(parameter - gradient / hessian, 0d), 1d);
+            double step = Math.abs(nextParameter - parameter);
+            parameter = nextParameter;
+            if(step < PROJECTION_TOLERANCE) {
+                break;
+            }
+        }
+
+        double u = getBasisParameter(parameter);
+        double dx = derivative(xCoefficients, 1, u);
+        double dy = derivative(yCoefficients, 1, u);
+        double speed = Math.hypot(dx, dy);
+        result.set(parameter, horner(xCoefficients[0], u), horner(yCoefficients[0], u),
+                speed > 0d ? dx / speed : 0d, speed > 0d ? dy / speed : 0d, px, py);
+        return result;
+    }
+
+    /**
+     * @return The parameter of the closest of every {@code stride}-th sample. Unlike the minimum
+     *         distance search, this may return t = 1, which {@code project} can converge to anyway.
+     */
+    private double getCoarseClosestParameter(double px, double py) {
+        int stride = Math.max(1, steps / COARSE_PROJECTION_SAMPLES);
+        int closestIndex = 0;
+        double minDistanceSquared = Double.MAX_VALUE;
+        for(int i = 0; i <= steps; i += stride) {
+            double dx = sampleX[i] - px;
+            double dy = sampleY[i] - py;
+            double distanceSquared = dx * dx + dy * dy;
+            if(distanceSquared < minDistanceSquared) {
+                minDistanceSquared = distanceSquared;
+                closestIndex = i;
+            }
+        }
+
+        return (double)(closestIndex) / steps;
+    }
+
+    public double getMinDistanceFromPoint(Translation2d point) {
+        return getParameterAndMinDistanceFromPoint(point)[1];
+    }
+
+    /**
+     * Finds the sample closest to {@code point} by a branch and bound search of the bounding box
+     * tree. The nearer child of every node is searched first, and nodes whose box is farther than the
+     * closest sample found so far are skipped, so only the few leaves around the closest point are
+     * scanned. Ties go to the lowest parameter, as with a scan of every sample. Like the scan in
+     * {@code Spline}, only the samples at t = i / steps for i from 0 to {@code steps - 1} are
+     * searched, so the end point t = 1 is not.
+     *
+     * @return {parameter, distance} of the sample closest to {@code point}.
+     */
+    public double[] getParameterAndMinDistanceFromPoint(Translation2d point) {
+        double px = point.x();
+        double py = point.y();
+        int closestIndex = 0;
+        double minDistanceSquared = Double.MAX_VALUE;
+
+        //A node is pushed only after its sibling, so the stack never holds more than one per level
+        int[] stack = new int[treeDepth + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 1;
+        while(stackSize > 0) {
+            int node = stack[--stackSize];
+            if(getBoxDistanceSquared(node, px, py) > minDistanceSquared) {
+                continue;
+            }
+
+            if(node >= leafOffset) {
+                int start = (node - leafOffset) * LEAF_SAMPLES;
+                int end = Math.min(start + LEAF_SAMPLES - 1, steps - 1);
+                for(int i = start; i <= end; i++) {
+                    double dx = sampleX[i] - px;
+                    double dy = sampleY[i] - py;
+                    double distanceSquared = dx * dx + dy * dy;
+                    if(distanceSquared < minDistanceSquared || (distanceSquared == minDistanceSquared && i < closestIndex)) {
+                        minDistanceSquared = distanceSquared;
+                        closestIndex = i;
+                    }
+                }
+            } else {
+                int left = 2 * node;
+                int right = left + 1;
+                if(getBoxDistanceSquared(left, px, py) <= getBoxDistanceSquared(right, px, py)) {
+                    stack[stackSize++] = right;
+                    stack[stackSize++] = left;
+                } else {
+                    stack[stackSize++] = left;
+                    stack[stackSize++] = right;
+                }
+            }
+        }
+
+        return new double[] {(double)(closestIndex) / steps, Math.sqrt(minDistanceSquared)};
+    }
+
+    /**
+     * @return The squared distance from the point to the bounding box of {@code node}, which is zero
+     *         inside it and infinite for a box without samples.
+     */
+    private double getBoxDistanceSquared(int node, double px, double py) {
+        double dx = Math.max(Math.max(boxMinX[node] - px, px - boxMaxX[node]), 0d);
+        double dy = Math.max(Math.max(boxMinY[node] - py, py - boxMaxY[node]), 0d);
+        return dx * dx + dy * dy;
+    }
+
+    public int getPolynomialDegree() {
+        return polynomialDegree;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+}
@@ -16,4 +16,39 @@ public interface ParametricFunction {
     double getMeanCurvature();
 
     double getMeanDCurvature();
+
+    /**
+     * Evaluates the function at every parameter in {@code parameters}, writing the coordinates into
+     * {@code x} and {@code y}. Implementations should override the batch methods with a loop over
+     * primitive arrays, since these defaults still go through {@code Translation2d}.
+     */
+    default void evaluate(double[] parameters, double[] x, double[] y) {
+        for(int i = 0; i < parameters.length; i++) {
+            Translation2d point = evaluate(parameters[i]);
+            x[i] = point.x();
+            y[i] = point.y();
+        }
+    }
+
+    default void getDerivatives(double[] parameters, double[] dx, double[] dy) {
+        for(int i = 0; i < parameters.length; i++) {
+            Translation2d derivative = getDerivative(parameters[i]);
+            dx[i] = derivative.x();
+            dy[i] = derivative.y();
+        }
+    }
+
+    default void getSecondDerivatives(double[] parameters, double[] ddx, double[] ddy) {
+        for(int i = 0; i < parameters.length; i++) {
+            Translation2d secondDerivative = getSecondDerivative(parameters[i]);
+            ddx[i] = secondDerivative.x();
+            ddy[i] = secondDerivative.y();
+        }
+    }
+
+    default void getCurvatures(double[] parameters, double[] curvatures) {
+        for(int i = 0; i < parameters.length; i++) {
+            curvatures[i] = getCurvature(parameters[i]);
+        }
+    }
 }
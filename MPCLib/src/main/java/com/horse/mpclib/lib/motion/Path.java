@@ -0,0 +1,350 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.geometry.Pose2d;
+import com.horse.mpclib.lib.geometry.Translation2d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A route made of consecutive {@code Spline} segments, each parameterized over [0, 1], for use with
+ * a guiding vector field follower. Every segment is compiled once, and a uniform grid is built over
+ * the bounding boxes of the segments so that the closest point on the path can be found by looking
+ * only at the segments near the query point, rather than at every segment of the route.
+ *
+ * Paths created with {@code interpolate(Pose2d, Pose2d, Translation2d...)} are cubic splines with
+ * continuous position, tangent and second derivative (C2) at every waypoint. Paths built directly
+ * from a list of segments are followed as given.
+ *
+ * @see PathProjection
+ */
+public class Path {
+    private static final double DEFAULT_CELL_SIZE = 12d;
+
+    private final List<Spline> segments;
+    private final CompiledSpline[] compiledSegments;
+    private final double[] segmentStartDistances;
+    private final double length;
+
+    private final double cellSize;
+    private final double gridOriginX;
+    private final double gridOriginY;
+    private final int gridColumns;
+    private final int gridRows;
+    private final int[][] gridCells;
+
+    public Path(Spline... segments) {
+        this(Arrays.asList(segments));
+    }
+
+    public Path(List<Spline> segments) {
+        this(segments, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize Width of the square cells of the segment index. A size on the order of the
+     *                 distance between waypoints keeps each cell to a few segments.
+     */
+    public Path(List<Spline> segments, double cellSize) {
+        if(segments.isEmpty()) {
+            throw new IllegalArgumentException("A path requires at least one segment");
+        }
+
+        this.segments = new ArrayList<>(segments);
+        this.cellSize = cellSize;
+
+        compiledSegments = new CompiledSpline[segments.size()];
+        segmentStartDistances = new double[segments.size()];
+        double distance = 0d;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < compiledSegments.length; i++) {
+            compiledSegments[i] = segments.get(i).compile();
+            segmentStartDistances[i] = distance;
+            distance += compiledSegments[i].getArcLength();
+            minX = Math.min(minX, compiledSegments[i].getMinX());
+            minY = Math.min(minY, compiledSegments[i].getMinY());
+            maxX = Math.max(maxX, compiledSegments[i].getMaxX());
+            maxY = Math.max(maxY, compiledSegments[i].getMaxY());
+        }
+
+        length = distance;
+        gridOriginX = minX;
+        gridOriginY = minY;
+        gridColumns = Math.max(1, (int)Math.ceil((maxX - minX) / cellSize));
+        gridRows = Math.max(1, (int)Math.ceil((maxY - minY) / cellSize));
+
+        List<List<Integer>> cells = new ArrayList<>(gridColumns * gridRows);
+        for(int i = 0; i < gridColumns * gridRows; i++) {
+            cells.add(new ArrayList<>());
+        }
+
+        for(int k = 0; k < compiledSegments.length; k++) {
+            int firstColumn = getColumn(compiledSegments[k].getMinX());
+            int lastColumn = getColumn(compiledSegments[k].getMaxX());
+            int firstRow = getRow(compiledSegments[k].getMinY());
+            int lastRow = getRow(compiledSegments[k].getMaxY());
+            for(int i = firstColumn; i <= lastColumn; i++) {
+                for(int j = firstRow; j <= lastRow; j++) {
+                    cells.get(j * gridColumns + i).add(k);
+                }
+            }
+        }
+
+        gridCells = new int[cells.size()][];
+        for(int i = 0; i < gridCells.length; i++) {
+            gridCells[i] = cells.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Builds a clamped cubic spline through the given waypoints. Each segment spans two consecutive
+     * points, and the second derivatives at the points are solved for such that the path is C2. The
+     * path leaves {@code start} along its heading and arrives at {@code end} along its heading.
+     */
+    public static Path interpolate(Pose2d start, Pose2d end, Translation2d... waypoints) {
+        int n = waypoints.length + 1;
+        double[] x = new double[n + 1];
+        double[] y = new double[n + 1];
+        x[0] = start.getTranslation().x();
+        y[0] = start.getTranslation().y();
+        for(int i = 0; i < waypoints.length; i++) {
+            x[i + 1] = waypoints[i].x();
+            y[i + 1] = waypoints[i].y();
+        }
+
+        x[n] = end.getTranslation().x();
+        y[n] = end.getTranslation().y();
+
+        double initialSpeed = Math.hypot(x[1] - x[0], y[1] - y[0]);
+        double finalSpeed = Math.hypot(x[n] - x[n - 1], y[n] - y[n - 1]);
+        double[] secondDerivativesX = solveClampedSecondDerivatives(x, initialSpeed * start.getRotation().cos(), finalSpeed * end.getRotation().cos());
+        double[] secondDerivativesY = solveClampedSecondDerivatives(y, initialSpeed * start.getRotation().sin(), finalSpeed * end.getRotation().sin());
+
+        List<Spline> segments = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) {
+            segments.add(new Spline(3, new double[] {
+                    x[i], y[i],
+                    x[i + 1] - x[i] - (2d * secondDerivativesX[i] + secondDerivativesX[i + 1]) / 6d,
+                    y[i + 1] - y[i] - (2d * secondDerivativesY[i] + secondDerivativesY[i + 1]) / 6d,
+                    secondDerivativesX[i], secondDerivativesY[i],
+                    secondDerivativesX[i + 1] - secondDerivativesX[i], secondDerivativesY[i + 1] - secondDerivativesY[i]
+            }, false));
+        }
+
+        return new Path(segments);
+    }
+
+    /**
+     * Solves the tridiagonal system for the second derivatives at the knots of a uniformly
+     * parameterized cubic spline with clamped first derivatives at both ends (Thomas algorithm).
+     */
+    private static double[] solveClampedSecondDerivatives(double[] values, double initialDerivative, double finalDerivative) {
+        int n = values.length - 1;
+        double[] lower = new double[n + 1];
+        double[] diagonal = new double[n + 1];
+        double[] upper = new double[n + 1];
+        double[] rightHandSide = new double[n + 1];
+
+        diagonal[0] = 2d;
+        upper[0] = 1d;
+        rightHandSide[0] = 6d * (values[1] - values[0] - initialDerivative);
+        for(int i = 1; i < n; i++) {
+            lower[i] = 1d;
+            diagonal[i] = 4d;
+            upper[i] = 1d;
+            rightHandSide[i] = 6d * (values[i + 1] - 2d * values[i] + values[i - 1]);
+        }
+
+        lower[n] = 1d;
+        diagonal[n] = 2d;
+        rightHandSide[n] = 6d * (finalDerivative - values[n] + values[n - 1]);
+
+        for(int i = 1; i <= n; i++) {
+            double factor = lower[i] / diagonal[i - 1];
+            diagonal[i] -= factor * upper[i - 1];
+            rightHandSide[i] -= factor * rightHandSide[i - 1];
+        }
+
+        double[] solution = new double[n + 1];
+        solution[n] = rightHandSide[n] / diagonal[n];
+        for(int i = n - 1; i >= 0; i--) {
+            solution[i] = (rightHandSide[i] - upper[i] * solution[i + 1]) / diagonal[i];
+        }
+
+        return solution;
+    }
+
+    private int getColumn(double x) {
+        return Math.min(Math.max((int)Math.floor((x - gridOriginX) / cellSize), 0), gridColumns - 1);
+    }
+
+    private int getRow(double y) {
+        return Math.min(Math.max((int)Math.floor((y - gridOriginY) / cellSize), 0), gridRows - 1);
+    }
+
+    private double getBoundingBoxDistance(CompiledSpline segment, double px, double py) {
+        double dx = Math.max(Math.max(segment.getMinX() - px, px - segment.getMaxX()), 0d);
+        double dy = Math.max(Math.max(segment.getMinY() - py, py - segment.getMaxY()), 0d);
+        return Math.hypot(dx, dy);
+    }
+
+    /**
+     * Finds the closest point on the path by searching the grid in rings of cells around
+     * {@code point}. Only segments whose bounding boxes could contain a closer point than the best
+     * found so far are projected onto, and the search stops once the next ring of cells is further
+     * away than the best point.
+     */
+    public PathProjection project(Translation2d point, PathProjection result) {
+        double px = point.x();
+        double py = point.y();
+        int column = (int)Math.floor((px - gridOriginX) / cellSize);
+        int row = (int)Math.floor((py - gridOriginY) / cellSize);
+        int maxRing = Math.max(Math.max(column, gridColumns - 1 - column), Math.max(row, gridRows - 1 - row));
+
+        SplineProjection candidate = new SplineProjection();
+        int bestSegment = -1;
+        double bestParameter = 0d;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for(int ring = 0; ring <= maxRing && bestDistance > (ring - 1) * cellSize; ring++) {
+            for(int i = column - ring; i <= column + ring; i++) {
+                for(int j = row - ring; j <= row + ring; j++) {
+                    if((i != column - ring && i != column + ring && j != row - ring && j != row + ring) ||
+                            i < 0 || j < 0 || i >= gridColumns || j >= gridRows) {
+                        continue;
+                    }
+
+                    for(int segment : gridCells[j * gridColumns + i]) {
+                        if(segment == bestSegment || getBoundingBoxDistance(compiledSegments[segment], px, py) >= bestDistance) {
+                            continue;
+                        }
+
+                        compiledSegments[segment].project(point, candidate);
+                        if(candidate.getDistance() < bestDistance) {
+                            bestSegment = segment;
+                            bestParameter = candidate.getParameter();
+                            bestDistance = candidate.getDistance();
+                        }
+                    }
+                }
+            }
+        }
+
+        return writeProjection(point, bestSegment, bestParameter, result);
+    }
+
+    /**
+     * Finds the closest point on the path starting from the previous projection in {@code result}.
+     * The previous segment is refined with Newton's method, and the neighbouring segment is checked
+     * only when the projection reaches the end of the previous one, so the cost per call does not
+     * depend on the length of the path. If {@code result} has not been projected before, or the
+     * robot has moved more than a grid cell away from the path, the grid search is used instead.
+     */
+    public PathProjection track(Translation2d point, PathProjection result) {
+        if(!result.isValid()) {
+            return project(point, result);
+        }
+
+        int segment = result.getSegmentIndex();
+        compiledSegments[segment].project(point, result.getParameter(), result);
+        if(result.getParameter() >= 1d && segment < compiledSegments.length - 1) {
+            double distance = result.getDistance();
+            compiledSegments[segment + 1].project(point, 0d, result);
+            if(result.getDistance() <= distance) {
+                segment++;
+            } else {
+                compiledSegments[segment].project(point, 1d, result);
+            }
+        } else if(result.getParameter() <= 0d && segment > 0) {
+            double distance = result.getDistance();
+            compiledSegments[segment - 1].project(point, 1d, result);
+            if(result.getDistance() < distance) {
+                segment--;
+            } else {
+                compiledSegments[segment].project(point, 0d, result);
+            }
+        }
+
+        if(result.getDistance() > cellSize) {
+            return project(point, result);
+        }
+
+        result.setPathValues(segment, compiledSegments[segment].getSignedCurvature(result.getParameter()),
+                segmentStartDistances[segment] + compiledSegments[segment].getArcLength(result.getParameter()));
+        return result;
+    }
+
+    private PathProjection writeProjection(Translation2d point, int segment, double parameter, PathProjection result) {
+        compiledSegments[segment].project(point, parameter, result);
+        result.setPathValues(segment, compiledSegments[segment].getSignedCurvature(result.getParameter()),
+                segmentStartDistances[segment] + compiledSegments[segment].getArcLength(result.getParameter()));
+        return result;
+    }
+
+    /**
+     * @param distance A distance along the path, clamped to [0, {@code getLength()}].
+     * @return         The point that distance along the path.
+     */
+    public Translation2d getPointAtDistance(double distance) {
+        int segment = getSegmentAtDistance(distance);
+        return compiledSegments[segment].evaluate(getParameterAtDistance(segment, distance));
+    }
+
+    /**
+     * @return The unit tangent of the path the given distance along it.
+     */
+    public Translation2d getTangentAtDistance(double distance) {
+        int segment = getSegmentAtDistance(distance);
+        Translation2d derivative = compiledSegments[segment].getDerivative(getParameterAtDistance(segment, distance));
+        return derivative.scale(1d / derivative.norm());
+    }
+
+    /**
+     * @return The signed curvature of the path the given distance along it, positive when turning
+     *         counterclockwise.
+     */
+    public double getCurvatureAtDistance(double distance) {
+        int segment = getSegmentAtDistance(distance);
+        return compiledSegments[segment].getSignedCurvature(getParameterAtDistance(segment, distance));
+    }
+
+    private int getSegmentAtDistance(double distance) {
+        int segment = Arrays.binarySearch(segmentStartDistances, distance);
+        return segment >= 0 ? segment : Math.max(0, -segment - 2);
+    }
+
+    private double getParameterAtDistance(int segment, double distance) {
+        return compiledSegments[segment].getParameterAtArcLength(distance - segmentStartDistances[segment]);
+    }
+
+    public Translation2d getStart() {
+        return compiledSegments[0].evaluate(0d);
+    }
+
+    public Translation2d getEnd() {
+        return compiledSegments[compiledSegments.length - 1].evaluate(1d);
+    }
+
+    public double getLength() {
+        return length;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public Spline getSegment(int index) {
+        return segments.get(index);
+    }
+
+    public CompiledSpline getCompiledSegment(int index) {
+        return compiledSegments[index];
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,48 @@
+package com.horse.mpclib.lib.motion;
+
+/**
+ * The closest point on a {@code Path} to a query point. In addition to the quantities of a
+ * {@code SplineProjection}, this records which segment the point lies on, the signed curvature there
+ * and the distance travelled along the whole path, which are the inputs of a guiding vector field.
+ */
+public class PathProjection extends SplineProjection {
+    private int segmentIndex = -1;
+    private double curvature;
+    private double distanceAlongPath;
+
+    void setPathValues(int segmentIndex, double curvature, double distanceAlongPath) {
+        this.segmentIndex = segmentIndex;
+        this.curvature = curvature;
+        this.distanceAlongPath = distanceAlongPath;
+    }
+
+    /**
+     * @return Whether this projection has been written to by a {@code Path} yet, and can therefore be
+     *         used as a warm start.
+     */
+    public boolean isValid() {
+        return segmentIndex >= 0;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * @return The curvature of the path at the projected point, positive when turning
+     *         counterclockwise.
+     */
+    public double getCurvature() {
+        return curvature;
+    }
+
+    public double getDistanceAlongPath() {
+        return distanceAlongPath;
+    }
+
+    @Override
+    public String toString() {
+        return "PathProjection{segment=" + segmentIndex + ", parameter=" + getParameter() + ", distance=" + getDistance() +
+                ", distanceAlongPath=" + distanceAlongPath + "}";
+    }
+}
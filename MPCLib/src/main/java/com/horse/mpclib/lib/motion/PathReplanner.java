@@ -0,0 +1,297 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.control.Obstacle;
+import com.horse.mpclib.lib.geometry.Pose2d;
+import com.horse.mpclib.lib.geometry.Rotation2d;
+import com.horse.mpclib.lib.geometry.Translation2d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a {@code Path} clear of a set of {@code Obstacle} circles that can move, appear or disappear
+ * while the path is being followed. Every call to {@code replan} checks the segments of the path
+ * against the obstacles and re-optimizes only the segments that pass too close to one of them with a
+ * {@code SplineOptimizer}, keeping the endpoints and headings of each segment so the path stays
+ * continuous in position and heading. Segments that are clear are reused as they are, together with
+ * their compiled arc length tables and projection data. Since the endpoints of every segment are
+ * kept, an obstacle sitting on a waypoint cannot be avoided, and the waypoints should be moved
+ * instead. A segment whose optimization stops improving while it is still too close is left alone
+ * until the obstacles near it change, rather than being optimized again on every call.
+ *
+ * Replanning is bounded by a time budget so that it can run inside the control loop. Compiling an
+ * optimized segment and rebuilding the path take a large part of the budget, so their cost is
+ * measured, first when the replanner is created and then on every call, and that much time is
+ * reserved out of the budget before optimizing. A segment that is optimized but no longer fits in
+ * the budget is published on the next call, and segments that could not be finished are picked up
+ * again on the next call, warm started from their last parameters, so a path is usually cleared
+ * over a few control cycles.
+ */
+public class PathReplanner {
+    private static final double DEFAULT_TIME_BUDGET = 0.005d; //s
+    private static final double DEFAULT_CLEARANCE_MARGIN = 2d; //in
+    private static final double MIN_RELATIVE_IMPROVEMENT = 1E-4d;
+    private static final int DEFAULT_DEGREE = 5;
+    private static final int DEFAULT_SAMPLE_COUNT = 50;
+
+    private Path path;
+    private List<Obstacle> obstacles;
+    private double[][] segmentParameters;
+    private Spline[] pendingSegments;
+    private boolean[] blockedSegments;
+    private long[] blockedObstacleHashes;
+
+    private long compileTimeEstimate; //ns
+    private long rebuildTimeEstimate; //ns
+
+    private double timeBudget = DEFAULT_TIME_BUDGET;
+    private double clearanceMargin = DEFAULT_CLEARANCE_MARGIN;
+    private int degree = DEFAULT_DEGREE;
+    private int sampleCount = DEFAULT_SAMPLE_COUNT;
+
+    /**
+     * @param obstacles The obstacles to avoid. The list is read on every call to {@code replan}, so
+     *                  obstacles can be added, removed or moved between calls.
+     */
+    public PathReplanner(Path path, List<Obstacle> obstacles) {
+        setPath(path);
+        setObstacles(obstacles);
+
+        //Seed the estimates outside of the control loop, which also loads and warms up the classes
+        long startTime = System.nanoTime();
+        new CompiledSpline(path.getSegment(0));
+        compileTimeEstimate = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        new Path(getSegments(), path.getCellSize());
+        rebuildTimeEstimate = System.nanoTime() - startTime;
+    }
+
+    public boolean replan() {
+        return replan(0, getTimeBudget());
+    }
+
+    /**
+     * Re-optimizes the segments from {@code firstSegment} onwards that are too close to an obstacle.
+     * Passing the segment the robot is currently on, from {@code PathProjection#getSegmentIndex()},
+     * skips the segments that have already been driven and clears the nearest ones first.
+     *
+     * @param timeBudget The time, in seconds, that the call may take, including compiling the new
+     *                   segments and rebuilding the path.
+     * @return           Whether the path was changed, in which case {@code getPath()} returns the new
+     *                   path.
+     */
+    public boolean replan(int firstSegment, double timeBudget) {
+        long deadline = System.nanoTime() + (long)(timeBudget * 1E9d);
+        List<Spline> segments = null;
+        for(int i = 0; i < pendingSegments.length; i++) {
+            if(pendingSegments[i] == null) {
+                continue;
+            }
+
+            if(System.nanoTime() + compileTimeEstimate + rebuildTimeEstimate > deadline) {
+                break;
+            }
+
+            if(segments == null) {
+                segments = getSegments();
+            }
+
+            segments.set(i, compile(pendingSegments[i]));
+            pendingSegments[i] = null;
+        }
+
+        for(int i = Math.max(firstSegment, 0); i < getPath().getSegmentCount(); i++) {
+            long optimizationDeadline = deadline - compileTimeEstimate - rebuildTimeEstimate;
+            if(System.nanoTime() >= optimizationDeadline) {
+                break;
+            }
+
+            CompiledSpline segment = getPath().getCompiledSegment(i);
+            if(pendingSegments[i] != null || !isAffected(segment)) {
+                continue;
+            }
+
+            long obstacleHash = getObstacleHash(segment);
+            if(blockedSegments[i] && blockedObstacleHashes[i] == obstacleHash) {
+                continue;
+            }
+
+            Translation2d start = segment.evaluate(0d);
+            Translation2d end = segment.evaluate(1d);
+            SplineOptimizer optimizer = new SplineOptimizer(getDegree(), getSampleCount(),
+                    new Pose2d(start, new Rotation2d(segment.getDerivative(0d), true)),
+                    new Pose2d(end, new Rotation2d(segment.getDerivative(1d), true)), getObstacles());
+            optimizer.setClearanceMargin(getClearanceMargin());
+
+            double[] initialParameters = segmentParameters[i];
+            if(initialParameters == null) {
+                initialParameters = optimizer.getParameters(getPath().getSegment(i));
+            }
+
+            Spline spline = optimizer.optimize(initialParameters, optimizationDeadline);
+            List<Double> costHistory = optimizer.getLastResult().getBestCostHistory();
+            if(costHistory.get(0) - optimizer.getLastResult().getBestCost() <= MIN_RELATIVE_IMPROVEMENT * Math.abs(costHistory.get(0))) {
+                if(System.nanoTime() < optimizationDeadline) {
+                    //Converged without improving, so this is the best the optimizer can find, and it is still too close
+                    blockedSegments[i] = true;
+                    blockedObstacleHashes[i] = obstacleHash;
+                }
+
+                continue;
+            }
+
+            blockedSegments[i] = false;
+            segmentParameters[i] = optimizer.getLastResult().getBestParameters();
+            if(System.nanoTime() + compileTimeEstimate + rebuildTimeEstimate > deadline) {
+                pendingSegments[i] = spline;
+                break;
+            }
+
+            if(segments == null) {
+                segments = getSegments();
+            }
+
+            segments.set(i, compile(spline));
+        }
+
+        if(segments == null) {
+            return false;
+        }
+
+        long startTime = System.nanoTime();
+        path = new Path(segments, getPath().getCellSize());
+        rebuildTimeEstimate = updateEstimate(rebuildTimeEstimate, System.nanoTime() - startTime);
+        return true;
+    }
+
+    private Spline compile(Spline spline) {
+        long startTime = System.nanoTime();
+        spline.compile();
+        compileTimeEstimate = updateEstimate(compileTimeEstimate, System.nanoTime() - startTime);
+        return spline;
+    }
+
+    /**
+     * Averages the measurements with exponentially decreasing weights. A single slow run, such as one
+     * interrupted by the garbage collector, only raises the estimate by a quarter of the difference,
+     * and since the estimate is only measured again when something is compiled, following such runs
+     * straight away could leave no time to optimize in and stop replanning altogether.
+     */
+    private static long updateEstimate(long estimate, long measurement) {
+        return (3L * estimate + measurement) / 4L;
+    }
+
+    private List<Spline> getSegments() {
+        List<Spline> segments = new ArrayList<>(getPath().getSegmentCount());
+        for(int i = 0; i < getPath().getSegmentCount(); i++) {
+            segments.add(getPath().getSegment(i));
+        }
+
+        return segments;
+    }
+
+    /**
+     * @return A hash of the locations and radii of the obstacles whose clearance overlaps the bounding
+     *         box of {@code segment}, which changes when any of them moves, appears or disappears.
+     */
+    private long getObstacleHash(CompiledSpline segment) {
+        long hash = 1L;
+        for(Obstacle obstacle : getObstacles()) {
+            double clearance = (obstacle.getObstacleRadius() + Obstacle.getRobotRadius()) / 0.0254d;
+            Translation2d location = obstacle.getLocation();
+            if(location.x() + clearance < segment.getMinX() || location.x() - clearance > segment.getMaxX() ||
+                    location.y() + clearance < segment.getMinY() || location.y() - clearance > segment.getMaxY()) {
+                continue;
+            }
+
+            hash = 31L * hash + Double.doubleToLongBits(location.x());
+            hash = 31L * hash + Double.doubleToLongBits(location.y());
+            hash = 31L * hash + Double.doubleToLongBits(obstacle.getObstacleRadius());
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return Whether {@code segment} passes closer to an obstacle than the sum of the obstacle and
+     *         robot radii. The bounding box of the segment is checked first, so segments far from
+     *         every obstacle cost a few comparisons.
+     */
+    public boolean isAffected(CompiledSpline segment) {
+        for(Obstacle obstacle : getObstacles()) {
+            double clearance = (obstacle.getObstacleRadius() + Obstacle.getRobotRadius()) / 0.0254d;
+            Translation2d location = obstacle.getLocation();
+            if(location.x() + clearance < segment.getMinX() || location.x() - clearance > segment.getMaxX() ||
+                    location.y() + clearance < segment.getMinY() || location.y() - clearance > segment.getMaxY()) {
+                continue;
+            }
+
+            if(segment.getMinDistanceFromPoint(location) < clearance) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Replaces the path being replanned, discarding the warm starts, pending segments and blocked
+     * segments of the previous path.
+     */
+    public void setPath(Path path) {
+        this.path = path;
+        segmentParameters = new double[path.getSegmentCount()][];
+        pendingSegments = new Spline[path.getSegmentCount()];
+        blockedSegments = new boolean[path.getSegmentCount()];
+        blockedObstacleHashes = new long[path.getSegmentCount()];
+    }
+
+    public List<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    public void setObstacles(List<Obstacle> obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    public double getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(double timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public double getClearanceMargin() {
+        return clearanceMargin;
+    }
+
+    /**
+     * @param clearanceMargin Extra distance, in inches, that re-optimized segments keep from
+     *                        obstacles, so that they are not flagged again on the next call.
+     */
+    public void setClearanceMargin(double clearanceMargin) {
+        this.clearanceMargin = clearanceMargin;
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    public void setDegree(int degree) {
+        this.degree = degree;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+}
@@ -0,0 +1,469 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.control.Obstacle;
+import com.horse.mpclib.lib.geometry.Circle2d;
+import com.horse.mpclib.lib.geometry.KDTree2d;
+import com.horse.mpclib.lib.geometry.Pose2d;
+import com.horse.mpclib.lib.geometry.Rectangle;
+import com.horse.mpclib.lib.geometry.Rotation2d;
+import com.horse.mpclib.lib.geometry.Translation2d;
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Global planner that finds a collision-free route across the field with RRT*, so the MPC only has
+ * to track a reference that already goes around the obstacles instead of relying on the obstacle
+ * potentials to push it out of local minima.
+ *
+ * The tree is grown by sampling the field, connecting each sample to the cheapest nearby node it can
+ * see and then rewiring the nearby nodes through the new one whenever that shortens their route. Node
+ * lookups go through a {@code KDTree2d}, so an iteration costs O(log n) rather than O(n). Planning is
+ * anytime: {@code iterate(int)} can be called again to keep improving the route, for example during
+ * init or in the gaps of the control loop.
+ *
+ * Obstacles are circles and axis-aligned rectangles in inches. They are grown by the radius of the
+ * robot, so the route is planned for the center of the robot. All coordinates are field coordinates
+ * in inches.
+ */
+public class RRTStarPlanner {
+    private static final double DEFAULT_FIELD_SIZE = 144d; //in
+    private static final double DEFAULT_STEP_SIZE = 12d; //in
+    private static final double DEFAULT_GOAL_BIAS = 0.05d;
+    private static final int NONE = -1;
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private final List<Circle2d> circles;
+    private final List<Rectangle> rectangles;
+    private double robotRadius;
+
+    private double stepSize = DEFAULT_STEP_SIZE;
+    private double goalBias = DEFAULT_GOAL_BIAS;
+    private Random random;
+
+    private final KDTree2d tree;
+    private final List<Integer> parents;
+    private final List<Double> costs;
+    private final List<List<Integer>> children;
+    private final List<Double> goalDistances;
+    private final List<Integer> nearNodes;
+    private final List<Integer> propagationStack;
+    private Translation2d goal;
+    private int bestGoalNode = NONE;
+    private double bestGoalCost = Double.POSITIVE_INFINITY;
+
+    public RRTStarPlanner() {
+        this(0d, 0d, DEFAULT_FIELD_SIZE, DEFAULT_FIELD_SIZE);
+    }
+
+    public RRTStarPlanner(double minX, double minY, double maxX, double maxY) {
+        if(minX >= maxX || minY >= maxY) {
+            throw new IllegalArgumentException("Field bounds must have a positive area");
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        circles = new ArrayList<>();
+        rectangles = new ArrayList<>();
+        setRobotRadius(Obstacle.getRobotRadius() / 0.0254d);
+        setRandom(new Random(0L));
+
+        tree = new KDTree2d();
+        parents = new ArrayList<>();
+        costs = new ArrayList<>();
+        children = new ArrayList<>();
+        goalDistances = new ArrayList<>();
+        nearNodes = new ArrayList<>();
+        propagationStack = new ArrayList<>();
+    }
+
+    public void addObstacle(Circle2d circle) {
+        circles.add(circle);
+    }
+
+    public void addObstacle(Rectangle rectangle) {
+        rectangles.add(rectangle);
+    }
+
+    /**
+     * Adds an MPC {@code Obstacle}, whose radius is in meters, as a circle.
+     */
+    public void addObstacle(Obstacle obstacle) {
+        addObstacle(new Circle2d(obstacle.getLocation(), obstacle.getObstacleRadius() / 0.0254d));
+    }
+
+    public void clearObstacles() {
+        circles.clear();
+        rectangles.clear();
+    }
+
+    /**
+     * Discards the previous tree and grows a new one from {@code start} towards {@code goal}.
+     *
+     * @return Whether a route to the goal has been found.
+     */
+    public boolean initializeAndIterate(int iterations, Translation2d start, Translation2d goal) {
+        if(!isFree(start.x(), start.y()) || !isFree(goal.x(), goal.y())) {
+            throw new IllegalArgumentException("The start and goal must be clear of obstacles");
+        }
+
+        tree.clear();
+        parents.clear();
+        costs.clear();
+        children.clear();
+        goalDistances.clear();
+        this.goal = goal;
+        bestGoalNode = NONE;
+        bestGoalCost = Double.POSITIVE_INFINITY;
+        addNode(start.x(), start.y(), NONE, 0d);
+        return iterate(iterations);
+    }
+
+    /**
+     * Grows the tree by {@code iterations} samples, improving the route found so far.
+     *
+     * @return Whether a route to the goal has been found.
+     */
+    public boolean iterate(int iterations) {
+        if(goal == null) {
+            throw new IllegalStateException("initializeAndIterate must be called before iterate");
+        }
+
+        for(int iteration = 0; iteration < iterations; iteration++) {
+            double sampleX;
+            double sampleY;
+            if(getRandom().nextDouble() < getGoalBias()) {
+                sampleX = goal.x();
+                sampleY = goal.y();
+            } else {
+                sampleX = minX + (maxX - minX) * getRandom().nextDouble();
+                sampleY = minY + (maxY - minY) * getRandom().nextDouble();
+            }
+
+            int nearest = tree.nearest(sampleX, sampleY);
+            double dx = sampleX - tree.getX(nearest);
+            double dy = sampleY - tree.getY(nearest);
+            double distance = Math.hypot(dx, dy);
+            if(distance < 1E-9d) {
+                continue;
+            }
+
+            if(distance > getStepSize()) {
+                sampleX = tree.getX(nearest) + dx * getStepSize() / distance;
+                sampleY = tree.getY(nearest) + dy * getStepSize() / distance;
+            }
+
+            if(!isFree(sampleX, sampleY) || !isFree(tree.getX(nearest), tree.getY(nearest), sampleX, sampleY)) {
+                continue;
+            }
+
+            //Connect to the neighbour that gives the cheapest route to the new node
+            nearNodes.clear();
+            tree.near(sampleX, sampleY, getNearRadius(), nearNodes);
+            int parent = nearest;
+            double cost = costs.get(nearest) + distance(nearest, sampleX, sampleY);
+            for(int node : nearNodes) {
+                double nodeCost = costs.get(node) + distance(node, sampleX, sampleY);
+                if(nodeCost < cost && isFree(tree.getX(node), tree.getY(node), sampleX, sampleY)) {
+                    parent = node;
+                    cost = nodeCost;
+                }
+            }
+
+            int newNode = addNode(sampleX, sampleY, parent, cost);
+
+            //Reroute neighbours through the new node where that is shorter
+            for(int node : nearNodes) {
+                double nodeCost = cost + distance(node, sampleX, sampleY);
+                if(node != parent && nodeCost < costs.get(node) && isFree(tree.getX(node), tree.getY(node), sampleX, sampleY)) {
+                    children.get(parents.get(node)).remove((Integer) node);
+                    children.get(newNode).add(node);
+                    parents.set(node, newNode);
+                    propagateCost(node, nodeCost - costs.get(node));
+                }
+            }
+        }
+
+        return hasPath();
+    }
+
+    /**
+     * Adds a node to the tree. The start connects to the goal from any distance it can see it, and
+     * every other node only from within a step, like any other connection.
+     */
+    private int addNode(double x, double y, int parent, double cost) {
+        int node = tree.insert(x, y);
+        parents.add(parent);
+        costs.add(cost);
+        children.add(new ArrayList<>());
+        double goalDistance = Math.hypot(goal.x() - x, goal.y() - y);
+        if(parent != NONE) {
+            children.get(parent).add(node);
+        }
+
+        if((parent == NONE || goalDistance <= getStepSize()) && isFree(x, y, goal.x(), goal.y())) {
+            goalDistances.add(goalDistance);
+            updateBestGoalNode(node);
+        } else {
+            goalDistances.add(Double.POSITIVE_INFINITY);
+        }
+
+        return node;
+    }
+
+    /**
+     * Changes the cost of {@code node} and every node below it by {@code costChange}. The subtree is
+     * walked with an explicit stack, since a recursive walk could overflow the call stack on the long
+     * chains a dense tree grows.
+     */
+    private void propagateCost(int node, double costChange) {
+        propagationStack.clear();
+        propagationStack.add(node);
+        while(!propagationStack.isEmpty()) {
+            int current = propagationStack.remove(propagationStack.size() - 1);
+            costs.set(current, costs.get(current) + costChange);
+            updateBestGoalNode(current);
+            propagationStack.addAll(children.get(current));
+        }
+    }
+
+    /**
+     * Makes {@code node} the best goal node if the route to the goal through it is shorter than the
+     * best one. Costs only ever decrease, so checking every node whose cost has changed keeps the best
+     * goal node up to date without rescanning all the nodes that can reach the goal.
+     */
+    private void updateBestGoalNode(int node) {
+        double cost = costs.get(node) + goalDistances.get(node);
+        if(cost < bestGoalCost) {
+            bestGoalNode = node;
+            bestGoalCost = cost;
+        }
+    }
+
+    /**
+     * The RRT* connection radius, gamma sqrt(log(n) / n), which shrinks as the tree fills the field
+     * while still keeping enough neighbours for the route to converge to the shortest one. It is
+     * capped at twice the step size so the first iterations don't check the whole tree.
+     */
+    private double getNearRadius() {
+        int n = tree.size() + 1;
+        double gamma = 2d * Math.sqrt(1.5d * (maxX - minX) * (maxY - minY) / Math.PI);
+        return Math.min(gamma * Math.sqrt(Math.log(n) / n), 2d * getStepSize());
+    }
+
+    private double distance(int node, double x, double y) {
+        return Math.hypot(tree.getX(node) - x, tree.getY(node) - y);
+    }
+
+    /**
+     * @return Whether the robot centered at (x, y) is inside the field and clear of every obstacle.
+     */
+    public boolean isFree(double x, double y) {
+        double radius = getRobotRadius();
+        if(x < minX + radius || x > maxX - radius || y < minY + radius || y > maxY - radius) {
+            return false;
+        }
+
+        for(Circle2d circle : circles) {
+            double clearance = circle.getRadius() + radius;
+            double dx = x - circle.x();
+            double dy = y - circle.y();
+            if(dx * dx + dy * dy < clearance * clearance) {
+                return false;
+            }
+        }
+
+        for(Rectangle rectangle : rectangles) {
+            if(x > rectangle.getMinX() - radius && x < rectangle.getMaxX() + radius &&
+                    y > rectangle.getMinY() - radius && y < rectangle.getMaxY() + radius) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks the straight segment between two points that are already known to be free. The field is
+     * convex, so only the obstacles need to be checked.
+     *
+     * @return Whether the robot can drive in a straight line from (x0, y0) to (x1, y1).
+     */
+    public boolean isFree(double x0, double y0, double x1, double y1) {
+        double radius = getRobotRadius();
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        for(Circle2d circle : circles) {
+            double t = lengthSquared == 0d ? 0d : ((circle.x() - x0) * dx + (circle.y() - y0) * dy) / lengthSquared;
+            t = Math.max(0d, Math.min(1d, t));
+            double offsetX = x0 + t * dx - circle.x();
+            double offsetY = y0 + t * dy - circle.y();
+            double clearance = circle.getRadius() + radius;
+            if(offsetX * offsetX + offsetY * offsetY < clearance * clearance) {
+                return false;
+            }
+        }
+
+        for(Rectangle rectangle : rectangles) {
+            if(intersectsBox(x0, y0, dx, dy, rectangle.getMinX() - radius, rectangle.getMinY() - radius,
+                    rectangle.getMaxX() + radius, rectangle.getMaxY() + radius)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Slab test of the segment (x0, y0) + t (dx, dy), t in [0, 1], against an axis-aligned box.
+     */
+    private static boolean intersectsBox(double x0, double y0, double dx, double dy,
+                                         double boxMinX, double boxMinY, double boxMaxX, double boxMaxY) {
+        double tMin = 0d;
+        double tMax = 1d;
+        if(Math.abs(dx) < 1E-12d) {
+            if(x0 <= boxMinX || x0 >= boxMaxX) {
+                return false;
+            }
+        } else {
+            double t0 = (boxMinX - x0) / dx;
+            double t1 = (boxMaxX - x0) / dx;
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+        }
+
+        if(Math.abs(dy) < 1E-12d) {
+            if(y0 <= boxMinY || y0 >= boxMaxY) {
+                return false;
+            }
+        } else {
+            double t0 = (boxMinY - y0) / dy;
+            double t1 = (boxMaxY - y0) / dy;
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+        }
+
+        return tMin < tMax;
+    }
+
+    public boolean hasPath() {
+        return bestGoalNode != NONE;
+    }
+
+    /**
+     * @return The length of the best route found so far, in inches, or infinity if there is none.
+     */
+    public double getPathLength() {
+        return bestGoalCost;
+    }
+
+    /**
+     * @return The best route found so far, from the start to the goal, with every waypoint that can be
+     *         skipped by driving straight to a later one removed. Empty if there is no route yet.
+     */
+    public List<Translation2d> getWaypoints() {
+        List<Translation2d> route = new ArrayList<>();
+        if(!hasPath()) {
+            return route;
+        }
+
+        route.add(goal);
+        for(int node = bestGoalNode; node != NONE; node = parents.get(node)) {
+            route.add(0, tree.getPoint(node));
+        }
+
+        List<Translation2d> waypoints = new ArrayList<>();
+        waypoints.add(route.get(0));
+        int current = 0;
+        while(current < route.size() - 1) {
+            int next = route.size() - 1;
+            while(next > current + 1 && !isFree(route.get(current).x(), route.get(current).y(), route.get(next).x(), route.get(next).y())) {
+                next--;
+            }
+
+            waypoints.add(route.get(next));
+            current = next;
+        }
+
+        return waypoints;
+    }
+
+    /**
+     * Interpolates the best route with {@code Path#interpolate}. The spline rounds the corners of the
+     * route, so it can pass slightly closer to the obstacles than the waypoints do.
+     *
+     * @return The path, or null if there is no route yet.
+     */
+    public Path toPath(Pose2d start, Pose2d end) {
+        List<Translation2d> waypoints = getWaypoints();
+        if(waypoints.isEmpty()) {
+            return null;
+        }
+
+        return Path.interpolate(start, end, waypoints.subList(1, waypoints.size() - 1).toArray(new Translation2d[0]));
+    }
+
+    /**
+     * @return The waypoints after the start as MPC desired states, in the order they should be handed
+     *         to the solver, all with the given heading. Empty if there is no route yet.
+     */
+    public List<SimpleMatrix> getDesiredStates(Rotation2d heading) {
+        List<Translation2d> waypoints = getWaypoints();
+        List<SimpleMatrix> desiredStates = new ArrayList<>(Math.max(waypoints.size() - 1, 0));
+        for(int i = 1; i < waypoints.size(); i++) {
+            desiredStates.add(Util.convertPoseToState(new Pose2d(waypoints.get(i), heading)));
+        }
+
+        return desiredStates;
+    }
+
+    public int getNodeCount() {
+        return tree.size();
+    }
+
+    public double getRobotRadius() {
+        return robotRadius;
+    }
+
+    /**
+     * @param robotRadius The radius, in inches, that obstacles are grown by.
+     */
+    public void setRobotRadius(double robotRadius) {
+        this.robotRadius = robotRadius;
+    }
+
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    public void setStepSize(double stepSize) {
+        this.stepSize = stepSize;
+    }
+
+    public double getGoalBias() {
+        return goalBias;
+    }
+
+    public void setGoalBias(double goalBias) {
+        this.goalBias = goalBias;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+}
@@ -12,14 +12,13 @@ import com.horse.mpclib.lib.util.TimeUnits;
  * <p>
  * http://www.dii.unimore.it/~lbiagiotti/Papers/Optimal%20Trajectories%20for%20Vibration%20Reduction%20Based%20on%20Exponential%20Filters_PostPrint
  * .pdf
+ * <p>
+ * Every quantity is evaluated in closed form from the current phase, so profiles are cheap to create
+ * and can be sampled at any time.
  */
 public class ResidualVibrationReductionMotionProfilerGenerator implements IMotionProfile {
     private static final double dt = 0.01d;
     private TimeProfiler timeProfiler;
-    private double[] positions;
-    private double[] velocities;
-    private double[] accelerations;
-    private double[] jerks;
     private double targetDisplacement;
     private double maxSpeed;
     private double maxAcceleration;
@@ -30,6 +29,9 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     private boolean isNegative;
     private double initialPosition;
 
+    private double constantFactor;
+    private double cosinoidFrequency;
+
     public ResidualVibrationReductionMotionProfilerGenerator(double initialPosition, double displacement, double maxSpeed, double maxAcceleration) {
         setInitialPosition(initialPosition);
         setNegative(displacement < 0d);
@@ -39,7 +41,7 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
         setMaxAcceleration(maxAcceleration);
         double accelerationTime = 2 * getMaxSpeed() / getMaxAcceleration();
         double totalAcclerationDisplacements = 2 * Math.pow(getMaxSpeed(), 2) / getMaxAcceleration();
-        if(totalAcclerationDisplacements <= displacement) {
+        if(totalAcclerationDisplacements <= getTargetDisplacement()) {
             setHasConstantVelocityStep(true);
             setAccelerationTime(accelerationTime);
             setTotalTime(2 * getAccelerationTime() + getConstantVelocityTime());
@@ -49,11 +51,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
             setTotalTime(2 * getAccelerationTime());
         }
 
-        final int timeSteps = (int) (Math.ceil(getTotalTime() / getDt()));
-        setPositions(new double[timeSteps]);
-        setVelocities(new double[timeSteps]);
-        setAccelerations(new double[timeSteps]);
-        setJerks(new double[timeSteps]);
         generateProfile();
     }
 
@@ -78,13 +75,8 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
 
     @Override
     public void generateProfile() {
-        for(int i = 0; i * getDt() < getTotalTime(); i++) {
-            double timeStamp = i * getDt();
-            getPositions()[i] = getCurrentDisplacement(timeStamp);
-            getVelocities()[i] = getCurrentVelocity(timeStamp);
-            getAccelerations()[i] = getCurrentAcceleration(timeStamp);
-            getJerks()[i] = getCurrentJerk(timeStamp);
-        }
+        constantFactor = 2 * getTargetDisplacement() / (Math.pow(getAccelerationTime(), 2) + getAccelerationTime() * getConstantVelocityTime());
+        cosinoidFrequency = 2 * Math.PI / getAccelerationTime();
     }
 
     @Override
@@ -143,8 +135,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     }
 
     private double getCurrentDisplacement(final double timeStamp) {
-        double constantFactor = getConstantFactor();
-        double cosinoidFrequency = 2 * Math.PI / getAccelerationTime();
         Phase currentPhase = getCurrentPhase(timeStamp);
         return (isNegative() ? -1d : 1d) * (currentPhase.ordinal() == Phase.ACCELERATE.ordinal() ? constantFactor / (2 * Math.pow(cosinoidFrequency, 2)) *
                 (Math.pow(cosinoidFrequency * timeStamp, 2) / 2 - (1 - Math
@@ -160,8 +150,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     }
 
     private double getCurrentVelocity(final double timeStamp) {
-        double constantFactor = getConstantFactor();
-        double cosinoidFrequency = 2 * Math.PI / getAccelerationTime();
         Phase currentPhase = getCurrentPhase(timeStamp);
         return (isNegative() ? -1d : 1d) * (currentPhase.ordinal() == Phase.ACCELERATE.ordinal() ?
                 constantFactor / (2 * cosinoidFrequency) * (cosinoidFrequency * timeStamp - Math.sin(cosinoidFrequency * timeStamp)) :
@@ -172,8 +160,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     }
 
     private double getCurrentAcceleration(final double timeStamp) {
-        double constantFactor = getConstantFactor();
-        double cosinoidFrequency = 2 * Math.PI / getAccelerationTime();
         Phase currentPhase = getCurrentPhase(timeStamp);
         return (isNegative() ? -1d : 1d) * (currentPhase.ordinal() == Phase.ACCELERATE.ordinal() ? constantFactor / 2 * (1 - Math.cos(cosinoidFrequency * timeStamp)) :
                 currentPhase.ordinal() == Phase.CRUISE.ordinal() ? 0d : currentPhase.ordinal() == Phase.DECELERATE.ordinal() ?
@@ -181,8 +167,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     }
 
     private double getCurrentJerk(final double timeStamp) {
-        double constantFactor = getConstantFactor();
-        double cosinoidFrequency = 2 * Math.PI / getAccelerationTime();
         Phase currentPhase = getCurrentPhase(timeStamp);
         return (isNegative() ? -1d : 1d) * (currentPhase.ordinal() == Phase.ACCELERATE.ordinal() ?
                 constantFactor * Math.PI / getAccelerationTime() * Math.sin(cosinoidFrequency * timeStamp) :
@@ -206,7 +190,7 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
     }
 
     protected double getConstantFactor() {
-        return 2 * getTargetDisplacement() / (Math.pow(getAccelerationTime(), 2) + getAccelerationTime() * getConstantVelocityTime());
+        return constantFactor;
     }
 
     public double getStartDecelerationTime() {
@@ -223,38 +207,6 @@ public class ResidualVibrationReductionMotionProfilerGenerator implements IMotio
         return dt;
     }
 
-    public double[] getPositions() {
-        return positions;
-    }
-
-    public void setPositions(double[] positions) {
-        this.positions = positions;
-    }
-
-    public double[] getVelocities() {
-        return velocities;
-    }
-
-    public void setVelocities(double[] velocities) {
-        this.velocities = velocities;
-    }
-
-    public double[] getAccelerations() {
-        return accelerations;
-    }
-
-    public void setAccelerations(double[] accelerations) {
-        this.accelerations = accelerations;
-    }
-
-    public double[] getJerks() {
-        return jerks;
-    }
-
-    public void setJerks(double[] jerks) {
-        this.jerks = jerks;
-    }
-
     private double getTargetDisplacement() {
         return targetDisplacement;
     }
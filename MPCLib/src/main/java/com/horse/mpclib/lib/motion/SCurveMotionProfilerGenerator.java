@@ -1,4 +1,387 @@
 package com.horse.mpclib.lib.motion;
 
-public class SCurveMotionProfilerGenerator {
+import com.horse.mpclib.lib.util.TimeProfiler;
+import com.horse.mpclib.lib.util.TimeUnits;
+
+/**
+ * Seven segment jerk-limited (S-curve) motion profile that brings a mechanism from an arbitrary
+ * position, velocity and acceleration to rest at a target position. The profile is made of an
+ * acceleration phase (jerk up, constant acceleration, jerk down), an optional cruise at constant
+ * velocity, and a deceleration phase mirroring the acceleration phase. Limiting jerk keeps the
+ * acceleration continuous, which avoids exciting the vibration modes of mechanisms like cascading
+ * slides.
+ *
+ * The velocity reached at the end of the acceleration phase is found by bisection, since the distance
+ * travelled is monotonic in it, and every segment is then evaluated as a cubic in closed form. If the
+ * target changes mid-motion, {@code replan} starts a new profile from the state the current profile is
+ * in at that time, so the commanded position, velocity and acceleration stay continuous.
+ *
+ * https://www.researchgate.net/publication/224626298_On-Line_Trajectory_Generation_Basic_Concepts_for_Instantaneous_Reactions_to_Unforeseen_Events
+ */
+public class SCurveMotionProfilerGenerator implements IMotionProfile {
+    private static final double dt = 0.01d;
+    private static final int SEGMENT_COUNT = 7;
+    private static final int BISECTION_ITERATIONS = 100;
+
+    private TimeProfiler timeProfiler;
+    private double initialPosition;
+    private double initialVelocity;
+    private double initialAcceleration;
+    private double target;
+    private double maxSpeed;
+    private double maxAcceleration;
+    private double maxJerk;
+    private double timeOffset;
+    private boolean isNegative;
+
+    private final double[] jerks = new double[SEGMENT_COUNT];
+    private final double[] durations = new double[SEGMENT_COUNT];
+    private final double[] startTimes = new double[SEGMENT_COUNT + 1];
+    private final double[] startPositions = new double[SEGMENT_COUNT + 1];
+    private final double[] startVelocities = new double[SEGMENT_COUNT + 1];
+    private final double[] startAccelerations = new double[SEGMENT_COUNT + 1];
+
+    public SCurveMotionProfilerGenerator(double initialPosition, double target, double maxSpeed, double maxAcceleration, double maxJerk) {
+        this(initialPosition, 0d, 0d, target, maxSpeed, maxAcceleration, maxJerk);
+    }
+
+    public SCurveMotionProfilerGenerator(double initialPosition, double initialVelocity, double initialAcceleration, double target,
+                                         double maxSpeed, double maxAcceleration, double maxJerk) {
+        setTimeProfiler(new TimeProfiler(false));
+        setInitialPosition(initialPosition);
+        setInitialVelocity(initialVelocity);
+        setInitialAcceleration(initialAcceleration);
+        setTarget(target);
+        setMaxSpeed(maxSpeed);
+        setMaxAcceleration(maxAcceleration);
+        setMaxJerk(maxJerk);
+        generateProfile();
+    }
+
+    public static void main(String... args) {
+        SCurveMotionProfilerGenerator motionProfiler = new SCurveMotionProfilerGenerator(0d, 15.66667d, 21.6d, 200d, 4000d);
+        System.out.println(motionProfiler);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Time\tPosition\tVelocity\tAcceleration\tJerk\n");
+        for(int i = 0; getTimeOffset() + i * dt <= getDuration(); i++) {
+            double timeStamp = getTimeOffset() + i * dt;
+            builder.append(timeStamp).append('\t').append(getPosition(timeStamp)).append('\t')
+                    .append(getVelocity(timeStamp)).append('\t').append(getAcceleration(timeStamp)).append('\t')
+                    .append(getJerk(timeStamp)).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Plans a new profile to {@code target}, starting from the state this profile is in at
+     * {@code timeStamp}. Time stamps keep being measured from the original call to {@code start()}, so
+     * the caller does not need to restart its clock.
+     */
+    public void replan(double timeStamp, double target) {
+        timeStamp = Math.max(timeStamp, getTimeOffset());
+        double position = getPosition(timeStamp);
+        double velocity = getVelocity(timeStamp);
+        double acceleration = getAcceleration(timeStamp);
+        setTimeOffset(timeStamp);
+        setInitialPosition(position);
+        setInitialVelocity(velocity);
+        setInitialAcceleration(acceleration);
+        setTarget(target);
+        generateProfile();
+    }
+
+    public void replan(double target) {
+        replan(getRuntime(), target);
+    }
+
+    @Override
+    public void generateProfile() {
+        double displacement = getTarget() - getInitialPosition();
+        double cruiseDisplacement;
+        double peakVelocity;
+        if(getPlannedDisplacement(getMaxSpeed()) <= displacement) {
+            peakVelocity = getMaxSpeed();
+            cruiseDisplacement = displacement - getPlannedDisplacement(peakVelocity);
+        } else if(getPlannedDisplacement(-getMaxSpeed()) >= displacement) {
+            peakVelocity = -getMaxSpeed();
+            cruiseDisplacement = displacement - getPlannedDisplacement(peakVelocity);
+        } else {
+            double lowerBound = -getMaxSpeed();
+            double upperBound = getMaxSpeed();
+            for(int i = 0; i < BISECTION_ITERATIONS && upperBound - lowerBound > 1E-12d; i++) {
+                double middle = (lowerBound + upperBound) / 2d;
+                if(getPlannedDisplacement(middle) < displacement) {
+                    lowerBound = middle;
+                } else {
+                    upperBound = middle;
+                }
+            }
+
+            peakVelocity = (lowerBound + upperBound) / 2d;
+            cruiseDisplacement = 0d;
+        }
+
+        getPlannedDisplacement(peakVelocity);
+        durations[3] = peakVelocity != 0d ? Math.max(cruiseDisplacement / peakVelocity, 0d) : 0d;
+        jerks[3] = 0d;
+        integrateSegments();
+        setNegative(displacement < 0d);
+    }
+
+    /**
+     * Fills in the acceleration and deceleration phases for the given peak velocity, without a cruise,
+     * and returns the distance they cover.
+     */
+    private double getPlannedDisplacement(double peakVelocity) {
+        setVelocityChange(getInitialVelocity(), getInitialAcceleration(), peakVelocity, 0);
+        setVelocityChange(peakVelocity, 0d, 0d, 4);
+        double position = 0d;
+        double velocity = getInitialVelocity();
+        double acceleration = getInitialAcceleration();
+        for(int i = 0; i < SEGMENT_COUNT; i++) {
+            if(i == 3) {
+                continue;
+            }
+
+            double duration = durations[i];
+            position += ((jerks[i] * duration / 6d + acceleration / 2d) * duration + velocity) * duration;
+            velocity += (jerks[i] * duration / 2d + acceleration) * duration;
+            acceleration += jerks[i] * duration;
+        }
+
+        return position;
+    }
+
+    /**
+     * Writes the three segments that take the velocity from {@code velocity} to {@code targetVelocity},
+     * ending with zero acceleration, into the segments starting at {@code offset}. The acceleration is
+     * ramped towards the limit, held there if necessary, and ramped back to zero.
+     */
+    private void setVelocityChange(double velocity, double acceleration, double targetVelocity, int offset) {
+        //Velocity reached by ramping the acceleration to zero straight away decides the direction
+        double direction = targetVelocity >= velocity + acceleration * Math.abs(acceleration) / (2d * getMaxJerk()) ? 1d : -1d;
+        double velocityChange = direction * (targetVelocity - velocity);
+        acceleration *= direction;
+
+        double peakAcceleration = getMaxAcceleration();
+        double holdTime = (velocityChange - (acceleration + peakAcceleration) * Math.abs(peakAcceleration - acceleration) /
+                (2d * getMaxJerk()) - peakAcceleration * peakAcceleration / (2d * getMaxJerk())) / peakAcceleration;
+        if(holdTime < 0d) {
+            peakAcceleration = Math.sqrt(Math.max(getMaxJerk() * velocityChange + acceleration * acceleration / 2d, 0d));
+            holdTime = 0d;
+        }
+
+        durations[offset] = Math.abs(peakAcceleration - acceleration) / getMaxJerk();
+        jerks[offset] = direction * Math.signum(peakAcceleration - acceleration) * getMaxJerk();
+        durations[offset + 1] = holdTime;
+        jerks[offset + 1] = 0d;
+        durations[offset + 2] = peakAcceleration / getMaxJerk();
+        jerks[offset + 2] = -direction * getMaxJerk();
+    }
+
+    private void integrateSegments() {
+        startTimes[0] = 0d;
+        startPositions[0] = getInitialPosition();
+        startVelocities[0] = getInitialVelocity();
+        startAccelerations[0] = getInitialAcceleration();
+        for(int i = 0; i < SEGMENT_COUNT; i++) {
+            double duration = durations[i];
+            startTimes[i + 1] = startTimes[i] + duration;
+            startPositions[i + 1] = startPositions[i] + ((jerks[i] * duration / 6d + startAccelerations[i] / 2d) * duration + startVelocities[i]) * duration;
+            startVelocities[i + 1] = startVelocities[i] + (jerks[i] * duration / 2d + startAccelerations[i]) * duration;
+            startAccelerations[i + 1] = startAccelerations[i] + jerks[i] * duration;
+        }
+
+        //Remove the round-off accumulated over the segments so the profile ends exactly at rest
+        startPositions[SEGMENT_COUNT] = getTarget();
+        startVelocities[SEGMENT_COUNT] = 0d;
+        startAccelerations[SEGMENT_COUNT] = 0d;
+    }
+
+    private int getSegment(double localTime) {
+        for(int i = 0; i < SEGMENT_COUNT; i++) {
+            if(localTime < startTimes[i + 1]) {
+                return i;
+            }
+        }
+
+        return SEGMENT_COUNT;
+    }
+
+    @Override
+    public double getDuration() {
+        return getTimeOffset() + startTimes[SEGMENT_COUNT];
+    }
+
+    @Override
+    public double getPosition() {
+        return getPosition(getRuntime());
+    }
+
+    @Override
+    public double getVelocity() {
+        return getVelocity(getRuntime());
+    }
+
+    @Override
+    public double getAcceleration() {
+        return getAcceleration(getRuntime());
+    }
+
+    @Override
+    public double getJerk() {
+        return getJerk(getRuntime());
+    }
+
+    @Override
+    public double getPosition(double timeStamp) {
+        double localTime = Math.max(timeStamp - getTimeOffset(), 0d);
+        int segment = getSegment(localTime);
+        if(segment == SEGMENT_COUNT) {
+            return startPositions[SEGMENT_COUNT];
+        }
+
+        double elapsed = localTime - startTimes[segment];
+        return startPositions[segment] + ((jerks[segment] * elapsed / 6d + startAccelerations[segment] / 2d) * elapsed +
+                startVelocities[segment]) * elapsed;
+    }
+
+    @Override
+    public double getVelocity(double timeStamp) {
+        double localTime = Math.max(timeStamp - getTimeOffset(), 0d);
+        int segment = getSegment(localTime);
+        if(segment == SEGMENT_COUNT) {
+            return 0d;
+        }
+
+        double elapsed = localTime - startTimes[segment];
+        return startVelocities[segment] + (jerks[segment] * elapsed / 2d + startAccelerations[segment]) * elapsed;
+    }
+
+    @Override
+    public double getAcceleration(double timeStamp) {
+        double localTime = Math.max(timeStamp - getTimeOffset(), 0d);
+        int segment = getSegment(localTime);
+        if(segment == SEGMENT_COUNT) {
+            return 0d;
+        }
+
+        return startAccelerations[segment] + jerks[segment] * (localTime - startTimes[segment]);
+    }
+
+    @Override
+    public double getJerk(double timeStamp) {
+        int segment = getSegment(Math.max(timeStamp - getTimeOffset(), 0d));
+        return segment == SEGMENT_COUNT ? 0d : jerks[segment];
+    }
+
+    @Override
+    public double getRuntime() {
+        return getTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false);
+    }
+
+    @Override
+    public boolean isDone(double timeStamp) {
+        return timeStamp >= getDuration();
+    }
+
+    @Override
+    public boolean isDone() {
+        return isDone(getRuntime());
+    }
+
+    @Override
+    public void start() {
+        getTimeProfiler().start();
+    }
+
+    public TimeProfiler getTimeProfiler() {
+        return timeProfiler;
+    }
+
+    public void setTimeProfiler(TimeProfiler timeProfiler) {
+        this.timeProfiler = timeProfiler;
+    }
+
+    public double getInitialPosition() {
+        return initialPosition;
+    }
+
+    public void setInitialPosition(double initialPosition) {
+        this.initialPosition = initialPosition;
+    }
+
+    public double getInitialVelocity() {
+        return initialVelocity;
+    }
+
+    public void setInitialVelocity(double initialVelocity) {
+        this.initialVelocity = initialVelocity;
+    }
+
+    public double getInitialAcceleration() {
+        return initialAcceleration;
+    }
+
+    public void setInitialAcceleration(double initialAcceleration) {
+        this.initialAcceleration = initialAcceleration;
+    }
+
+    public double getTarget() {
+        return target;
+    }
+
+    public void setTarget(double target) {
+        this.target = target;
+    }
+
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public void setMaxSpeed(double maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    public double getMaxAcceleration() {
+        return maxAcceleration;
+    }
+
+    public void setMaxAcceleration(double maxAcceleration) {
+        this.maxAcceleration = maxAcceleration;
+    }
+
+    public double getMaxJerk() {
+        return maxJerk;
+    }
+
+    public void setMaxJerk(double maxJerk) {
+        this.maxJerk = maxJerk;
+    }
+
+    /**
+     * @return The time stamp, measured from {@code start()}, at which the current plan begins.
+     */
+    public double getTimeOffset() {
+        return timeOffset;
+    }
+
+    public void setTimeOffset(double timeOffset) {
+        this.timeOffset = timeOffset;
+    }
+
+    @Override
+    public boolean isNegative() {
+        return isNegative;
+    }
+
+    @Override
+    public void setNegative(boolean negative) {
+        isNegative = negative;
+    }
 }
@@ -2,14 +2,13 @@ package com.horse.mpclib.lib.motion;
 
 import com.horse.mpclib.lib.geometry.Translation2d;
 
-import java.util.stream.IntStream;
-
 public class Spline implements ParametricFunction {
     private static final int PARAMETER_STEPS = 2000;
 
     private int polynomialDegree;
     private double[] coefficients;
     private boolean inverted;
+    private CompiledSpline compiledSpline;
 
     public enum Axis {
         X(0), Y(1);
@@ -55,6 +54,21 @@ public class Spline implements ParametricFunction {
         }
     }
 
+    /**
+     * Precomputes this spline for repeated queries. The result is cached until the degree,
+     * coefficients or orientation are set again; modifying the coefficient array in place requires
+     * calling {@code setCoefficients(double[])} for the change to be seen.
+     *
+     * @return The compiled form of this spline.
+     */
+    public CompiledSpline compile() {
+        if(compiledSpline == null) {
+            compiledSpline = new CompiledSpline(this);
+        }
+
+        return compiledSpline;
+    }
+
     public double getCoefficient(int order, Axis axis) {
         return getCoefficients()[2 * order + axis.getOffset()];
     }
@@ -138,40 +152,46 @@ public class Spline implements ParametricFunction {
                 2d * derivative.norm2() * (derivative.x() * thirdDerivative.y() - thirdDerivative.x() * derivative.y())) / (2d * Math.pow(derivative.norm(), 5d));
     }
 
+    @Override
+    public void evaluate(double[] parameters, double[] x, double[] y) {
+        compile().evaluate(parameters, x, y);
+    }
+
+    @Override
+    public void getDerivatives(double[] parameters, double[] dx, double[] dy) {
+        compile().getDerivatives(parameters, dx, dy);
+    }
+
+    @Override
+    public void getSecondDerivatives(double[] parameters, double[] ddx, double[] ddy) {
+        compile().getSecondDerivatives(parameters, ddx, ddy);
+    }
+
+    @Override
+    public void getCurvatures(double[] parameters, double[] curvatures) {
+        compile().getCurvatures(parameters, curvatures);
+    }
+
     @Override
     public double getMeanCurvature() {
-        return IntStream.range(0, getParameterSteps()).mapToDouble(i ->
-                (getCurvature((double)(i) / getParameterSteps()) + getCurvature((double)(i + 1) / getParameterSteps())) / (2d * getParameterSteps())).sum();
+        return compile().getMeanCurvature();
     }
 
     @Override
     public double getMeanDCurvature() {
-        return IntStream.range(0, getParameterSteps()).mapToDouble(i ->
-                (getDCurvature((double)(i) / getParameterSteps()) + getDCurvature((double)(i + 1) / getParameterSteps())) / (2d * getParameterSteps())).sum();
+        return compile().getMeanDCurvature();
     }
 
     public double getArcLength() {
-        return IntStream.range(0, getParameterSteps()).mapToDouble(i ->
-                (getDerivative((double)(i) / getParameterSteps()).norm() + getDerivative((double)(i + 1) / getParameterSteps()).norm()) / (2d * getParameterSteps())).sum();
+        return compile().getArcLength();
     }
 
     public double getMinDistanceFromPoint(Translation2d point) {
-        return IntStream.range(0, getParameterSteps()).mapToDouble(i -> evaluate((double)(i) / getParameterSteps()).distance(point)).min().getAsDouble();
+        return compile().getMinDistanceFromPoint(point);
     }
 
     public double[] getParameterAndMinDistanceFromPoint(Translation2d point) {
-        double parameterValue = 0d;
-        double minDistance = Double.MAX_VALUE;
-        for(int i = 0; i < getParameterSteps(); i++) {
-            double parameter = (double)(i) / getParameterSteps();
-            double distance = evaluate(parameter).distance(point);
-            if(minDistance > distance) {
-                parameterValue = parameter;
-                minDistance = distance;
-            }
-        }
-
-        return new double[] {parameterValue, minDistance};
+        return compile().getParameterAndMinDistanceFromPoint(point);
     }
 
     public int getPolynomialDegree() {
@@ -180,6 +200,7 @@ public class Spline implements ParametricFunction {
 
     public void setPolynomialDegree(int polynomialDegree) {
         this.polynomialDegree = polynomialDegree;
+        this.compiledSpline = null;
     }
 
     public double[] getCoefficients() {
@@ -188,6 +209,7 @@ public class Spline implements ParametricFunction {
 
     public void setCoefficients(double[] coefficients) {
         this.coefficients = coefficients;
+        this.compiledSpline = null;
     }
 
     public boolean isInverted() {
@@ -196,6 +218,7 @@ public class Spline implements ParametricFunction {
 
     public void setInverted(boolean inverted) {
         this.inverted = inverted;
+        this.compiledSpline = null;
     }
 
     public static int getParameterSteps() {
@@ -89,6 +89,48 @@ public class SplineGenerator {
         return new Spline(degree, coefficients.stream().mapToDouble(Double::doubleValue).toArray(), true);
     }
 
+    /**
+     * Builds a spline of the given degree that starts at {@code start} and ends at {@code end}, leaving
+     * and arriving along the headings of the poses. The quadratic and cubic terms are solved from the
+     * endpoint constraints, so every choice of the remaining arguments gives a valid spline, which
+     * makes them suitable as the free parameters of an optimizer.
+     *
+     * @param startSpeed               The magnitude of the first derivative at the start.
+     * @param endSpeed                 The magnitude of the first derivative at the end.
+     * @param higherOrderCoefficients  The Taylor coefficients of order four and up, ordered
+     *                                 {x_4, y_4, x_5, y_5, ...}.
+     */
+    public static Spline getConstrainedSpline(int degree, Pose2d start, Pose2d end, double startSpeed, double endSpeed,
+                                              double... higherOrderCoefficients) {
+        if(degree < 3 || higherOrderCoefficients.length != 2 * (degree - 3)) {
+            throw new IllegalArgumentException("A spline of degree " + degree + " requires " + 2 * (degree - 3) + " higher order coefficients");
+        }
+
+        double[] coefficients = new double[2 * (degree + 1)];
+        coefficients[0] = start.getTranslation().x();
+        coefficients[1] = start.getTranslation().y();
+        coefficients[2] = startSpeed * start.getRotation().cos();
+        coefficients[3] = startSpeed * start.getRotation().sin();
+        System.arraycopy(higherOrderCoefficients, 0, coefficients, 8, higherOrderCoefficients.length);
+
+        double[] endValues = new double[] {end.getTranslation().x(), end.getTranslation().y()};
+        double[] endDerivatives = new double[] {endSpeed * end.getRotation().cos(), endSpeed * end.getRotation().sin()};
+        for(int axis = 0; axis < 2; axis++) {
+            //Remaining position and velocity at the end after every term but the quadratic and cubic ones
+            double position = endValues[axis] - coefficients[axis] - coefficients[2 + axis];
+            double velocity = endDerivatives[axis] - coefficients[2 + axis];
+            for(int order = 4; order <= degree; order++) {
+                position -= coefficients[2 * order + axis] / factorial(order);
+                velocity -= coefficients[2 * order + axis] / factorial(order - 1);
+            }
+
+            coefficients[4 + axis] = 6d * position - 2d * velocity;
+            coefficients[6 + axis] = 6d * velocity - 12d * position;
+        }
+
+        return new Spline(degree, coefficients, false);
+    }
+
     public static void main(String... args) {
         Spline spline = SplineGenerator.getInitialSpline(4, new Pose2d(0, 0, new Rotation2d(Math.PI / 2.1d, false)),
                 new Translation2d(5d, 5d), 1, 1, 1, 1, 1);
@@ -0,0 +1,406 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.control.Obstacle;
+import com.horse.mpclib.lib.geometry.Pose2d;
+import com.horse.mpclib.lib.geometry.Rotation2d;
+import com.horse.mpclib.lib.optimization.DifferentiableObjectiveFunction;
+import com.horse.mpclib.lib.optimization.LBFGSOptimizer;
+import com.horse.mpclib.lib.optimization.OptimizationResult;
+import com.horse.mpclib.lib.util.TimeProfiler;
+import com.horse.mpclib.lib.util.TimeUnits;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This {@code class} finds a smooth spline between two poses that keeps clear of obstacles, as a
+ * deterministic and much faster replacement for searching spline coefficients with a genetic
+ * algorithm. The spline is built by {@code SplineGenerator#getConstrainedSpline}, so the endpoint
+ * poses always hold, and the free parameters are the logarithms of the endpoint speeds (keeping them
+ * positive) and the Taylor coefficients of order four and up.
+ *
+ * The cost is evaluated at {@code sampleCount + 1} evenly spaced parameters with the trapezoidal rule
+ * and is made of:
+ *
+ * - the bending energy, the integral of curvature squared over arc length;
+ * - the integral of the squared rate of change of curvature over arc length, from finite differences
+ *   of the curvature between samples;
+ * - the arc length;
+ * - the integral of the squared second derivative over the parameter, which keeps the
+ *   parameterization close to constant speed so that the samples stay evenly spread along the
+ *   spline and cannot step over an obstacle;
+ * - the integral over arc length of (clearance - distance)^2 wherever the spline passes closer to an
+ *   obstacle than the sum of the obstacle and robot radii. This is a soft constraint, so the
+ *   obstacle weight should be raised if the spline must never cut into the clearance.
+ *
+ * The gradient of this discretized cost is computed analytically through the chain rule, from the
+ * samples back to the spline coefficients and then through the endpoint constraints to the free
+ * parameters, and the cost is minimized with {@code LBFGSOptimizer}. Positions are in inches.
+ */
+public class SplineOptimizer implements DifferentiableObjectiveFunction {
+    private static final int DEFAULT_DEGREE = 5;
+    private static final int DEFAULT_SAMPLE_COUNT = 100;
+    private static final int DEFAULT_MAX_ITERATIONS = 200;
+
+    private final int degree;
+    private final int sampleCount;
+    private final Pose2d start;
+    private final Pose2d end;
+    private List<Obstacle> obstacles;
+
+    private double curvatureWeight = 100d;
+    private double dCurvatureWeight = 100d;
+    private double lengthWeight = 0.1d;
+    private double accelerationWeight = 1E-3d;
+    private double obstacleWeight = 10d;
+    private double clearanceMargin = 0d;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    //Taylor basis t^(k - order) / (k - order)! of each sample for the position and first two derivatives
+    private final double[][][] basis;
+
+    private final double[] coefficients;
+    private final double[] coefficientGradient;
+    private final double[] speeds;
+    private final double[] crossProducts;
+    private final double[] curvatures;
+    private final double[][] derivatives;
+    private final double[][] sampleGradients;
+
+    private OptimizationResult lastResult;
+
+    public SplineOptimizer(Pose2d start, Pose2d end, List<Obstacle> obstacles) {
+        this(DEFAULT_DEGREE, DEFAULT_SAMPLE_COUNT, start, end, obstacles);
+    }
+
+    public SplineOptimizer(int degree, int sampleCount, Pose2d start, Pose2d end, List<Obstacle> obstacles) {
+        if(degree < 3) {
+            throw new IllegalArgumentException("Spline optimization requires a degree of at least 3");
+        }
+
+        this.degree = degree;
+        this.sampleCount = sampleCount;
+        this.start = start;
+        this.end = end;
+        setObstacles(obstacles);
+
+        basis = new double[3][sampleCount + 1][degree + 1];
+        for(int i = 0; i <= sampleCount; i++) {
+            double parameter = (double)(i) / sampleCount;
+            for(int order = 0; order < 3; order++) {
+                double term = 1d;
+                for(int k = order; k <= degree; k++) {
+                    basis[order][i][k] = term;
+                    term *= parameter / (k - order + 1);
+                }
+            }
+        }
+
+        coefficients = new double[2 * (degree + 1)];
+        coefficientGradient = new double[2 * (degree + 1)];
+        speeds = new double[sampleCount + 1];
+        crossProducts = new double[sampleCount + 1];
+        curvatures = new double[sampleCount + 1];
+        derivatives = new double[sampleCount + 1][4];
+        sampleGradients = new double[sampleCount + 1][5];
+    }
+
+    public static void main(String... args) {
+        List<Obstacle> obstacles = new ArrayList<>();
+        obstacles.add(new Obstacle(72d, 72d, 9d, 1d));
+        SplineOptimizer optimizer = new SplineOptimizer(new Pose2d(9d, 9d, new Rotation2d(0d, false)),
+                new Pose2d(144d - 9d, 144d - 9d, new Rotation2d(0d, false)), obstacles);
+
+        TimeProfiler timeProfiler = new TimeProfiler(false);
+        timeProfiler.start();
+        Spline spline = optimizer.optimize();
+        System.out.println("Optimized in " + timeProfiler.getDeltaTime(TimeUnits.MILLISECONDS, false) + " ms with " +
+                optimizer.getLastResult().getEvaluationCount() + " cost evaluations");
+        System.out.println(spline);
+        System.out.println("Cost: " + optimizer.getLastResult().getBestCost());
+        System.out.println("Clearance: " + spline.getMinDistanceFromPoint(obstacles.get(0).getLocation()));
+    }
+
+    /**
+     * Optimizes from a cubic spline with endpoint speeds equal to the distance between the poses.
+     */
+    public Spline optimize() {
+        double[] initialParameters = new double[getParameterCount()];
+        double distance = Math.max(getStart().getTranslation().distance(getEnd().getTranslation()), 1E-3d);
+        initialParameters[0] = Math.log(distance);
+        initialParameters[1] = Math.log(distance);
+        return optimize(initialParameters);
+    }
+
+    /**
+     * Optimizes from the given parameters, for instance those of the previous solution when
+     * obstacles have moved, which usually converges in a handful of iterations.
+     */
+    public Spline optimize(double[] initialParameters) {
+        return optimize(initialParameters, Long.MAX_VALUE);
+    }
+
+    /**
+     * Optimizes from the given parameters until converged or until {@code System.nanoTime()} passes
+     * {@code deadline}, whichever comes first.
+     */
+    public Spline optimize(double[] initialParameters, long deadline) {
+        setLastResult(new LBFGSOptimizer().minimize(this, initialParameters, getMaxIterations(), deadline));
+        return getSpline(getLastResult().getBestParameters());
+    }
+
+    /**
+     * @return Parameters that reproduce {@code spline} exactly, if it is a non-inverted spline of at
+     *         most this optimizer's degree, for use as a warm start. Otherwise, the parameters of the
+     *         cubic with the same endpoint speeds.
+     */
+    public double[] getParameters(Spline spline) {
+        CompiledSpline compiledSpline = spline.compile();
+        double[] parameters = new double[getParameterCount()];
+        parameters[0] = Math.log(Math.max(compiledSpline.getDerivative(0d).norm(), 1E-3d));
+        parameters[1] = Math.log(Math.max(compiledSpline.getDerivative(1d).norm(), 1E-3d));
+        if(!spline.isInverted() && spline.getPolynomialDegree() <= getDegree()) {
+            for(int order = 4; order <= spline.getPolynomialDegree(); order++) {
+                parameters[2 + 2 * (order - 4)] = spline.getCoefficient(order, Spline.Axis.X);
+                parameters[3 + 2 * (order - 4)] = spline.getCoefficient(order, Spline.Axis.Y);
+            }
+        }
+
+        return parameters;
+    }
+
+    public Spline getSpline(double[] parameters) {
+        double[] higherOrderCoefficients = new double[parameters.length - 2];
+        System.arraycopy(parameters, 2, higherOrderCoefficients, 0, higherOrderCoefficients.length);
+        return SplineGenerator.getConstrainedSpline(getDegree(), getStart(), getEnd(), Math.exp(parameters[0]), Math.exp(parameters[1]),
+                higherOrderCoefficients);
+    }
+
+    public int getParameterCount() {
+        return 2 + 2 * (getDegree() - 3);
+    }
+
+    @Override
+    public double evaluate(double[] parameters, double[] gradient) {
+        Spline spline = getSpline(parameters);
+        for(int i = 0; i < coefficients.length; i++) {
+            coefficients[i] = spline.getCoefficients()[i];
+            coefficientGradient[i] = 0d;
+        }
+
+        double weight = 1d / sampleCount;
+        double cost = 0d;
+        for(int i = 0; i <= sampleCount; i++) {
+            double sampleWeight = i == 0 || i == sampleCount ? weight / 2d : weight;
+            double x = 0d, y = 0d, dx = 0d, dy = 0d, ddx = 0d, ddy = 0d;
+            for(int k = 0; k <= getDegree(); k++) {
+                x += coefficients[2 * k] * basis[0][i][k];
+                y += coefficients[2 * k + 1] * basis[0][i][k];
+                dx += coefficients[2 * k] * basis[1][i][k];
+                dy += coefficients[2 * k + 1] * basis[1][i][k];
+                ddx += coefficients[2 * k] * basis[2][i][k];
+                ddy += coefficients[2 * k + 1] * basis[2][i][k];
+            }
+
+            double speed = Math.sqrt(dx * dx + dy * dy);
+            double cross = dx * ddy - ddx * dy;
+            speeds[i] = speed;
+            crossProducts[i] = cross;
+            curvatures[i] = cross / (speed * speed * speed);
+
+            //Gradients of this sample's terms with respect to {x, y, speed, cross product}
+            double gradientX = 0d;
+            double gradientY = 0d;
+            double gradientSpeed = getLengthWeight() * sampleWeight;
+            double speedToTheFifth = speed * speed * speed * speed * speed;
+            double gradientCross = 2d * getCurvatureWeight() * sampleWeight * cross / speedToTheFifth;
+            gradientSpeed -= 5d * getCurvatureWeight() * sampleWeight * cross * cross / (speedToTheFifth * speed);
+            cost += getCurvatureWeight() * sampleWeight * cross * cross / speedToTheFifth + getLengthWeight() * sampleWeight * speed +
+                    getAccelerationWeight() * sampleWeight * (ddx * ddx + ddy * ddy);
+
+            for(Obstacle obstacle : getObstacles()) {
+                double offsetX = x - obstacle.getLocation().x();
+                double offsetY = y - obstacle.getLocation().y();
+                double distance = Math.sqrt(offsetX * offsetX + offsetY * offsetY);
+                double clearance = getClearance(obstacle);
+                if(distance < clearance) {
+                    double penetration = clearance - distance;
+                    cost += getObstacleWeight() * sampleWeight * penetration * penetration * speed;
+                    gradientSpeed += getObstacleWeight() * sampleWeight * penetration * penetration;
+                    if(distance > 1E-9d) {
+                        double scale = -2d * getObstacleWeight() * sampleWeight * penetration * speed / distance;
+                        gradientX += scale * offsetX;
+                        gradientY += scale * offsetY;
+                    }
+                }
+            }
+
+            sampleGradients[i][0] = gradientX;
+            sampleGradients[i][1] = gradientY;
+            sampleGradients[i][2] = gradientSpeed;
+            sampleGradients[i][3] = gradientCross;
+            sampleGradients[i][4] = 0d; //Gradient with respect to the curvature, filled in below
+            derivatives[i][0] = dx;
+            derivatives[i][1] = dy;
+            derivatives[i][2] = ddx;
+            derivatives[i][3] = ddy;
+        }
+
+        //Change in curvature, (kappa_(i+1) - kappa_i)^2 / ds, with ds the trapezoidal arc length between samples
+        for(int i = 0; i < sampleCount; i++) {
+            double curvatureChange = curvatures[i + 1] - curvatures[i];
+            double arcLength = (speeds[i] + speeds[i + 1]) * weight / 2d;
+            cost += getDCurvatureWeight() * curvatureChange * curvatureChange / arcLength;
+            double gradientCurvature = 2d * getDCurvatureWeight() * curvatureChange / arcLength;
+            double gradientArcLength = -getDCurvatureWeight() * curvatureChange * curvatureChange / (arcLength * arcLength);
+            sampleGradients[i + 1][4] += gradientCurvature;
+            sampleGradients[i][4] -= gradientCurvature;
+            sampleGradients[i][2] += gradientArcLength * weight / 2d;
+            sampleGradients[i + 1][2] += gradientArcLength * weight / 2d;
+        }
+
+        for(int i = 0; i <= sampleCount; i++) {
+            double speed = speeds[i];
+            double cross = crossProducts[i];
+            double gradientSpeed = sampleGradients[i][2] - 3d * sampleGradients[i][4] * cross / (speed * speed * speed * speed);
+            double gradientCross = sampleGradients[i][3] + sampleGradients[i][4] / (speed * speed * speed);
+            double dx = derivatives[i][0];
+            double dy = derivatives[i][1];
+            double ddx = derivatives[i][2];
+            double ddy = derivatives[i][3];
+
+            double gradientDx = gradientSpeed * dx / speed + gradientCross * ddy;
+            double gradientDy = gradientSpeed * dy / speed - gradientCross * ddx;
+            double sampleWeight = i == 0 || i == sampleCount ? weight / 2d : weight;
+            double gradientDdx = -gradientCross * dy + 2d * getAccelerationWeight() * sampleWeight * ddx;
+            double gradientDdy = gradientCross * dx + 2d * getAccelerationWeight() * sampleWeight * ddy;
+            for(int k = 0; k <= getDegree(); k++) {
+                coefficientGradient[2 * k] += sampleGradients[i][0] * basis[0][i][k] + gradientDx * basis[1][i][k] + gradientDdx * basis[2][i][k];
+                coefficientGradient[2 * k + 1] += sampleGradients[i][1] * basis[0][i][k] + gradientDy * basis[1][i][k] + gradientDdy * basis[2][i][k];
+            }
+        }
+
+        //Chain rule through the endpoint constraints of SplineGenerator#getConstrainedSpline
+        double startSpeed = Math.exp(parameters[0]);
+        double endSpeed = Math.exp(parameters[1]);
+        double[] startDirection = new double[] {getStart().getRotation().cos(), getStart().getRotation().sin()};
+        double[] endDirection = new double[] {getEnd().getRotation().cos(), getEnd().getRotation().sin()};
+        gradient[0] = 0d;
+        gradient[1] = 0d;
+        for(int axis = 0; axis < 2; axis++) {
+            double gradientPosition = 6d * coefficientGradient[4 + axis] - 12d * coefficientGradient[6 + axis];
+            double gradientVelocity = -2d * coefficientGradient[4 + axis] + 6d * coefficientGradient[6 + axis];
+            gradient[0] += (coefficientGradient[2 + axis] - gradientPosition - gradientVelocity) * startDirection[axis] * startSpeed;
+            gradient[1] += gradientVelocity * endDirection[axis] * endSpeed;
+
+            double factorial = 6d;
+            for(int order = 4; order <= getDegree(); order++) {
+                double previousFactorial = factorial;
+                factorial *= order;
+                gradient[2 + 2 * (order - 4) + axis] = coefficientGradient[2 * order + axis] - gradientPosition / factorial -
+                        gradientVelocity / previousFactorial;
+            }
+        }
+
+        return cost;
+    }
+
+    /**
+     * @return The distance, in inches, the spline should keep from the center of {@code obstacle}.
+     */
+    public double getClearance(Obstacle obstacle) {
+        return (obstacle.getObstacleRadius() + Obstacle.getRobotRadius()) / 0.0254d + getClearanceMargin();
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public Pose2d getStart() {
+        return start;
+    }
+
+    public Pose2d getEnd() {
+        return end;
+    }
+
+    public List<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    public void setObstacles(List<Obstacle> obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    public double getCurvatureWeight() {
+        return curvatureWeight;
+    }
+
+    public void setCurvatureWeight(double curvatureWeight) {
+        this.curvatureWeight = curvatureWeight;
+    }
+
+    public double getDCurvatureWeight() {
+        return dCurvatureWeight;
+    }
+
+    public void setDCurvatureWeight(double dCurvatureWeight) {
+        this.dCurvatureWeight = dCurvatureWeight;
+    }
+
+    public double getLengthWeight() {
+        return lengthWeight;
+    }
+
+    public void setLengthWeight(double lengthWeight) {
+        this.lengthWeight = lengthWeight;
+    }
+
+    public double getAccelerationWeight() {
+        return accelerationWeight;
+    }
+
+    public void setAccelerationWeight(double accelerationWeight) {
+        this.accelerationWeight = accelerationWeight;
+    }
+
+    public double getObstacleWeight() {
+        return obstacleWeight;
+    }
+
+    public void setObstacleWeight(double obstacleWeight) {
+        this.obstacleWeight = obstacleWeight;
+    }
+
+    public double getClearanceMargin() {
+        return clearanceMargin;
+    }
+
+    /**
+     * @param clearanceMargin Extra distance, in inches, to keep from obstacles on top of the obstacle
+     *                        and robot radii.
+     */
+    public void setClearanceMargin(double clearanceMargin) {
+        this.clearanceMargin = clearanceMargin;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public OptimizationResult getLastResult() {
+        return lastResult;
+    }
+
+    public void setLastResult(OptimizationResult lastResult) {
+        this.lastResult = lastResult;
+    }
+}
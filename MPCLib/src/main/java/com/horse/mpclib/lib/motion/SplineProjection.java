@@ -0,0 +1,88 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.geometry.Translation2d;
+
+/**
+ * The closest point on a spline to a query point, as found by {@code CompiledSpline#project}. The
+ * same instance can be passed back into every control cycle so that projecting does not allocate.
+ *
+ * The tangent is the unit direction of travel along the spline and the normal is the tangent rotated
+ * by 90 degrees counterclockwise. The signed distance is positive when the query point lies on the
+ * side of the spline the normal points towards, matching the error convention of the guiding vector
+ * field follower.
+ */
+public class SplineProjection {
+    private double parameter;
+    private double distance;
+    private double signedDistance;
+    private double x;
+    private double y;
+    private double tangentX;
+    private double tangentY;
+
+    void set(double parameter, double x, double y, double tangentX, double tangentY, double queryX, double queryY) {
+        this.parameter = parameter;
+        this.x = x;
+        this.y = y;
+        this.tangentX = tangentX;
+        this.tangentY = tangentY;
+
+        double dx = x - queryX;
+        double dy = y - queryY;
+        this.distance = Math.hypot(dx, dy);
+        this.signedDistance = Math.signum(dx * tangentY - dy * tangentX) * distance;
+    }
+
+    public double getParameter() {
+        return parameter;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public double getSignedDistance() {
+        return signedDistance;
+    }
+
+    public Translation2d getPoint() {
+        return new Translation2d(x, y);
+    }
+
+    public Translation2d getTangent() {
+        return new Translation2d(tangentX, tangentY);
+    }
+
+    public Translation2d getNormal() {
+        return new Translation2d(-tangentY, tangentX);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getTangentX() {
+        return tangentX;
+    }
+
+    public double getTangentY() {
+        return tangentY;
+    }
+
+    public double getNormalX() {
+        return -tangentY;
+    }
+
+    public double getNormalY() {
+        return tangentX;
+    }
+
+    @Override
+    public String toString() {
+        return "SplineProjection{parameter=" + parameter + ", distance=" + distance + ", point=(" + x + ", " + y + ")}";
+    }
+}
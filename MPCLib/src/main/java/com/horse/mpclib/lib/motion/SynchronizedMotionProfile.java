@@ -0,0 +1,215 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.geometry.Pose2d;
+import com.horse.mpclib.lib.geometry.Rotation2d;
+import com.horse.mpclib.lib.util.TimeProfiler;
+import com.horse.mpclib.lib.util.TimeUnits;
+
+/**
+ * Jerk-limited motion profiles for several axes that start and finish at the same time, such as the
+ * x, y and heading of a holonomic drive.
+ *
+ * Each axis is first planned on its own with its own limits. Every axis is then slowed down to the
+ * duration of the slowest one by time scaling: from rest, the profile with limits
+ * (k v, k^2 a, k^3 j) is the original profile played back k times slower, so scaling by
+ * k = T_axis / T_slowest lands every axis on the common duration exactly, with the same shape.
+ *
+ * {@code sample(double, double[])} evaluates every axis in one call and writes the result into an
+ * array owned by the caller, ordered {p_0, v_0, p_1, v_1, ...}. For the axes {x, y, heading} this is
+ * the ordering of the {@code MecanumDriveModel} state.
+ *
+ * {@code replan(double, double[])} switches to new targets mid-motion, starting every axis from the
+ * position, velocity and acceleration it has at that time, so that a sequence of waypoints can be
+ * followed without coming to rest at each one.
+ */
+public class SynchronizedMotionProfile {
+    private static final int SYNCHRONIZATION_ITERATIONS = 30;
+
+    private final SCurveMotionProfilerGenerator[] axes;
+    private final double[] maxSpeeds;
+    private final double[] maxAccelerations;
+    private final double[] maxJerks;
+    private double duration;
+    private TimeProfiler timeProfiler;
+
+    public SynchronizedMotionProfile(double[] initialPositions, double[] targets, double[] maxSpeeds,
+                                     double[] maxAccelerations, double[] maxJerks) {
+        int axisCount = initialPositions.length;
+        if(targets.length != axisCount || maxSpeeds.length != axisCount || maxAccelerations.length != axisCount || maxJerks.length != axisCount) {
+            throw new IllegalArgumentException("Expected " + axisCount + " values for every axis");
+        }
+
+        this.maxSpeeds = maxSpeeds.clone();
+        this.maxAccelerations = maxAccelerations.clone();
+        this.maxJerks = maxJerks.clone();
+        axes = new SCurveMotionProfilerGenerator[axisCount];
+        double duration = 0d;
+        for(int i = 0; i < axisCount; i++) {
+            axes[i] = new SCurveMotionProfilerGenerator(initialPositions[i], targets[i], maxSpeeds[i], maxAccelerations[i], maxJerks[i]);
+            duration = Math.max(duration, axes[i].getDuration());
+        }
+
+        for(int i = 0; i < axisCount; i++) {
+            if(axes[i].getDuration() > 0d && axes[i].getDuration() < duration) {
+                double scale = axes[i].getDuration() / duration;
+                axes[i].setMaxSpeed(maxSpeeds[i] * scale);
+                axes[i].setMaxAcceleration(maxAccelerations[i] * scale * scale);
+                axes[i].setMaxJerk(maxJerks[i] * scale * scale * scale);
+                axes[i].generateProfile();
+            }
+        }
+
+        this.duration = duration;
+        setTimeProfiler(new TimeProfiler(false));
+    }
+
+    /**
+     * Profiles the x, y and heading of a holonomic drive between two poses. The heading turns the short
+     * way around, so the heading axis may end at an angle that differs from {@code end} by a multiple
+     * of 2 pi.
+     */
+    public static SynchronizedMotionProfile fromPoses(Pose2d start, Pose2d end, double maxSpeed, double maxAcceleration, double maxJerk,
+                                                      double maxAngularSpeed, double maxAngularAcceleration, double maxAngularJerk) {
+        double startHeading = start.getRotation().getRadians();
+        return new SynchronizedMotionProfile(
+                new double[] {start.getTranslation().x(), start.getTranslation().y(), startHeading},
+                new double[] {end.getTranslation().x(), end.getTranslation().y(), startHeading + start.getRotation().distance(end.getRotation())},
+                new double[] {maxSpeed, maxSpeed, maxAngularSpeed},
+                new double[] {maxAcceleration, maxAcceleration, maxAngularAcceleration},
+                new double[] {maxJerk, maxJerk, maxAngularJerk}
+        );
+    }
+
+    /**
+     * Plans every axis to a new target, starting from the position, velocity and acceleration it has
+     * at {@code timeStamp}, so the setpoint stays continuous. Time stamps keep being measured from the
+     * start of the original profile.
+     *
+     * From a moving start, time scaling no longer lands the faster axes on the duration of the slowest
+     * one exactly, so their limits are instead scaled by a bisection on the duration. This finishes
+     * them together to within a fraction of a millisecond, except when an axis is accelerating harder
+     * than its scaled limit allows, where the duration jumps and the axis may finish somewhat early.
+     */
+    public void replan(double timeStamp, double[] targets) {
+        if(targets.length != axes.length) {
+            throw new IllegalArgumentException("Expected " + axes.length + " targets");
+        }
+
+        double duration = 0d;
+        for(int i = 0; i < axes.length; i++) {
+            setLimitScale(i, 1d);
+            axes[i].replan(timeStamp, targets[i]);
+            duration = Math.max(duration, axes[i].getDuration());
+        }
+
+        for(int i = 0; i < axes.length; i++) {
+            if(axes[i].getDuration() >= duration) {
+                continue;
+            }
+
+            double lowerScale = 0d;
+            double upperScale = 1d;
+            for(int j = 0; j < SYNCHRONIZATION_ITERATIONS; j++) {
+                double scale = (lowerScale + upperScale) / 2d;
+                setLimitScale(i, scale);
+                axes[i].generateProfile();
+                if(axes[i].getDuration() > duration) {
+                    lowerScale = scale;
+                } else {
+                    upperScale = scale;
+                }
+            }
+
+            setLimitScale(i, upperScale);
+            axes[i].generateProfile();
+        }
+
+        this.duration = duration;
+    }
+
+    /**
+     * Plans the x, y and heading of a profile made with {@code fromPoses} to {@code end}, turning the
+     * short way around from the heading at {@code timeStamp}.
+     *
+     * @see #replan(double, double[])
+     */
+    public void replan(double timeStamp, Pose2d end) {
+        double heading = axes[2].getPosition(timeStamp);
+        replan(timeStamp, new double[] {
+                end.getTranslation().x(), end.getTranslation().y(), heading + new Rotation2d(heading, false).distance(end.getRotation())
+        });
+    }
+
+    private void setLimitScale(int axis, double scale) {
+        axes[axis].setMaxSpeed(maxSpeeds[axis] * scale);
+        axes[axis].setMaxAcceleration(maxAccelerations[axis] * scale * scale);
+        axes[axis].setMaxJerk(maxJerks[axis] * scale * scale * scale);
+    }
+
+    /**
+     * Writes the position and velocity of every axis at {@code timeStamp} into {@code state}, ordered
+     * {p_0, v_0, p_1, v_1, ...}.
+     *
+     * @return {@code state}, for chaining.
+     */
+    public double[] sample(double timeStamp, double[] state) {
+        for(int i = 0; i < axes.length; i++) {
+            state[2 * i] = axes[i].getPosition(timeStamp);
+            state[2 * i + 1] = axes[i].getVelocity(timeStamp);
+        }
+
+        return state;
+    }
+
+    public double[] sample(double[] state) {
+        return sample(getRuntime(), state);
+    }
+
+    /**
+     * Writes the acceleration of every axis at {@code timeStamp} into {@code accelerations}, for
+     * feedforward.
+     */
+    public double[] sampleAccelerations(double timeStamp, double[] accelerations) {
+        for(int i = 0; i < axes.length; i++) {
+            accelerations[i] = axes[i].getAcceleration(timeStamp);
+        }
+
+        return accelerations;
+    }
+
+    public int getAxisCount() {
+        return axes.length;
+    }
+
+    public IMotionProfile getAxis(int axis) {
+        return axes[axis];
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public double getRuntime() {
+        return getTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false);
+    }
+
+    public boolean isDone(double timeStamp) {
+        return timeStamp >= getDuration();
+    }
+
+    public boolean isDone() {
+        return isDone(getRuntime());
+    }
+
+    public void start() {
+        getTimeProfiler().start();
+    }
+
+    public TimeProfiler getTimeProfiler() {
+        return timeProfiler;
+    }
+
+    public void setTimeProfiler(TimeProfiler timeProfiler) {
+        this.timeProfiler = timeProfiler;
+    }
+}
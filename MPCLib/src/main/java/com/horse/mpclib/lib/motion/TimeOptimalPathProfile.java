@@ -0,0 +1,359 @@
+package com.horse.mpclib.lib.motion;
+
+import com.horse.mpclib.lib.control.ReferenceTrajectory;
+import com.horse.mpclib.lib.geometry.Rotation2d;
+import com.horse.mpclib.lib.geometry.Translation2d;
+import com.horse.mpclib.lib.physics.MecanumDriveModel;
+import com.horse.mpclib.lib.util.TimeProfiler;
+import com.horse.mpclib.lib.util.TimeUnits;
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Arrays;
+
+/**
+ * This {@code class} generates the fastest velocity profile along a {@code Path} that a mecanum drive
+ * can follow, for a robot holding a constant field heading. The path is sampled at regular arc length
+ * intervals, and at each sample the speed is limited by:
+ *
+ * - the free speed of the wheels, which for mecanum wheels depends on the direction of travel relative
+ *   to the robot, since wheel speeds are proportional to |v_x| + |v_y|;
+ * - the traction limit on centripetal acceleration, v^2 * |curvature| <= a_max.
+ *
+ * The acceleration between samples is limited by the motor torque available at the current speed,
+ * from the same DC motor model used by {@code MecanumDriveModel}, and by the traction left over after
+ * centripetal acceleration (friction circle). A forward pass then applies the acceleration limits and a
+ * backward pass applies the deceleration limits, which yields the time-optimal profile for these
+ * constraints.
+ *
+ * Positions, velocities and accelerations are measured along the path in the units of the path
+ * (inches), while {@code getState(double)} returns a {@code MecanumDriveModel} state in meters, for use
+ * as a reference trajectory.
+ */
+public class TimeOptimalPathProfile implements IMotionProfile {
+    private static final double INCHES_TO_METERS = 0.0254d;
+    private static final double DEFAULT_DISTANCE_STEP = 0.5d;
+
+    private final Path path;
+    private final Rotation2d heading;
+    private final double distanceStep;
+
+    private final double[] distances;
+    private final double[] velocities;
+    private final double[] times;
+
+    private final double torqueConstant;
+    private final double backEMFConstant;
+    private final double nominalVoltage;
+    private final double availableVoltage;
+    private final double effectiveMass;
+    private final double wheelRadius;
+    private final double maxAcceleration;
+
+    private TimeProfiler timeProfiler;
+    private boolean isNegative;
+
+    /**
+     * @param maxAcceleration The traction limit, in meters per second squared.
+     */
+    public TimeOptimalPathProfile(Path path, MecanumDriveModel model, Rotation2d heading, double maxAcceleration) {
+        this(path, model, heading, 1d, maxAcceleration, 0d, 0d, DEFAULT_DISTANCE_STEP);
+    }
+
+    /**
+     * @param voltageFraction The fraction of the nominal voltage available to the profile. Leaving some
+     *                        headroom gives the feedback controller authority to correct errors.
+     * @param maxAcceleration The traction limit, in meters per second squared.
+     * @param initialVelocity The speed along the path at its start, in inches per second.
+     * @param finalVelocity   The speed along the path at its end, in inches per second.
+     * @param distanceStep    The arc length between samples, in inches.
+     */
+    public TimeOptimalPathProfile(Path path, MecanumDriveModel model, Rotation2d heading, double voltageFraction, double maxAcceleration,
+                                  double initialVelocity, double finalVelocity, double distanceStep) {
+        this.path = path;
+        this.heading = heading;
+        this.torqueConstant = model.getkT() * model.getEfficiency() * model.getCompoundGearRatio() / model.getResistance();
+        this.backEMFConstant = model.getkV() * model.getCompoundGearRatio();
+        this.nominalVoltage = model.getNominalVoltage();
+        this.availableVoltage = voltageFraction * nominalVoltage;
+        this.effectiveMass = model.getRobotMass() + 4d * model.getWheelEffectiveSpinningMass();
+        this.wheelRadius = model.getWheelRadius();
+        this.maxAcceleration = maxAcceleration;
+
+        int samples = Math.max(2, (int)Math.ceil(path.getLength() / distanceStep) + 1);
+        this.distanceStep = path.getLength() / (samples - 1);
+        distances = new double[samples];
+        velocities = new double[samples];
+        times = new double[samples];
+
+        double[] curvatures = new double[samples];
+        double[] wheelSpeedFactors = new double[samples];
+        for(int i = 0; i < samples; i++) {
+            distances[i] = i * this.distanceStep;
+            curvatures[i] = Math.abs(path.getCurvatureAtDistance(distances[i])) / INCHES_TO_METERS;
+            Translation2d tangent = path.getTangentAtDistance(distances[i]).rotateBy(heading.inverse());
+            wheelSpeedFactors[i] = Math.abs(tangent.x()) + Math.abs(tangent.y());
+            velocities[i] = Math.min(getMaxWheelLimitedVelocity(wheelSpeedFactors[i]),
+                    curvatures[i] > 0d ? Math.sqrt(maxAcceleration / curvatures[i]) : Double.POSITIVE_INFINITY);
+        }
+
+        double step = this.distanceStep * INCHES_TO_METERS;
+        velocities[0] = Math.min(velocities[0], initialVelocity * INCHES_TO_METERS);
+        for(int i = 0; i < samples - 1; i++) {
+            double acceleration = getMaxAcceleration(velocities[i], curvatures[i], wheelSpeedFactors[i], false);
+            velocities[i + 1] = Math.min(velocities[i + 1], Math.sqrt(Math.max(velocities[i] * velocities[i] + 2d * acceleration * step, 0d)));
+        }
+
+        velocities[samples - 1] = Math.min(velocities[samples - 1], finalVelocity * INCHES_TO_METERS);
+        for(int i = samples - 1; i > 0; i--) {
+            double deceleration = getMaxAcceleration(velocities[i], curvatures[i], wheelSpeedFactors[i], true);
+            velocities[i - 1] = Math.min(velocities[i - 1], Math.sqrt(velocities[i] * velocities[i] + 2d * deceleration * step));
+        }
+
+        for(int i = 0; i < samples; i++) {
+            velocities[i] /= INCHES_TO_METERS;
+            if(i > 0) {
+                times[i] = times[i - 1] + 2d * this.distanceStep / Math.max(velocities[i - 1] + velocities[i], 1E-9d);
+            }
+        }
+
+        setTimeProfiler(new TimeProfiler(false));
+    }
+
+    public TimeOptimalPathProfile(Spline spline, MecanumDriveModel model, Rotation2d heading, double maxAcceleration) {
+        this(new Path(spline), model, heading, maxAcceleration);
+    }
+
+    /**
+     * @param wheelSpeedFactor |cos(theta)| + |sin(theta)| for a direction of travel theta relative to
+     *                         the robot.
+     * @return                 The speed, in meters per second, at which the motors produce no torque.
+     */
+    private double getMaxWheelLimitedVelocity(double wheelSpeedFactor) {
+        return availableVoltage * wheelRadius / (backEMFConstant * wheelSpeedFactor);
+    }
+
+    /**
+     * Maximum tangential acceleration (or deceleration) along the path at the given speed. Moving in a
+     * direction theta relative to the robot, each wheel turns at |v| * (|cos(theta)| + |sin(theta)|) / r
+     * and, by conservation of power, the four wheel torques produce a force of 4 * torque / (r * factor)
+     * along the direction of travel.
+     */
+    private double getMaxAcceleration(double velocity, double curvature, double wheelSpeedFactor, boolean braking) {
+        double wheelSpeed = velocity * wheelSpeedFactor / wheelRadius;
+        double torque = torqueConstant * (availableVoltage + (braking ? 1d : -1d) * backEMFConstant * wheelSpeed);
+        double motorAcceleration = 4d * torque / (wheelRadius * wheelSpeedFactor * effectiveMass);
+        double centripetalAcceleration = velocity * velocity * curvature;
+        double tractionAcceleration = Math.sqrt(Math.max(maxAcceleration * maxAcceleration - centripetalAcceleration * centripetalAcceleration, 0d));
+        return Math.min(motorAcceleration, tractionAcceleration);
+    }
+
+    private int getInterval(double timeStamp) {
+        int index = Arrays.binarySearch(times, timeStamp);
+        index = index >= 0 ? index : -index - 2;
+        return Math.min(Math.max(index, 0), times.length - 2);
+    }
+
+    /**
+     * Acceleration is constant between samples, a = (v1^2 - v0^2) / (2 ds).
+     */
+    private double getIntervalAcceleration(int interval) {
+        return (velocities[interval + 1] * velocities[interval + 1] - velocities[interval] * velocities[interval]) / (2d * distanceStep);
+    }
+
+    @Override
+    public void generateProfile() {
+        //The profile is generated on construction, since it only depends on the path and constraints
+    }
+
+    @Override
+    public double getDuration() {
+        return times[times.length - 1];
+    }
+
+    @Override
+    public double getPosition() {
+        return getPosition(getRuntime());
+    }
+
+    @Override
+    public double getVelocity() {
+        return getVelocity(getRuntime());
+    }
+
+    @Override
+    public double getAcceleration() {
+        return getAcceleration(getRuntime());
+    }
+
+    @Override
+    public double getJerk() {
+        return getJerk(getRuntime());
+    }
+
+    @Override
+    public double getPosition(double timeStamp) {
+        if(timeStamp >= getDuration()) {
+            return (isNegative() ? -1 : 1) * path.getLength();
+        }
+
+        timeStamp = timeStamp < 0d ? 0d : timeStamp;
+        int interval = getInterval(timeStamp);
+        double elapsed = timeStamp - times[interval];
+        double position = distances[interval] + velocities[interval] * elapsed + getIntervalAcceleration(interval) * elapsed * elapsed / 2d;
+        return (isNegative() ? -1 : 1) * Math.min(position, distances[interval + 1]);
+    }
+
+    @Override
+    public double getVelocity(double timeStamp) {
+        if(timeStamp >= getDuration()) {
+            return (isNegative() ? -1 : 1) * velocities[velocities.length - 1];
+        }
+
+        timeStamp = timeStamp < 0d ? 0d : timeStamp;
+        int interval = getInterval(timeStamp);
+        return (isNegative() ? -1 : 1) * (velocities[interval] + getIntervalAcceleration(interval) * (timeStamp - times[interval]));
+    }
+
+    @Override
+    public double getAcceleration(double timeStamp) {
+        if(timeStamp >= getDuration()) {
+            return 0d;
+        }
+
+        return (isNegative() ? -1 : 1) * getIntervalAcceleration(getInterval(timeStamp < 0d ? 0d : timeStamp));
+    }
+
+    @Override
+    public double getJerk(double timeStamp) {
+        return 0d;
+    }
+
+    /**
+     * @return The {@code MecanumDriveModel} state {x, v_x, y, v_y, psi, omega} in meters that the
+     *         robot should be at after {@code timeStamp} seconds.
+     */
+    public SimpleMatrix getState(double timeStamp) {
+        double distance = Math.abs(getPosition(timeStamp));
+        double velocity = Math.abs(getVelocity(timeStamp));
+        Translation2d position = path.getPointAtDistance(distance);
+        Translation2d tangent = path.getTangentAtDistance(distance);
+        return new SimpleMatrix(6, 1, false, new double[] {
+                position.x() * INCHES_TO_METERS, velocity * tangent.x() * INCHES_TO_METERS,
+                position.y() * INCHES_TO_METERS, velocity * tangent.y() * INCHES_TO_METERS,
+                Util.normalizeAngle(heading.getRadians()), 0d
+        });
+    }
+
+    /**
+     * The motor inputs that, without feedback, produce the acceleration of the profile after
+     * {@code timeStamp} seconds, tangential and centripetal, while holding the heading. The force is
+     * split evenly between the two wheels of each diagonal, and each wheel torque is turned into a
+     * voltage with the same DC motor model used to generate the profile.
+     *
+     * @return The {@code MecanumDriveModel} input, as fractions of the nominal voltage.
+     */
+    public SimpleMatrix getInput(double timeStamp) {
+        double distance = Math.abs(getPosition(timeStamp));
+        double velocity = Math.abs(getVelocity(timeStamp));
+        double acceleration = timeStamp >= getDuration() ? 0d : getIntervalAcceleration(getInterval(timeStamp < 0d ? 0d : timeStamp));
+        Translation2d tangent = path.getTangentAtDistance(distance);
+
+        //The curvature vector dT/ds points towards the center of curvature, which Path does not give a side for
+        double step = distanceStep / 2d;
+        double start = Math.max(distance - step, 0d);
+        double end = Math.min(distance + step, path.getLength());
+        Translation2d curvature = path.getTangentAtDistance(end).translateBy(path.getTangentAtDistance(start).inverse()).scale(1d / (end - start));
+
+        Translation2d fieldAcceleration = tangent.scale(acceleration).translateBy(curvature.scale(velocity * velocity)).scale(INCHES_TO_METERS);
+        Translation2d robotAcceleration = fieldAcceleration.rotateBy(heading.inverse());
+        Translation2d robotVelocity = tangent.scale(velocity * INCHES_TO_METERS).rotateBy(heading.inverse());
+
+        //Wheels 0 and 3 drive along x - y, and wheels 1 and 2 along x + y, in the robot frame
+        double diagonalTorque = wheelRadius * effectiveMass * (robotAcceleration.x() - robotAcceleration.y()) / 4d;
+        double antiDiagonalTorque = wheelRadius * effectiveMass * (robotAcceleration.x() + robotAcceleration.y()) / 4d;
+        double diagonalInput = getInput(diagonalTorque, (robotVelocity.x() - robotVelocity.y()) / wheelRadius);
+        double antiDiagonalInput = getInput(antiDiagonalTorque, (robotVelocity.x() + robotVelocity.y()) / wheelRadius);
+        return new SimpleMatrix(4, 1, false, new double[] {
+                diagonalInput, antiDiagonalInput, antiDiagonalInput, diagonalInput
+        });
+    }
+
+    /**
+     * @return The fraction of the nominal voltage for a wheel turning at {@code wheelSpeed} to
+     *         produce {@code torque}.
+     */
+    private double getInput(double torque, double wheelSpeed) {
+        return Util.limit((torque / torqueConstant + backEMFConstant * wheelSpeed) / nominalVoltage, -1d, 1d);
+    }
+
+    /**
+     * Samples the profile every {@code dt} seconds as a reference for {@code MPCSolver} to track,
+     * with the feed-forward inputs from {@code getInput(double)}.
+     */
+    public ReferenceTrajectory getReferenceTrajectory(double dt) {
+        ReferenceTrajectory referenceTrajectory = new ReferenceTrajectory(6, 4, dt, (int)Math.ceil(getDuration() / dt) + 1);
+        for(int i = 0; i < referenceTrajectory.getLength(); i++) {
+            referenceTrajectory.setState(i, getState(i * dt));
+            referenceTrajectory.setInput(i, getInput(i * dt));
+        }
+
+        return referenceTrajectory;
+    }
+
+    /**
+     * @return The speed limit, in inches per second, the given distance along the path.
+     */
+    public double getVelocityAtDistance(double distance) {
+        double position = Math.min(Math.max(distance, 0d), path.getLength()) / distanceStep;
+        int index = Math.min((int)(position), velocities.length - 2);
+        return velocities[index] + (position - index) * (velocities[index + 1] - velocities[index]);
+    }
+
+    @Override
+    public double getRuntime() {
+        return getTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false);
+    }
+
+    @Override
+    public boolean isDone(double timeStamp) {
+        return timeStamp >= getDuration();
+    }
+
+    @Override
+    public boolean isDone() {
+        return isDone(getRuntime());
+    }
+
+    @Override
+    public void start() {
+        getTimeProfiler().start();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Rotation2d getHeading() {
+        return heading;
+    }
+
+    public TimeProfiler getTimeProfiler() {
+        return timeProfiler;
+    }
+
+    public void setTimeProfiler(TimeProfiler timeProfiler) {
+        this.timeProfiler = timeProfiler;
+    }
+
+    @Override
+    public boolean isNegative() {
+        return isNegative;
+    }
+
+    @Override
+    public void setNegative(boolean negative) {
+        isNegative = negative;
+    }
+}
@@ -3,12 +3,13 @@ package com.horse.mpclib.lib.motion;
 import com.horse.mpclib.lib.util.TimeProfiler;
 import com.horse.mpclib.lib.util.TimeUnits;
 
+/**
+ * Trapezoidal velocity profile evaluated in closed form. The phase containing a time stamp is found
+ * from the phase durations and the position, velocity and acceleration are evaluated directly, so
+ * creating a profile costs a handful of arithmetic operations and it can be sampled at any time
+ * without quantization.
+ */
 public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
-    private static final double dt = 0.01d;
-    private int timeSteps;
-    private double[] positions;
-    private double[] velocities;
-    private double[] accelerations;
     private TimeProfiler timeProfiler;
 
     private double target;
@@ -22,6 +23,9 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
     private double decelerationTime;
     private double duration;
 
+    private double accelerationDisplacement;
+    private double cruisingDisplacement;
+
     private boolean isNegative;
 
     public TrapezoidalMotionProfileGenerator(double target, double initialPosition, double initialVelocity,
@@ -36,11 +40,6 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
         setCruisingTime((getTarget() - (getMaxSpeed() * getMaxSpeed() - getInitialVelocity() * getInitialVelocity()) /
                 (2 * getMaxAcceleration()) - getMaxSpeed() * getMaxSpeed() / (2 * getMaxAcceleration())) / getMaxSpeed());
         setPhaseTimes();
-        setDuration(getAccelerationTime() + getCruisingTime() + getDecelerationTime());
-        setTimeSteps((int) (Math.ceil(getDuration() / dt())));
-        setPositions(new double[getTimeSteps()]);
-        setVelocities(new double[getTimeSteps()]);
-        setAccelerations(new double[getTimeSteps()]);
         generateProfile();
     }
 
@@ -65,29 +64,9 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
 
     @Override
     public void generateProfile() {
-        for(int i = 0; i < getTimeSteps(); i++) {
-            double timeStamp = i * dt();
-            if(timeStamp < getAccelerationTime()) {
-                getPositions()[i] = (getInitialVelocity() + getMaxAcceleration() * timeStamp / 2) * timeStamp;
-                getVelocities()[i] = getInitialVelocity() + getMaxAcceleration() * timeStamp;
-                getAccelerations()[i] = getMaxAcceleration();
-            } else if(timeStamp < getAccelerationTime() + getCruisingTime()) {
-                getPositions()[i] = (getMaxSpeed() + getInitialVelocity()) * getAccelerationTime() / 2
-                        + getMaxSpeed() * (timeStamp - getAccelerationTime());
-                getVelocities()[i] = getMaxSpeed();
-                getAccelerations()[i] = 0d;
-            } else if(timeStamp < getAccelerationTime() + getCruisingTime() + getDecelerationTime()) {
-                getPositions()[i] = (getMaxSpeed() + getInitialVelocity()) * getAccelerationTime() / 2
-                        + getMaxSpeed() * getCruisingTime() - (getMaxAcceleration() * (timeStamp - getAccelerationTime() -
-                        getCruisingTime())) * (timeStamp - getAccelerationTime() - getCruisingTime()) / 2;
-                getVelocities()[i] = -getMaxAcceleration() * (timeStamp - getDuration());
-                getAccelerations()[i] = -getMaxAcceleration();
-            } else {
-                getPositions()[i] = getTarget();
-                getVelocities()[i] = 0d;
-                getAccelerations()[i] = 0d;
-            }
-        }
+        setDuration(getAccelerationTime() + getCruisingTime() + getDecelerationTime());
+        accelerationDisplacement = (getMaxSpeed() + getInitialVelocity()) * getAccelerationTime() / 2;
+        cruisingDisplacement = getMaxSpeed() * getCruisingTime();
     }
 
     @Override
@@ -118,34 +97,53 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
     @Override
     public double getPosition(double timeStamp) {
         timeStamp = timeStamp < 0d ? 0d : timeStamp;
-        int timeStep = (int) (timeStamp / dt());
-        if(timeStep < getPositions().length) {
-            return (isNegative() ? -1 : 1) * getPositions()[timeStep];
+        double position;
+        if(timeStamp < getAccelerationTime()) {
+            position = (getInitialVelocity() + getMaxAcceleration() * timeStamp / 2) * timeStamp;
+        } else if(timeStamp < getAccelerationTime() + getCruisingTime()) {
+            position = accelerationDisplacement + getMaxSpeed() * (timeStamp - getAccelerationTime());
+        } else if(timeStamp < getDuration()) {
+            double decelerationTimeStamp = timeStamp - getAccelerationTime() - getCruisingTime();
+            position = accelerationDisplacement + cruisingDisplacement + (getMaxSpeed() - getMaxAcceleration() * decelerationTimeStamp / 2) * decelerationTimeStamp;
+        } else {
+            position = getTarget();
         }
 
-        return (isNegative() ? -1 : 1) * getTarget();
+        return (isNegative() ? -1 : 1) * position;
     }
 
     @Override
     public double getVelocity(double timeStamp) {
         timeStamp = timeStamp < 0d ? 0d : timeStamp;
-        int timeStep = (int) (timeStamp / dt());
-        if(timeStep < getVelocities().length) {
-            return (isNegative() ? -1 : 1) * getVelocities()[timeStep];
+        double velocity;
+        if(timeStamp < getAccelerationTime()) {
+            velocity = getInitialVelocity() + getMaxAcceleration() * timeStamp;
+        } else if(timeStamp < getAccelerationTime() + getCruisingTime()) {
+            velocity = getMaxSpeed();
+        } else if(timeStamp < getDuration()) {
+            velocity = -getMaxAcceleration() * (timeStamp - getDuration());
+        } else {
+            velocity = 0d;
         }
 
-        return 0d;
+        return (isNegative() ? -1 : 1) * velocity;
     }
 
     @Override
     public double getAcceleration(double timeStamp) {
         timeStamp = timeStamp < 0d ? 0d : timeStamp;
-        int timeStep = (int) (timeStamp / dt());
-        if(timeStep < getAccelerations().length) {
-            return (isNegative() ? -1 : 1) * getAccelerations()[timeStep];
+        double acceleration;
+        if(timeStamp < getAccelerationTime()) {
+            acceleration = getMaxAcceleration();
+        } else if(timeStamp < getAccelerationTime() + getCruisingTime()) {
+            acceleration = 0d;
+        } else if(timeStamp < getDuration()) {
+            acceleration = -getMaxAcceleration();
+        } else {
+            acceleration = 0d;
         }
 
-        return 0d;
+        return (isNegative() ? -1 : 1) * acceleration;
     }
 
     @Override
@@ -168,38 +166,6 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
         return isDone(getTimeProfiler().getDeltaTime(TimeUnits.SECONDS, false));
     }
 
-    public double[] getPositions() {
-        return positions;
-    }
-
-    public void setPositions(double[] positions) {
-        this.positions = positions;
-    }
-
-    public double[] getVelocities() {
-        return velocities;
-    }
-
-    public void setVelocities(double[] velocities) {
-        this.velocities = velocities;
-    }
-
-    public double[] getAccelerations() {
-        return accelerations;
-    }
-
-    public void setAccelerations(double[] accelerations) {
-        this.accelerations = accelerations;
-    }
-
-    public int getTimeSteps() {
-        return timeSteps;
-    }
-
-    public void setTimeSteps(int timeSteps) {
-        this.timeSteps = timeSteps;
-    }
-
     public TimeProfiler getTimeProfiler() {
         return timeProfiler;
     }
@@ -285,8 +251,4 @@ public class TrapezoidalMotionProfileGenerator implements IMotionProfile {
     public void setNegative(boolean negative) {
         isNegative = negative;
     }
-
-    public static double dt() {
-        return dt;
-    }
 }
@@ -0,0 +1,105 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the batches proposed by a {@code BlackBoxOptimizer}. With a parallelism of one every
+ * candidate is evaluated on the calling thread; otherwise candidates are spread over a fixed thread
+ * pool. Only objectives without shared mutable state may be evaluated in parallel. The simulated
+ * MPC runs used by {@code GAMPCTuner} keep the robot and obstacles in static fields, for example, and
+ * must therefore use a parallelism of one.
+ */
+public class BatchEvaluator implements AutoCloseable {
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public BatchEvaluator() {
+        this(1);
+    }
+
+    public BatchEvaluator(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = this.parallelism > 1 ? Executors.newFixedThreadPool(this.parallelism) : null;
+    }
+
+    public double[] evaluate(ObjectiveFunction objective, double[][] candidates) {
+        double[] costs = new double[candidates.length];
+        if(executor == null) {
+            for(int i = 0; i < candidates.length; i++) {
+                costs[i] = objective.evaluate(candidates[i]);
+            }
+
+            return costs;
+        }
+
+        List<Future<Double>> futures = new ArrayList<>(candidates.length);
+        for(double[] candidate : candidates) {
+            futures.add(executor.submit(() -> objective.evaluate(candidate)));
+        }
+
+        for(int i = 0; i < candidates.length; i++) {
+            try {
+                costs[i] = futures.get(i).get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                costs[i] = Double.POSITIVE_INFINITY;
+            } catch(ExecutionException e) {
+                e.printStackTrace();
+                costs[i] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        return costs;
+    }
+
+    /**
+     * Runs the ask/tell loop of {@code optimizer} until {@code maxEvaluations} candidates have been
+     * evaluated.
+     *
+     * @param targetCost The cost used to report how many evaluations the optimizer needed. The run
+     *                   is not stopped early once it is reached, so that the final costs are
+     *                   comparable between optimizers.
+     */
+    public OptimizationResult optimize(BlackBoxOptimizer optimizer, ObjectiveFunction objective, int maxEvaluations, double targetCost) {
+        List<Double> bestCostHistory = new ArrayList<>(maxEvaluations);
+        int evaluationsToTarget = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        while(bestCostHistory.size() < maxEvaluations) {
+            double[][] candidates = optimizer.ask();
+            if(candidates.length > maxEvaluations - bestCostHistory.size()) {
+                double[][] truncated = new double[maxEvaluations - bestCostHistory.size()][];
+                System.arraycopy(candidates, 0, truncated, 0, truncated.length);
+                candidates = truncated;
+            }
+
+            double[] costs = evaluate(objective, candidates);
+            optimizer.tell(candidates, costs);
+            for(double cost : costs) {
+                bestCost = Math.min(bestCost, cost);
+                bestCostHistory.add(bestCost);
+                if(evaluationsToTarget < 0 && bestCost <= targetCost) {
+                    evaluationsToTarget = bestCostHistory.size();
+                }
+            }
+        }
+
+        return new OptimizationResult(optimizer.getBestParameters(), optimizer.getBestCost(),
+                optimizer.getEvaluationCount(), evaluationsToTarget, bestCostHistory);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void close() {
+        if(executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This {@code class} implements Bayesian optimization with a Gaussian process surrogate. Every
+ * evaluated candidate is kept, a Gaussian process with a squared-exponential kernel is fit to the
+ * costs, and the next candidates are the points that maximize the expected improvement over the
+ * best cost so far. Since each cost evaluation for MPC tuning is a full simulated run, spending a
+ * few milliseconds on the surrogate to pick every candidate is a good trade.
+ *
+ * Batches are proposed with the "kriging believer" heuristic: after a point is chosen, the surrogate
+ * is told that the point has its predicted mean cost, and the next point of the batch is chosen from
+ * the updated surrogate. This spreads a batch out so that it can be evaluated in parallel.
+ *
+ * The kernel length scale is selected from a small set of candidates by maximizing the marginal
+ * likelihood of the observations every time the surrogate is refit.
+ *
+ * @see BlackBoxOptimizer
+ */
+public class BayesianOptimizer extends BoundedOptimizer {
+    private static final double[] LENGTH_SCALE_CANDIDATES = new double[] {0.05d, 0.1d, 0.2d, 0.4d, 0.8d};
+    private static final double NOISE_VARIANCE = 1E-6d;
+    private static final double EXPLORATION_MARGIN = 0.01d;
+    private static final int RANDOM_ACQUISITION_SAMPLES = 2000;
+    private static final int LOCAL_ACQUISITION_CENTERS = 5;
+    private static final int LOCAL_ACQUISITION_SAMPLES = 100;
+    private static final double LOCAL_ACQUISITION_SPREAD = 0.05d;
+
+    private final Random random;
+    private final int batchSize;
+    private final int initialSampleCount;
+
+    private final List<double[]> observedCandidates;
+    private final List<Double> observedCosts;
+    private double lengthScale;
+
+    public BayesianOptimizer(double[] lowerBounds, double[] upperBounds) {
+        this(lowerBounds, upperBounds, 1, 2 * lowerBounds.length + 1, new Random());
+    }
+
+    public BayesianOptimizer(int dimension, double minValue, double maxValue, int batchSize) {
+        this(filled(dimension, minValue), filled(dimension, maxValue), batchSize, 2 * dimension + 1, new Random());
+    }
+
+    /**
+     * @param batchSize          The amount of candidates returned from every {@code ask()} after the
+     *                           initial design.
+     * @param initialSampleCount The amount of space-filling samples evaluated before the surrogate is
+     *                           used at all.
+     */
+    public BayesianOptimizer(double[] lowerBounds, double[] upperBounds, int batchSize, int initialSampleCount, Random random) {
+        super(lowerBounds, upperBounds);
+        this.random = random;
+        this.batchSize = Math.max(1, batchSize);
+        this.initialSampleCount = Math.max(2, initialSampleCount);
+        this.observedCandidates = new ArrayList<>();
+        this.observedCosts = new ArrayList<>();
+        this.lengthScale = LENGTH_SCALE_CANDIDATES[2];
+    }
+
+    @Override
+    public double[][] ask() {
+        if(observedCandidates.size() < getInitialSampleCount()) {
+            return latinHypercube(getInitialSampleCount() - observedCandidates.size());
+        }
+
+        List<double[]> inputs = new ArrayList<>(observedCandidates);
+        List<Double> targets = new ArrayList<>(observedCosts);
+        GaussianProcess surrogate = fitSurrogate(inputs, targets);
+
+        double[][] candidates = new double[getBatchSize()][];
+        for(int k = 0; k < candidates.length; k++) {
+            double[] next = maximizeExpectedImprovement(surrogate, inputs, targets);
+            candidates[k] = denormalize(next);
+            if(k < candidates.length - 1) {
+                inputs.add(next);
+                targets.add(surrogate.predictMean(next));
+                surrogate = new GaussianProcess(inputs, targets, getLengthScale());
+            }
+        }
+
+        return candidates;
+    }
+
+    @Override
+    protected void update(double[][] normalizedCandidates, double[] costs) {
+        for(int i = 0; i < normalizedCandidates.length; i++) {
+            if(Double.isNaN(costs[i]) || Double.isInfinite(costs[i])) {
+                continue;
+            }
+
+            observedCandidates.add(normalizedCandidates[i]);
+            observedCosts.add(costs[i]);
+        }
+    }
+
+    private double[][] latinHypercube(int samples) {
+        int n = getDimension();
+        double[][] normalized = new double[samples][n];
+        for(int j = 0; j < n; j++) {
+            int[] strata = new int[samples];
+            for(int i = 0; i < samples; i++) {
+                strata[i] = i;
+            }
+
+            for(int i = samples - 1; i > 0; i--) {
+                int swap = random.nextInt(i + 1);
+                int temp = strata[i];
+                strata[i] = strata[swap];
+                strata[swap] = temp;
+            }
+
+            for(int i = 0; i < samples; i++) {
+                normalized[i][j] = (strata[i] + random.nextDouble()) / samples;
+            }
+        }
+
+        double[][] candidates = new double[samples][];
+        for(int i = 0; i < samples; i++) {
+            candidates[i] = denormalize(normalized[i]);
+        }
+
+        return candidates;
+    }
+
+    private GaussianProcess fitSurrogate(List<double[]> inputs, List<Double> targets) {
+        GaussianProcess bestFit = null;
+        for(double candidateLengthScale : LENGTH_SCALE_CANDIDATES) {
+            GaussianProcess fit = new GaussianProcess(inputs, targets, candidateLengthScale);
+            if(bestFit == null || fit.getLogMarginalLikelihood() > bestFit.getLogMarginalLikelihood()) {
+                bestFit = fit;
+            }
+        }
+
+        setLengthScale(bestFit.getLengthScale());
+        return bestFit;
+    }
+
+    private double[] maximizeExpectedImprovement(GaussianProcess surrogate, List<double[]> inputs, List<Double> targets) {
+        int n = getDimension();
+        double bestTarget = targets.stream().mapToDouble(Double::doubleValue).min().orElse(0d);
+        double[] bestCandidate = null;
+        double bestImprovement = Double.NEGATIVE_INFINITY;
+        double[] candidate = new double[n];
+        for(int i = 0; i < RANDOM_ACQUISITION_SAMPLES; i++) {
+            for(int j = 0; j < n; j++) {
+                candidate[j] = random.nextDouble();
+            }
+
+            double improvement = surrogate.expectedImprovement(candidate, bestTarget);
+            if(improvement > bestImprovement) {
+                bestImprovement = improvement;
+                bestCandidate = candidate.clone();
+            }
+        }
+
+        Integer[] ranking = new Integer[inputs.size()];
+        for(int i = 0; i < ranking.length; i++) {
+            ranking[i] = i;
+        }
+
+        Arrays.sort(ranking, (o1, o2) -> Double.compare(targets.get(o1), targets.get(o2)));
+        for(int c = 0; c < Math.min(LOCAL_ACQUISITION_CENTERS, ranking.length); c++) {
+            double[] center = inputs.get(ranking[c]);
+            for(int i = 0; i < LOCAL_ACQUISITION_SAMPLES; i++) {
+                for(int j = 0; j < n; j++) {
+                    double value = center[j] + LOCAL_ACQUISITION_SPREAD * random.nextGaussian();
+                    candidate[j] = value < 0d ? 0d : value > 1d ? 1d : value;
+                }
+
+                double improvement = surrogate.expectedImprovement(candidate, bestTarget);
+                if(improvement > bestImprovement) {
+                    bestImprovement = improvement;
+                    bestCandidate = candidate.clone();
+                }
+            }
+        }
+
+        return bestCandidate;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getInitialSampleCount() {
+        return initialSampleCount;
+    }
+
+    public double getLengthScale() {
+        return lengthScale;
+    }
+
+    public void setLengthScale(double lengthScale) {
+        this.lengthScale = lengthScale;
+    }
+
+    /**
+     * Zero-mean Gaussian process over standardized costs with a unit-variance squared-exponential
+     * kernel. The kernel matrix is factored once with a Cholesky decomposition, after which every
+     * prediction costs O(n^2) for n observations.
+     */
+    static class GaussianProcess {
+        private final double[][] inputs;
+        private final double lengthScale;
+        private final double targetMean;
+        private final double targetScale;
+        private final double[][] cholesky;
+        private final double[] weights;
+        private final double logMarginalLikelihood;
+
+        GaussianProcess(List<double[]> inputs, List<Double> targets, double lengthScale) {
+            int n = inputs.size();
+            this.inputs = inputs.toArray(new double[n][]);
+            this.lengthScale = lengthScale;
+
+            double mean = 0d;
+            for(double target : targets) {
+                mean += target;
+            }
+
+            mean /= n;
+            double variance = 0d;
+            for(double target : targets) {
+                variance += (target - mean) * (target - mean);
+            }
+
+            this.targetMean = mean;
+            this.targetScale = variance > 0d ? Math.sqrt(variance / n) : 1d;
+
+            double[] standardized = new double[n];
+            for(int i = 0; i < n; i++) {
+                standardized[i] = (targets.get(i) - targetMean) / targetScale;
+            }
+
+            double[][] factor = null;
+            double jitter = NOISE_VARIANCE;
+            while(factor == null) {
+                factor = choleskyDecomposition(jitter);
+                jitter *= 10d;
+            }
+
+            this.cholesky = factor;
+            this.weights = backSubstitute(forwardSubstitute(standardized));
+
+            double logDeterminant = 0d;
+            double fit = 0d;
+            for(int i = 0; i < n; i++) {
+                logDeterminant += Math.log(cholesky[i][i]);
+                fit += standardized[i] * weights[i];
+            }
+
+            this.logMarginalLikelihood = -fit / 2d - logDeterminant - n * Math.log(2d * Math.PI) / 2d;
+        }
+
+        private double kernel(double[] a, double[] b) {
+            double distanceSquared = 0d;
+            for(int i = 0; i < a.length; i++) {
+                distanceSquared += (a[i] - b[i]) * (a[i] - b[i]);
+            }
+
+            return Math.exp(-distanceSquared / (2d * lengthScale * lengthScale));
+        }
+
+        private double[][] choleskyDecomposition(double jitter) {
+            int n = inputs.length;
+            double[][] factor = new double[n][n];
+            for(int i = 0; i < n; i++) {
+                for(int j = 0; j <= i; j++) {
+                    double sum = kernel(inputs[i], inputs[j]) + (i == j ? jitter : 0d);
+                    for(int k = 0; k < j; k++) {
+                        sum -= factor[i][k] * factor[j][k];
+                    }
+
+                    if(i == j) {
+                        if(sum <= 0d) {
+                            return null;
+                        }
+
+                        factor[i][i] = Math.sqrt(sum);
+                    } else {
+                        factor[i][j] = sum / factor[j][j];
+                    }
+                }
+            }
+
+            return factor;
+        }
+
+        private double[] forwardSubstitute(double[] vector) {
+            int n = vector.length;
+            double[] result = new double[n];
+            for(int i = 0; i < n; i++) {
+                double sum = vector[i];
+                for(int k = 0; k < i; k++) {
+                    sum -= cholesky[i][k] * result[k];
+                }
+
+                result[i] = sum / cholesky[i][i];
+            }
+
+            return result;
+        }
+
+        private double[] backSubstitute(double[] vector) {
+            int n = vector.length;
+            double[] result = new double[n];
+            for(int i = n - 1; i >= 0; i--) {
+                double sum = vector[i];
+                for(int k = i + 1; k < n; k++) {
+                    sum -= cholesky[k][i] * result[k];
+                }
+
+                result[i] = sum / cholesky[i][i];
+            }
+
+            return result;
+        }
+
+        private double[] covarianceWithInputs(double[] candidate) {
+            double[] covariance = new double[inputs.length];
+            for(int i = 0; i < inputs.length; i++) {
+                covariance[i] = kernel(candidate, inputs[i]);
+            }
+
+            return covariance;
+        }
+
+        double predictMean(double[] candidate) {
+            double[] covariance = covarianceWithInputs(candidate);
+            double mean = 0d;
+            for(int i = 0; i < covariance.length; i++) {
+                mean += covariance[i] * weights[i];
+            }
+
+            return targetMean + targetScale * mean;
+        }
+
+        /**
+         * @return The expected amount by which the cost at {@code candidate} falls below
+         *         {@code bestTarget}, in standardized units.
+         */
+        double expectedImprovement(double[] candidate, double bestTarget) {
+            double[] covariance = covarianceWithInputs(candidate);
+            double mean = 0d;
+            for(int i = 0; i < covariance.length; i++) {
+                mean += covariance[i] * weights[i];
+            }
+
+            double[] projection = forwardSubstitute(covariance);
+            double variance = 1d;
+            for(double value : projection) {
+                variance -= value * value;
+            }
+
+            double deviation = Math.sqrt(Math.max(variance, 1E-12d));
+            double improvement = (bestTarget - targetMean) / targetScale - mean - EXPLORATION_MARGIN;
+            double z = improvement / deviation;
+            return improvement * normalCdf(z) + deviation * Math.exp(-z * z / 2d) / Math.sqrt(2d * Math.PI);
+        }
+
+        /**
+         * Abramowitz and Stegun 7.1.26 approximation of the error function, accurate to 1.5E-7.
+         */
+        private static double normalCdf(double z) {
+            double x = Math.abs(z) / Math.sqrt(2d);
+            double t = 1d / (1d + 0.3275911d * x);
+            double erf = 1d - ((((1.061405429d * t - 1.453152027d) * t + 1.421413741d) * t - 0.284496736d) * t + 0.254829592d) * t * Math.exp(-x * x);
+            return z >= 0d ? (1d + erf) / 2d : (1d - erf) / 2d;
+        }
+
+        double getLengthScale() {
+            return lengthScale;
+        }
+
+        double getLogMarginalLikelihood() {
+            return logMarginalLikelihood;
+        }
+    }
+}
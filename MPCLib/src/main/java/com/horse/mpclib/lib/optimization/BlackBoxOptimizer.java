@@ -0,0 +1,34 @@
+package com.horse.mpclib.lib.optimization;
+
+/**
+ * This {@code interface} describes a derivative-free optimizer in an ask/tell form. The optimizer
+ * proposes a batch of candidates with {@code ask()}, the caller evaluates them however it likes
+ * (serially, or in parallel through a {@code BatchEvaluator}), and the costs are handed back with
+ * {@code tell(double[][], double[])}. This keeps the optimizer independent of how expensive or
+ * how parallel the {@code ObjectiveFunction} is.
+ *
+ * @see BatchEvaluator
+ * @see CMAESOptimizer
+ * @see BayesianOptimizer
+ * @see GeneticOptimizer
+ */
+public interface BlackBoxOptimizer {
+    /**
+     * @return The next batch of candidate parameter vectors to evaluate.
+     */
+    double[][] ask();
+
+    /**
+     * @param candidates The candidates returned by the last call to {@code ask()}.
+     * @param costs      The cost of each candidate, in the same order.
+     */
+    void tell(double[][] candidates, double[] costs);
+
+    double[] getBestParameters();
+
+    double getBestCost();
+
+    int getEvaluationCount();
+
+    int getDimension();
+}
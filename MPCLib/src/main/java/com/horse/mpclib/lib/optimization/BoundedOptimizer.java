@@ -0,0 +1,120 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.Arrays;
+
+/**
+ * Common bookkeeping for the {@code BlackBoxOptimizer} implementations. Every optimizer searches
+ * over a box given by {@code lowerBounds} and {@code upperBounds}, but works internally in the unit
+ * hypercube so that step sizes and kernel length scales do not depend on the units of each term.
+ */
+public abstract class BoundedOptimizer implements BlackBoxOptimizer {
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+
+    private double[] bestParameters;
+    private double bestCost;
+    private int evaluationCount;
+
+    protected BoundedOptimizer(double[] lowerBounds, double[] upperBounds) {
+        if(lowerBounds.length != upperBounds.length) {
+            throw new IllegalArgumentException("Expected " + lowerBounds.length + " upper bounds but found " + upperBounds.length);
+        }
+
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+        setBestCost(Double.POSITIVE_INFINITY);
+        setEvaluationCount(0);
+    }
+
+    protected BoundedOptimizer(int dimension, double minValue, double maxValue) {
+        this(filled(dimension, minValue), filled(dimension, maxValue));
+    }
+
+    protected static double[] filled(int dimension, double value) {
+        double[] values = new double[dimension];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    /**
+     * Updates the internal search state of the optimizer with evaluated candidates.
+     *
+     * @param normalizedCandidates The candidates mapped into the unit hypercube.
+     * @param costs                The cost of each candidate.
+     */
+    protected abstract void update(double[][] normalizedCandidates, double[] costs);
+
+    @Override
+    public void tell(double[][] candidates, double[] costs) {
+        double[][] normalizedCandidates = new double[candidates.length][];
+        for(int i = 0; i < candidates.length; i++) {
+            normalizedCandidates[i] = normalize(candidates[i]);
+            setEvaluationCount(getEvaluationCount() + 1);
+            if(costs[i] < getBestCost()) {
+                setBestCost(costs[i]);
+                setBestParameters(candidates[i].clone());
+            }
+        }
+
+        update(normalizedCandidates, costs);
+    }
+
+    public double[] normalize(double[] parameters) {
+        double[] normalized = new double[parameters.length];
+        for(int i = 0; i < parameters.length; i++) {
+            normalized[i] = (parameters[i] - lowerBounds[i]) / (upperBounds[i] - lowerBounds[i]);
+        }
+
+        return normalized;
+    }
+
+    public double[] denormalize(double[] normalized) {
+        double[] parameters = new double[normalized.length];
+        for(int i = 0; i < normalized.length; i++) {
+            double value = normalized[i] < 0d ? 0d : normalized[i] > 1d ? 1d : normalized[i];
+            parameters[i] = lowerBounds[i] + value * (upperBounds[i] - lowerBounds[i]);
+        }
+
+        return parameters;
+    }
+
+    @Override
+    public int getDimension() {
+        return lowerBounds.length;
+    }
+
+    @Override
+    public double[] getBestParameters() {
+        return bestParameters;
+    }
+
+    public void setBestParameters(double[] bestParameters) {
+        this.bestParameters = bestParameters;
+    }
+
+    @Override
+    public double getBestCost() {
+        return bestCost;
+    }
+
+    public void setBestCost(double bestCost) {
+        this.bestCost = bestCost;
+    }
+
+    @Override
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    public void setEvaluationCount(int evaluationCount) {
+        this.evaluationCount = evaluationCount;
+    }
+
+    public double[] getLowerBounds() {
+        return lowerBounds;
+    }
+
+    public double[] getUpperBounds() {
+        return upperBounds;
+    }
+}
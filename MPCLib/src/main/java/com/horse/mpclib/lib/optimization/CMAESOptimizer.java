@@ -0,0 +1,298 @@
+package com.horse.mpclib.lib.optimization;
+
+import org.ejml.simple.SimpleEVD;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This {@code class} implements the covariance matrix adaptation evolution strategy (CMA-ES). Each
+ * generation samples {@code populationSize} candidates from a multivariate normal distribution, and
+ * the mean, step size and covariance of that distribution are then adapted from the best half of
+ * the candidates. Compared with the genetic algorithm previously used for tuning, CMA-ES learns the
+ * correlations between the parameters being tuned, which usually lowers the number of (expensive)
+ * cost evaluations required to reach a given cost considerably.
+ *
+ * The search is performed in the unit hypercube given by the bounds, and samples falling outside
+ * the bounds are clipped back into it before being evaluated.
+ *
+ * Reference: N. Hansen, "The CMA Evolution Strategy: A Tutorial", https://arxiv.org/abs/1604.00772
+ *
+ * @see BlackBoxOptimizer
+ */
+public class CMAESOptimizer extends BoundedOptimizer {
+    private static final double DEFAULT_INITIAL_STEP_SIZE = 0.3d;
+
+    private final Random random;
+
+    private final int populationSize;
+    private final int parentCount;
+    private final double[] weights;
+    private final double effectiveParentCount;
+
+    private final double cumulationConstant;
+    private final double stepSizeCumulationConstant;
+    private final double rankOneLearningRate;
+    private final double rankMuLearningRate;
+    private final double stepSizeDamping;
+    private final double expectedNormalNorm;
+
+    private double[] mean;
+    private double stepSize;
+    private double[] covariancePath;
+    private double[] stepSizePath;
+    private double[][] covariance;
+    private double[][] eigenvectors;
+    private double[] axisLengths;
+    private int generation;
+
+    public CMAESOptimizer(double[] lowerBounds, double[] upperBounds) {
+        this(lowerBounds, upperBounds, 4 + (int)(3d * Math.log(lowerBounds.length)), new Random());
+    }
+
+    public CMAESOptimizer(int dimension, double minValue, double maxValue, int populationSize) {
+        this(filled(dimension, minValue), filled(dimension, maxValue), populationSize, new Random());
+    }
+
+    public CMAESOptimizer(double[] lowerBounds, double[] upperBounds, int populationSize, Random random) {
+        super(lowerBounds, upperBounds);
+        this.random = random;
+
+        int n = getDimension();
+        this.populationSize = Math.max(2, populationSize);
+        this.parentCount = this.populationSize / 2;
+
+        weights = new double[parentCount];
+        double weightSum = 0d;
+        for(int i = 0; i < parentCount; i++) {
+            weights[i] = Math.log(parentCount + 0.5d) - Math.log(i + 1d);
+            weightSum += weights[i];
+        }
+
+        double weightSquaredSum = 0d;
+        for(int i = 0; i < parentCount; i++) {
+            weights[i] /= weightSum;
+            weightSquaredSum += weights[i] * weights[i];
+        }
+
+        effectiveParentCount = 1d / weightSquaredSum;
+
+        cumulationConstant = (4d + effectiveParentCount / n) / (n + 4d + 2d * effectiveParentCount / n);
+        stepSizeCumulationConstant = (effectiveParentCount + 2d) / (n + effectiveParentCount + 5d);
+        rankOneLearningRate = 2d / ((n + 1.3d) * (n + 1.3d) + effectiveParentCount);
+        rankMuLearningRate = Math.min(1d - rankOneLearningRate, 2d * (effectiveParentCount - 2d + 1d / effectiveParentCount) /
+                ((n + 2d) * (n + 2d) + effectiveParentCount));
+        stepSizeDamping = 1d + 2d * Math.max(0d, Math.sqrt((effectiveParentCount - 1d) / (n + 1d)) - 1d) + stepSizeCumulationConstant;
+        expectedNormalNorm = Math.sqrt(n) * (1d - 1d / (4d * n) + 1d / (21d * n * n));
+
+        mean = new double[n];
+        Arrays.fill(mean, 0.5d);
+        stepSize = DEFAULT_INITIAL_STEP_SIZE;
+        covariancePath = new double[n];
+        stepSizePath = new double[n];
+        covariance = new double[n][n];
+        eigenvectors = new double[n][n];
+        axisLengths = new double[n];
+        for(int i = 0; i < n; i++) {
+            covariance[i][i] = 1d;
+            eigenvectors[i][i] = 1d;
+            axisLengths[i] = 1d;
+        }
+
+        generation = 0;
+    }
+
+    /**
+     * Starts the search from a known parameter vector rather than the center of the bounds.
+     *
+     * @param initialGuess Parameters in the units of the bounds.
+     * @param stepSize     Initial standard deviation as a fraction of the bound widths.
+     */
+    public void setInitialGuess(double[] initialGuess, double stepSize) {
+        mean = normalize(initialGuess);
+        this.stepSize = stepSize;
+    }
+
+    @Override
+    public double[][] ask() {
+        int n = getDimension();
+        double[][] candidates = new double[getPopulationSize()][];
+        double[] scaled = new double[n];
+        for(int k = 0; k < candidates.length; k++) {
+            for(int j = 0; j < n; j++) {
+                scaled[j] = axisLengths[j] * random.nextGaussian();
+            }
+
+            double[] sample = new double[n];
+            for(int i = 0; i < n; i++) {
+                double step = 0d;
+                for(int j = 0; j < n; j++) {
+                    step += eigenvectors[i][j] * scaled[j];
+                }
+
+                sample[i] = mean[i] + stepSize * step;
+            }
+
+            candidates[k] = denormalize(sample);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Adapts the distribution from the evaluated candidates. Candidates whose evaluation failed or
+     * was cut short have a cost that is not finite and are left out, and when fewer than
+     * {@code parentCount} candidates remain, the recombination weights of the ones that do are
+     * renormalized to sum to one, so that a short batch does not pull the mean back towards its
+     * previous value.
+     */
+    @Override
+    protected void update(double[][] normalizedCandidates, double[] costs) {
+        int n = getDimension();
+        int evaluatedCount = 0;
+        Integer[] ranking = new Integer[normalizedCandidates.length];
+        for(int i = 0; i < normalizedCandidates.length; i++) {
+            if(!Double.isNaN(costs[i]) && !Double.isInfinite(costs[i])) {
+                ranking[evaluatedCount++] = i;
+            }
+        }
+
+        int parents = Math.min(parentCount, evaluatedCount);
+        if(parents == 0) {
+            return;
+        }
+
+        Arrays.sort(ranking, 0, evaluatedCount, (o1, o2) -> Double.compare(costs[o1], costs[o2]));
+
+        double[] parentWeights = weights;
+        double parentEffectiveCount = effectiveParentCount;
+        if(parents < parentCount) {
+            parentWeights = Arrays.copyOf(weights, parents);
+            double weightSum = 0d;
+            for(double weight : parentWeights) {
+                weightSum += weight;
+            }
+
+            double weightSquaredSum = 0d;
+            for(int k = 0; k < parents; k++) {
+                parentWeights[k] /= weightSum;
+                weightSquaredSum += parentWeights[k] * parentWeights[k];
+            }
+
+            parentEffectiveCount = 1d / weightSquaredSum;
+        }
+
+        double[] previousMean = mean.clone();
+        double[][] steps = new double[parents][n];
+        double[] meanStep = new double[n];
+        for(int k = 0; k < parents; k++) {
+            double[] candidate = normalizedCandidates[ranking[k]];
+            for(int i = 0; i < n; i++) {
+                steps[k][i] = (candidate[i] - previousMean[i]) / stepSize;
+                meanStep[i] += parentWeights[k] * steps[k][i];
+            }
+        }
+
+        for(int i = 0; i < n; i++) {
+            mean[i] = previousMean[i] + stepSize * meanStep[i];
+        }
+
+        //C^(-1/2) * meanStep = B * D^(-1) * B^T * meanStep
+        double[] rotated = new double[n];
+        for(int j = 0; j < n; j++) {
+            double sum = 0d;
+            for(int i = 0; i < n; i++) {
+                sum += eigenvectors[i][j] * meanStep[i];
+            }
+
+            rotated[j] = sum / axisLengths[j];
+        }
+
+        double stepSizePathFactor = Math.sqrt(stepSizeCumulationConstant * (2d - stepSizeCumulationConstant) * parentEffectiveCount);
+        double stepSizePathNorm = 0d;
+        for(int i = 0; i < n; i++) {
+            double whitened = 0d;
+            for(int j = 0; j < n; j++) {
+                whitened += eigenvectors[i][j] * rotated[j];
+            }
+
+            stepSizePath[i] = (1d - stepSizeCumulationConstant) * stepSizePath[i] + stepSizePathFactor * whitened;
+            stepSizePathNorm += stepSizePath[i] * stepSizePath[i];
+        }
+
+        stepSizePathNorm = Math.sqrt(stepSizePathNorm);
+        generation++;
+
+        boolean stalled = stepSizePathNorm / Math.sqrt(1d - Math.pow(1d - stepSizeCumulationConstant, 2d * generation)) / expectedNormalNorm
+                >= 1.4d + 2d / (n + 1d);
+        double covariancePathFactor = stalled ? 0d : Math.sqrt(cumulationConstant * (2d - cumulationConstant) * parentEffectiveCount);
+        for(int i = 0; i < n; i++) {
+            covariancePath[i] = (1d - cumulationConstant) * covariancePath[i] + covariancePathFactor * meanStep[i];
+        }
+
+        double stallCorrection = stalled ? cumulationConstant * (2d - cumulationConstant) : 0d;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j <= i; j++) {
+                double rankMu = 0d;
+                for(int k = 0; k < parents; k++) {
+                    rankMu += parentWeights[k] * steps[k][i] * steps[k][j];
+                }
+
+                covariance[i][j] = (1d - rankOneLearningRate - rankMuLearningRate) * covariance[i][j] +
+                        rankOneLearningRate * (covariancePath[i] * covariancePath[j] + stallCorrection * covariance[i][j]) +
+                        rankMuLearningRate * rankMu;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+
+        stepSize *= Math.exp((stepSizeCumulationConstant / stepSizeDamping) * (stepSizePathNorm / expectedNormalNorm - 1d));
+        updateEigendecomposition();
+    }
+
+    private void updateEigendecomposition() {
+        int n = getDimension();
+        SimpleEVD<SimpleMatrix> eigenDecomposition = new SimpleMatrix(covariance).eig();
+        if(eigenDecomposition.getNumberOfEigenvalues() != n) {
+            return;
+        }
+
+        double[][] basis = new double[n][n];
+        double[] lengths = new double[n];
+        for(int j = 0; j < n; j++) {
+            SimpleMatrix eigenvector = eigenDecomposition.getEigenVector(j);
+            if(eigenvector == null) {
+                //Complex eigenvalues only arise from numerical asymmetry, so keep the last good basis
+                return;
+            }
+
+            lengths[j] = Math.sqrt(Math.max(eigenDecomposition.getEigenvalue(j).getReal(), 1E-20d));
+            for(int i = 0; i < n; i++) {
+                basis[i][j] = eigenvector.get(i);
+            }
+        }
+
+        eigenvectors = basis;
+        axisLengths = lengths;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getParentCount() {
+        return parentCount;
+    }
+
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    public double[] getMean() {
+        return denormalize(mean);
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+}
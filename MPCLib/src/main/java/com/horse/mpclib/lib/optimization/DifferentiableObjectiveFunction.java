@@ -0,0 +1,21 @@
+package com.horse.mpclib.lib.optimization;
+
+/**
+ * An {@code ObjectiveFunction} that can also compute its gradient, for use with gradient-based
+ * optimizers such as {@code LBFGSOptimizer}. Computing the value and gradient together lets
+ * implementations share the intermediate quantities between them.
+ */
+public interface DifferentiableObjectiveFunction extends ObjectiveFunction {
+    /**
+     * @param parameters The point at which to evaluate the function.
+     * @param gradient   Array of the same length as {@code parameters} that the gradient of the
+     *                   cost with respect to the parameters is written into.
+     * @return           The cost at {@code parameters}.
+     */
+    double evaluate(double[] parameters, double[] gradient);
+
+    @Override
+    default double evaluate(double[] parameters) {
+        return evaluate(parameters, new double[parameters.length]);
+    }
+}
@@ -0,0 +1,177 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This {@code class} is the genetic algorithm from {@code GAMPCTuner} in ask/tell form, so that it
+ * can be compared against the other {@code BlackBoxOptimizer} implementations on equal footing. The
+ * elitism, crossover, mutation and selection rules match the tuner, with two differences: children
+ * are copies rather than aliases of their parents, and elite chromosomes are carried over with their
+ * known costs instead of being evaluated again.
+ *
+ * @see BlackBoxOptimizer
+ */
+public class GeneticOptimizer extends BoundedOptimizer {
+    private static final int DEFAULT_ELITISM_COUNT = 2;
+    private static final double DEFAULT_CROSSOVER_PROBABILITY = 0.9d;
+    private static final double SELECTION_EXPONENT = 4d;
+
+    private final Random random;
+    private final int populationSize;
+    private final int elitismCount;
+    private final double crossoverProbability;
+
+    private double[][] population;
+    private double[] populationCosts;
+    private int generation;
+
+    public GeneticOptimizer(double[] lowerBounds, double[] upperBounds, int populationSize) {
+        this(lowerBounds, upperBounds, populationSize, DEFAULT_ELITISM_COUNT, DEFAULT_CROSSOVER_PROBABILITY, new Random());
+    }
+
+    public GeneticOptimizer(int dimension, double minValue, double maxValue, int populationSize) {
+        this(filled(dimension, minValue), filled(dimension, maxValue), populationSize);
+    }
+
+    public GeneticOptimizer(double[] lowerBounds, double[] upperBounds, int populationSize, int elitismCount,
+                            double crossoverProbability, Random random) {
+        super(lowerBounds, upperBounds);
+        this.random = random;
+        this.populationSize = Math.max(2, populationSize);
+        this.elitismCount = Math.min(Math.max(0, elitismCount), this.populationSize - 1);
+        this.crossoverProbability = crossoverProbability;
+        this.generation = 0;
+    }
+
+    @Override
+    public double[][] ask() {
+        int n = getDimension();
+        if(population == null) {
+            double[][] candidates = new double[getPopulationSize()][n];
+            for(double[] candidate : candidates) {
+                for(int j = 0; j < n; j++) {
+                    candidate[j] = random.nextDouble();
+                }
+            }
+
+            return denormalizeAll(candidates);
+        }
+
+        double[][] children = new double[getPopulationSize() - getElitismCount()][];
+        int k = 0;
+        while(k < children.length) {
+            if(random.nextDouble() <= getCrossoverProbability() && k < children.length - 1) {
+                int index1 = getRandomChromosomeIndex();
+                int index2 = getRandomChromosomeIndex();
+                while(index2 == index1) {
+                    index2 = getRandomChromosomeIndex();
+                }
+
+                int crossoverIndex = random.nextInt(n);
+                double crossoverValue = random.nextDouble();
+                children[k] = population[index1].clone();
+                children[k + 1] = population[index2].clone();
+                children[k][crossoverIndex] = crossoverValue * population[index1][crossoverIndex] + (1d - crossoverValue) * population[index2][crossoverIndex];
+                children[k + 1][crossoverIndex] = (1d - crossoverValue) * population[index1][crossoverIndex] + crossoverValue * population[index2][crossoverIndex];
+                k++;
+            } else {
+                children[k] = population[getRandomChromosomeIndex()].clone();
+                children[k][random.nextInt(n)] = random.nextDouble();
+            }
+
+            k++;
+        }
+
+        return denormalizeAll(children);
+    }
+
+    @Override
+    protected void update(double[][] normalizedCandidates, double[] costs) {
+        int elites = population == null ? 0 : getElitismCount();
+        double[][] nextPopulation = new double[elites + normalizedCandidates.length][];
+        double[] nextCosts = new double[nextPopulation.length];
+        for(int i = 0; i < elites; i++) {
+            nextPopulation[i] = population[i];
+            nextCosts[i] = populationCosts[i];
+        }
+
+        for(int i = 0; i < normalizedCandidates.length; i++) {
+            nextPopulation[elites + i] = normalizedCandidates[i];
+            nextCosts[elites + i] = costs[i];
+        }
+
+        Integer[] ranking = new Integer[nextPopulation.length];
+        for(int i = 0; i < ranking.length; i++) {
+            ranking[i] = i;
+        }
+
+        Arrays.sort(ranking, (o1, o2) -> Double.compare(nextCosts[o1], nextCosts[o2]));
+        population = new double[ranking.length][];
+        populationCosts = new double[ranking.length];
+        for(int i = 0; i < ranking.length; i++) {
+            population[i] = nextPopulation[ranking[i]];
+            populationCosts[i] = nextCosts[ranking[i]];
+        }
+
+        generation++;
+    }
+
+    private double[][] denormalizeAll(double[][] normalized) {
+        double[][] candidates = new double[normalized.length][];
+        for(int i = 0; i < normalized.length; i++) {
+            candidates[i] = denormalize(normalized[i]);
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Roulette-wheel selection with probability proportional to (total cost - cost)^4, as in
+     * {@code GAMPCTuner}.
+     */
+    private int getRandomChromosomeIndex() {
+        double totalCost = 0d;
+        for(double cost : populationCosts) {
+            totalCost += cost;
+        }
+
+        double[] selectionWeights = new double[populationCosts.length];
+        double totalWeight = 0d;
+        for(int i = 0; i < selectionWeights.length; i++) {
+            selectionWeights[i] = Math.pow(Math.max(totalCost - populationCosts[i], 0d), SELECTION_EXPONENT);
+            totalWeight += selectionWeights[i];
+        }
+
+        if(totalWeight <= 0d || Double.isNaN(totalWeight) || Double.isInfinite(totalWeight)) {
+            return random.nextInt(populationCosts.length);
+        }
+
+        double randomValue = random.nextDouble() * totalWeight;
+        double currentWeightSum = 0d;
+        for(int i = 0; i < selectionWeights.length; i++) {
+            currentWeightSum += selectionWeights[i];
+            if(randomValue < currentWeightSum) {
+                return i;
+            }
+        }
+
+        return selectionWeights.length - 1;
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getElitismCount() {
+        return elitismCount;
+    }
+
+    public double getCrossoverProbability() {
+        return crossoverProbability;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+}
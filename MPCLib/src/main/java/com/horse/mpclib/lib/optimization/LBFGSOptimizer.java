@@ -0,0 +1,204 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This {@code class} implements the limited-memory BFGS quasi-Newton method for smooth, unconstrained
+ * problems. The inverse Hessian is approximated from the last {@code historySize} steps and gradient
+ * changes through the two-loop recursion, so every iteration costs O(historySize * dimension) with no
+ * matrix storage, and steps are accepted by a backtracking line search on the Armijo condition.
+ *
+ * Unlike the {@code BlackBoxOptimizer} implementations this needs the gradient of the cost, but
+ * converges in far fewer evaluations, which makes it suitable for problems such as spline smoothing
+ * that need to be solved on the robot.
+ *
+ * Reference: J. Nocedal and S. Wright, "Numerical Optimization", 2nd edition, algorithm 7.4.
+ */
+public class LBFGSOptimizer {
+    private static final int DEFAULT_HISTORY_SIZE = 6;
+    private static final double ARMIJO_CONSTANT = 1E-4d;
+    private static final double BACKTRACKING_FACTOR = 0.5d;
+    private static final int MAX_LINE_SEARCH_STEPS = 40;
+
+    private final int historySize;
+    private double gradientTolerance = 1E-6d;
+    private double costTolerance = 1E-10d;
+
+    public LBFGSOptimizer() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+
+    public LBFGSOptimizer(int historySize) {
+        this.historySize = historySize;
+    }
+
+    /**
+     * Minimizes {@code function} starting from {@code initialParameters}, stopping once the gradient
+     * norm drops below the gradient tolerance, the cost stops decreasing, a line search fails or
+     * {@code maxIterations} iterations have been made.
+     */
+    public OptimizationResult minimize(DifferentiableObjectiveFunction function, double[] initialParameters, int maxIterations) {
+        return minimize(function, initialParameters, maxIterations, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@code minimize(DifferentiableObjectiveFunction, double[], int)}, but also stops once
+     * {@code System.nanoTime()} passes {@code deadline}. The deadline is checked before every cost
+     * evaluation, and since every accepted step lowers the cost, the parameters returned are the best
+     * found so far.
+     */
+    public OptimizationResult minimize(DifferentiableObjectiveFunction function, double[] initialParameters, int maxIterations, long deadline) {
+        int dimension = initialParameters.length;
+        double[] parameters = initialParameters.clone();
+        double[] gradient = new double[dimension];
+        double[] direction = new double[dimension];
+        double[] nextParameters = new double[dimension];
+        double[] nextGradient = new double[dimension];
+        double[] step = new double[dimension];
+        double[] gradientChange = new double[dimension];
+
+        double[][] steps = new double[historySize][dimension];
+        double[][] gradientChanges = new double[historySize][dimension];
+        double[] inverseCurvatures = new double[historySize];
+        double[] alphas = new double[historySize];
+        int storedPairs = 0;
+        int newestPair = -1;
+
+        double cost = function.evaluate(parameters, gradient);
+        int evaluationCount = 1;
+        List<Double> bestCostHistory = new ArrayList<>();
+        bestCostHistory.add(cost);
+
+        for(int iteration = 0; iteration < maxIterations; iteration++) {
+            double gradientNorm = Math.sqrt(dot(gradient, gradient));
+            if(gradientNorm < getGradientTolerance() || Double.isNaN(cost)) {
+                break;
+            }
+
+            //Two-loop recursion for the direction -H * gradient
+            for(int i = 0; i < dimension; i++) {
+                direction[i] = -gradient[i];
+            }
+
+            for(int k = 0; k < storedPairs; k++) {
+                int index = Math.floorMod(newestPair - k, historySize);
+                alphas[index] = inverseCurvatures[index] * dot(steps[index], direction);
+                axpy(-alphas[index], gradientChanges[index], direction);
+            }
+
+            if(storedPairs > 0) {
+                double scale = dot(steps[newestPair], gradientChanges[newestPair]) / dot(gradientChanges[newestPair], gradientChanges[newestPair]);
+                for(int i = 0; i < dimension; i++) {
+                    direction[i] *= scale;
+                }
+            } else {
+                for(int i = 0; i < dimension; i++) {
+                    direction[i] /= gradientNorm;
+                }
+            }
+
+            for(int k = storedPairs - 1; k >= 0; k--) {
+                int index = Math.floorMod(newestPair - k, historySize);
+                double beta = inverseCurvatures[index] * dot(gradientChanges[index], direction);
+                axpy(alphas[index] - beta, steps[index], direction);
+            }
+
+            double directionalDerivative = dot(direction, gradient);
+            if(directionalDerivative >= 0d) {
+                //The approximation is no longer positive definite, so fall back to steepest descent
+                storedPairs = 0;
+                for(int i = 0; i < dimension; i++) {
+                    direction[i] = -gradient[i] / gradientNorm;
+                }
+
+                directionalDerivative = -gradientNorm;
+            }
+
+            double stepSize = 1d;
+            double nextCost = Double.NaN;
+            boolean accepted = false;
+            for(int lineSearchStep = 0; lineSearchStep < MAX_LINE_SEARCH_STEPS && System.nanoTime() < deadline; lineSearchStep++) {
+                for(int i = 0; i < dimension; i++) {
+                    nextParameters[i] = parameters[i] + stepSize * direction[i];
+                }
+
+                nextCost = function.evaluate(nextParameters, nextGradient);
+                evaluationCount++;
+                if(nextCost <= cost + ARMIJO_CONSTANT * stepSize * directionalDerivative) {
+                    accepted = true;
+                    break;
+                }
+
+                stepSize *= BACKTRACKING_FACTOR;
+            }
+
+            if(!accepted) {
+                break;
+            }
+
+            for(int i = 0; i < dimension; i++) {
+                step[i] = nextParameters[i] - parameters[i];
+                gradientChange[i] = nextGradient[i] - gradient[i];
+            }
+
+            //Only keep pairs that satisfy the curvature condition, so the approximation stays positive definite.
+            //The pair only enters the ring once accepted, so a rejected pair never overwrites the oldest one
+            double curvature = dot(step, gradientChange);
+            if(curvature > 1E-12d) {
+                int index = (newestPair + 1) % historySize;
+                System.arraycopy(step, 0, steps[index], 0, dimension);
+                System.arraycopy(gradientChange, 0, gradientChanges[index], 0, dimension);
+                inverseCurvatures[index] = 1d / curvature;
+                newestPair = index;
+                storedPairs = Math.min(storedPairs + 1, historySize);
+            }
+
+            boolean converged = cost - nextCost <= getCostTolerance() * Math.max(1d, Math.abs(cost));
+            System.arraycopy(nextParameters, 0, parameters, 0, dimension);
+            System.arraycopy(nextGradient, 0, gradient, 0, dimension);
+            cost = nextCost;
+            bestCostHistory.add(cost);
+            if(converged) {
+                break;
+            }
+        }
+
+        return new OptimizationResult(parameters, cost, evaluationCount, -1, bestCostHistory);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0d;
+        for(int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+
+        return sum;
+    }
+
+    private static void axpy(double scale, double[] x, double[] y) {
+        for(int i = 0; i < x.length; i++) {
+            y[i] += scale * x[i];
+        }
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public double getGradientTolerance() {
+        return gradientTolerance;
+    }
+
+    public void setGradientTolerance(double gradientTolerance) {
+        this.gradientTolerance = gradientTolerance;
+    }
+
+    public double getCostTolerance() {
+        return costTolerance;
+    }
+
+    public void setCostTolerance(double costTolerance) {
+        this.costTolerance = costTolerance;
+    }
+}
@@ -0,0 +1,24 @@
+package com.horse.mpclib.lib.optimization;
+
+/**
+ * A nonlinear least squares problem, minimizing the sum of squared residuals over a parameter
+ * vector, for use with {@code LevenbergMarquardtOptimizer}. The residuals are split into chunks,
+ * such as groups of simulated rollouts from a log, that the optimizer may evaluate on different
+ * threads at the same time. Implementations must therefore not share mutable state between calls
+ * to {@code evaluate}.
+ */
+public interface LeastSquaresProblem {
+    int getChunkCount();
+
+    /**
+     * @return The number of residuals in {@code chunk}, which must not depend on the parameters.
+     */
+    int getResidualCount(int chunk);
+
+    /**
+     * @param parameters The parameter vector to evaluate at, which must not be modified.
+     * @param residuals  Array of {@code getResidualCount(chunk)} elements that the residuals of
+     *                   {@code chunk} are written into.
+     */
+    void evaluate(int chunk, double[] parameters, double[] residuals);
+}
@@ -0,0 +1,348 @@
+package com.horse.mpclib.lib.optimization;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This {@code class} implements the Levenberg-Marquardt method for nonlinear least squares problems
+ * with few parameters and many residuals, such as fitting model parameters to logged data. Every
+ * iteration solves (J^T J + lambda diag(J^T J)) step = -J^T r, where the Jacobian J is found by
+ * forward differences. Small values of lambda give Gauss-Newton steps and large values give short,
+ * scaled gradient descent steps, and lambda is lowered after every step that reduces the cost and
+ * raised after every step that does not.
+ *
+ * The Jacobian is never stored. Each chunk of the problem is linearized on its own, into its
+ * contribution to J^T J and J^T r, and with a parallelism above one the chunks are spread over a
+ * fixed thread pool. The contributions are summed in chunk order, so the result does not depend on
+ * the parallelism.
+ *
+ * Reference: J. Nocedal and S. Wright, "Numerical Optimization", 2nd edition, section 10.3.
+ */
+public class LevenbergMarquardtOptimizer implements AutoCloseable {
+    private static final double JACOBIAN_STEP = 1E-6d;
+    private static final double INITIAL_DAMPING = 1E-3d;
+    private static final double DAMPING_FACTOR = 10d;
+    private static final double MAX_DAMPING = 1E12d;
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private double costTolerance = 1E-10d;
+    private double stepTolerance = 1E-10d;
+
+    private double[] standardDeviations;
+    private int lastIterationCount;
+
+    public LevenbergMarquardtOptimizer() {
+        this(1);
+    }
+
+    public LevenbergMarquardtOptimizer(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = this.parallelism > 1 ? Executors.newFixedThreadPool(this.parallelism) : null;
+    }
+
+    /**
+     * Minimizes the sum of squared residuals of {@code problem} starting from
+     * {@code initialParameters}, stopping once the cost or the step stops changing relative to their
+     * size, no step lowering the cost can be found or {@code maxIterations} iterations have been made.
+     * Steps to parameters where the cost is not finite are rejected like any step that raises it.
+     */
+    public OptimizationResult minimize(LeastSquaresProblem problem, double[] initialParameters, int maxIterations) {
+        int dimension = initialParameters.length;
+        double[] parameters = initialParameters.clone();
+        double[] nextParameters = new double[dimension];
+        DMatrixRMaj normalMatrix = new DMatrixRMaj(dimension, dimension);
+        DMatrixRMaj dampedMatrix = new DMatrixRMaj(dimension, dimension);
+        DMatrixRMaj gradient = new DMatrixRMaj(dimension, 1);
+        DMatrixRMaj step = new DMatrixRMaj(dimension, 1);
+        LinearSolverDense<DMatrixRMaj> solver = LinearSolverFactory_DDRM.symmPosDef(dimension);
+
+        double damping = INITIAL_DAMPING;
+        double cost = linearize(problem, parameters, normalMatrix, gradient);
+        int evaluationCount = dimension + 1;
+        List<Double> bestCostHistory = new ArrayList<>();
+        bestCostHistory.add(cost);
+
+        lastIterationCount = 0;
+        while(lastIterationCount < maxIterations && !Double.isNaN(cost) && !Double.isInfinite(cost)) {
+            lastIterationCount++;
+            double nextCost = Double.NaN;
+            boolean accepted = false;
+            while(damping < MAX_DAMPING) {
+                dampedMatrix.set(normalMatrix);
+                for(int i = 0; i < dimension; i++) {
+                    //Floor the scaling so that parameters the residuals do not depend on stay put
+                    dampedMatrix.add(i, i, damping * Math.max(normalMatrix.get(i, i), 1E-12d));
+                }
+
+                if(solver.setA(dampedMatrix)) {
+                    solver.solve(gradient, step);
+                    for(int i = 0; i < dimension; i++) {
+                        nextParameters[i] = parameters[i] - step.get(i);
+                    }
+
+                    nextCost = getCost(problem, nextParameters);
+                    evaluationCount++;
+                    if(nextCost < cost) {
+                        accepted = true;
+                        break;
+                    }
+                }
+
+                damping *= DAMPING_FACTOR;
+            }
+
+            if(!accepted) {
+                break;
+            }
+
+            damping = Math.max(damping / DAMPING_FACTOR, 1E-12d);
+            boolean converged = cost - nextCost <= getCostTolerance() * cost ||
+                    CommonOps_DDRM.elementMaxAbs(step) <= getStepTolerance() * maxAbs(parameters);
+            System.arraycopy(nextParameters, 0, parameters, 0, dimension);
+            cost = nextCost;
+            bestCostHistory.add(cost);
+            linearize(problem, parameters, normalMatrix, gradient);
+            evaluationCount += dimension + 1;
+            if(converged) {
+                break;
+            }
+        }
+
+        computeStandardDeviations(problem, normalMatrix, cost);
+        return new OptimizationResult(parameters, cost, evaluationCount, -1, bestCostHistory);
+    }
+
+    /**
+     * Sets the standard deviations to the square roots of the diagonal of s^2 (J^T J)^-1, with s^2
+     * the cost per degree of freedom, which holds for independent residuals of equal variance.
+     */
+    private void computeStandardDeviations(LeastSquaresProblem problem, DMatrixRMaj normalMatrix, double cost) {
+        int dimension = normalMatrix.getNumRows();
+        int residualCount = 0;
+        for(int chunk = 0; chunk < problem.getChunkCount(); chunk++) {
+            residualCount += problem.getResidualCount(chunk);
+        }
+
+        standardDeviations = new double[dimension];
+        DMatrixRMaj inverse = new DMatrixRMaj(dimension, dimension);
+        LinearSolverDense<DMatrixRMaj> solver = LinearSolverFactory_DDRM.symmPosDef(dimension);
+        if(residualCount <= dimension || !solver.setA(normalMatrix.copy())) {
+            for(int i = 0; i < dimension; i++) {
+                standardDeviations[i] = Double.POSITIVE_INFINITY;
+            }
+
+            return;
+        }
+
+        solver.invert(inverse);
+        double variance = cost / (residualCount - dimension);
+        for(int i = 0; i < dimension; i++) {
+            standardDeviations[i] = Math.sqrt(variance * inverse.get(i, i));
+        }
+    }
+
+    /**
+     * Writes J^T J into {@code normalMatrix} and J^T r into {@code gradient}, where r are the
+     * residuals at {@code parameters}.
+     *
+     * @return The sum of squared residuals at {@code parameters}.
+     */
+    private double linearize(LeastSquaresProblem problem, double[] parameters, DMatrixRMaj normalMatrix, DMatrixRMaj gradient) {
+        int dimension = parameters.length;
+        List<Callable<double[]>> tasks = new ArrayList<>(problem.getChunkCount());
+        for(int chunk = 0; chunk < problem.getChunkCount(); chunk++) {
+            final int index = chunk;
+            tasks.add(() -> linearizeChunk(problem, index, parameters));
+        }
+
+        normalMatrix.zero();
+        gradient.zero();
+        double cost = 0d;
+        for(double[] contribution : run(tasks)) {
+            if(contribution == null) {
+                return Double.NaN;
+            }
+
+            //Each contribution is the cost, J^T r and then J^T J row by row
+            cost += contribution[0];
+            for(int i = 0; i < dimension; i++) {
+                gradient.add(i, 0, contribution[1 + i]);
+                for(int j = 0; j < dimension; j++) {
+                    normalMatrix.add(i, j, contribution[1 + dimension + i * dimension + j]);
+                }
+            }
+        }
+
+        return cost;
+    }
+
+    private static double[] linearizeChunk(LeastSquaresProblem problem, int chunk, double[] parameters) {
+        int dimension = parameters.length;
+        int residualCount = problem.getResidualCount(chunk);
+        double[] residuals = new double[residualCount];
+        double[][] jacobianColumns = new double[dimension][residualCount];
+        double[] perturbedParameters = parameters.clone();
+        double[] contribution = new double[1 + dimension + dimension * dimension];
+
+        problem.evaluate(chunk, parameters, residuals);
+        for(int i = 0; i < dimension; i++) {
+            double step = JACOBIAN_STEP * Math.max(Math.abs(parameters[i]), 1E-3d);
+            perturbedParameters[i] = parameters[i] + step;
+            problem.evaluate(chunk, perturbedParameters, jacobianColumns[i]);
+            perturbedParameters[i] = parameters[i];
+            for(int k = 0; k < residualCount; k++) {
+                jacobianColumns[i][k] = (jacobianColumns[i][k] - residuals[k]) / step;
+            }
+        }
+
+        for(int k = 0; k < residualCount; k++) {
+            contribution[0] += residuals[k] * residuals[k];
+        }
+
+        for(int i = 0; i < dimension; i++) {
+            contribution[1 + i] = dot(jacobianColumns[i], residuals);
+            for(int j = i; j < dimension; j++) {
+                double product = dot(jacobianColumns[i], jacobianColumns[j]);
+                contribution[1 + dimension + i * dimension + j] = product;
+                contribution[1 + dimension + j * dimension + i] = product;
+            }
+        }
+
+        return contribution;
+    }
+
+    /**
+     * @return The sum of squared residuals of {@code problem} at {@code parameters}.
+     */
+    public double getCost(LeastSquaresProblem problem, double[] parameters) {
+        List<Callable<double[]>> tasks = new ArrayList<>(problem.getChunkCount());
+        for(int chunk = 0; chunk < problem.getChunkCount(); chunk++) {
+            final int index = chunk;
+            tasks.add(() -> {
+                double[] residuals = new double[problem.getResidualCount(index)];
+                problem.evaluate(index, parameters, residuals);
+                return new double[] {dot(residuals, residuals)};
+            });
+        }
+
+        double cost = 0d;
+        for(double[] chunkCost : run(tasks)) {
+            if(chunkCost == null) {
+                return Double.NaN;
+            }
+
+            cost += chunkCost[0];
+        }
+
+        return cost;
+    }
+
+    /**
+     * Runs {@code tasks} on the calling thread or the thread pool.
+     *
+     * @return The results in the order of {@code tasks}, with null for tasks that failed.
+     */
+    private List<double[]> run(List<Callable<double[]>> tasks) {
+        List<double[]> results = new ArrayList<>(tasks.size());
+        if(executor == null) {
+            for(Callable<double[]> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch(Exception e) {
+                    e.printStackTrace();
+                    results.add(null);
+                }
+            }
+
+            return results;
+        }
+
+        List<Future<double[]>> futures = new ArrayList<>(tasks.size());
+        for(Callable<double[]> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+
+        for(Future<double[]> future : futures) {
+            try {
+                results.add(future.get());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(null);
+            } catch(ExecutionException e) {
+                e.printStackTrace();
+                results.add(null);
+            }
+        }
+
+        return results;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0d;
+        for(int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+
+        return sum;
+    }
+
+    private static double maxAbs(double[] values) {
+        double max = 0d;
+        for(double value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+
+        return max;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return The estimated standard deviation of each parameter found by the last call to
+     *         {@code minimize}, or infinity for parameters the residuals do not determine.
+     */
+    public double[] getStandardDeviations() {
+        return standardDeviations;
+    }
+
+    public int getLastIterationCount() {
+        return lastIterationCount;
+    }
+
+    public double getCostTolerance() {
+        return costTolerance;
+    }
+
+    public void setCostTolerance(double costTolerance) {
+        this.costTolerance = costTolerance;
+    }
+
+    public double getStepTolerance() {
+        return stepTolerance;
+    }
+
+    public void setStepTolerance(double stepTolerance) {
+        this.stepTolerance = stepTolerance;
+    }
+
+    @Override
+    public void close() {
+        if(executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.horse.mpclib.lib.optimization;
+
+/**
+ * This {@code interface} represents the cost of a single candidate parameter vector, such as the
+ * cost-matrix and obstacle factors being tuned for MPC. Implementations may be expensive (a full
+ * simulated run), so optimizers should call this as few times as possible.
+ *
+ * @see BlackBoxOptimizer
+ */
+public interface ObjectiveFunction {
+    /**
+     * @param parameters The candidate parameter vector, in the units of the optimizer bounds.
+     * @return           The cost of the candidate. Lower is better.
+     */
+    double evaluate(double[] parameters);
+}
@@ -0,0 +1,54 @@
+package com.horse.mpclib.lib.optimization;
+
+import java.util.List;
+
+/**
+ * Summary of a single run of {@code BatchEvaluator#optimize}.
+ */
+public class OptimizationResult {
+    private final double[] bestParameters;
+    private final double bestCost;
+    private final int evaluationCount;
+    private final int evaluationsToTarget;
+    private final List<Double> bestCostHistory;
+
+    public OptimizationResult(double[] bestParameters, double bestCost, int evaluationCount,
+                              int evaluationsToTarget, List<Double> bestCostHistory) {
+        this.bestParameters = bestParameters;
+        this.bestCost = bestCost;
+        this.evaluationCount = evaluationCount;
+        this.evaluationsToTarget = evaluationsToTarget;
+        this.bestCostHistory = bestCostHistory;
+    }
+
+    public boolean reachedTarget() {
+        return getEvaluationsToTarget() >= 0;
+    }
+
+    public double[] getBestParameters() {
+        return bestParameters;
+    }
+
+    public double getBestCost() {
+        return bestCost;
+    }
+
+    public int getEvaluationCount() {
+        return evaluationCount;
+    }
+
+    /**
+     * @return The number of cost evaluations made before the target cost was first reached, or -1 if
+     *         it was never reached.
+     */
+    public int getEvaluationsToTarget() {
+        return evaluationsToTarget;
+    }
+
+    /**
+     * @return The best cost found after each evaluation.
+     */
+    public List<Double> getBestCostHistory() {
+        return bestCostHistory;
+    }
+}
@@ -1,5 +1,6 @@
 package com.horse.mpclib.lib.physics;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.data.SingularMatrixException;
 import org.ejml.simple.SimpleMatrix;
 
@@ -341,6 +342,71 @@ public class MecanumDriveModel implements NonlinearDynamicModel {
         }
     }
 
+    /**
+     * Same as {@code simulate(state, input, dt)}, but writes the next state into {@code nextState}
+     * without allocating, for estimators that replay the dynamics many times per loop. The 3x3
+     * velocity block of the mass matrix is inverted directly, since the position rows of the full
+     * 6x6 system are the identity. {@code nextState} may be the same matrix as {@code state}.
+     */
+    @Override
+    public void simulate(DMatrixRMaj state, DMatrixRMaj input, double dt, DMatrixRMaj nextState) {
+        double xDot = state.get(1);
+        double yDot = state.get(3);
+        double heading = state.get(4);
+        double psiDot = state.get(5);
+        double cosPsi = Math.cos(heading);
+        double sinPsi = Math.sin(heading);
+
+        double wheelVelocity0 = (xDot * (cosPsi + sinPsi) - yDot * (cosPsi - sinPsi) - psiDot * (L1 + D1)) / wheelRadius;
+        double wheelVelocity1 = (xDot * (cosPsi - sinPsi) + yDot * (cosPsi + sinPsi) + psiDot * (L1 + D2)) / wheelRadius;
+        double wheelVelocity2 = (xDot * (cosPsi - sinPsi) + yDot * (cosPsi + sinPsi) - psiDot * (L2 + D1)) / wheelRadius;
+        double wheelVelocity3 = (xDot * (cosPsi + sinPsi) - yDot * (cosPsi - sinPsi) + psiDot * (L2 + D2)) / wheelRadius;
+
+        double torqueScale = getkT() * getEfficiency() * getCompoundGearRatio() / getResistance();
+        double motorVelocityScale = getCompoundGearRatio() * getkV();
+        double torque0 = (input.get(0) * getNominalVoltage() - wheelVelocity0 * motorVelocityScale) * torqueScale;
+        double torque1 = (input.get(1) * getNominalVoltage() - wheelVelocity1 * motorVelocityScale) * torqueScale;
+        double torque2 = (input.get(2) * getNominalVoltage() - wheelVelocity2 * motorVelocityScale) * torqueScale;
+        double torque3 = (input.get(3) * getNominalVoltage() - wheelVelocity3 * motorVelocityScale) * torqueScale;
+
+        double forceX = ((torque0 + torque3) * (cosPsi + sinPsi) + (torque1 + torque2) * (cosPsi - sinPsi)) / wheelRadius -
+                psiDot * (A14(heading) * xDot + A15(heading) * yDot + A16(heading) * psiDot);
+        double forceY = -((torque0 + torque3) * (cosPsi - sinPsi) - (torque1 + torque2) * (cosPsi + sinPsi)) / wheelRadius -
+                psiDot * (A24(heading) * xDot + A25(heading) * yDot + A26(heading) * psiDot);
+        double torqueHeading = (torque0 * (-L1 - D1) - torque1 * (-L1 - D2) - torque2 * (L2 + D1) + torque3 * (L2 + D2)) / wheelRadius -
+                psiDot * (A34(heading) * xDot + A35(heading) * yDot);
+
+        double m11 = A11(heading);
+        double m12 = A12(heading);
+        double m13 = A13(heading);
+        double m21 = A21(heading);
+        double m22 = A22(heading);
+        double m23 = A23(heading);
+        double m31 = A31(heading);
+        double m32 = A32(heading);
+        double m33 = A33(heading);
+
+        double c11 = m22 * m33 - m23 * m32;
+        double c12 = m23 * m31 - m21 * m33;
+        double c13 = m21 * m32 - m22 * m31;
+        double determinant = m11 * c11 + m12 * c12 + m13 * c13;
+        if(determinant == 0d) {
+            nextState.set(state);
+            return;
+        }
+
+        double xDotDot = (c11 * forceX + (m13 * m32 - m12 * m33) * forceY + (m12 * m23 - m13 * m22) * torqueHeading) / determinant;
+        double yDotDot = (c12 * forceX + (m11 * m33 - m13 * m31) * forceY + (m13 * m21 - m11 * m23) * torqueHeading) / determinant;
+        double psiDotDot = (c13 * forceX + (m12 * m31 - m11 * m32) * forceY + (m11 * m22 - m12 * m21) * torqueHeading) / determinant;
+
+        nextState.set(0, state.get(0) + xDot * dt);
+        nextState.set(1, xDot + xDotDot * dt);
+        nextState.set(2, state.get(2) + yDot * dt);
+        nextState.set(3, yDot + yDotDot * dt);
+        nextState.set(4, heading + psiDot * dt);
+        nextState.set(5, psiDot + psiDotDot * dt);
+    }
+
     public SimpleMatrix simulate(SimpleMatrix state, SimpleMatrix input, double dt, double noiseFactor) {
         SimpleMatrix torques = getMotorTorques(state, input);
 
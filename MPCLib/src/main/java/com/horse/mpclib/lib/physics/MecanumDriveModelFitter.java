@@ -0,0 +1,471 @@
+package com.horse.mpclib.lib.physics;
+
+import com.horse.mpclib.lib.optimization.LeastSquaresProblem;
+import com.horse.mpclib.lib.optimization.LevenbergMarquardtOptimizer;
+import com.horse.mpclib.lib.optimization.OptimizationResult;
+import com.horse.mpclib.lib.util.Util;
+
+import org.ejml.data.DMatrixRMaj;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Fits the lumped drive parameters of a {@code MecanumDriveModel}, the torque gain, damping and
+ * moment of inertia described in {@code MecanumDriveModelIdentifier}, to recorded match logs
+ * offline. Where the identifier fits one step accelerations as they arrive, this simulates the model
+ * open loop over short windows of the logs and fits the parameters that best reproduce the logged
+ * states, which weighs the errors the MPC actually sees over its horizon and is far less sensitive to
+ * noise in the logged velocities.
+ *
+ * Logs are read a line at a time, and every line holds a sample of whitespace or comma separated
+ * values,
+ *
+ * t x vx y vy psi omega u0 u1 u2 u3
+ *
+ * in seconds, meters, radians and the normalized motor powers that were commanded. Blank lines,
+ * lines starting with '#' and a header line before the first sample are skipped. Rollouts start
+ * every {@code stride} samples and never span two logs or a gap in the log longer than
+ * {@code maxDt}. The rollouts are split into chunks that the {@code LevenbergMarquardtOptimizer}
+ * simulates in parallel.
+ *
+ * Every iteration of the fit simulates the rollouts again with new parameters, so the samples are
+ * kept in memory rather than folded into J^T J and J^T r as they are read. They are packed into
+ * primitive arrays trimmed to size after every log, 88 bytes a sample, which is about 1.3 MB for a
+ * match logged at 100 Hz.
+ *
+ * The result is written as a properties file, which the robot code turns back into a model at
+ * startup with {@code loadModel}.
+ */
+public class MecanumDriveModelFitter implements LeastSquaresProblem {
+    public static final String TORQUE_GAIN_KEY = "torqueGain";
+    public static final String DAMPING_KEY = "damping";
+    public static final String MOMENT_OF_INERTIA_KEY = "momentOfInertia";
+
+    private static final int STATE_DIMENSION = 6;
+    private static final int INPUT_DIMENSION = 4;
+    private static final int PARAMETER_COUNT = 3;
+    private static final int HEADING = 4;
+
+    private static final int DEFAULT_HORIZON = 25;
+    private static final int DEFAULT_STRIDE = 5;
+    private static final double DEFAULT_MAX_DT = 0.1d; //s
+    private static final int DEFAULT_ROLLOUTS_PER_CHUNK = 64;
+    private static final int DEFAULT_MAX_ITERATIONS = 50;
+
+    private final MecanumDriveModel baseModel;
+    private final List<Integer> logStarts;
+    private double[] timeStamps;
+    private double[] states;
+    private double[] inputs;
+    private int sampleCount;
+
+    private int horizon = DEFAULT_HORIZON;
+    private int stride = DEFAULT_STRIDE;
+    private double maxDt = DEFAULT_MAX_DT;
+    private int rolloutsPerChunk = DEFAULT_ROLLOUTS_PER_CHUNK;
+    private double[] stateWeights;
+    private int[] rolloutStarts;
+
+    private final double[] parameters;
+    private double[] standardDeviations;
+    private double rmsResidual = Double.NaN;
+
+    public MecanumDriveModelFitter(MecanumDriveModel baseModel) {
+        this.baseModel = baseModel;
+        logStarts = new ArrayList<>();
+        timeStamps = new double[1024];
+        states = new double[1024 * STATE_DIMENSION];
+        inputs = new double[1024 * INPUT_DIMENSION];
+        rolloutStarts = new int[0];
+
+        parameters = new double[] {
+                MecanumDriveModelIdentifier.getTorqueGain(baseModel),
+                MecanumDriveModelIdentifier.getDamping(baseModel),
+                baseModel.getRobotMomentInertia()
+        };
+
+        //Heading errors are scaled by a wheel lever arm so that every residual is in meters
+        double leverArm = baseModel.getL1() + baseModel.getD1();
+        stateWeights = new double[] {1d, 1d, 1d, 1d, leverArm, leverArm};
+    }
+
+    public void addLog(File file) throws IOException {
+        try(Reader reader = new FileReader(file)) {
+            addLog(reader);
+        }
+    }
+
+    /**
+     * Reads the samples of one log from {@code reader} without closing it.
+     *
+     * @throws IOException If a line after the first sample is not a sample.
+     */
+    public void addLog(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        int logStart = sampleCount;
+        int lineNumber = 0;
+        String line;
+        while((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] values = line.split("[,\\s]+");
+            if(values.length != 1 + STATE_DIMENSION + INPUT_DIMENSION) {
+                if(sampleCount == logStart) {
+                    continue;
+                }
+
+                throw new IOException("Expected " + (1 + STATE_DIMENSION + INPUT_DIMENSION) + " values on line " + lineNumber);
+            }
+
+            ensureCapacity(sampleCount + 1);
+            try {
+                timeStamps[sampleCount] = Double.parseDouble(values[0]);
+                for(int i = 0; i < STATE_DIMENSION; i++) {
+                    states[sampleCount * STATE_DIMENSION + i] = Double.parseDouble(values[1 + i]);
+                }
+
+                for(int i = 0; i < INPUT_DIMENSION; i++) {
+                    inputs[sampleCount * INPUT_DIMENSION + i] = Double.parseDouble(values[1 + STATE_DIMENSION + i]);
+                }
+            } catch(NumberFormatException e) {
+                if(sampleCount == logStart) {
+                    continue;
+                }
+
+                throw new IOException("Malformed sample on line " + lineNumber, e);
+            }
+
+            sampleCount++;
+        }
+
+        if(sampleCount > logStart) {
+            logStarts.add(logStart);
+            updateRollouts();
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Releases the capacity left over from growing the sample arrays while reading a log.
+     */
+    private void trimToSize() {
+        if(timeStamps.length == sampleCount) {
+            return;
+        }
+
+        double[] trimmedTimeStamps = new double[sampleCount];
+        double[] trimmedStates = new double[sampleCount * STATE_DIMENSION];
+        double[] trimmedInputs = new double[sampleCount * INPUT_DIMENSION];
+        System.arraycopy(timeStamps, 0, trimmedTimeStamps, 0, sampleCount);
+        System.arraycopy(states, 0, trimmedStates, 0, sampleCount * STATE_DIMENSION);
+        System.arraycopy(inputs, 0, trimmedInputs, 0, sampleCount * INPUT_DIMENSION);
+        timeStamps = trimmedTimeStamps;
+        states = trimmedStates;
+        inputs = trimmedInputs;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity <= timeStamps.length) {
+            return;
+        }
+
+        int grown = Math.max(Math.max(capacity, 2 * timeStamps.length), 1024);
+        double[] grownTimeStamps = new double[grown];
+        double[] grownStates = new double[grown * STATE_DIMENSION];
+        double[] grownInputs = new double[grown * INPUT_DIMENSION];
+        System.arraycopy(timeStamps, 0, grownTimeStamps, 0, sampleCount);
+        System.arraycopy(states, 0, grownStates, 0, sampleCount * STATE_DIMENSION);
+        System.arraycopy(inputs, 0, grownInputs, 0, sampleCount * INPUT_DIMENSION);
+        timeStamps = grownTimeStamps;
+        states = grownStates;
+        inputs = grownInputs;
+    }
+
+    /**
+     * Finds the samples that rollouts start at, every {@code stride} samples of a log for which the
+     * next {@code horizon} time steps are all positive and at most {@code maxDt}.
+     */
+    private void updateRollouts() {
+        int[] starts = new int[sampleCount / stride + logStarts.size()];
+        int count = 0;
+        for(int log = 0; log < logStarts.size(); log++) {
+            int logEnd = log + 1 < logStarts.size() ? logStarts.get(log + 1) : sampleCount;
+            for(int start = logStarts.get(log); start + horizon < logEnd; start += stride) {
+                boolean valid = true;
+                for(int k = start; k < start + horizon && valid; k++) {
+                    double dt = timeStamps[k + 1] - timeStamps[k];
+                    valid = dt > 0d && dt <= maxDt;
+                }
+
+                if(valid) {
+                    starts[count++] = start;
+                }
+            }
+        }
+
+        rolloutStarts = new int[count];
+        System.arraycopy(starts, 0, rolloutStarts, 0, count);
+    }
+
+    /**
+     * Fits the parameters with a {@code LevenbergMarquardtOptimizer} using every available core,
+     * starting from the parameters of the base model.
+     */
+    public OptimizationResult fit() {
+        try(LevenbergMarquardtOptimizer optimizer = new LevenbergMarquardtOptimizer(Runtime.getRuntime().availableProcessors())) {
+            return fit(optimizer, DEFAULT_MAX_ITERATIONS);
+        }
+    }
+
+    /**
+     * Fits the parameters with {@code optimizer}, starting from the current parameters.
+     */
+    public OptimizationResult fit(LevenbergMarquardtOptimizer optimizer, int maxIterations) {
+        if(rolloutStarts.length == 0) {
+            throw new IllegalStateException("No rollouts of " + horizon + " steps in the logs added");
+        }
+
+        OptimizationResult result = optimizer.minimize(this, parameters, maxIterations);
+        System.arraycopy(result.getBestParameters(), 0, parameters, 0, PARAMETER_COUNT);
+        standardDeviations = optimizer.getStandardDeviations();
+        rmsResidual = Math.sqrt(result.getBestCost() / (rolloutStarts.length * horizon * STATE_DIMENSION));
+
+        return result;
+    }
+
+    @Override
+    public int getChunkCount() {
+        return (rolloutStarts.length + rolloutsPerChunk - 1) / rolloutsPerChunk;
+    }
+
+    @Override
+    public int getResidualCount(int chunk) {
+        int rollouts = Math.min(rolloutsPerChunk, rolloutStarts.length - chunk * rolloutsPerChunk);
+        return rollouts * horizon * STATE_DIMENSION;
+    }
+
+    /**
+     * Simulates every rollout of {@code chunk} open loop from its logged starting state with the
+     * logged inputs and time steps, and writes the weighted differences between the simulated and
+     * logged states after every step into {@code residuals}.
+     */
+    @Override
+    public void evaluate(int chunk, double[] parameters, double[] residuals) {
+        MecanumDriveModel model = MecanumDriveModelIdentifier.createModel(baseModel, parameters[0], parameters[1], parameters[2]);
+        DMatrixRMaj state = new DMatrixRMaj(STATE_DIMENSION, 1);
+        DMatrixRMaj input = new DMatrixRMaj(INPUT_DIMENSION, 1);
+        int residual = 0;
+        int end = Math.min(rolloutStarts.length, (chunk + 1) * rolloutsPerChunk);
+        for(int rollout = chunk * rolloutsPerChunk; rollout < end; rollout++) {
+            int start = rolloutStarts[rollout];
+            System.arraycopy(states, start * STATE_DIMENSION, state.data, 0, STATE_DIMENSION);
+            for(int k = start; k < start + horizon; k++) {
+                System.arraycopy(inputs, k * INPUT_DIMENSION, input.data, 0, INPUT_DIMENSION);
+                model.simulate(state, input, timeStamps[k + 1] - timeStamps[k], state);
+                for(int i = 0; i < STATE_DIMENSION; i++) {
+                    double error = state.get(i) - states[(k + 1) * STATE_DIMENSION + i];
+                    residuals[residual++] = stateWeights[i] * (i == HEADING ? Util.normalizeAngle(error) : error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the fitted parameters, along with their standard deviations and the RMS residual of the
+     * fit for reference, to {@code file}.
+     */
+    public void writeParameters(File file) throws IOException {
+        try(OutputStream out = new FileOutputStream(file)) {
+            writeParameters(out);
+        }
+    }
+
+    public void writeParameters(OutputStream out) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(TORQUE_GAIN_KEY, Double.toString(getTorqueGain()));
+        properties.setProperty(DAMPING_KEY, Double.toString(getDamping()));
+        properties.setProperty(MOMENT_OF_INERTIA_KEY, Double.toString(getMomentOfInertia()));
+        if(standardDeviations != null) {
+            properties.setProperty(TORQUE_GAIN_KEY + ".standardDeviation", Double.toString(standardDeviations[0]));
+            properties.setProperty(DAMPING_KEY + ".standardDeviation", Double.toString(standardDeviations[1]));
+            properties.setProperty(MOMENT_OF_INERTIA_KEY + ".standardDeviation", Double.toString(standardDeviations[2]));
+            properties.setProperty("rmsResidual", Double.toString(rmsResidual));
+        }
+
+        properties.setProperty("sampleCount", Integer.toString(sampleCount));
+        properties.setProperty("rolloutCount", Integer.toString(getRolloutCount()));
+        properties.store(out, "MecanumDriveModel parameters fitted from " + logStarts.size() + " logs");
+    }
+
+    public static MecanumDriveModel loadModel(MecanumDriveModel baseModel, File file) throws IOException {
+        try(InputStream in = new FileInputStream(file)) {
+            return loadModel(baseModel, in);
+        }
+    }
+
+    /**
+     * Builds a model from a parameter file written by {@code writeParameters}, taking every parameter
+     * the file does not hold from {@code baseModel}.
+     *
+     * @throws IOException If the file cannot be read or holds a parameter that is not a positive number.
+     */
+    public static MecanumDriveModel loadModel(MecanumDriveModel baseModel, InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        return MecanumDriveModelIdentifier.createModel(baseModel,
+                getParameter(properties, TORQUE_GAIN_KEY, MecanumDriveModelIdentifier.getTorqueGain(baseModel)),
+                getParameter(properties, DAMPING_KEY, MecanumDriveModelIdentifier.getDamping(baseModel)),
+                getParameter(properties, MOMENT_OF_INERTIA_KEY, baseModel.getRobotMomentInertia()));
+    }
+
+    private static double getParameter(Properties properties, String key, double defaultValue) throws IOException {
+        String value = properties.getProperty(key);
+        if(value == null) {
+            return defaultValue;
+        }
+
+        try {
+            double parameter = Double.parseDouble(value.trim());
+            if(parameter > 0d && !Double.isInfinite(parameter)) {
+                return parameter;
+            }
+        } catch(NumberFormatException e) {
+            throw new IOException("Parameter " + key + " is not a number: " + value, e);
+        }
+
+        throw new IOException("Parameter " + key + " must be positive: " + value);
+    }
+
+    public MecanumDriveModel getModel() {
+        return MecanumDriveModelIdentifier.createModel(baseModel, getTorqueGain(), getDamping(), getMomentOfInertia());
+    }
+
+    public MecanumDriveModel getBaseModel() {
+        return baseModel;
+    }
+
+    public double getTorqueGain() {
+        return parameters[0];
+    }
+
+    public double getDamping() {
+        return parameters[1];
+    }
+
+    public double getMomentOfInertia() {
+        return parameters[2];
+    }
+
+    /**
+     * @return The estimated standard deviation of each parameter from the last fit, in the order
+     *         torque gain, damping, moment of inertia, or null before the first fit.
+     */
+    public double[] getStandardDeviations() {
+        return standardDeviations;
+    }
+
+    /**
+     * @return The root mean square of the weighted residuals after the last fit, in meters.
+     */
+    public double getRmsResidual() {
+        return rmsResidual;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getLogCount() {
+        return logStarts.size();
+    }
+
+    public int getRolloutCount() {
+        return rolloutStarts.length;
+    }
+
+    public int getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * @param horizon The number of logged time steps every rollout is simulated over. Noise in the
+     *                logged start velocity of short rollouts biases the fit towards a model that
+     *                forgets its initial velocity quickly, so rollouts should span a good part of
+     *                the time constant of the drive. Longer rollouts let a bad start state or an
+     *                unmodeled bump spoil more residuals, however.
+     */
+    public void setHorizon(int horizon) {
+        if(horizon < 1) {
+            throw new IllegalArgumentException("Rollouts must be at least one step long");
+        }
+
+        this.horizon = horizon;
+        updateRollouts();
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public void setStride(int stride) {
+        if(stride < 1) {
+            throw new IllegalArgumentException("Stride must be at least one sample");
+        }
+
+        this.stride = stride;
+        updateRollouts();
+    }
+
+    public double getMaxDt() {
+        return maxDt;
+    }
+
+    public void setMaxDt(double maxDt) {
+        this.maxDt = maxDt;
+        updateRollouts();
+    }
+
+    public int getRolloutsPerChunk() {
+        return rolloutsPerChunk;
+    }
+
+    public void setRolloutsPerChunk(int rolloutsPerChunk) {
+        if(rolloutsPerChunk < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one rollout");
+        }
+
+        this.rolloutsPerChunk = rolloutsPerChunk;
+    }
+
+    public double[] getStateWeights() {
+        return stateWeights;
+    }
+
+    /**
+     * @param stateWeights The factor each state error is multiplied by, in the order of the state
+     *                     [x, vx, y, vy, psi, omega].
+     */
+    public void setStateWeights(double... stateWeights) {
+        if(stateWeights.length != STATE_DIMENSION) {
+            throw new IllegalArgumentException("Expected " + STATE_DIMENSION + " state weights");
+        }
+
+        this.stateWeights = stateWeights.clone();
+    }
+}
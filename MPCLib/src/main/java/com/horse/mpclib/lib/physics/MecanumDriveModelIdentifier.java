@@ -0,0 +1,350 @@
+package com.horse.mpclib.lib.physics;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Identifies the drive parameters of a {@code MecanumDriveModel} online from (state, input, next
+ * state) samples with square-root recursive least squares and exponential forgetting.
+ *
+ * The equations of motion of the model, M(psi) a = alpha U(psi, u) - beta W(psi, v) - C(psi, v) v,
+ * are linear in three lumped parameters:
+ *
+ * alpha, the torque per unit input at each wheel, kT efficiency G V / R,
+ * beta, the back EMF damping torque per unit wheel speed, kT efficiency G^2 kV / R, which also
+ *       absorbs viscous friction in the drivetrain, and
+ * the moment of inertia of the robot.
+ *
+ * Every sample therefore gives three scalar observations, one per row of the equations of motion.
+ * The dynamics are homogeneous in the masses and torques, so scaling every parameter together
+ * leaves the motion almost unchanged. To keep the problem well posed, the robot mass, which is easy
+ * to weigh, is taken from the base model along with the wheel and geometry parameters.
+ *
+ * The identifier keeps the upper triangular square root R of the information matrix, with
+ * R^T R = P^-1, and the vector z = R theta. Each observation is folded in with Givens rotations,
+ * which never squares the condition number like the covariance form of RLS does. Forgetting is only
+ * applied for observations that excite the parameters, so that the estimate does not wind up while
+ * the robot sits still. Updates do not allocate.
+ */
+public class MecanumDriveModelIdentifier {
+    private static final int PARAMETER_COUNT = 3;
+    private static final int TORQUE_GAIN = 0;
+    private static final int DAMPING = 1;
+    private static final int MOMENT_OF_INERTIA = 2;
+
+    private static final double DEFAULT_FORGETTING_FACTOR = 0.999d;
+    private static final double DEFAULT_MIN_EXCITATION = 1E-3d;
+    private static final double DEFAULT_RELATIVE_PRIOR_STANDARD_DEVIATION = 0.5d;
+
+    private final MecanumDriveModel baseModel;
+    private final double[] parameters;
+    private final double[][] informationRoot;
+    private final double[] informationVector;
+    private final double[] regressor;
+
+    private double forgettingFactor = DEFAULT_FORGETTING_FACTOR;
+    private double minExcitation = DEFAULT_MIN_EXCITATION;
+    private double translationalWeight;
+    private double rotationalWeight;
+    private int sampleCount;
+
+    /**
+     * Starts from the parameters of {@code baseModel}, each with a standard deviation of half its
+     * value.
+     */
+    public MecanumDriveModelIdentifier(MecanumDriveModel baseModel) {
+        this(baseModel, DEFAULT_RELATIVE_PRIOR_STANDARD_DEVIATION);
+    }
+
+    /**
+     * @param relativePriorStandardDeviation Standard deviation of the initial parameters as a fraction
+     *                                       of their values in {@code baseModel}.
+     */
+    public MecanumDriveModelIdentifier(MecanumDriveModel baseModel, double relativePriorStandardDeviation) {
+        this.baseModel = baseModel;
+        parameters = new double[PARAMETER_COUNT];
+        informationRoot = new double[PARAMETER_COUNT][PARAMETER_COUNT];
+        informationVector = new double[PARAMETER_COUNT];
+        regressor = new double[PARAMETER_COUNT];
+
+        parameters[TORQUE_GAIN] = getTorqueGain(baseModel);
+        parameters[DAMPING] = getDamping(baseModel);
+        parameters[MOMENT_OF_INERTIA] = baseModel.getRobotMomentInertia();
+        for(int i = 0; i < PARAMETER_COUNT; i++) {
+            informationRoot[i][i] = 1d / (relativePriorStandardDeviation * Math.abs(parameters[i]));
+            informationVector[i] = informationRoot[i][i] * parameters[i];
+        }
+
+        //Torque rows are in N m and force rows in N, so torques are divided by a wheel lever arm
+        translationalWeight = 1d;
+        rotationalWeight = 1d / (baseModel.getL1() + baseModel.getD1());
+    }
+
+    /**
+     * @return The torque per unit input of one wheel of {@code model}, in N m.
+     */
+    public static double getTorqueGain(MecanumDriveModel model) {
+        return model.getkT() * model.getEfficiency() * model.getCompoundGearRatio() * model.getNominalVoltage() / model.getResistance();
+    }
+
+    /**
+     * @return The damping torque per unit wheel speed of one wheel of {@code model}, in N m s.
+     */
+    public static double getDamping(MecanumDriveModel model) {
+        return model.getkT() * model.getEfficiency() * model.getCompoundGearRatio() * model.getCompoundGearRatio() *
+                model.getkV() / model.getResistance();
+    }
+
+    public void addSample(SimpleMatrix state, SimpleMatrix input, SimpleMatrix nextState, double dt) {
+        addSample(state.getDDRM(), input.getDDRM(), nextState.getDDRM(), dt);
+    }
+
+    /**
+     * Adds the observations given by the robot moving from {@code state} to {@code nextState} over
+     * {@code dt} seconds under {@code input}. The accelerations are taken as finite differences of
+     * the velocities, so the states should be filtered estimates rather than raw readings.
+     */
+    public void addSample(DMatrixRMaj state, DMatrixRMaj input, DMatrixRMaj nextState, double dt) {
+        if(dt <= 0d) {
+            return;
+        }
+
+        MecanumDriveModel model = baseModel;
+        double xDot = state.get(1);
+        double yDot = state.get(3);
+        double heading = state.get(4);
+        double psiDot = state.get(5);
+        double xDotDot = (nextState.get(1) - xDot) / dt;
+        double yDotDot = (nextState.get(3) - yDot) / dt;
+        double psiDotDot = (nextState.get(5) - psiDot) / dt;
+        double cosPsi = Math.cos(heading);
+        double sinPsi = Math.sin(heading);
+        double wheelRadius = model.getWheelRadius();
+        double L1 = model.getL1();
+        double L2 = model.getL2();
+        double D1 = model.getD1();
+        double D2 = model.getD2();
+
+        //Wheel speeds, in rad / s, as in the model
+        double wheelVelocity0 = (xDot * (cosPsi + sinPsi) - yDot * (cosPsi - sinPsi) - psiDot * (L1 + D1)) / wheelRadius;
+        double wheelVelocity1 = (xDot * (cosPsi - sinPsi) + yDot * (cosPsi + sinPsi) + psiDot * (L1 + D2)) / wheelRadius;
+        double wheelVelocity2 = (xDot * (cosPsi - sinPsi) + yDot * (cosPsi + sinPsi) - psiDot * (L2 + D1)) / wheelRadius;
+        double wheelVelocity3 = (xDot * (cosPsi + sinPsi) - yDot * (cosPsi - sinPsi) + psiDot * (L2 + D2)) / wheelRadius;
+
+        //Each row is alpha * (input projection) - beta * (wheel speed projection) = known terms
+        addObservation(translationalWeight,
+                getForceX(input.get(0), input.get(1), input.get(2), input.get(3), cosPsi, sinPsi, wheelRadius),
+                getForceX(wheelVelocity0, wheelVelocity1, wheelVelocity2, wheelVelocity3, cosPsi, sinPsi, wheelRadius),
+                0d,
+                model.A11(heading) * xDotDot + model.A12(heading) * yDotDot + model.A13(heading) * psiDotDot +
+                        psiDot * (model.A14(heading) * xDot + model.A15(heading) * yDot + model.A16(heading) * psiDot));
+        addObservation(translationalWeight,
+                getForceY(input.get(0), input.get(1), input.get(2), input.get(3), cosPsi, sinPsi, wheelRadius),
+                getForceY(wheelVelocity0, wheelVelocity1, wheelVelocity2, wheelVelocity3, cosPsi, sinPsi, wheelRadius),
+                0d,
+                model.A21(heading) * xDotDot + model.A22(heading) * yDotDot + model.A23(heading) * psiDotDot +
+                        psiDot * (model.A24(heading) * xDot + model.A25(heading) * yDot + model.A26(heading) * psiDot));
+        //The moment of inertia is moved to the left side, leaving the rest of A33 as a known term
+        addObservation(rotationalWeight,
+                getTorque(input.get(0), input.get(1), input.get(2), input.get(3), L1, L2, D1, D2, wheelRadius),
+                getTorque(wheelVelocity0, wheelVelocity1, wheelVelocity2, wheelVelocity3, L1, L2, D1, D2, wheelRadius),
+                psiDotDot,
+                model.A31(heading) * xDotDot + model.A32(heading) * yDotDot +
+                        (model.A33(heading) - model.getRobotMomentInertia()) * psiDotDot +
+                        psiDot * (model.A34(heading) * xDot + model.A35(heading) * yDot));
+        sampleCount++;
+    }
+
+    private static double getForceX(double wheel0, double wheel1, double wheel2, double wheel3, double cosPsi, double sinPsi, double wheelRadius) {
+        return ((wheel0 + wheel3) * (cosPsi + sinPsi) + (wheel1 + wheel2) * (cosPsi - sinPsi)) / wheelRadius;
+    }
+
+    private static double getForceY(double wheel0, double wheel1, double wheel2, double wheel3, double cosPsi, double sinPsi, double wheelRadius) {
+        return -((wheel0 + wheel3) * (cosPsi - sinPsi) - (wheel1 + wheel2) * (cosPsi + sinPsi)) / wheelRadius;
+    }
+
+    private static double getTorque(double wheel0, double wheel1, double wheel2, double wheel3,
+                                    double L1, double L2, double D1, double D2, double wheelRadius) {
+        return (wheel0 * (-L1 - D1) - wheel1 * (-L1 - D2) - wheel2 * (L2 + D1) + wheel3 * (L2 + D2)) / wheelRadius;
+    }
+
+    /**
+     * Folds the observation alpha * inputTerm - beta * velocityTerm - I * accelerationTerm = knownTerm,
+     * scaled by {@code weight}, into the square root information form.
+     */
+    private void addObservation(double weight, double inputTerm, double velocityTerm, double accelerationTerm, double knownTerm) {
+        regressor[TORQUE_GAIN] = weight * inputTerm;
+        regressor[DAMPING] = -weight * velocityTerm;
+        regressor[MOMENT_OF_INERTIA] = -weight * accelerationTerm;
+        double observation = weight * knownTerm;
+
+        double excitation = 0d;
+        for(int i = 0; i < PARAMETER_COUNT; i++) {
+            excitation += regressor[i] * regressor[i];
+        }
+
+        if(excitation > getMinExcitation() * getMinExcitation()) {
+            double forgetting = Math.sqrt(getForgettingFactor());
+            for(int i = 0; i < PARAMETER_COUNT; i++) {
+                for(int j = i; j < PARAMETER_COUNT; j++) {
+                    informationRoot[i][j] *= forgetting;
+                }
+
+                informationVector[i] *= forgetting;
+            }
+        }
+
+        //Rotate the row [phi^T, y] into [R, z] until it is zeroed
+        for(int i = 0; i < PARAMETER_COUNT; i++) {
+            double a = informationRoot[i][i];
+            double b = regressor[i];
+            if(b == 0d) {
+                continue;
+            }
+
+            double radius = Math.hypot(a, b);
+            double cos = a / radius;
+            double sin = b / radius;
+            informationRoot[i][i] = radius;
+            for(int j = i + 1; j < PARAMETER_COUNT; j++) {
+                double upper = informationRoot[i][j];
+                informationRoot[i][j] = cos * upper + sin * regressor[j];
+                regressor[j] = -sin * upper + cos * regressor[j];
+            }
+
+            double upper = informationVector[i];
+            informationVector[i] = cos * upper + sin * observation;
+            observation = -sin * upper + cos * observation;
+        }
+
+        //Back substitution of R theta = z
+        for(int i = PARAMETER_COUNT - 1; i >= 0; i--) {
+            double sum = informationVector[i];
+            for(int j = i + 1; j < PARAMETER_COUNT; j++) {
+                sum -= informationRoot[i][j] * parameters[j];
+            }
+
+            parameters[i] = sum / informationRoot[i][i];
+        }
+    }
+
+    /**
+     * @return The estimated standard deviation of each parameter, from the diagonal of (R^T R)^-1, in
+     *         the order torque gain, damping, moment of inertia.
+     */
+    public double[] getStandardDeviations() {
+        //Rows of R^-1, whose squared norms are the diagonal of (R^T R)^-1 = R^-1 R^-T
+        double[] standardDeviations = new double[PARAMETER_COUNT];
+        double[][] inverse = new double[PARAMETER_COUNT][PARAMETER_COUNT];
+        for(int column = 0; column < PARAMETER_COUNT; column++) {
+            for(int i = PARAMETER_COUNT - 1; i >= 0; i--) {
+                double sum = i == column ? 1d : 0d;
+                for(int j = i + 1; j < PARAMETER_COUNT; j++) {
+                    sum -= informationRoot[i][j] * inverse[j][column];
+                }
+
+                inverse[i][column] = sum / informationRoot[i][i];
+            }
+        }
+
+        for(int i = 0; i < PARAMETER_COUNT; i++) {
+            double sum = 0d;
+            for(int j = 0; j < PARAMETER_COUNT; j++) {
+                sum += inverse[i][j] * inverse[i][j];
+            }
+
+            standardDeviations[i] = Math.sqrt(sum);
+        }
+
+        return standardDeviations;
+    }
+
+    /**
+     * Builds a model with the identified parameters and every other parameter of the base model.
+     */
+    public MecanumDriveModel getModel() {
+        return createModel(baseModel, getTorqueGain(), getDamping(), getMomentOfInertia());
+    }
+
+    /**
+     * Builds a model with the given lumped parameters and every other parameter of
+     * {@code baseModel}. The motor is described with the stall torque and free speed that reproduce
+     * the torque gain and damping, with an efficiency of one since it is already part of both.
+     */
+    public static MecanumDriveModel createModel(MecanumDriveModel baseModel, double torqueGain, double damping, double momentOfInertia) {
+        double gearRatio = baseModel.getCompoundGearRatio();
+        double stallTorque = torqueGain / gearRatio;
+        //beta = stallTorque G^2 kV / V, and kV = (V - R I_free) / freeSpeed
+        double kV = damping * baseModel.getNominalVoltage() / (stallTorque * gearRatio * gearRatio);
+        double freeSpeed = (baseModel.getNominalVoltage() - baseModel.getResistance() * baseModel.getFreeCurrent()) / kV;
+        return new MecanumDriveModel(baseModel.getDt(), baseModel.getRobotMass(), baseModel.getWheelMass(), baseModel.getWheelInertiaSpinning(),
+                baseModel.getWheelInertiaTurning(), momentOfInertia, baseModel.getWheelRadius(), 1d, gearRatio,
+                baseModel.getNominalVoltage(), stallTorque, baseModel.getStallCurrent(), freeSpeed, baseModel.getFreeCurrent(), 1d,
+                baseModel.getL1(), baseModel.getL2(), baseModel.getD1(), baseModel.getD2());
+    }
+
+    public MecanumDriveModel getBaseModel() {
+        return baseModel;
+    }
+
+    public double getTorqueGain() {
+        return parameters[TORQUE_GAIN];
+    }
+
+    public double getDamping() {
+        return parameters[DAMPING];
+    }
+
+    public double getMomentOfInertia() {
+        return parameters[MOMENT_OF_INERTIA];
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public double getForgettingFactor() {
+        return forgettingFactor;
+    }
+
+    /**
+     * @param forgettingFactor The weight, between 0 and 1, kept by past observations for every new
+     *                         one. A factor of 0.999 remembers roughly the last 1000 observations.
+     */
+    public void setForgettingFactor(double forgettingFactor) {
+        if(forgettingFactor <= 0d || forgettingFactor > 1d) {
+            throw new IllegalArgumentException("Forgetting factor must be in (0, 1]");
+        }
+
+        this.forgettingFactor = forgettingFactor;
+    }
+
+    public double getMinExcitation() {
+        return minExcitation;
+    }
+
+    /**
+     * @param minExcitation The norm of the weighted regressor of an observation below which it is not
+     *                      informative enough to forget past observations for, such as while the
+     *                      robot is at rest with no input.
+     */
+    public void setMinExcitation(double minExcitation) {
+        this.minExcitation = minExcitation;
+    }
+
+    public double getTranslationalWeight() {
+        return translationalWeight;
+    }
+
+    public void setTranslationalWeight(double translationalWeight) {
+        this.translationalWeight = translationalWeight;
+    }
+
+    public double getRotationalWeight() {
+        return rotationalWeight;
+    }
+
+    public void setRotationalWeight(double rotationalWeight) {
+        this.rotationalWeight = rotationalWeight;
+    }
+}
@@ -1,5 +1,6 @@
 package com.horse.mpclib.lib.physics;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
 public interface NonlinearDynamicModel extends DynamicModel {
@@ -9,4 +10,13 @@ public interface NonlinearDynamicModel extends DynamicModel {
     default SimpleMatrix simulate(SimpleMatrix state, SimpleMatrix input, double dt) {
         return stateTransitionMatrix(state, dt).mult(state).plus(inputTransitionMatrix(state, dt).mult(input));
     }
+
+    /**
+     * Writes {@code simulate(state, input, dt)} into {@code nextState}. Models that are simulated
+     * repeatedly, such as by a {@code StateEstimator} replaying delayed measurements, override this
+     * to avoid allocating.
+     */
+    default void simulate(DMatrixRMaj state, DMatrixRMaj input, double dt, DMatrixRMaj nextState) {
+        nextState.set(simulate(SimpleMatrix.wrap(state), SimpleMatrix.wrap(input), dt).getDDRM());
+    }
 }
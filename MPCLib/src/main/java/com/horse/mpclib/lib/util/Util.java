@@ -36,6 +36,13 @@ public class Util {
         return a + (b - a) * x;
     }
 
+    /**
+     * @return {@code angle} wrapped into [-pi, pi), in radians.
+     */
+    public static double normalizeAngle(double angle) {
+        return angle - 2d * Math.PI * Math.floor((angle + Math.PI) / (2d * Math.PI));
+    }
+
     public static boolean epsilonEquals(double a, double b, double epsilon) {
         return (a - epsilon <= b) && (a + epsilon >= b);
     }